@@ -5,6 +5,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import saros.filesystem.IFile;
 
 /** Optimizer for activities. */
@@ -25,6 +26,9 @@ public class ActivityOptimizer {
    *         exec(activity)
    * </pre>
    *
+   * <p>Adjacent {@linkplain TextEditActivity text edit activities} are combined as described in
+   * {@link #merge(TextEditActivity, TextEditActivity)}.
+   *
    * @param activities a collection containing the activities to optimize
    * @return a list which may contains a reduced amount of activities
    */
@@ -68,8 +72,108 @@ public class ActivityOptimizer {
 
     activityIdx = 0;
 
-    for (IActivity activity : activities) if (!dropActivityIdx[activityIdx++]) result.add(activity);
+    for (IActivity activity : activities) {
+      if (dropActivityIdx[activityIdx++]) continue;
+
+      int lastIdx = result.size() - 1;
+
+      if (lastIdx >= 0
+          && activity instanceof TextEditActivity
+          && result.get(lastIdx) instanceof TextEditActivity) {
+
+        TextEditActivity merged =
+            merge((TextEditActivity) result.get(lastIdx), (TextEditActivity) activity);
+
+        if (merged != null) {
+          result.set(lastIdx, merged);
+          continue;
+        }
+      }
+
+      result.add(activity);
+    }
 
     return result;
   }
+
+  /**
+   * Merges two consecutive text edits of the same user in the same file into one text edit that
+   * has the same effect on the document. This reduces the number of Jupiter activities (and so the
+   * number of transformations and vector time increments) that are created while typing.
+   *
+   * <p>The following sequences are merged:
+   *
+   * <ul>
+   *   <li>text that is inserted directly behind the text inserted by the first edit (typing)
+   *   <li>text that is deleted directly in front of the text deleted by the first edit (backspace)
+   *   <li>text that is deleted at the start position of the first deletion (delete)
+   *   <li>text that is deleted at the end of the text inserted by the first edit (correction)
+   * </ul>
+   *
+   * @param first the text edit that was performed first
+   * @param second the text edit that was performed directly after the first one
+   * @return the merged text edit or <code>null</code> if the text edits cannot be merged
+   */
+  public static TextEditActivity merge(TextEditActivity first, TextEditActivity second) {
+
+    if (!Objects.equals(first.getSource(), second.getSource())
+        || !Objects.equals(first.getResource(), second.getResource())) return null;
+
+    final String firstNewText = first.getNewText();
+    final String firstReplacedText = first.getReplacedText();
+    final String secondNewText = second.getNewText();
+    final String secondReplacedText = second.getReplacedText();
+
+    if (secondReplacedText.isEmpty()) {
+      if (secondNewText.isEmpty()
+          || !second.getStartPosition().equals(first.getNewEndPosition())) return null;
+
+      return TextEditActivity.buildTextEditActivity(
+          first.getSource(),
+          first.getStartPosition(),
+          firstNewText + secondNewText,
+          firstReplacedText,
+          first.getResource());
+    }
+
+    if (!secondNewText.isEmpty()) return null;
+
+    if (firstNewText.isEmpty()) {
+      if (second.getReplacedEndPosition().equals(first.getStartPosition())) {
+        return TextEditActivity.buildTextEditActivity(
+            first.getSource(),
+            second.getStartPosition(),
+            "",
+            secondReplacedText + firstReplacedText,
+            first.getResource());
+      }
+
+      if (second.getStartPosition().equals(first.getStartPosition())) {
+        return TextEditActivity.buildTextEditActivity(
+            first.getSource(),
+            first.getStartPosition(),
+            "",
+            firstReplacedText + secondReplacedText,
+            first.getResource());
+      }
+
+      return null;
+    }
+
+    if (!firstNewText.endsWith(secondReplacedText)
+        || !second.getReplacedEndPosition().equals(first.getNewEndPosition())) return null;
+
+    final String newText =
+        firstNewText.substring(0, firstNewText.length() - secondReplacedText.length());
+
+    // the edits cancel each other out, there is no text edit that could express this
+    if (newText.isEmpty() && firstReplacedText.isEmpty()) return null;
+
+    return TextEditActivity.buildTextEditActivity(
+        first.getSource(),
+        first.getStartPosition(),
+        newText,
+        firstReplacedText,
+        first.getResource());
+  }
 }
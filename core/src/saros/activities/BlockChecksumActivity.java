@@ -0,0 +1,186 @@
+package saros.activities;
+
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
+import java.util.Arrays;
+import java.util.Objects;
+import saros.filesystem.IFile;
+import saros.session.User;
+
+/**
+ * A BlockChecksumActivity is used during a consistency recovery to find the lines of a document
+ * that the inconsistent user already has, even if they were shifted by inserted or removed lines.
+ *
+ * <p>The host requests the hashes of the blocks of a range of lines of the user's document. The
+ * user replies with a BlockChecksumActivity containing the number of lines in the range and the
+ * hashes of its blocks. If the user cannot calculate the hashes, e.g. because the file does not
+ * exist locally, the reply contains no hashes either.
+ */
+@XStreamAlias("blockChecksumActivity")
+public class BlockChecksumActivity extends AbstractResourceActivity<IFile>
+    implements ITargetedActivity {
+
+  @XStreamAsAttribute private final User target;
+
+  @XStreamAsAttribute private final String recoveryID;
+
+  @XStreamAsAttribute private final int startLine;
+
+  @XStreamAsAttribute private final int endLine;
+
+  @XStreamAsAttribute private final int blockLines;
+
+  @XStreamAsAttribute private final int lineCount;
+
+  private final long[] hashes;
+
+  /**
+   * @param source the user that created this activity
+   * @param target the user that should receive this activity
+   * @param file the file the hashes are calculated for
+   * @param recoveryID the ID of the recovery this activity belongs to
+   * @param startLine the first line of the range
+   * @param endLine the line after the range, {@link TextRecoveryActivity#END_OF_DOCUMENT} for a
+   *     range that extends to the end of the document
+   * @param blockLines the number of lines per block
+   * @param lineCount the number of lines in the range, <code>0</code> in a request
+   * @param hashes the hashes of the blocks, <code>null</code> in a request
+   */
+  public BlockChecksumActivity(
+      User source,
+      User target,
+      IFile file,
+      String recoveryID,
+      int startLine,
+      int endLine,
+      int blockLines,
+      int lineCount,
+      long[] hashes) {
+
+    super(source, file);
+
+    if (target == null) throw new IllegalArgumentException("target must not be null");
+
+    this.target = target;
+    this.recoveryID = recoveryID;
+    this.startLine = startLine;
+    this.endLine = endLine;
+    this.blockLines = blockLines;
+    this.lineCount = lineCount;
+    this.hashes = hashes;
+  }
+
+  @Override
+  public boolean isValid() {
+    return super.isValid()
+        && (target != null)
+        && (getResource() != null)
+        && (startLine >= 0 && endLine >= startLine)
+        && (blockLines > 0)
+        && (hashes == null || hashes.length == (lineCount + blockLines - 1) / blockLines);
+  }
+
+  @Override
+  public User getTarget() {
+    return target;
+  }
+
+  /** Returns the ID of the recovery this activity belongs to. */
+  public String getRecoveryID() {
+    return recoveryID;
+  }
+
+  /** Returns the first line of the range. */
+  public int getStartLine() {
+    return startLine;
+  }
+
+  /**
+   * Returns the line after the range or {@link TextRecoveryActivity#END_OF_DOCUMENT} if the range
+   * extends to the end of the document.
+   */
+  public int getEndLine() {
+    return endLine;
+  }
+
+  /** Returns the number of lines per block. */
+  public int getBlockLines() {
+    return blockLines;
+  }
+
+  /** Returns the number of lines in the range of the replying user. */
+  public int getLineCount() {
+    return lineCount;
+  }
+
+  /**
+   * Returns the hashes of the blocks.
+   *
+   * @return the hashes or <code>null</code> if this is a request or the reply of a user that could
+   *     not calculate the hashes
+   */
+  public long[] getHashes() {
+    return hashes;
+  }
+
+  @Override
+  public void dispatch(IActivityReceiver receiver) {
+    receiver.receive(this);
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = super.hashCode();
+    result = prime * result + Objects.hashCode(target);
+    result = prime * result + Objects.hashCode(recoveryID);
+    result = prime * result + startLine;
+    result = prime * result + endLine;
+    result = prime * result + blockLines;
+    result = prime * result + lineCount;
+    result = prime * result + Arrays.hashCode(hashes);
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) return true;
+    if (!super.equals(obj)) return false;
+    if (!(obj instanceof BlockChecksumActivity)) return false;
+
+    BlockChecksumActivity other = (BlockChecksumActivity) obj;
+
+    if (this.startLine != other.startLine) return false;
+    if (this.endLine != other.endLine) return false;
+    if (this.blockLines != other.blockLines) return false;
+    if (this.lineCount != other.lineCount) return false;
+    if (!Objects.equals(this.target, other.target)) return false;
+    if (!Objects.equals(this.recoveryID, other.recoveryID)) return false;
+    if (!Arrays.equals(this.hashes, other.hashes)) return false;
+
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "BlockChecksumActivity(src: "
+        + getSource()
+        + ", target: "
+        + target
+        + ", file: "
+        + getResource()
+        + ", recoveryID: "
+        + recoveryID
+        + ", lines: ["
+        + startLine
+        + ", "
+        + (endLine == TextRecoveryActivity.END_OF_DOCUMENT ? "end" : String.valueOf(endLine))
+        + "), blockLines: "
+        + blockLines
+        + ", lineCount: "
+        + lineCount
+        + ", hashes: "
+        + (hashes == null ? "null" : String.valueOf(hashes.length))
+        + ")";
+  }
+}
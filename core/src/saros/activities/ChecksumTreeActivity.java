@@ -0,0 +1,170 @@
+package saros.activities;
+
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
+import java.util.Arrays;
+import java.util.Objects;
+import saros.filesystem.IFile;
+import saros.session.User;
+
+/**
+ * A ChecksumTreeActivity is used during a consistency recovery to narrow down the differing parts
+ * of a file with a hash tree over the chunks of the document.
+ *
+ * <p>The host sends the hashes of some nodes of its tree to the inconsistent user. The user replies
+ * with a ChecksumTreeActivity containing the nodes whose hashes differ from the hashes of its own
+ * tree and no hashes at all. If the user cannot compare the hashes, e.g. because the file does not
+ * exist locally, the reply contains no nodes either.
+ */
+@XStreamAlias("checksumTreeActivity")
+public class ChecksumTreeActivity extends AbstractResourceActivity<IFile>
+    implements ITargetedActivity {
+
+  @XStreamAsAttribute private final User target;
+
+  @XStreamAsAttribute private final String recoveryID;
+
+  @XStreamAsAttribute private final int chunkCount;
+
+  @XStreamAsAttribute private final int level;
+
+  private final int[] nodes;
+
+  private final long[] hashes;
+
+  /**
+   * @param source the user that created this activity
+   * @param target the user that should receive this activity
+   * @param file the file the tree was created for
+   * @param recoveryID the ID of the recovery this activity belongs to
+   * @param chunkCount the number of chunks of the host's tree
+   * @param level the level of the nodes in the tree
+   * @param nodes the indices of the nodes, may be <code>null</code> in a reply
+   * @param hashes the hashes of the nodes, <code>null</code> in a reply
+   */
+  public ChecksumTreeActivity(
+      User source,
+      User target,
+      IFile file,
+      String recoveryID,
+      int chunkCount,
+      int level,
+      int[] nodes,
+      long[] hashes) {
+
+    super(source, file);
+
+    if (target == null) throw new IllegalArgumentException("target must not be null");
+
+    this.target = target;
+    this.recoveryID = recoveryID;
+    this.chunkCount = chunkCount;
+    this.level = level;
+    this.nodes = nodes;
+    this.hashes = hashes;
+  }
+
+  @Override
+  public boolean isValid() {
+    return super.isValid()
+        && (target != null)
+        && (getResource() != null)
+        && (hashes == null || (nodes != null && nodes.length == hashes.length));
+  }
+
+  @Override
+  public User getTarget() {
+    return target;
+  }
+
+  /** Returns the ID of the recovery this activity belongs to. */
+  public String getRecoveryID() {
+    return recoveryID;
+  }
+
+  /** Returns the number of chunks of the host's tree. */
+  public int getChunkCount() {
+    return chunkCount;
+  }
+
+  /** Returns the level of the nodes in the tree. */
+  public int getLevel() {
+    return level;
+  }
+
+  /**
+   * Returns the indices of the nodes.
+   *
+   * @return the indices or <code>null</code> if this is a reply of a user that could not compare
+   *     the hashes
+   */
+  public int[] getNodes() {
+    return nodes;
+  }
+
+  /**
+   * Returns the hashes of the nodes.
+   *
+   * @return the hashes or <code>null</code> if this is a reply
+   */
+  public long[] getHashes() {
+    return hashes;
+  }
+
+  @Override
+  public void dispatch(IActivityReceiver receiver) {
+    receiver.receive(this);
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = super.hashCode();
+    result = prime * result + Objects.hashCode(target);
+    result = prime * result + Objects.hashCode(recoveryID);
+    result = prime * result + chunkCount;
+    result = prime * result + level;
+    result = prime * result + Arrays.hashCode(nodes);
+    result = prime * result + Arrays.hashCode(hashes);
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) return true;
+    if (!super.equals(obj)) return false;
+    if (!(obj instanceof ChecksumTreeActivity)) return false;
+
+    ChecksumTreeActivity other = (ChecksumTreeActivity) obj;
+
+    if (this.chunkCount != other.chunkCount) return false;
+    if (this.level != other.level) return false;
+    if (!Objects.equals(this.target, other.target)) return false;
+    if (!Objects.equals(this.recoveryID, other.recoveryID)) return false;
+    if (!Arrays.equals(this.nodes, other.nodes)) return false;
+    if (!Arrays.equals(this.hashes, other.hashes)) return false;
+
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "ChecksumTreeActivity(src: "
+        + getSource()
+        + ", target: "
+        + target
+        + ", file: "
+        + getResource()
+        + ", recoveryID: "
+        + recoveryID
+        + ", chunkCount: "
+        + chunkCount
+        + ", level: "
+        + level
+        + ", nodes: "
+        + Arrays.toString(nodes)
+        + ", hashes: "
+        + Arrays.toString(hashes)
+        + ")";
+  }
+}
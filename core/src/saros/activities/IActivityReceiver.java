@@ -19,6 +19,10 @@ public interface IActivityReceiver {
    */
 
   /** */
+  default void receive(BlockChecksumActivity blockChecksumActivity) {
+    /*NOP*/
+  }
+
   default void receive(ChangeColorActivity changeColorActivity) {
     /*NOP*/
   }
@@ -31,6 +35,10 @@ public interface IActivityReceiver {
     /*NOP*/
   }
 
+  default void receive(ChecksumTreeActivity checksumTreeActivity) {
+    /*NOP*/
+  }
+
   default void receive(DeletionAcknowledgmentActivity deletionAcknowledgmentActivity) {
     /*NOP*/
   }
@@ -83,6 +91,10 @@ public interface IActivityReceiver {
     /*NOP*/
   }
 
+  default void receive(TextRecoveryActivity textRecoveryActivity) {
+    /*NOP*/
+  }
+
   default void receive(TextSelectionActivity textSelectionActivity) {
     /*NOP*/
   }
@@ -200,6 +200,26 @@ public class TextEditActivity extends AbstractResourceActivity<IFile> {
     }
   }
 
+  /**
+   * Returns the position at which the text replaced by this activity ended before the activity was
+   * applied.
+   *
+   * @return the position at which the replaced text ended
+   */
+  public TextPosition getReplacedEndPosition() {
+    if (replacedTextLineDelta == 0) {
+      int lineNumber = startPosition.getLineNumber();
+      int inLineOffset = startPosition.getInLineOffset() + replacedTextOffsetDelta;
+
+      return new TextPosition(lineNumber, inLineOffset);
+
+    } else {
+      int lineNumber = startPosition.getLineNumber() + replacedTextLineDelta;
+
+      return new TextPosition(lineNumber, replacedTextOffsetDelta);
+    }
+  }
+
   /**
    * Returns the new text added by this text activity.
    *
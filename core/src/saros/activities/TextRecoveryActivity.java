@@ -0,0 +1,235 @@
+package saros.activities;
+
+import static saros.util.LineSeparatorNormalizationUtil.NORMALIZED_LINE_SEPARATOR;
+
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import saros.editor.text.TextPosition;
+import saros.filesystem.IFile;
+import saros.session.User;
+
+/**
+ * A TextRecoveryActivity is sent by the host during a consistency recovery to repair the differing
+ * parts of a document of the inconsistent user. It replaces ranges of lines of the user's document
+ * with the normalized content of the host.
+ *
+ * <p>The line numbers refer to the document of the inconsistent user before any of the ranges is
+ * replaced. The ranges are sorted in ascending order and do not overlap. The inconsistent user
+ * resets the Jupiter client of the file and applies the replacements as {@linkplain
+ * #toTextEdits(String) text edits}, so the editors keep their undo history and annotations.
+ */
+@XStreamAlias("textRecoveryActivity")
+public class TextRecoveryActivity extends AbstractResourceActivity<IFile>
+    implements ITargetedActivity {
+
+  /** End line of a range that extends to the end of the document. */
+  public static final int END_OF_DOCUMENT = Integer.MAX_VALUE;
+
+  @XStreamAsAttribute private final User target;
+
+  private final int[] startLines;
+
+  private final int[] endLines;
+
+  private final String[] texts;
+
+  /**
+   * @param source the user that created this activity
+   * @param target the user whose document should be repaired
+   * @param file the file to repair
+   * @param startLines the first lines of the ranges to replace
+   * @param endLines the lines after the ranges to replace, {@link #END_OF_DOCUMENT} for a range
+   *     that extends to the end of the document
+   * @param texts the normalized texts to replace the ranges with
+   */
+  public TextRecoveryActivity(
+      User source, User target, IFile file, int[] startLines, int[] endLines, String[] texts) {
+
+    super(source, file);
+
+    if (target == null) throw new IllegalArgumentException("target must not be null");
+
+    this.target = target;
+    this.startLines = startLines;
+    this.endLines = endLines;
+    this.texts = texts;
+  }
+
+  @Override
+  public boolean isValid() {
+    return super.isValid()
+        && (target != null)
+        && (getResource() != null)
+        && (startLines != null && endLines != null && texts != null)
+        && (startLines.length == endLines.length && startLines.length == texts.length)
+        && !Arrays.asList(texts).contains(null);
+  }
+
+  @Override
+  public User getTarget() {
+    return target;
+  }
+
+  /** Returns the number of ranges to replace. */
+  public int getRangeCount() {
+    return startLines.length;
+  }
+
+  /** Returns the first line of the given range. */
+  public int getStartLine(int range) {
+    return startLines[range];
+  }
+
+  /**
+   * Returns the line after the given range or {@link #END_OF_DOCUMENT} if the range extends to the
+   * end of the document.
+   */
+  public int getEndLine(int range) {
+    return endLines[range];
+  }
+
+  /** Returns the normalized text to replace the given range with. */
+  public String getText(int range) {
+    return texts[range];
+  }
+
+  /**
+   * Creates the text edits that apply the replacements of this activity to the given content.
+   * Text at the borders of a range that is not changed by the replacement is not replaced, so
+   * unchanged lines are not touched in the editor.
+   *
+   * @param content the normalized content of the target's document
+   * @return the text edits in the order they have to be applied, i.e. the last range first
+   */
+  public List<TextEditActivity> toTextEdits(String content) {
+    List<TextEditActivity> edits = new ArrayList<TextEditActivity>();
+
+    for (int i = getRangeCount() - 1; i >= 0; i--) {
+      int start = getLineOffset(content, startLines[i]);
+      int end = Math.max(start, getLineOffset(content, endLines[i]));
+
+      String replacedText = content.substring(start, end);
+      String newText = texts[i];
+
+      int shorterLength = Math.min(replacedText.length(), newText.length());
+
+      int prefix = 0;
+
+      while (prefix < shorterLength && replacedText.charAt(prefix) == newText.charAt(prefix))
+        prefix++;
+
+      int suffix = 0;
+
+      while (suffix < shorterLength - prefix
+          && replacedText.charAt(replacedText.length() - 1 - suffix)
+              == newText.charAt(newText.length() - 1 - suffix)) suffix++;
+
+      if (prefix + suffix == replacedText.length() && prefix + suffix == newText.length()) continue;
+
+      edits.add(
+          TextEditActivity.buildTextEditActivity(
+              getSource(),
+              getPosition(content, start + prefix),
+              newText.substring(prefix, newText.length() - suffix),
+              replacedText.substring(prefix, replacedText.length() - suffix),
+              getResource()));
+    }
+
+    return edits;
+  }
+
+  /** Returns the offset of the given line or the length of the content if there is no such line. */
+  private static int getLineOffset(String content, int line) {
+    if (line == END_OF_DOCUMENT) return content.length();
+
+    int offset = 0;
+
+    for (int i = 0; i < line; i++) {
+      int separator = content.indexOf(NORMALIZED_LINE_SEPARATOR, offset);
+
+      if (separator < 0) return content.length();
+
+      offset = separator + NORMALIZED_LINE_SEPARATOR.length();
+    }
+
+    return offset;
+  }
+
+  private static TextPosition getPosition(String content, int offset) {
+    int line = 0;
+    int lineOffset = 0;
+    int separator;
+
+    while ((separator = content.indexOf(NORMALIZED_LINE_SEPARATOR, lineOffset)) >= 0
+        && separator < offset) {
+      line++;
+      lineOffset = separator + NORMALIZED_LINE_SEPARATOR.length();
+    }
+
+    return new TextPosition(line, offset - lineOffset);
+  }
+
+  @Override
+  public void dispatch(IActivityReceiver receiver) {
+    receiver.receive(this);
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = super.hashCode();
+    result = prime * result + Objects.hashCode(target);
+    result = prime * result + Arrays.hashCode(startLines);
+    result = prime * result + Arrays.hashCode(endLines);
+    result = prime * result + Arrays.hashCode(texts);
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) return true;
+    if (!super.equals(obj)) return false;
+    if (!(obj instanceof TextRecoveryActivity)) return false;
+
+    TextRecoveryActivity other = (TextRecoveryActivity) obj;
+
+    if (!Objects.equals(this.target, other.target)) return false;
+    if (!Arrays.equals(this.startLines, other.startLines)) return false;
+    if (!Arrays.equals(this.endLines, other.endLines)) return false;
+    if (!Arrays.equals(this.texts, other.texts)) return false;
+
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder ranges = new StringBuilder();
+
+    for (int i = 0; isValid() && i < getRangeCount(); i++) {
+      if (i > 0) ranges.append(", ");
+
+      ranges
+          .append('[')
+          .append(startLines[i])
+          .append(", ")
+          .append(endLines[i] == END_OF_DOCUMENT ? "end" : String.valueOf(endLines[i]))
+          .append(") -> ")
+          .append(texts[i].length())
+          .append(" chars");
+    }
+
+    return "TextRecoveryActivity(src: "
+        + getSource()
+        + ", target: "
+        + target
+        + ", file: "
+        + getResource()
+        + ", ranges: "
+        + ranges
+        + ")";
+  }
+}
@@ -0,0 +1,40 @@
+package saros.communication.extensions;
+
+import com.thoughtworks.xstream.annotations.XStreamAlias;
+import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
+
+/**
+ * Acknowledges the receipt of activities. The sender of the activities no longer needs to keep
+ * activities with a sequence number lower than the acknowledged one for a retransmission.
+ */
+@XStreamAlias(/* ActivitiesAcknowledgement */ "ADOSACK")
+public class ActivitiesAcknowledgementExtension extends SarosSessionPacketExtension {
+
+  public static final Provider PROVIDER = new Provider();
+
+  @XStreamAlias("seq")
+  @XStreamAsAttribute
+  private final int sequenceNumber;
+
+  /**
+   * @param sessionID the session id the activities belong to
+   * @param sequenceNumber the sequence number of the next activity that is expected, i.e all
+   *     activities with a lower sequence number were received
+   */
+  public ActivitiesAcknowledgementExtension(String sessionID, int sequenceNumber) {
+    super(sessionID);
+    this.sequenceNumber = sequenceNumber;
+  }
+
+  /** Returns the sequence number of the next activity that is expected. */
+  public int getSequenceNumber() {
+    return sequenceNumber;
+  }
+
+  public static class Provider
+      extends SarosSessionPacketExtension.Provider<ActivitiesAcknowledgementExtension> {
+    private Provider() {
+      super("adosack", ActivitiesAcknowledgementExtension.class);
+    }
+  }
+}
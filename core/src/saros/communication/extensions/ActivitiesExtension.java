@@ -24,9 +24,11 @@ import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
 import com.thoughtworks.xstream.annotations.XStreamImplicit;
 import java.util.List;
 import org.jivesoftware.smack.packet.PacketExtension;
+import saros.activities.BlockChecksumActivity;
 import saros.activities.ChangeColorActivity;
 import saros.activities.ChecksumActivity;
 import saros.activities.ChecksumErrorActivity;
+import saros.activities.ChecksumTreeActivity;
 import saros.activities.DeletionAcknowledgmentActivity;
 import saros.activities.EditorActivity;
 import saros.activities.FileActivity;
@@ -42,6 +44,7 @@ import saros.activities.StartFollowingActivity;
 import saros.activities.StopActivity;
 import saros.activities.StopFollowingActivity;
 import saros.activities.TargetedFileActivity;
+import saros.activities.TextRecoveryActivity;
 import saros.activities.TextSelectionActivity;
 import saros.activities.ViewportActivity;
 import saros.concurrent.jupiter.internal.JupiterVectorTime;
@@ -140,9 +143,11 @@ public class ActivitiesExtension extends SarosSessionPacketExtension {
           ResourceTransportWrapper.class,
 
           // Activities
+          BlockChecksumActivity.class,
           ChangeColorActivity.class,
           ChecksumActivity.class,
           ChecksumErrorActivity.class,
+          ChecksumTreeActivity.class,
           DeletionAcknowledgmentActivity.class,
           EditorActivity.class,
           FileActivity.class,
@@ -156,6 +161,7 @@ public class ActivitiesExtension extends SarosSessionPacketExtension {
           StartFollowingActivity.class,
           StopActivity.class,
           StopFollowingActivity.class,
+          TextRecoveryActivity.class,
           TextSelectionActivity.class,
           ViewportActivity.class);
     }
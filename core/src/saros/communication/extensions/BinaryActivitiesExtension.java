@@ -0,0 +1,307 @@
+package saros.communication.extensions;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.List;
+import org.jivesoftware.smack.filter.PacketFilter;
+import org.jivesoftware.smack.packet.Packet;
+import org.jivesoftware.smack.packet.PacketExtension;
+import org.jivesoftware.smack.provider.PacketExtensionProvider;
+import org.jivesoftware.smack.provider.ProviderManager;
+import org.xmlpull.v1.XmlPullParser;
+import saros.activities.IActivity;
+import saros.net.ExtensionPacketFilter;
+import saros.net.IBinaryPacketExtension;
+import saros.net.IBinaryPacketExtensionProvider;
+import saros.session.internal.ActivityCodec;
+
+/**
+ * Binary counterpart of the {@link ActivitiesExtension}. Instead of marshalling the {@linkplain
+ * IActivity activities} with XStream the activities are written by the session's {@link
+ * ActivityCodec} which results in far smaller payloads and avoids XML parsing on the receiving
+ * side.
+ *
+ * <p>This extension must only be used if the remote side announced support for the binary format
+ * during the session negotiation.
+ */
+public class BinaryActivitiesExtension implements IBinaryPacketExtension {
+
+  public static final Provider PROVIDER = new Provider();
+
+  private final String sessionID;
+
+  private final List<IActivity> activities;
+
+  private final EncodedActivities encodedActivities;
+
+  private final int sequenceNumber;
+
+  private final int activityCount;
+
+  private byte[] data;
+
+  /**
+   * Binary representation of a list of {@linkplain IActivity activities} that can be shared by
+   * several extensions, e.g if the same activities are sent to multiple users. The activities are
+   * encoded at most once, when the first extension sharing them is marshalled.
+   *
+   * <p>This class is thread safe.
+   */
+  public static final class EncodedActivities {
+
+    private final List<IActivity> activities;
+
+    private byte[] data;
+
+    /** @param activities the activities to encode, the list must not be modified afterwards */
+    public EncodedActivities(List<IActivity> activities) {
+      this.activities = activities;
+    }
+
+    public List<IActivity> getActivities() {
+      return activities;
+    }
+
+    private synchronized byte[] getData() throws IOException {
+      if (data != null) return data;
+
+      final ActivityCodec codec = PROVIDER.codec;
+
+      if (codec == null) throw new IOException("no activity codec installed");
+
+      final ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+      final DataOutputStream out = new DataOutputStream(bos);
+
+      codec.encode(activities, out);
+
+      out.flush();
+
+      data = bos.toByteArray();
+      return data;
+    }
+  }
+
+  /**
+   * Creates an extension that can be send using the {@linkplain saros.net.ITransmitter
+   * transmitter}. All object parameters <b>must not be <code>null</code></b>.
+   *
+   * @param sessionID the session id the {@linkplain IActivity activities} belong to
+   * @param activities the {@linkplain IActivity activities} that should be included in this
+   *     extension
+   * @param sequenceNumber the sequence number of the <b>first</b> {@linkplain IActivity activity}
+   */
+  public BinaryActivitiesExtension(
+      String sessionID, List<IActivity> activities, int sequenceNumber) {
+    this(sessionID, new EncodedActivities(activities), sequenceNumber);
+  }
+
+  /**
+   * Creates an extension that shares the binary representation of its {@linkplain IActivity
+   * activities} with other extensions. All object parameters <b>must not be <code>null</code></b>.
+   *
+   * @param sessionID the session id the {@linkplain IActivity activities} belong to
+   * @param encodedActivities the {@linkplain IActivity activities} that should be included in this
+   *     extension
+   * @param sequenceNumber the sequence number of the <b>first</b> {@linkplain IActivity activity}
+   */
+  public BinaryActivitiesExtension(
+      String sessionID, EncodedActivities encodedActivities, int sequenceNumber) {
+    this.sessionID = sessionID;
+    this.activities = encodedActivities.getActivities();
+    this.encodedActivities = encodedActivities;
+    this.sequenceNumber = sequenceNumber;
+    this.activityCount = activities.size();
+  }
+
+  private BinaryActivitiesExtension(
+      String sessionID, List<IActivity> activities, int sequenceNumber, int activityCount) {
+    this.sessionID = sessionID;
+    this.activities = activities;
+    this.encodedActivities = new EncodedActivities(activities);
+    this.sequenceNumber = sequenceNumber;
+    this.activityCount = activityCount;
+  }
+
+  public String getSessionID() {
+    return sessionID;
+  }
+
+  /**
+   * Returns the {@linkplain IActivity activities} included in this extension. <b>Note:</b> The list
+   * may contain less entries than {@link #getActivityCount()} if some activities could not be
+   * unmarshalled on the receiving side, e.g because the resource they refer to is no longer shared.
+   */
+  public List<IActivity> getActivities() {
+    return activities;
+  }
+
+  /**
+   * Returns the sequence number of the first {@linkplain IActivity activity} in this extension.
+   *
+   * @see ActivitiesExtension#getSequenceNumber()
+   */
+  public int getSequenceNumber() {
+    return sequenceNumber;
+  }
+
+  /**
+   * Returns the number of {@linkplain IActivity activities} the sender put into this extension,
+   * i.e the amount of sequence numbers consumed by this extension.
+   */
+  public int getActivityCount() {
+    return activityCount;
+  }
+
+  @Override
+  public String getElementName() {
+    return PROVIDER.getElementName();
+  }
+
+  @Override
+  public String getNamespace() {
+    return PROVIDER.getNamespace();
+  }
+
+  @Override
+  public synchronized byte[] toByteArray() throws IOException {
+    if (data != null) return data;
+
+    final byte[] encodedData = encodedActivities.getData();
+
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream(encodedData.length + 64);
+    final DataOutputStream out = new DataOutputStream(bos);
+
+    out.writeByte(ActivityCodec.VERSION);
+    out.writeUTF(sessionID);
+    out.writeInt(sequenceNumber);
+    out.write(encodedData);
+
+    out.flush();
+
+    data = bos.toByteArray();
+    return data;
+  }
+
+  /**
+   * Returns the XML representation of this extension which just contains the Base64 encoded binary
+   * representation. This is only used if the extension is send over the XMPP server.
+   */
+  @Override
+  public String toXML() {
+    final String encoded;
+
+    try {
+      encoded = Base64.getEncoder().encodeToString(toByteArray());
+    } catch (IOException e) {
+      throw new IllegalStateException("failed to marshal activities: " + e.getMessage(), e);
+    }
+
+    return "<"
+        + getElementName()
+        + " xmlns=\""
+        + getNamespace()
+        + "\">"
+        + encoded
+        + "</"
+        + getElementName()
+        + ">";
+  }
+
+  public static class Provider implements PacketExtensionProvider, IBinaryPacketExtensionProvider {
+
+    private static final String ELEMENT_NAME = "adosb";
+
+    private volatile ActivityCodec codec;
+
+    private Provider() {
+      ProviderManager.getInstance()
+          .addExtensionProvider(ELEMENT_NAME, SarosPacketExtension.EXTENSION_NAMESPACE, this);
+    }
+
+    /**
+     * Installs the codec that is used to marshal and unmarshal the activities of the current
+     * session.
+     */
+    public void registerCodec(ActivityCodec codec) {
+      this.codec = codec;
+    }
+
+    /** Removes the given codec if it is the currently installed one. */
+    public void unregisterCodec(ActivityCodec codec) {
+      if (this.codec == codec) this.codec = null;
+    }
+
+    public String getElementName() {
+      return ELEMENT_NAME;
+    }
+
+    public String getNamespace() {
+      return SarosPacketExtension.EXTENSION_NAMESPACE;
+    }
+
+    public PacketFilter getPacketFilter(final String sessionID) {
+      return ExtensionPacketFilter.and(
+          new ExtensionPacketFilter(getElementName(), getNamespace()),
+          new PacketFilter() {
+            @Override
+            public boolean accept(Packet packet) {
+              BinaryActivitiesExtension extension = getPayload(packet);
+
+              return extension != null && sessionID.equals(extension.getSessionID());
+            }
+          });
+    }
+
+    public BinaryActivitiesExtension getPayload(Packet packet) {
+      if (packet == null) return null;
+
+      final PacketExtension extension = packet.getExtension(getElementName(), getNamespace());
+
+      if (!(extension instanceof BinaryActivitiesExtension)) return null;
+
+      return (BinaryActivitiesExtension) extension;
+    }
+
+    @Override
+    public PacketExtension parseExtension(ByteBuffer data) throws IOException {
+      final ActivityCodec currentCodec = codec;
+
+      if (currentCodec == null) throw new IOException("no activity codec installed");
+
+      final DataInputStream in =
+          new DataInputStream(
+              new ByteArrayInputStream(
+                  data.array(), data.arrayOffset() + data.position(), data.remaining()));
+
+      final int version = in.readUnsignedByte();
+
+      // the version is negotiated with the session, so a mismatch is a protocol violation
+      if (version != ActivityCodec.VERSION)
+        throw new ProtocolException(
+            "unsupported activity codec version: "
+                + version
+                + ", expected: "
+                + ActivityCodec.VERSION);
+
+      final String sessionID = in.readUTF();
+      final int sequenceNumber = in.readInt();
+
+      final ActivityCodec.DecodeResult result = currentCodec.decode(in);
+
+      return new BinaryActivitiesExtension(
+          sessionID, result.getActivities(), sequenceNumber, result.getActivityCount());
+    }
+
+    @Override
+    public PacketExtension parseExtension(XmlPullParser parser) throws Exception {
+      final String encoded = parser.nextText();
+      return parseExtension(ByteBuffer.wrap(Base64.getDecoder().decode(encoded.trim())));
+    }
+  }
+}
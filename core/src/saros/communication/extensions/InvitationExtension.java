@@ -2,9 +2,9 @@ package saros.communication.extensions;
 
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
-import org.jivesoftware.smack.filter.AndFilter;
 import org.jivesoftware.smack.filter.PacketFilter;
 import org.jivesoftware.smack.packet.Packet;
+import saros.net.ExtensionPacketFilter;
 
 public abstract class InvitationExtension extends SarosPacketExtension {
 
@@ -29,7 +29,7 @@ public abstract class InvitationExtension extends SarosPacketExtension {
 
     public PacketFilter getPacketFilter(final String invitationID) {
 
-      return new AndFilter(
+      return ExtensionPacketFilter.and(
           super.getPacketFilter(),
           new PacketFilter() {
             @Override
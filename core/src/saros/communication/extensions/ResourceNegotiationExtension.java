@@ -2,9 +2,9 @@ package saros.communication.extensions;
 
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
-import org.jivesoftware.smack.filter.AndFilter;
 import org.jivesoftware.smack.filter.PacketFilter;
 import org.jivesoftware.smack.packet.Packet;
+import saros.net.ExtensionPacketFilter;
 
 public abstract class ResourceNegotiationExtension extends SarosSessionPacketExtension {
 
@@ -36,7 +36,7 @@ public abstract class ResourceNegotiationExtension extends SarosSessionPacketExt
      */
     public PacketFilter getPacketFilter(final String sessionID, final String negotiationID) {
 
-      return new AndFilter(
+      return ExtensionPacketFilter.and(
           super.getPacketFilter(sessionID),
           new PacketFilter() {
             @Override
@@ -2,10 +2,10 @@ package saros.communication.extensions;
 
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
-import org.jivesoftware.smack.filter.AndFilter;
 import org.jivesoftware.smack.filter.PacketFilter;
 import org.jivesoftware.smack.packet.Packet;
 import saros.misc.xstream.XStreamExtensionProvider;
+import saros.net.ExtensionPacketFilter;
 
 /**
  * @JTourBusStop 1, Creating custom network messages, Packet Extensions:
@@ -41,7 +41,7 @@ public abstract class SarosPacketExtension {
     @Override
     public PacketFilter getPacketFilter() {
 
-      return new AndFilter(
+      return ExtensionPacketFilter.and(
           super.getPacketFilter(),
           new PacketFilter() {
             @Override
@@ -2,9 +2,9 @@ package saros.communication.extensions;
 
 import com.thoughtworks.xstream.annotations.XStreamAlias;
 import com.thoughtworks.xstream.annotations.XStreamAsAttribute;
-import org.jivesoftware.smack.filter.AndFilter;
 import org.jivesoftware.smack.filter.PacketFilter;
 import org.jivesoftware.smack.packet.Packet;
+import saros.net.ExtensionPacketFilter;
 
 /**
  * @JTourBusStop 2, Creating custom network messages, Session Packet Extensions:
@@ -35,7 +35,7 @@ public abstract class SarosSessionPacketExtension extends SarosPacketExtension {
 
     public PacketFilter getPacketFilter(final String sessionID) {
 
-      return new AndFilter(
+      return ExtensionPacketFilter.and(
           super.getPacketFilter(),
           new PacketFilter() {
             @Override
@@ -21,6 +21,8 @@
 package saros.concurrent.jupiter.internal;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import javax.swing.undo.CannotRedoException;
@@ -33,7 +35,10 @@ import saros.concurrent.jupiter.InclusionTransformation;
 import saros.concurrent.jupiter.Operation;
 import saros.concurrent.jupiter.Timestamp;
 import saros.concurrent.jupiter.TransformationException;
+import saros.concurrent.jupiter.internal.text.DeleteOperation;
 import saros.concurrent.jupiter.internal.text.GOTOInclusionTransformation;
+import saros.concurrent.jupiter.internal.text.ITextOperation;
+import saros.concurrent.jupiter.internal.text.InsertOperation;
 import saros.concurrent.jupiter.internal.text.NoOperation;
 import saros.concurrent.jupiter.internal.text.TimestampOperation;
 import saros.editor.text.TextPosition;
@@ -64,6 +69,12 @@ public class Jupiter implements Algorithm {
    */
   protected final List<OperationWrapper> ackJupiterActivityList;
 
+  /**
+   * Flag indicating whether consecutive local operations (typing and deleting characters) are
+   * composed to a single {@link OperationGroup} in the {@link #ackJupiterActivityList}.
+   */
+  protected final boolean isCompactionEnabled;
+
   /**
    * Class constructor that creates a new Jupiter algorithm.
    *
@@ -74,6 +85,8 @@ public class Jupiter implements Algorithm {
     this.vectorTime = new JupiterVectorTime(0, 0);
     this.isClientSide = isClientSide;
     this.ackJupiterActivityList = new ArrayList<OperationWrapper>();
+    this.isCompactionEnabled =
+        !Boolean.getBoolean("saros.concurrent.jupiter.DISABLE_OPERATION_COMPACTION");
   }
 
   @Override
@@ -83,8 +96,17 @@ public class Jupiter implements Algorithm {
     JupiterActivity jupiterActivity = new JupiterActivity(this.vectorTime, op, source, file);
 
     // add(op, myMsgs) to outgoing;
-    this.ackJupiterActivityList.add(
-        new OperationWrapper(op, this.vectorTime.getLocalOperationCount()));
+    OperationWrapper wrap = new OperationWrapper(op, this.vectorTime.getLocalOperationCount());
+
+    int last = this.ackJupiterActivityList.size() - 1;
+
+    OperationGroup group =
+        isCompactionEnabled && last >= 0
+            ? OperationGroup.compose(this.ackJupiterActivityList.get(last), wrap)
+            : null;
+
+    if (group != null) this.ackJupiterActivityList.set(last, group);
+    else this.ackJupiterActivityList.add(wrap);
 
     // myMsgs = myMsgs + 1;
     this.vectorTime = this.vectorTime.incrementLocalOperationCount();
@@ -179,9 +201,11 @@ public class Jupiter implements Algorithm {
     System.arraycopy(textPositions, 0, result, 0, textPositions.length);
     for (int i = 0; i < this.ackJupiterActivityList.size(); i++) {
       OperationWrapper wrap = this.ackJupiterActivityList.get(i);
-      Operation ack = wrap.getOperation();
-      for (int k = 0; k < textPositions.length; k++) {
-        result[k] = transformIndex(result[k], ack);
+      for (OperationWrapper part : OperationGroup.expand(wrap)) {
+        Operation ack = part.getOperation();
+        for (int k = 0; k < textPositions.length; k++) {
+          result[k] = transformIndex(result[k], ack);
+        }
       }
     }
     return result;
@@ -208,10 +232,19 @@ public class Jupiter implements Algorithm {
    * @param time the remote JupiterVectorTime
    */
   protected void discardAcknowledgedOperations(JupiterVectorTime time) {
+    // a group can only be discarded as a whole, so split up partially acknowledged groups first
+    for (int i = 0; i < this.ackJupiterActivityList.size(); i++) {
+      OperationWrapper wrap = this.ackJupiterActivityList.get(i);
+      if (wrap.getLocalOperationCount() < time.getRemoteOperationCount()
+          && wrap.getLastLocalOperationCount() >= time.getRemoteOperationCount()) {
+        expandOperationGroup(i);
+      }
+    }
+
     Iterator<OperationWrapper> iter = this.ackJupiterActivityList.iterator();
     while (iter.hasNext()) {
       OperationWrapper wrap = iter.next();
-      if (wrap.getLocalOperationCount() < time.getRemoteOperationCount()) {
+      if (wrap.getLastLocalOperationCount() < time.getRemoteOperationCount()) {
         iter.remove();
       }
     }
@@ -224,6 +257,10 @@ public class Jupiter implements Algorithm {
    * Transforms an operation with the operations in the outgoing queue {@link
    * #ackJupiterActivityList}.
    *
+   * <p>An {@link OperationGroup} is transformed as a single operation if the operation to be
+   * transformed does not touch the text range of the group. Otherwise, the group is replaced by the
+   * operations it consists of before transforming.
+   *
    * @param newOp the operation to be transformed
    * @return the transformed operation
    * @see #ackJupiterActivityList
@@ -233,6 +270,12 @@ public class Jupiter implements Algorithm {
         ackJupiterActivityListCnt < this.ackJupiterActivityList.size();
         ackJupiterActivityListCnt++) {
       OperationWrapper wrap = this.ackJupiterActivityList.get(ackJupiterActivityListCnt);
+
+      if (wrap instanceof OperationGroup && !((OperationGroup) wrap).isIndependentOf(newOp)) {
+        expandOperationGroup(ackJupiterActivityListCnt);
+        wrap = this.ackJupiterActivityList.get(ackJupiterActivityListCnt);
+      }
+
       Operation existingOp = wrap.getOperation();
 
       Operation transformedOp;
@@ -244,15 +287,28 @@ public class Jupiter implements Algorithm {
         transformedOp = this.inclusion.transform(newOp, existingOp, Boolean.FALSE);
         existingOp = this.inclusion.transform(existingOp, newOp, Boolean.TRUE);
       }
-      this.ackJupiterActivityList.set(
-          ackJupiterActivityListCnt,
-          new OperationWrapper(existingOp, wrap.getLocalOperationCount()));
+      this.ackJupiterActivityList.set(ackJupiterActivityListCnt, wrap.withOperation(existingOp));
 
       newOp = transformedOp;
     }
     return newOp;
   }
 
+  /**
+   * Replaces the operation group at the given index of the {@link #ackJupiterActivityList} with the
+   * operations it consists of. Does nothing if the entry is not an operation group.
+   *
+   * @param index the index of the entry in the list
+   */
+  private void expandOperationGroup(int index) {
+    OperationWrapper wrap = this.ackJupiterActivityList.get(index);
+
+    if (!(wrap instanceof OperationGroup)) return;
+
+    this.ackJupiterActivityList.remove(index);
+    this.ackJupiterActivityList.addAll(index, OperationGroup.expand(wrap));
+  }
+
   /**
    * Test 3 preconditions that must be fulfilled before transforming. They are taken from the
    * Jupiter paper.
@@ -309,6 +365,19 @@ public class Jupiter implements Algorithm {
       return this.count;
     }
 
+    /** Returns the local operation count of the last operation contained in this wrapper. */
+    int getLastLocalOperationCount() {
+      return this.count;
+    }
+
+    /**
+     * Returns a wrapper for the given operation with the same local operation count(s) as this
+     * wrapper.
+     */
+    OperationWrapper withOperation(Operation op) {
+      return new OperationWrapper(op, this.count);
+    }
+
     /** {@inheritDoc} */
     @Override
     public String toString() {
@@ -316,6 +385,224 @@ public class Jupiter implements Algorithm {
     }
   }
 
+  /**
+   * An operation wrapper for consecutive local operations which are composed to a single operation,
+   * e.g. the characters typed or deleted by the local user while they are not yet acknowledged by
+   * the other site. Transforming the composed operation as a whole keeps the costs for transforming
+   * a remote operation independent of the number of unacknowledged operations.
+   *
+   * <p>Only insertions at the end of the previous insertion and deletions in front of (backspace)
+   * or at the position of (delete) the previous deletion are composed. The result of a
+   * transformation against the composed operation only equals the result of transforming against
+   * the single operations if the other operation does not touch the text range of the group. In all
+   * other cases and if only a part of the group is acknowledged, the group has to be {@linkplain
+   * #expand(OperationWrapper) expanded} to the single operations, which are positioned relative to
+   * the current position of the composed operation.
+   *
+   * @valueObject Instances of this class should be treated as value objects and should be treated
+   *     as immutable.
+   */
+  protected static class OperationGroup extends OperationWrapper {
+
+    private final int lastCount;
+
+    /** Whether every operation was composed in front of the previous ones (backspace). */
+    private final boolean isBackward;
+
+    /**
+     * The single operations as they were generated. Only their text, deltas and origins are used,
+     * the positions are derived from the composed operation. The list is shared with the group this
+     * group was composed from and only the first {@link #size} entries belong to this group.
+     */
+    private final List<OperationWrapper> parts;
+
+    private final int size;
+
+    private OperationGroup(
+        Operation op,
+        int count,
+        int lastCount,
+        boolean isBackward,
+        List<OperationWrapper> parts,
+        int size) {
+      super(op, count);
+      this.lastCount = lastCount;
+      this.isBackward = isBackward;
+      this.parts = parts;
+      this.size = size;
+    }
+
+    /**
+     * Composes the given operations.
+     *
+     * @param last the last entry of the outgoing queue, either a single operation or a group
+     * @param next the operation that was generated after the last entry
+     * @return the composed group or <code>null</code> if the operations can not be composed
+     */
+    static OperationGroup compose(OperationWrapper last, OperationWrapper next) {
+      if (!(next.op instanceof InsertOperation || next.op instanceof DeleteOperation)
+          || last.op.getClass() != next.op.getClass()
+          || next.count != last.getLastLocalOperationCount() + 1) return null;
+
+      ITextOperation lastOp = (ITextOperation) last.op;
+      ITextOperation nextOp = (ITextOperation) next.op;
+
+      if (lastOp.getText().isEmpty() || nextOp.getText().isEmpty()) return null;
+
+      OperationGroup group = last instanceof OperationGroup ? (OperationGroup) last : null;
+
+      TextPosition start = lastOp.getStartPosition();
+      TextPosition end = lastOp.getEndPosition();
+
+      boolean isBackward = false;
+
+      if (nextOp instanceof InsertOperation) {
+        if (!nextOp.getStartPosition().equals(end)) return null;
+
+        end = advance(end, nextOp);
+
+      } else if (nextOp.getEndPosition().equals(start) && (group == null || group.isBackward)) {
+        start = nextOp.getStartPosition();
+        isBackward = true;
+
+      } else if (nextOp.getStartPosition().equals(start) && (group == null || !group.isBackward)) {
+        end = advance(end, nextOp);
+
+      } else {
+        return null;
+      }
+
+      String text =
+          isBackward ? nextOp.getText() + lastOp.getText() : lastOp.getText() + nextOp.getText();
+
+      int lineDelta = end.getLineNumber() - start.getLineNumber();
+      int offsetDelta =
+          lineDelta == 0 ? end.getInLineOffset() - start.getInLineOffset() : end.getInLineOffset();
+
+      Operation composed;
+
+      if (lastOp instanceof InsertOperation) {
+        TextPosition origin = ((InsertOperation) lastOp).getOriginStartPosition();
+        composed = new InsertOperation(start, lineDelta, offsetDelta, text, origin);
+      } else {
+        composed = new DeleteOperation(start, lineDelta, offsetDelta, text);
+      }
+
+      List<OperationWrapper> parts;
+
+      if (group == null) {
+        parts = new ArrayList<OperationWrapper>();
+        parts.add(last);
+      } else if (group.parts.size() == group.size) {
+        parts = group.parts;
+      } else {
+        parts = new ArrayList<OperationWrapper>(group.parts.subList(0, group.size));
+      }
+
+      parts.add(next);
+
+      return new OperationGroup(composed, last.count, next.count, isBackward, parts, parts.size());
+    }
+
+    /**
+     * Returns the single operations of the given entry of the outgoing queue, positioned at the
+     * current position of the group.
+     *
+     * @param wrap an entry of the outgoing queue
+     * @return the single operations of the group or the entry itself if it is not a group
+     */
+    static List<OperationWrapper> expand(OperationWrapper wrap) {
+      if (!(wrap instanceof OperationGroup)) return Collections.singletonList(wrap);
+
+      OperationGroup group = (OperationGroup) wrap;
+
+      OperationWrapper[] result = new OperationWrapper[group.size];
+      TextPosition position = ((ITextOperation) group.op).getStartPosition();
+
+      /*
+       * The text of each part directly follows the text of the previous part, except for deletions
+       * in forward direction, which all start at the same position.
+       */
+      for (int i = 0; i < group.size; i++) {
+        int index = group.isBackward ? group.size - 1 - i : i;
+
+        OperationWrapper part = group.parts.get(index);
+        ITextOperation op = moveTo((ITextOperation) part.op, position);
+
+        result[index] = new OperationWrapper(op, part.count);
+
+        if (op instanceof InsertOperation || group.isBackward) position = op.getEndPosition();
+      }
+
+      return Arrays.asList(result);
+    }
+
+    /**
+     * Returns whether transforming against the given operation (and vice versa) yields the same
+     * result for the composed operation as for the single operations. This is the case if the
+     * given operation lies completely in front of or behind the text range of the group.
+     *
+     * @param other an operation in the same context as the composed operation
+     * @return <code>true</code> if the group may be transformed as a single operation
+     */
+    boolean isIndependentOf(Operation other) {
+      if (other instanceof NoOperation) return true;
+
+      if (!(other instanceof InsertOperation || other instanceof DeleteOperation)) return false;
+
+      ITextOperation groupOp = (ITextOperation) op;
+      ITextOperation otherOp = (ITextOperation) other;
+
+      TextPosition start = groupOp.getStartPosition();
+      TextPosition end = groupOp instanceof InsertOperation ? start : groupOp.getEndPosition();
+
+      TextPosition otherStart = otherOp.getStartPosition();
+      TextPosition otherEnd =
+          otherOp instanceof InsertOperation ? otherStart : otherOp.getEndPosition();
+
+      return otherEnd.compareTo(start) < 0 || otherStart.compareTo(end) > 0;
+    }
+
+    @Override
+    int getLastLocalOperationCount() {
+      return this.lastCount;
+    }
+
+    @Override
+    OperationWrapper withOperation(Operation op) {
+      return new OperationGroup(
+          op, this.count, this.lastCount, this.isBackward, this.parts, this.size);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+      return ("OperationGroup(" + this.op + ", " + this.count + ".." + this.lastCount + ")");
+    }
+
+    private static TextPosition advance(TextPosition position, ITextOperation op) {
+      if (op.getLineDelta() == 0) {
+        return new TextPosition(
+            position.getLineNumber(), position.getInLineOffset() + op.getOffsetDelta());
+      } else {
+        return new TextPosition(position.getLineNumber() + op.getLineDelta(), op.getOffsetDelta());
+      }
+    }
+
+    private static ITextOperation moveTo(ITextOperation op, TextPosition position) {
+      if (op instanceof InsertOperation) {
+        return new InsertOperation(
+            position,
+            op.getLineDelta(),
+            op.getOffsetDelta(),
+            op.getText(),
+            ((InsertOperation) op).getOriginStartPosition());
+      }
+
+      return new DeleteOperation(position, op.getLineDelta(), op.getOffsetDelta(), op.getText());
+    }
+  }
+
   /**
    * Throws a CannotUndoException because undo is not supported by this implementation.
    *
@@ -9,6 +9,7 @@ import saros.activities.JupiterActivity;
 import saros.concurrent.jupiter.Operation;
 import saros.concurrent.jupiter.Timestamp;
 import saros.concurrent.jupiter.TransformationException;
+import saros.concurrent.jupiter.internal.text.OperationComposer;
 import saros.filesystem.IFile;
 import saros.session.User;
 
@@ -16,6 +17,9 @@ import saros.session.User;
  * The JupiterDocumentServer is the host side component managing all server Jupiter instances.
  *
  * <p>TODO [CO] Document and review this class
+ *
+ * <p>All methods are synchronized on the instance, so concurrent calls for one document are
+ * serialized while different documents can be processed in parallel.
  */
 public class JupiterDocumentServer {
 
@@ -42,9 +46,8 @@ public class JupiterDocumentServer {
     return proxies.remove(user) != null;
   }
 
-  // FIXME why is this not synchronized ?!
-  public Map<User, JupiterActivity> transformJupiterActivity(final JupiterActivity activity)
-      throws TransformationException {
+  public synchronized Map<User, JupiterActivity> transformJupiterActivity(
+      final JupiterActivity activity) throws TransformationException {
 
     final Map<User, JupiterActivity> result = new HashMap<User, JupiterActivity>();
 
@@ -62,7 +65,13 @@ public class JupiterDocumentServer {
     if (sourceProxy == null)
       throw new IllegalStateException("no proxy client registered for user: " + source);
 
-    final Operation op = sourceProxy.receiveJupiterActivity(activity);
+    /*
+     * The transformation may have split the operation. Normalize it once before it is added to the
+     * outgoing queues of the other proxies, every proxy and client then works on the same flat
+     * operation.
+     */
+    final Operation op =
+        OperationComposer.canonicalize(sourceProxy.receiveJupiterActivity(activity));
 
     // 2. Generate outgoing JupiterActivities for all other clients and the
     // host
@@ -105,7 +114,7 @@ public class JupiterDocumentServer {
     if (removeProxyClient(user)) addProxyClient(user);
   }
 
-  public Map<User, ChecksumActivity> withTimestamp(final ChecksumActivity activity)
+  public synchronized Map<User, ChecksumActivity> withTimestamp(final ChecksumActivity activity)
       throws TransformationException {
 
     final Map<User, ChecksumActivity> result = new HashMap<User, ChecksumActivity>();
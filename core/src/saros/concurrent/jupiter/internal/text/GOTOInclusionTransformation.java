@@ -23,6 +23,8 @@ package saros.concurrent.jupiter.internal.text;
 import static saros.util.LineSeparatorNormalizationUtil.NORMALIZED_LINE_SEPARATOR;
 
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.List;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
 import saros.concurrent.jupiter.InclusionTransformation;
@@ -79,11 +81,23 @@ public class GOTOInclusionTransformation implements InclusionTransformation {
        *    \   / s2'
        *      O
        * </code>
+       *
+       * Nested split operations are processed as the flat sequence of the operations they contain.
        */
-      SplitOperation s = (SplitOperation) op1;
-      return new SplitOperation(
-          transform(s.getFirst(), op2, param),
-          transform(s.getSecond(), transform(op2, s.getFirst(), !privileged), param));
+      List<Operation> operations = OperationComposer.flatten(op1);
+      List<Operation> result = new ArrayList<Operation>(operations.size());
+
+      Operation context = op2;
+
+      for (int i = 0; i < operations.size(); i++) {
+        Operation operation = operations.get(i);
+
+        result.add(transform(operation, context, param));
+
+        if (i < operations.size() - 1) context = transform(context, operation, !privileged);
+      }
+
+      return OperationComposer.compose(result);
     }
     if (op2 instanceof SplitOperation) {
       /*
@@ -98,8 +112,12 @@ public class GOTOInclusionTransformation implements InclusionTransformation {
        *       O
        *      </code>
        */
-      SplitOperation s = (SplitOperation) op2;
-      return transform(transform(op1, s.getFirst(), param), s.getSecond(), param);
+      Operation result = op1;
+
+      for (Operation operation : OperationComposer.flatten(op2))
+        result = transform(result, operation, param);
+
+      return result;
     }
 
     if (op1 instanceof InsertOperation) {
@@ -137,12 +155,12 @@ public class GOTOInclusionTransformation implements InclusionTransformation {
        *       O
        */
 
-      SplitOperation s = (SplitOperation) op;
+      List<Operation> operations = OperationComposer.flatten(op);
 
       TextPosition transformedPosition = textPosition;
 
-      transformedPosition = transformIndex(transformedPosition, s.getSecond(), param);
-      transformedPosition = transformIndex(transformedPosition, s.getFirst(), param);
+      for (int i = operations.size() - 1; i >= 0; i--)
+        transformedPosition = transformIndex(transformedPosition, operations.get(i), param);
 
       return transformedPosition;
 
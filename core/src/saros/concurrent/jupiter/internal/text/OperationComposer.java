@@ -0,0 +1,286 @@
+package saros.concurrent.jupiter.internal.text;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import saros.concurrent.jupiter.Operation;
+import saros.editor.text.TextPosition;
+
+/**
+ * Flattens, composes and normalizes operations.
+ *
+ * <p>Repeated transformations nest {@link SplitOperation split operations} arbitrarily deep. All
+ * methods of this class process such trees iteratively, so the depth of a tree neither costs stack
+ * space nor intermediate lists for every level.
+ *
+ * <p>There are two kinds of results:
+ *
+ * <ul>
+ *   <li>{@link #flatten(Operation)} and {@link #compose(List)} only change the structure of the
+ *       tree. A flattened and composed operation is transformed exactly like the original one and
+ *       can be used anywhere.
+ *   <li>{@link #normalize(Operation)} and {@link #canonicalize(Operation)} also merge adjacent text
+ *       operations and drop operations without effect. The result has the same effect on a
+ *       document, but may be transformed differently against concurrent insertions at the borders
+ *       of merged operations. Such an operation must therefore only be used if the other site uses
+ *       the very same operation, i.e. before it is added to the outgoing queue of a Jupiter
+ *       instance and sent, or if it is not transformed at all, e.g. when it is applied to the local
+ *       editor.
+ * </ul>
+ */
+public final class OperationComposer {
+
+  private OperationComposer() {
+    // NOP
+  }
+
+  /**
+   * Returns the operations contained in the given operation in the order they have to be applied.
+   * None of the returned operations is a split operation.
+   *
+   * @param operation the operation to flatten
+   * @return the contained operations, a list only containing the given operation if it is not a
+   *     split operation
+   */
+  public static List<Operation> flatten(Operation operation) {
+    if (!(operation instanceof SplitOperation)) return Collections.singletonList(operation);
+
+    List<Operation> result = new ArrayList<Operation>();
+
+    Deque<Operation> pending = new ArrayDeque<Operation>();
+    pending.push(operation);
+
+    while (!pending.isEmpty()) {
+      Operation current = pending.pop();
+
+      if (current instanceof SplitOperation) {
+        SplitOperation split = (SplitOperation) current;
+        pending.push(split.getSecond());
+        pending.push(split.getFirst());
+      } else {
+        result.add(current);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Composes the given operations to one operation that applies them in the given order.
+   *
+   * @param operations the operations to compose
+   * @return a {@link NoOperation} if the list is empty, the only operation if the list contains
+   *     one operation, or a chain of split operations otherwise
+   */
+  public static Operation compose(List<? extends Operation> operations) {
+    int size = operations.size();
+
+    if (size == 0) return new NoOperation();
+
+    Operation result = operations.get(size - 1);
+
+    for (int i = size - 2; i >= 0; i--) result = new SplitOperation(operations.get(i), result);
+
+    return result;
+  }
+
+  /**
+   * Returns the text operations contained in the given operation in the order they have to be
+   * applied. Operations without any effect are dropped and adjacent operations are merged where
+   * possible, e.g. consecutively typed characters or an insertion and a deletion of the same text.
+   *
+   * @param operation the operation to normalize
+   * @return the normalized text operations, an empty list if the given operation has no effect
+   */
+  public static List<ITextOperation> normalize(Operation operation) {
+    List<ITextOperation> result = new ArrayList<ITextOperation>();
+
+    for (Operation current : flatten(operation)) {
+      if (!(current instanceof ITextOperation)) continue;
+
+      ITextOperation next = (ITextOperation) current;
+
+      while (!next.getText().isEmpty() && !result.isEmpty()) {
+        ITextOperation merged = merge(result.get(result.size() - 1), next);
+
+        if (merged == null) break;
+
+        result.remove(result.size() - 1);
+        next = merged;
+      }
+
+      if (!next.getText().isEmpty()) result.add(next);
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the given operation in its normalized form, see {@link #normalize(Operation)}. Only
+   * split operations are normalized, all other operations are returned unchanged.
+   *
+   * @param operation the operation to canonicalize
+   * @return the normalized operation
+   */
+  public static Operation canonicalize(Operation operation) {
+    if (!(operation instanceof SplitOperation)) return operation;
+
+    return compose(normalize(operation));
+  }
+
+  /**
+   * Merges the given operations, <code>op2</code> being applied after <code>op1</code>.
+   *
+   * @return a text operation representing both operations or <code>null</code> if the two
+   *     operations cannot be merged
+   */
+  static ITextOperation merge(ITextOperation op1, ITextOperation op2) {
+
+    if (op1 instanceof InsertOperation && op2 instanceof DeleteOperation) {
+      InsertOperation insert = (InsertOperation) op1;
+      DeleteOperation delete = (DeleteOperation) op2;
+
+      if (insert.getStartPosition().compareTo(delete.getStartPosition()) == 0) {
+        // Case 1: Ins(5,"ab") + Del(5,"abcd") -> Del(5,"cd")
+        if (delete.getText().startsWith(insert.getText())) {
+
+          String adjustedText = delete.getText().substring(insert.getText().length());
+
+          int newLineDelta = delete.getLineDelta() - insert.getLineDelta();
+          int newOffsetDelta;
+
+          if (newLineDelta == 0) {
+            newOffsetDelta = delete.getOffsetDelta() - insert.getOffsetDelta();
+
+          } else {
+            newOffsetDelta = delete.getOffsetDelta();
+          }
+
+          return new DeleteOperation(
+              insert.getStartPosition(), newLineDelta, newOffsetDelta, adjustedText);
+        }
+        // Case 2: Ins(5,"abcd") + Del(5,"ab") -> Ins(5,"cd")
+        else if (insert.getText().startsWith(delete.getText())) {
+
+          String adjustedText = insert.getText().substring(delete.getText().length());
+
+          int newLineDelta = insert.getLineDelta() - delete.getLineDelta();
+          int newOffsetDelta;
+
+          if (newLineDelta == 0) {
+            newOffsetDelta = insert.getOffsetDelta() - delete.getOffsetDelta();
+
+          } else {
+            newOffsetDelta = insert.getOffsetDelta();
+          }
+
+          return new InsertOperation(
+              insert.getStartPosition(),
+              newLineDelta,
+              newOffsetDelta,
+              adjustedText,
+              insert.getOriginStartPosition());
+        }
+      }
+
+    } else if (op1 instanceof InsertOperation && op2 instanceof InsertOperation) {
+      InsertOperation insert1 = (InsertOperation) op1;
+      InsertOperation insert2 = (InsertOperation) op2;
+
+      // Case 1: Ins(2,"ab") + Ins(4,"cd") -> Ins(2,"abcd")
+      if (insert1.getEndPosition().compareTo(insert2.getStartPosition()) == 0) {
+        return concatenateInsertOperations(insert1, insert2);
+      }
+
+      // Case 2: Ins(4,"cd") + Ins(4,"ab") -> Ins(4,"abcd")
+      if (insert1.getStartPosition().compareTo(insert2.getStartPosition()) == 0) {
+        return concatenateInsertOperations(insert2, insert1);
+      }
+
+    } else if (op1 instanceof DeleteOperation && op2 instanceof DeleteOperation) {
+      DeleteOperation delete1 = (DeleteOperation) op1;
+      DeleteOperation delete2 = (DeleteOperation) op2;
+
+      // Case 1: Del(5,"ab") + Del(5,"cde") -> Del(5,"abcde")
+      if (delete1.getStartPosition().compareTo(delete2.getStartPosition()) == 0) {
+        return concatenateDeleteOperations(delete1, delete2);
+      }
+
+      // Case 2: Del(8,"c") + Del(6,"ab") -> Del(6,"abc")
+      if (delete1.getStartPosition().compareTo(delete2.getEndPosition()) == 0) {
+        return concatenateDeleteOperations(delete2, delete1);
+      }
+    }
+    // Nothing can be merged
+    return null;
+  }
+
+  /**
+   * Concatenates the given insert operations. To do so, the second operation is appended to the
+   * first. The result keeps the origin of the first operation.
+   *
+   * <p><b>NOTE:</b> This method does not check whether the given operations can actually be
+   * concatenated (i.e. are located seamlessly next to each other). It is expected that this has
+   * already be done by the caller.
+   *
+   * @param op1 the first operation
+   * @param op2 the second operation
+   * @return an insert operation representing the concatenation of the two given insert operations
+   */
+  private static InsertOperation concatenateInsertOperations(
+      InsertOperation op1, InsertOperation op2) {
+    int newLineDelta;
+    int newOffsetDelta;
+
+    if (op2.getLineDelta() == 0) {
+      newLineDelta = op1.getLineDelta();
+      newOffsetDelta = op1.getOffsetDelta() + op2.getOffsetDelta();
+
+    } else {
+      newLineDelta = op1.getLineDelta() + op2.getLineDelta();
+      newOffsetDelta = op2.getOffsetDelta();
+    }
+
+    String newText = op1.getText() + op2.getText();
+
+    TextPosition startPosition = op1.getStartPosition();
+
+    return new InsertOperation(
+        startPosition, newLineDelta, newOffsetDelta, newText, op1.getOriginStartPosition());
+  }
+
+  /**
+   * Concatenates the given delete operations. To do so, the second operation is appended to the
+   * first.
+   *
+   * <p><b>NOTE:</b> This method does not check whether the given operations can actually be
+   * concatenated (i.e. are located seamlessly next to each other). It is expected that this has
+   * already be done by the caller.
+   *
+   * @param op1 the first operation
+   * @param op2 the second operation
+   * @return a delete operation representing the concatenation of the two given delete operations
+   */
+  private static DeleteOperation concatenateDeleteOperations(
+      DeleteOperation op1, DeleteOperation op2) {
+    int newLineDelta;
+    int newOffsetDelta;
+
+    if (op2.getLineDelta() == 0) {
+      newLineDelta = op1.getLineDelta();
+      newOffsetDelta = op1.getOffsetDelta() + op2.getOffsetDelta();
+
+    } else {
+      newLineDelta = op1.getLineDelta() + op2.getLineDelta();
+      newOffsetDelta = op2.getOffsetDelta();
+    }
+
+    String newText = op1.getText() + op2.getText();
+
+    TextPosition startPosition = op1.getStartPosition();
+
+    return new DeleteOperation(startPosition, newLineDelta, newOffsetDelta, newText);
+  }
+}
@@ -92,8 +92,8 @@ public class SplitOperation implements Operation {
   public List<ITextOperation> getTextOperations() {
     List<ITextOperation> result = new ArrayList<ITextOperation>();
 
-    result.addAll(getFirst().getTextOperations());
-    result.addAll(getSecond().getTextOperations());
+    for (Operation operation : OperationComposer.flatten(this))
+      result.addAll(operation.getTextOperations());
 
     return result;
   }
@@ -103,36 +103,9 @@ public class SplitOperation implements Operation {
 
     List<TextEditActivity> result = new ArrayList<TextEditActivity>();
 
-    /*
-     * remember the last operation for trying to combine it with the next
-     * one
-     */
     ITextOperation lastOp = null;
 
-    List<ITextOperation> compressed = new ArrayList<ITextOperation>();
-
-    for (ITextOperation operation : this.getTextOperations()) {
-
-      // the first operation in the list
-      if (lastOp == null) {
-        lastOp = operation;
-        continue;
-      }
-
-      ITextOperation combined = combine(lastOp, operation);
-      if (combined != null) {
-        lastOp = combined;
-        continue;
-      } else {
-        compressed.add(lastOp);
-        lastOp = operation;
-      }
-    }
-    if (lastOp != null) compressed.add(lastOp);
-
-    lastOp = null;
-
-    for (ITextOperation operation : compressed) {
+    for (ITextOperation operation : OperationComposer.normalize(this)) {
 
       // the first operation in the list
       if (lastOp == null) {
@@ -179,152 +152,6 @@ public class SplitOperation implements Operation {
     return result;
   }
 
-  /**
-   * @return a combined ITextOperation representing both op1 and op2 or null if the two operations
-   *     cannot be combined
-   */
-  // TODO finish optimization; handle other cases that can be combined
-  protected ITextOperation combine(ITextOperation op1, ITextOperation op2) {
-
-    if (op1 instanceof InsertOperation && op2 instanceof DeleteOperation) {
-      InsertOperation insert = (InsertOperation) op1;
-      DeleteOperation delete = (DeleteOperation) op2;
-
-      if (insert.getStartPosition().compareTo(delete.getStartPosition()) == 0) {
-        // Case 1: Ins(5,"ab") + Del(5,"abcd") -> Del(5,"cd")
-        if (delete.getText().startsWith(insert.getText())) {
-
-          String adjustedText = delete.getText().substring(insert.getText().length());
-
-          int newLineDelta = delete.getLineDelta() - insert.getLineDelta();
-          int newOffsetDelta;
-
-          if (newLineDelta == 0) {
-            newOffsetDelta = delete.getOffsetDelta() - insert.getOffsetDelta();
-
-          } else {
-            newOffsetDelta = delete.getOffsetDelta();
-          }
-
-          return new DeleteOperation(
-              insert.getStartPosition(), newLineDelta, newOffsetDelta, adjustedText);
-        }
-        // Case 2: Ins(5,"abcd") + Del(5,"ab") -> Ins(5,"cd")
-        else if (insert.getText().startsWith(delete.getText())) {
-
-          String adjustedText = insert.getText().substring(delete.getText().length());
-
-          int newLineDelta = insert.getLineDelta() - delete.getLineDelta();
-          int newOffsetDelta;
-
-          if (newLineDelta == 0) {
-            newOffsetDelta = insert.getOffsetDelta() - delete.getOffsetDelta();
-
-          } else {
-            newOffsetDelta = insert.getOffsetDelta();
-          }
-
-          return new InsertOperation(
-              insert.getStartPosition(), newLineDelta, newOffsetDelta, adjustedText);
-        }
-      }
-
-    } else if (op1 instanceof InsertOperation && op2 instanceof InsertOperation) {
-      InsertOperation insert1 = (InsertOperation) op1;
-      InsertOperation insert2 = (InsertOperation) op2;
-
-      // Case 1: Ins(2,"ab") + Ins(4,"cd") -> Ins(2,"abcd")
-      if (insert1.getEndPosition().compareTo(insert2.getStartPosition()) == 0) {
-        return concatenateInsertOperations(insert1, insert2);
-      }
-
-      // Case 2: Ins(4,"cd") + Ins(4,"ab") -> Ins(4,"abcd")
-      if (insert1.getStartPosition().compareTo(insert2.getStartPosition()) == 0) {
-        return concatenateInsertOperations(insert2, insert1);
-      }
-
-    } else if (op1 instanceof DeleteOperation && op2 instanceof DeleteOperation) {
-      DeleteOperation delete1 = (DeleteOperation) op1;
-      DeleteOperation delete2 = (DeleteOperation) op2;
-
-      // Case 1: Del(5,"ab") + Del(5,"cde") -> Del(5,"abcde")
-      if (delete1.getStartPosition().compareTo(delete2.getStartPosition()) == 0) {
-        return concatenateDeleteOperations(delete1, delete2);
-      }
-
-      // Case 2: Del(8,"c") + Del(6,"ab") -> Del(6,"abc")
-      if (delete1.getStartPosition().compareTo(delete2.getEndPosition()) == 0) {
-        return concatenateDeleteOperations(delete2, delete1);
-      }
-    }
-    // Nothing can be combined
-    return null;
-  }
-
-  /**
-   * Concatenates the given insert operations. To do so, the second operation is appended to the
-   * first.
-   *
-   * <p><b>NOTE:</b> This method does not check whether the given operations can actually be
-   * concatenated (i.e. are located seamlessly next to each other). It is expected that this has
-   * already be done by the caller.
-   *
-   * @param op1 the first operation
-   * @param op2 the second operation
-   * @return an insert operation representing the concatenation of the two given insert operations
-   */
-  private InsertOperation concatenateInsertOperations(InsertOperation op1, InsertOperation op2) {
-    int newLineDelta;
-    int newOffsetDelta;
-
-    if (op2.getLineDelta() == 0) {
-      newLineDelta = op1.getLineDelta();
-      newOffsetDelta = op1.getOffsetDelta() + op2.getOffsetDelta();
-
-    } else {
-      newLineDelta = op1.getLineDelta() + op2.getLineDelta();
-      newOffsetDelta = op2.getOffsetDelta();
-    }
-
-    String newText = op1.getText() + op2.getText();
-
-    TextPosition startPosition = op1.getStartPosition();
-
-    return new InsertOperation(startPosition, newLineDelta, newOffsetDelta, newText);
-  }
-
-  /**
-   * Concatenates the given delete operations. To do so, the second operation is appended to the
-   * first.
-   *
-   * <p><b>NOTE:</b> This method does not check whether the given operations can actually be
-   * concatenated (i.e. are located seamlessly next to each other). It is expected that this has
-   * already be done by the caller.
-   *
-   * @param op1 the first operation
-   * @param op2 the second operation
-   * @return a delete operation representing the concatenation of the two given delete operations
-   */
-  private DeleteOperation concatenateDeleteOperations(DeleteOperation op1, DeleteOperation op2) {
-    int newLineDelta;
-    int newOffsetDelta;
-
-    if (op2.getLineDelta() == 0) {
-      newLineDelta = op1.getLineDelta();
-      newOffsetDelta = op1.getOffsetDelta() + op2.getOffsetDelta();
-
-    } else {
-      newLineDelta = op1.getLineDelta() + op2.getLineDelta();
-      newOffsetDelta = op2.getOffsetDelta();
-    }
-
-    String newText = op1.getText() + op2.getText();
-
-    TextPosition startPosition = op1.getStartPosition();
-
-    return new DeleteOperation(startPosition, newLineDelta, newOffsetDelta, newText);
-  }
-
   /**
    * @param op1
    * @param op2
@@ -7,8 +7,10 @@ import saros.activities.ChecksumActivity;
 import saros.activities.IActivity;
 import saros.activities.JupiterActivity;
 import saros.activities.TextEditActivity;
+import saros.activities.TextRecoveryActivity;
 import saros.concurrent.jupiter.Operation;
 import saros.concurrent.jupiter.TransformationException;
+import saros.editor.IEditorManager;
 import saros.filesystem.IFile;
 import saros.repackaged.picocontainer.Startable;
 import saros.session.ISarosSession;
@@ -29,12 +31,15 @@ public class ConcurrentDocumentClient implements Startable {
 
   private final ISarosSession sarosSession;
 
+  private final IEditorManager editorManager;
+
   private final JupiterClient jupiterClient;
 
   private final ResourceActivityFilter resourceActivityFilter;
 
-  public ConcurrentDocumentClient(ISarosSession sarosSession) {
+  public ConcurrentDocumentClient(ISarosSession sarosSession, IEditorManager editorManager) {
     this.sarosSession = sarosSession;
+    this.editorManager = editorManager;
     this.jupiterClient = new JupiterClient(sarosSession);
 
     this.resourceActivityFilter = new ResourceActivityFilter(sarosSession, this::reset);
@@ -122,6 +127,11 @@ public class ConcurrentDocumentClient implements Startable {
 
       } else if (activity instanceof ChecksumActivity) {
         activities.add(receiveChecksum((ChecksumActivity) activity));
+
+      } else if (activity instanceof TextRecoveryActivity) {
+        activities.add(activity);
+        activities.addAll(receiveTextRecovery((TextRecoveryActivity) activity));
+
       } else {
         activities.add(activity);
       }
@@ -149,6 +159,28 @@ public class ConcurrentDocumentClient implements Startable {
     return activity;
   }
 
+  /**
+   * Resets the JupiterClient of the recovered file and transforms the recovery into
+   * textEditActivities for the current content of the file. The host has already reset the
+   * corresponding Jupiter document when it sent the recovery.
+   *
+   * @client
+   */
+  private List<TextEditActivity> receiveTextRecovery(TextRecoveryActivity recovery) {
+    IFile file = recovery.getResource();
+
+    reset(file);
+
+    String content = editorManager.getNormalizedContent(file);
+
+    if (content == null) {
+      log.error("could not retrieve content of recovered file: " + file);
+      return new ArrayList<TextEditActivity>();
+    }
+
+    return recovery.toTextEdits(content);
+  }
+
   /**
    * Transforms the JupiterActivity back into textEditActivities.
    *
@@ -1,9 +1,9 @@
 package saros.concurrent.management;
 
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import saros.activities.ChecksumActivity;
 import saros.activities.JupiterActivity;
 import saros.concurrent.jupiter.TransformationException;
@@ -16,6 +16,16 @@ import saros.session.User;
  * A JupiterServer manages Jupiter server instances for a number of users AND number of files.
  *
  * <p>(in contrast to a JupiterDocumentServer which only handles a single file)
+ *
+ * <p>This class is thread safe. Activities for different files are transformed concurrently, only
+ * activities for the same file are serialized by the lock of the corresponding {@link
+ * JupiterDocumentServer}. Adding and removing users and files as well as creating the Jupiter
+ * server instance of a file are serialized by a registry lock, so a user that is added concurrently
+ * to the creation of a document is never missed. The registry lock may be held while a document
+ * lock is acquired, but never the other way around.
+ *
+ * <p>The caller is still responsible for passing the activities of one user and file in the order
+ * they were created.
  */
 public class JupiterServer {
 
@@ -24,32 +34,45 @@ public class JupiterServer {
    *
    * @host
    */
-  private final HashMap<IFile, JupiterDocumentServer> concurrentDocuments = new HashMap<>();
+  private final Map<IFile, JupiterDocumentServer> concurrentDocuments = new ConcurrentHashMap<>();
 
   private final Set<User> currentClients = new HashSet<User>();
 
+  /** Guards modifications of {@link #concurrentDocuments} and {@link #currentClients}. */
+  private final Object registryLock = new Object();
+
   private final ISarosSession sarosSession;
 
   public JupiterServer(final ISarosSession sarosSession) {
     this.sarosSession = sarosSession;
   }
 
-  public synchronized void removeFile(final IFile file) {
-    concurrentDocuments.remove(file);
+  /**
+   * Removes the Jupiter server instance of the given file. A transformation for this file that is
+   * currently running is finished on the removed instance.
+   */
+  public void removeFile(final IFile file) {
+    synchronized (registryLock) {
+      concurrentDocuments.remove(file);
+    }
   }
 
-  public synchronized void addUser(final User user) {
-    currentClients.add(user);
+  public void addUser(final User user) {
+    synchronized (registryLock) {
+      currentClients.add(user);
 
-    for (final JupiterDocumentServer server : concurrentDocuments.values())
-      server.addProxyClient(user);
+      for (final JupiterDocumentServer server : concurrentDocuments.values())
+        server.addProxyClient(user);
+    }
   }
 
-  public synchronized void removeUser(final User user) {
-    currentClients.remove(user);
+  public void removeUser(final User user) {
+    synchronized (registryLock) {
+      currentClients.remove(user);
 
-    for (final JupiterDocumentServer server : concurrentDocuments.values()) {
-      server.removeProxyClient(user);
+      for (final JupiterDocumentServer server : concurrentDocuments.values()) {
+        server.removeProxyClient(user);
+      }
     }
   }
 
@@ -59,11 +82,16 @@ public class JupiterServer {
    *
    * @host
    */
-  private synchronized JupiterDocumentServer getServer(final IFile file) {
+  private JupiterDocumentServer getServer(final IFile file) {
 
     JupiterDocumentServer docServer = concurrentDocuments.get(file);
 
-    if (docServer == null) {
+    if (docServer != null) return docServer;
+
+    synchronized (registryLock) {
+      docServer = concurrentDocuments.get(file);
+
+      if (docServer != null) return docServer;
 
       docServer = new JupiterDocumentServer(file);
 
@@ -85,11 +113,11 @@ public class JupiterServer {
     return docServer;
   }
 
-  public synchronized void reset(final IFile file, final User user) {
+  public void reset(final IFile file, final User user) {
     getServer(file).reset(user);
   }
 
-  public synchronized Map<User, JupiterActivity> transform(final JupiterActivity activity)
+  public Map<User, JupiterActivity> transform(final JupiterActivity activity)
       throws TransformationException {
 
     final JupiterDocumentServer docServer = getServer(activity.getResource());
@@ -97,7 +125,7 @@ public class JupiterServer {
     return docServer.transformJupiterActivity(activity);
   }
 
-  public synchronized Map<User, ChecksumActivity> withTimestamp(final ChecksumActivity activity)
+  public Map<User, ChecksumActivity> withTimestamp(final ChecksumActivity activity)
       throws TransformationException {
 
     final JupiterDocumentServer docServer = getServer(activity.getResource());
@@ -0,0 +1,301 @@
+package saros.concurrent.watchdog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import saros.util.LineSeparatorNormalizationUtil;
+
+/**
+ * Calculates the differences between two versions of a text like rsync, without transferring
+ * either of them as a whole.
+ *
+ * <p>The text of the inconsistent user is split into blocks of consecutive lines and only the
+ * hashes of these blocks are sent to the host. The host searches the blocks in its own text at
+ * every line with a rolling hash, so blocks are also found if lines were inserted or removed in
+ * front of them. The inconsistent user then only has to replace the lines between the found
+ * blocks with the host's text between them.
+ *
+ * <p>The lines of a text include their line separators, only the last line of a text has none. A
+ * text ending with a line separator therefore ends with an empty line.
+ */
+final class BlockDelta {
+
+  static final int MIN_BLOCK_LINES = 4;
+
+  private static final char LINE_SEPARATOR =
+      LineSeparatorNormalizationUtil.NORMALIZED_LINE_SEPARATOR.charAt(0);
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  /** A range of lines of the inconsistent user's text and the host's text to replace it with. */
+  static final class Replacement {
+
+    final int startLine;
+
+    final int endLine;
+
+    final String text;
+
+    Replacement(final int startLine, final int endLine, final String text) {
+      this.startLine = startLine;
+      this.endLine = endLine;
+      this.text = text;
+    }
+  }
+
+  private BlockDelta() {
+    // NOP
+  }
+
+  /**
+   * Returns the number of lines per block for a text with the given number of lines. The block
+   * size grows with the square root of the text size, which balances the size of the hashes
+   * against the size of the text that is sent for a block that is not found.
+   */
+  static int getBlockLines(final int lineCount) {
+    return Math.max(MIN_BLOCK_LINES, (int) Math.sqrt(lineCount));
+  }
+
+  /** Returns the number of lines of the given text. */
+  static int countLines(final String text) {
+    int lines = 1;
+
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) == LINE_SEPARATOR) lines++;
+    }
+
+    return lines;
+  }
+
+  /**
+   * Returns the given range of lines of the given text.
+   *
+   * @param startLine the first line of the range
+   * @param endLine the line after the range, a line after the end of the text for a range that
+   *     extends to the end of the text
+   */
+  static String getLines(final String text, final int startLine, final int endLine) {
+    final int start = getLineOffset(text, startLine);
+
+    return text.substring(start, Math.max(start, getLineOffset(text, endLine)));
+  }
+
+  /**
+   * Calculates the hashes of the blocks of the given text. The last block contains the remaining
+   * lines if the number of lines is not a multiple of the block size.
+   *
+   * @param text the normalized text of the inconsistent user
+   * @param blockLines the number of lines per block
+   * @return the hashes of the blocks
+   */
+  static long[] getBlockHashes(final String text, final int blockLines) {
+    final long[] lineHashes = getLineHashes(text, getLineOffsets(text));
+
+    final long[] hashes = new long[(lineHashes.length + blockLines - 1) / blockLines];
+
+    for (int block = 0; block < hashes.length; block++) {
+      final int start = block * blockLines;
+
+      hashes[block] =
+          getBlockHash(lineHashes, start, Math.min(blockLines, lineHashes.length - start));
+    }
+
+    return hashes;
+  }
+
+  /**
+   * Calculates the replacements that turn the text of the inconsistent user into the given text.
+   *
+   * @param text the normalized text of the host
+   * @param blockLines the number of lines per block
+   * @param otherLineCount the number of lines of the inconsistent user's text
+   * @param otherHashes the {@linkplain #getBlockHashes block hashes} of the inconsistent user's
+   *     text
+   * @return the replacements in ascending order, the line numbers refer to the inconsistent user's
+   *     text
+   */
+  static List<Replacement> diff(
+      final String text, final int blockLines, final int otherLineCount, final long[] otherHashes) {
+
+    final int[] offsets = getLineOffsets(text);
+    final long[] lineHashes = getLineHashes(text, offsets);
+    final int lineCount = lineHashes.length;
+
+    final int fullBlocks = otherLineCount / blockLines;
+
+    final Map<Long, List<Integer>> blocks = new HashMap<Long, List<Integer>>();
+
+    for (int block = 0; block < fullBlocks; block++) {
+      List<Integer> candidates = blocks.get(otherHashes[block]);
+
+      if (candidates == null) {
+        candidates = new ArrayList<Integer>();
+        blocks.put(otherHashes[block], candidates);
+      }
+
+      candidates.add(block);
+    }
+
+    final long shift = power(FNV_PRIME, blockLines - 1);
+
+    /* pairs of the line in this text and the index of the block that was found there */
+    final List<int[]> matches = new ArrayList<int[]>();
+
+    int nextBlock = 0;
+    int line = 0;
+    long hash = 0;
+    boolean isHashValid = false;
+
+    while (line + blockLines <= lineCount) {
+      if (!isHashValid) {
+        hash = getBlockHash(lineHashes, line, blockLines);
+        isHashValid = true;
+      }
+
+      final int block = findBlock(blocks.get(hash), nextBlock);
+
+      if (block >= 0) {
+        matches.add(new int[] {line, block});
+        nextBlock = block + 1;
+        line += blockLines;
+        isHashValid = false;
+        continue;
+      }
+
+      if (line + blockLines < lineCount)
+        hash = (hash - lineHashes[line] * shift) * FNV_PRIME + lineHashes[line + blockLines];
+
+      line++;
+    }
+
+    // the shorter last block can only be found at the end of this text
+    final int lastBlockLines = otherLineCount - fullBlocks * blockLines;
+
+    if (lastBlockLines > 0 && otherHashes.length > fullBlocks) {
+      final int start = lineCount - lastBlockLines;
+
+      final int matchedEnd =
+          matches.isEmpty() ? 0 : matches.get(matches.size() - 1)[0] + blockLines;
+
+      if (start >= matchedEnd
+          && getBlockHash(lineHashes, start, lastBlockLines) == otherHashes[fullBlocks])
+        matches.add(new int[] {start, fullBlocks});
+    }
+
+    final List<Replacement> replacements = new ArrayList<Replacement>();
+
+    int otherLine = 0;
+    line = 0;
+
+    for (final int[] match : matches) {
+      final int otherStart = match[1] * blockLines;
+
+      if (otherLine < otherStart || line < match[0])
+        replacements.add(
+            new Replacement(
+                otherLine, otherStart, text.substring(offsets[line], offsets[match[0]])));
+
+      final int size = Math.min(blockLines, otherLineCount - otherStart);
+
+      otherLine = otherStart + size;
+      line = match[0] + size;
+    }
+
+    if (otherLine < otherLineCount || line < lineCount)
+      replacements.add(
+          new Replacement(
+              otherLine, otherLineCount, text.substring(offsets[line], offsets[lineCount])));
+
+    return replacements;
+  }
+
+  /** Returns the smallest candidate that is not less than the given block, or -1. */
+  private static int findBlock(final List<Integer> candidates, final int minBlock) {
+    if (candidates == null) return -1;
+
+    int index = Collections.binarySearch(candidates, minBlock);
+
+    if (index < 0) index = -index - 1;
+
+    return index < candidates.size() ? candidates.get(index) : -1;
+  }
+
+  /** Returns the offsets the lines start at, followed by the length of the text. */
+  private static int[] getLineOffsets(final String text) {
+    final int[] offsets = new int[countLines(text) + 1];
+
+    int line = 1;
+
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) == LINE_SEPARATOR) offsets[line++] = i + 1;
+    }
+
+    offsets[line] = text.length();
+
+    return offsets;
+  }
+
+  private static int getLineOffset(final String text, final int line) {
+    int offset = 0;
+
+    for (int i = 0; i < line; i++) {
+      final int separator = text.indexOf(LINE_SEPARATOR, offset);
+
+      if (separator < 0) return text.length();
+
+      offset = separator + 1;
+    }
+
+    return offset;
+  }
+
+  /** Calculates the 64 bit FNV-1a hashes of the lines. */
+  private static long[] getLineHashes(final String text, final int[] offsets) {
+    final long[] hashes = new long[offsets.length - 1];
+
+    for (int line = 0; line < hashes.length; line++) {
+      long hash = FNV_OFFSET_BASIS;
+
+      for (int i = offsets[line]; i < offsets[line + 1]; i++) {
+        final char c = text.charAt(i);
+
+        hash = (hash ^ (c & 0xFF)) * FNV_PRIME;
+        hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+      }
+
+      hashes[line] = hash;
+    }
+
+    return hashes;
+  }
+
+  /**
+   * Combines the hashes of the given lines to a polynomial hash, so the hash of the next block can
+   * be calculated from the hash of the current one by removing its first and adding the next line.
+   */
+  private static long getBlockHash(final long[] lineHashes, final int start, final int lines) {
+    long hash = 0;
+
+    for (int line = start; line < start + lines; line++) hash = hash * FNV_PRIME + lineHashes[line];
+
+    return hash;
+  }
+
+  /** Calculates <code>base^exponent</code> with the overflow semantics of long arithmetic. */
+  private static long power(long base, int exponent) {
+    long result = 1;
+
+    while (exponent > 0) {
+      if ((exponent & 1) != 0) result *= base;
+
+      base *= base;
+      exponent >>= 1;
+    }
+
+    return result;
+  }
+}
@@ -0,0 +1,238 @@
+package saros.concurrent.watchdog;
+
+import java.util.Arrays;
+import saros.util.LineSeparatorNormalizationUtil;
+
+/**
+ * A hash tree (Merkle tree) over the normalized content of a document. It is used to narrow down
+ * an inconsistency to the parts of a document that actually differ.
+ *
+ * <p>The content is split into chunks of {@value #LINES_PER_CHUNK} lines, the leaves of the tree.
+ * Every inner node combines the hashes of up to {@value #FAN_OUT} nodes of the level below. The
+ * root is at level 0, the chunks are at level {@link #getDepth()}.
+ *
+ * <p>Two trees can only be compared if they consist of the same number of chunks. The tree of the
+ * host determines the number of chunks, the tree of a client is created for that number with
+ * {@link #ChecksumTree(String, int)}. The last chunk then contains all remaining lines of the
+ * client and chunks after the end of its content are empty.
+ *
+ * <p>This class is immutable.
+ */
+final class ChecksumTree {
+
+  static final int LINES_PER_CHUNK = 32;
+
+  static final int FAN_OUT = 16;
+
+  private static final char LINE_SEPARATOR =
+      LineSeparatorNormalizationUtil.NORMALIZED_LINE_SEPARATOR.charAt(0);
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private final String content;
+
+  /** The offsets the chunks start at, followed by the length of the content. */
+  private final int[] chunkOffsets;
+
+  /** The hashes of the nodes per level, the root at index 0 and the chunks at the last index. */
+  private final long[][] hashes;
+
+  /**
+   * Creates a tree with as many chunks as needed for the given content.
+   *
+   * @param content the normalized document content
+   */
+  ChecksumTree(final String content) {
+    this(content, (countLines(content) + LINES_PER_CHUNK - 1) / LINES_PER_CHUNK);
+  }
+
+  /**
+   * Creates a tree with the given number of chunks for the given content.
+   *
+   * @param content the normalized document content
+   * @param chunkCount the number of chunks, usually the chunk count of the host's tree
+   * @throws IllegalArgumentException if the chunk count is not positive
+   */
+  ChecksumTree(final String content, final int chunkCount) {
+    if (chunkCount < 1)
+      throw new IllegalArgumentException("chunk count must be positive: " + chunkCount);
+
+    this.content = content;
+
+    chunkOffsets = new int[chunkCount + 1];
+
+    int offset = 0;
+
+    for (int chunk = 1; chunk < chunkCount; chunk++) {
+      for (int line = 0; line < LINES_PER_CHUNK && offset < content.length(); line++) {
+        final int separator = content.indexOf(LINE_SEPARATOR, offset);
+        offset = separator < 0 ? content.length() : separator + 1;
+      }
+
+      chunkOffsets[chunk] = offset;
+    }
+
+    chunkOffsets[chunkCount] = content.length();
+
+    int depth = 0;
+
+    for (long capacity = 1; capacity < chunkCount; capacity *= FAN_OUT) depth++;
+
+    hashes = new long[depth + 1][];
+
+    final long[] chunkHashes = new long[chunkCount];
+
+    for (int chunk = 0; chunk < chunkCount; chunk++)
+      chunkHashes[chunk] = hash(content, chunkOffsets[chunk], chunkOffsets[chunk + 1]);
+
+    hashes[depth] = chunkHashes;
+
+    for (int level = depth - 1; level >= 0; level--) {
+      final long[] children = hashes[level + 1];
+      final long[] nodes = new long[(children.length + FAN_OUT - 1) / FAN_OUT];
+
+      for (int node = 0; node < nodes.length; node++) {
+        long hash = FNV_OFFSET_BASIS;
+
+        final int end = Math.min(children.length, (node + 1) * FAN_OUT);
+
+        for (int child = node * FAN_OUT; child < end; child++) hash = mix(hash, children[child]);
+
+        nodes[node] = hash;
+      }
+
+      hashes[level] = nodes;
+    }
+  }
+
+  /** Returns the number of chunks, i.e. the number of nodes at the deepest level. */
+  int getChunkCount() {
+    return chunkOffsets.length - 1;
+  }
+
+  /** Returns the level of the chunks. A tree consisting of one chunk has a depth of zero. */
+  int getDepth() {
+    return hashes.length - 1;
+  }
+
+  /** Returns the indices of all nodes at the given level. */
+  int[] getNodes(final int level) {
+    final int[] nodes = new int[hashes[level].length];
+
+    for (int i = 0; i < nodes.length; i++) nodes[i] = i;
+
+    return nodes;
+  }
+
+  /**
+   * Returns the hashes of the given nodes.
+   *
+   * @param level the level of the nodes
+   * @param nodes the indices of the nodes
+   * @return the hashes in the order of the given nodes
+   */
+  long[] getHashes(final int level, final int[] nodes) {
+    final long[] result = new long[nodes.length];
+
+    for (int i = 0; i < nodes.length; i++) result[i] = hashes[level][nodes[i]];
+
+    return result;
+  }
+
+  /**
+   * Returns the children of the given nodes.
+   *
+   * @param level the level of the nodes, must be less than the depth of the tree
+   * @param nodes the indices of the nodes in ascending order
+   * @return the indices of the children at the next level in ascending order
+   */
+  int[] getChildren(final int level, final int[] nodes) {
+    final int childCount = hashes[level + 1].length;
+
+    int[] children = new int[nodes.length * FAN_OUT];
+    int size = 0;
+
+    for (final int node : nodes) {
+      final int end = Math.min(childCount, (node + 1) * FAN_OUT);
+
+      for (int child = node * FAN_OUT; child < end; child++) children[size++] = child;
+    }
+
+    return Arrays.copyOf(children, size);
+  }
+
+  /**
+   * Compares the given hashes of another tree with the same number of chunks against this tree.
+   *
+   * @param level the level of the nodes
+   * @param nodes the indices of the nodes
+   * @param otherHashes the hashes of the nodes in the other tree
+   * @return the indices of the nodes whose hashes differ, in the order of the given nodes
+   * @throws IllegalArgumentException if the level is not part of this tree or the number of nodes
+   *     and hashes differ
+   */
+  int[] getDifferingNodes(final int level, final int[] nodes, final long[] otherHashes) {
+    if (level < 0 || level >= hashes.length)
+      throw new IllegalArgumentException("invalid level: " + level);
+
+    if (nodes.length != otherHashes.length)
+      throw new IllegalArgumentException("number of nodes and hashes differ");
+
+    final int[] differing = new int[nodes.length];
+    int size = 0;
+
+    for (int i = 0; i < nodes.length; i++) {
+      final int node = nodes[i];
+
+      if (node < 0 || node >= hashes[level].length || hashes[level][node] != otherHashes[i])
+        differing[size++] = node;
+    }
+
+    return Arrays.copyOf(differing, size);
+  }
+
+  /**
+   * Returns the content of the given range of chunks.
+   *
+   * @param firstChunk the index of the first chunk
+   * @param lastChunk the index of the last chunk, inclusive
+   */
+  String getText(final int firstChunk, final int lastChunk) {
+    return content.substring(chunkOffsets[firstChunk], chunkOffsets[lastChunk + 1]);
+  }
+
+  private static int countLines(final String content) {
+    int lines = 1;
+
+    for (int i = 0; i < content.length(); i++) {
+      if (content.charAt(i) == LINE_SEPARATOR) lines++;
+    }
+
+    return lines;
+  }
+
+  /** Calculates the 64 bit FNV-1a hash of the given range of characters. */
+  private static long hash(final String text, final int start, final int end) {
+    long hash = FNV_OFFSET_BASIS;
+
+    for (int i = start; i < end; i++) {
+      final char c = text.charAt(i);
+
+      hash = (hash ^ (c & 0xFF)) * FNV_PRIME;
+      hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+    }
+
+    return hash;
+  }
+
+  private static long mix(long hash, long value) {
+    for (int i = 0; i < 8; i++) {
+      hash = (hash ^ (value & 0xFF)) * FNV_PRIME;
+      value >>>= 8;
+    }
+
+    return hash;
+  }
+}
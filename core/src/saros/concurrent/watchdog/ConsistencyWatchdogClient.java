@@ -12,9 +12,12 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import org.apache.log4j.Logger;
+import saros.activities.BlockChecksumActivity;
 import saros.activities.ChecksumActivity;
 import saros.activities.ChecksumErrorActivity;
+import saros.activities.ChecksumTreeActivity;
 import saros.activities.FileActivity;
+import saros.activities.TextRecoveryActivity;
 import saros.annotations.Component;
 import saros.editor.IEditorManager;
 import saros.filesystem.IFile;
@@ -37,7 +40,9 @@ import saros.util.CoreUtils;
  *       them. See {@link #performCheck(ChecksumActivity)} If an inconsistency is detected the
  *       inconsistency state is set via the {@link IsInconsistentObservable}.
  *   <li>Send a ChecksumError to the host, if the user wants to recover from an inconsistency. See
- *       {@link #runRecovery}
+ *       {@link #runRecovery} During the recovery, the checksum trees sent by the host are compared
+ *       against the local content to narrow down the differing parts of a file, and the block
+ *       hashes of the differing parts are calculated for the host.
  * </ol>
  *
  * This class both produces and consumes activities.
@@ -95,6 +100,11 @@ public class ConsistencyWatchdogClient extends AbstractActivityProducer implemen
           performCheck(checksumActivity);
         }
 
+        @Override
+        public void receive(BlockChecksumActivity blockChecksum) {
+          if (blockChecksum.getSource().isHost()) calculateBlockChecksums(blockChecksum);
+        }
+
         @Override
         public void receive(ChecksumErrorActivity error) {
           if (error.getSource().isHost()) {
@@ -105,19 +115,109 @@ public class ConsistencyWatchdogClient extends AbstractActivityProducer implemen
           }
         }
 
+        @Override
+        public void receive(ChecksumTreeActivity checksumTree) {
+          if (checksumTree.getSource().isHost()) compareChecksumTree(checksumTree);
+        }
+
         @Override
         public void receive(FileActivity fileActivity) {
-          if (!fileActivity.isRecovery()) return;
+          if (fileActivity.isRecovery()) fileRecovered();
+        }
 
-          int currentValue;
-          while ((currentValue = filesRemaining.get()) > 0) {
-            if (filesRemaining.compareAndSet(currentValue, currentValue - 1)) {
-              break;
-            }
-          }
+        @Override
+        public void receive(TextRecoveryActivity textRecovery) {
+          fileRecovered();
         }
       };
 
+  private void fileRecovered() {
+    int currentValue;
+    while ((currentValue = filesRemaining.get()) > 0) {
+      if (filesRemaining.compareAndSet(currentValue, currentValue - 1)) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Compares the hashes of the host's checksum tree against the tree of the local content and
+   * replies with the nodes whose hashes differ. If the file does not exist locally the reply
+   * contains no nodes, so the host sends the whole file instead.
+   */
+  private void compareChecksumTree(final ChecksumTreeActivity checksumTree) {
+    final ISarosSession currentSession = session;
+
+    if (currentSession == null) return;
+
+    final IFile file = checksumTree.getResource();
+
+    final String content = file.exists() ? editorManager.getNormalizedContent(file) : null;
+
+    int[] differing = null;
+
+    if (content != null && checksumTree.getNodes() != null && checksumTree.getHashes() != null) {
+      try {
+        final ChecksumTree tree = new ChecksumTree(content, checksumTree.getChunkCount());
+
+        differing =
+            tree.getDifferingNodes(
+                checksumTree.getLevel(), checksumTree.getNodes(), checksumTree.getHashes());
+      } catch (IllegalArgumentException e) {
+        log.error("could not compare checksum tree: " + checksumTree, e);
+      }
+    }
+
+    fireActivity(
+        new ChecksumTreeActivity(
+            currentSession.getLocalUser(),
+            checksumTree.getSource(),
+            file,
+            checksumTree.getRecoveryID(),
+            checksumTree.getChunkCount(),
+            checksumTree.getLevel(),
+            differing,
+            null));
+  }
+
+  /**
+   * Calculates the hashes of the blocks of the requested range of the local content and replies
+   * with them. If the file does not exist locally the reply contains no hashes, so the host sends
+   * the whole file instead.
+   */
+  private void calculateBlockChecksums(final BlockChecksumActivity request) {
+    final ISarosSession currentSession = session;
+
+    if (currentSession == null) return;
+
+    final IFile file = request.getResource();
+
+    final String content = file.exists() ? editorManager.getNormalizedContent(file) : null;
+
+    int lineCount = 0;
+    long[] hashes = null;
+
+    if (content != null) {
+      final String lines =
+          BlockDelta.getLines(content, request.getStartLine(), request.getEndLine());
+
+      lineCount = BlockDelta.countLines(lines);
+      hashes = BlockDelta.getBlockHashes(lines, request.getBlockLines());
+    }
+
+    fireActivity(
+        new BlockChecksumActivity(
+            currentSession.getLocalUser(),
+            request.getSource(),
+            file,
+            request.getRecoveryID(),
+            request.getStartLine(),
+            request.getEndLine(),
+            request.getBlockLines(),
+            lineCount,
+            hashes));
+  }
+
   @Override
   public void start() {
     inconsistencyToResolve.setValue(false);
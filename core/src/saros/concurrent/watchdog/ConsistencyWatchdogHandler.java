@@ -2,14 +2,29 @@ package saros.concurrent.watchdog;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 import org.apache.log4j.Logger;
+import saros.activities.BlockChecksumActivity;
 import saros.activities.ChecksumActivity;
 import saros.activities.ChecksumErrorActivity;
+import saros.activities.ChecksumTreeActivity;
 import saros.activities.FileActivity.Purpose;
 import saros.activities.FileActivity.Type;
+import saros.activities.IActivity;
+import saros.activities.IResourceActivity;
+import saros.activities.NOPActivity;
 import saros.activities.TargetedFileActivity;
+import saros.activities.TextRecoveryActivity;
 import saros.annotations.Component;
 import saros.concurrent.management.ConcurrentDocumentServer;
 import saros.editor.IEditorManager;
@@ -28,6 +43,19 @@ import saros.util.ThreadUtils;
 /**
  * This component is responsible for handling Consistency Errors on the host. It both produces and
  * consumes activities.
+ *
+ * <p>Unless disabled, the differing parts of an inconsistent file are narrowed down with a {@link
+ * ChecksumTree} first. The host sends the hashes of the nodes of its tree level by level and the
+ * inconsistent user replies with the nodes that differ, until the differing chunks are known. Only
+ * these chunks are sent with a {@link TextRecoveryActivity}.
+ *
+ * <p>If many chunks differ, lines were usually inserted or removed and all following chunks are
+ * shifted. In that case the user sends the hashes of the blocks of its lines in the differing range
+ * and the host only sends the text that is not contained in these blocks (see {@link BlockDelta}).
+ * If the user cannot compare the hashes or does not reply in time, the whole file is sent.
+ *
+ * <p>Only the inconsistent user and the host are stopped during a recovery. The changes of the
+ * other participants to the affected files are queued until the files are recovered.
  */
 @Component(module = "consistency")
 public final class ConsistencyWatchdogHandler extends AbstractActivityProducer
@@ -35,6 +63,25 @@ public final class ConsistencyWatchdogHandler extends AbstractActivityProducer
 
   private static final Logger log = Logger.getLogger(ConsistencyWatchdogHandler.class);
 
+  /** Whether inconsistent files are sent as a whole instead of only their differing chunks. */
+  private static final boolean DISABLE_CHUNKED_RECOVERY =
+      Boolean.getBoolean("saros.watchdog.DISABLE_CHUNKED_RECOVERY");
+
+  /** Milliseconds to wait for the reply of the inconsistent user during a chunked recovery. */
+  private static final long REPLY_TIMEOUT = 10000;
+
+  /**
+   * Maximum number of differing chunks that are sent directly. If more chunks differ, the range of
+   * the differing chunks is recovered with a block delta instead.
+   */
+  private static final int MAX_DIRECT_CHUNKS = 8;
+
+  /** Whether all participants are stopped during a recovery instead of the inconsistent user. */
+  private static final boolean DISABLE_SCOPED_RECOVERY =
+      Boolean.getBoolean("saros.watchdog.DISABLE_SCOPED_RECOVERY");
+
+  private static final Random RANDOM = new Random();
+
   private final IEditorManager editorManager;
 
   private final ISarosSession session;
@@ -43,12 +90,45 @@ public final class ConsistencyWatchdogHandler extends AbstractActivityProducer
 
   private final UISynchronizer synchronizer;
 
+  /** The replies of the inconsistent users during the recoveries, by recovery ID. */
+  private final ConcurrentHashMap<String, BlockingQueue<IActivity>> pendingReplies =
+      new ConcurrentHashMap<String, BlockingQueue<IActivity>>();
+
+  /** The local activities the recoveries wait for until they are executed, by ID. */
+  private final ConcurrentHashMap<Integer, CountDownLatch> pendingBarriers =
+      new ConcurrentHashMap<Integer, CountDownLatch>();
+
   private final IActivityConsumer consumer =
       new AbstractActivityConsumer() {
         @Override
         public void receive(ChecksumErrorActivity checksumError) {
           triggerRecovery(checksumError);
         }
+
+        @Override
+        public void receive(BlockChecksumActivity blockChecksum) {
+          addReply(blockChecksum.getRecoveryID(), blockChecksum);
+        }
+
+        @Override
+        public void receive(ChecksumTreeActivity checksumTree) {
+          addReply(checksumTree.getRecoveryID(), checksumTree);
+        }
+
+        @Override
+        public void receive(NOPActivity nop) {
+          if (!nop.getSource().isLocal()) return;
+
+          final CountDownLatch executed = pendingBarriers.get(nop.getID());
+
+          if (executed != null) executed.countDown();
+        }
+
+        private void addReply(final String recoveryID, final IActivity reply) {
+          final BlockingQueue<IActivity> replies = pendingReplies.get(String.valueOf(recoveryID));
+
+          if (replies != null) replies.add(reply);
+        }
       };
 
   @Override
@@ -98,8 +178,84 @@ public final class ConsistencyWatchdogHandler extends AbstractActivityProducer
         });
   }
 
+  /**
+   * Recovers the files of the inconsistent user. The other participants can continue to work while
+   * the files are recovered. Their activities on the affected files are queued on the host until
+   * the files are recovered and then applied to the recovered documents.
+   *
+   * <p><b>Note:</b> Not only the inconsistent user but also the host is stopped for every recovery,
+   * i.e. the host cannot work until the recovery is finished. The changes of the host cannot be
+   * queued like the ones of the other participants, as they are already contained in the host's
+   * documents that are sent to the inconsistent user. The pending changes of the host are
+   * therefore transformed before the files are recovered, and no new ones may be made until the
+   * recovery is finished.
+   */
   private void runRecovery(final ChecksumErrorActivity checksumError) throws CancellationException {
 
+    if (DISABLE_SCOPED_RECOVERY) {
+      runSessionRecovery(checksumError);
+      return;
+    }
+
+    final List<IFile> files = checksumError.getFiles();
+
+    List<StartHandle> startHandles = null;
+
+    try {
+      startHandles =
+          session
+              .getStopManager()
+              .stop(
+                  Arrays.asList(checksumError.getSource(), session.getLocalUser()),
+                  "Consistency recovery");
+
+      for (final IFile file : files) session.enableQueuing(file);
+
+      try {
+        if (!awaitLocalActivities())
+          log.warn("pending activities of the host were not executed in time");
+
+        recoverFiles(checksumError);
+      } finally {
+        for (final IFile file : files) session.disableQueuing(file);
+      }
+
+    } finally {
+      if (startHandles != null) for (StartHandle startHandle : startHandles) startHandle.start();
+    }
+  }
+
+  /**
+   * Waits until all activities that the host sent or received so far are transformed and executed.
+   * A {@link NOPActivity} is sent like any other activity of the host, so it flushes the held back
+   * text edits and is executed after all activities that were transformed before it.
+   *
+   * @return <code>true</code> if the activities were executed, <code>false</code> on a timeout
+   */
+  private boolean awaitLocalActivities() {
+    final User localUser = session.getLocalUser();
+
+    final int id = RANDOM.nextInt();
+    final CountDownLatch executed = new CountDownLatch(1);
+
+    pendingBarriers.put(id, executed);
+
+    try {
+      fireActivity(new NOPActivity(localUser, localUser, id));
+
+      return executed.await(REPLY_TIMEOUT, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } finally {
+      pendingBarriers.remove(id);
+    }
+  }
+
+  /** Recovers the files of the inconsistent user while all participants are stopped. */
+  private void runSessionRecovery(final ChecksumErrorActivity checksumError)
+      throws CancellationException {
+
     List<StartHandle> startHandles = null;
 
     try {
@@ -137,25 +293,350 @@ public final class ConsistencyWatchdogHandler extends AbstractActivityProducer
 
   private void recoverFiles(final ChecksumErrorActivity checksumError) {
 
+    final User from = checksumError.getSource();
+    final String recoveryID = checksumError.getRecoveryID();
+
+    final BlockingQueue<IActivity> replies = new LinkedBlockingQueue<IActivity>();
+
+    pendingReplies.put(String.valueOf(recoveryID), replies);
+
+    try {
+      for (final IFile file : checksumError.getFiles()) {
+
+        if (DISABLE_CHUNKED_RECOVERY || !recoverChunks(from, file, recoveryID, replies)) {
+          synchronizer.syncExec(
+              new Runnable() {
+                @Override
+                public void run() {
+                  recoverFile(from, file);
+                }
+              });
+        }
+
+        // Tell the user that we sent all files
+        fireActivity(new ChecksumErrorActivity(session.getLocalUser(), from, null, recoveryID));
+      }
+    } finally {
+      pendingReplies.remove(String.valueOf(recoveryID));
+    }
+  }
+
+  /**
+   * Recovers only the differing chunks of a file for the given user. The differing chunks are
+   * narrowed down level by level with the {@link ChecksumTree} of the host's content and the
+   * replies of the user. If too many chunks differ, their range is recovered with a {@link
+   * BlockDelta}.
+   *
+   * @return <code>true</code> if the file was recovered, <code>false</code> if the file has to be
+   *     sent as a whole because it does not exist on one side or the user did not reply in time
+   */
+  private boolean recoverChunks(
+      final User from,
+      final IFile file,
+      final String recoveryID,
+      final BlockingQueue<IActivity> replies) {
+
+    final String[] content = new String[1];
+
+    synchronizer.syncExec(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (file.exists()) content[0] = editorManager.getNormalizedContent(file);
+          }
+        });
+
+    if (content[0] == null) return false;
+
+    final User user = session.getLocalUser();
+    final ChecksumTree tree = new ChecksumTree(content[0]);
+
+    // the root is skipped as the file is already known to be inconsistent
+    int level = Math.min(1, tree.getDepth());
+    int[] nodes = tree.getNodes(level);
+    int[] differing;
+
+    while (true) {
+      fireActivity(
+          new ChecksumTreeActivity(
+              user,
+              from,
+              file,
+              recoveryID,
+              tree.getChunkCount(),
+              level,
+              nodes,
+              tree.getHashes(level, nodes)));
+
+      final int replyLevel = level;
+
+      final ChecksumTreeActivity reply =
+          awaitReply(
+              replies,
+              ChecksumTreeActivity.class,
+              file,
+              (treeReply) -> treeReply.getLevel() == replyLevel);
+
+      if (reply == null || reply.getNodes() == null) return false;
+
+      differing = reply.getNodes();
+
+      if (differing.length == 0) {
+        log.debug("no differing chunks found for file: " + file);
+        return true;
+      }
+
+      Arrays.sort(differing);
+
+      if (level == tree.getDepth()) break;
+
+      nodes = tree.getChildren(level, differing);
+      level++;
+    }
+
+    final TextRecoveryActivity recovery;
+
+    if (differing.length <= MAX_DIRECT_CHUNKS) {
+      recovery = createTextRecovery(user, from, file, tree, differing);
+    } else {
+      recovery =
+          recoverDelta(
+              from, file, recoveryID, replies, tree, differing[0], differing[differing.length - 1]);
+
+      if (recovery == null) return false;
+    }
+
+    log.debug(
+        "recovering "
+            + recovery.getRangeCount()
+            + " range(s) of file "
+            + file
+            + " after "
+            + (level + 1)
+            + " checksum tree round trip(s)");
+
+    final boolean[] isRecovered = new boolean[1];
+
     synchronizer.syncExec(
         new Runnable() {
           @Override
           public void run() {
+            /*
+             * the recovery is only valid for the content the hashes were calculated for, which
+             * might have been changed locally as the host is not stopped during a scoped recovery
+             */
+            if (!file.exists() || !content[0].equals(editorManager.getNormalizedContent(file)))
+              return;
+
+            // Reset jupiter
+            concurrentDocumentServer.reset(from, file);
 
-            for (final IFile file : checksumError.getFiles()) {
+            fireActivity(recovery);
 
-              recoverFile(checksumError.getSource(), file);
+            // let the user verify the recovered file immediately
+            final DocumentChecksum checksum = new DocumentChecksum(file);
+            checksum.update(content[0]);
 
-              // Tell the user that we sent all files
-              fireActivity(
-                  new ChecksumErrorActivity(
-                      session.getLocalUser(),
-                      checksumError.getSource(),
-                      null,
-                      checksumError.getRecoveryID()));
-            }
+            fireActivity(
+                new ChecksumActivity(user, file, checksum.getHash(), checksum.getLength(), null));
+
+            isRecovered[0] = true;
           }
         });
+
+    if (!isRecovered[0])
+      log.debug("file " + file + " was changed during the recovery, sending whole file");
+
+    return isRecovered[0];
+  }
+
+  /**
+   * Requests the block hashes of the given range of chunks from the user and creates the activity
+   * that replaces the lines of the user that are not contained in the host's content.
+   *
+   * @return the recovery or <code>null</code> if the user could not calculate the hashes or did not
+   *     reply in time
+   */
+  private TextRecoveryActivity recoverDelta(
+      final User from,
+      final IFile file,
+      final String recoveryID,
+      final BlockingQueue<IActivity> replies,
+      final ChecksumTree tree,
+      final int firstChunk,
+      final int lastChunk) {
+
+    final int startLine = getStartLine(tree, firstChunk);
+    final int endLine = getStartLine(tree, lastChunk + 1);
+    final int blockLines =
+        BlockDelta.getBlockLines(BlockDelta.countLines(tree.getText(firstChunk, lastChunk)));
+
+    fireActivity(
+        new BlockChecksumActivity(
+            session.getLocalUser(),
+            from,
+            file,
+            recoveryID,
+            startLine,
+            endLine,
+            blockLines,
+            0,
+            null));
+
+    final BlockChecksumActivity reply =
+        awaitReply(
+            replies,
+            BlockChecksumActivity.class,
+            file,
+            (blocks) -> blocks.getStartLine() == startLine && blocks.getEndLine() == endLine);
+
+    if (reply == null || reply.getHashes() == null) return null;
+
+    return createDeltaRecovery(
+        session.getLocalUser(), from, file, tree, firstChunk, lastChunk, reply);
+  }
+
+  /**
+   * Waits for the reply of the inconsistent user for the given file. Replies of another type, for
+   * another file or not accepted by the given filter are outdated and ignored.
+   *
+   * @return the reply or <code>null</code> if the user did not reply in time
+   */
+  private <T extends IResourceActivity<IFile>> T awaitReply(
+      final BlockingQueue<IActivity> replies,
+      final Class<T> type,
+      final IFile file,
+      final Predicate<T> filter) {
+
+    final long deadline = System.currentTimeMillis() + REPLY_TIMEOUT;
+
+    try {
+      while (true) {
+        final IActivity reply =
+            replies.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+
+        if (reply == null) {
+          log.warn("no recovery reply received for file " + file + ", sending whole file");
+          return null;
+        }
+
+        if (type.isInstance(reply)) {
+          final T typedReply = type.cast(reply);
+
+          if (file.equals(typedReply.getResource()) && filter.test(typedReply)) return typedReply;
+        }
+
+        log.debug("ignoring outdated recovery reply: " + reply);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+
+  /**
+   * Creates the activity that replaces the given chunks of the user's document with the host's
+   * content. Consecutive chunks are combined to one range.
+   *
+   * @param chunks the indices of the differing chunks in ascending order
+   */
+  static TextRecoveryActivity createTextRecovery(
+      final User source,
+      final User target,
+      final IFile file,
+      final ChecksumTree tree,
+      final int[] chunks) {
+
+    final List<Integer> startLines = new ArrayList<Integer>();
+    final List<Integer> endLines = new ArrayList<Integer>();
+    final List<String> texts = new ArrayList<String>();
+
+    int i = 0;
+
+    while (i < chunks.length) {
+      final int first = chunks[i];
+      int last = first;
+
+      while (i + 1 < chunks.length && chunks[i + 1] == last + 1) {
+        last++;
+        i++;
+      }
+
+      i++;
+
+      startLines.add(getStartLine(tree, first));
+      endLines.add(getStartLine(tree, last + 1));
+      texts.add(tree.getText(first, last));
+    }
+
+    return new TextRecoveryActivity(
+        source,
+        target,
+        file,
+        toArray(startLines),
+        toArray(endLines),
+        texts.toArray(new String[texts.size()]));
+  }
+
+  /**
+   * Creates the activity that replaces the lines in the given range of chunks of the user's
+   * document that are not contained in the host's content.
+   *
+   * @param blocks the reply of the user with the block hashes of its lines in the range
+   */
+  static TextRecoveryActivity createDeltaRecovery(
+      final User source,
+      final User target,
+      final IFile file,
+      final ChecksumTree tree,
+      final int firstChunk,
+      final int lastChunk,
+      final BlockChecksumActivity blocks) {
+
+    final int startLine = getStartLine(tree, firstChunk);
+    final int endLine = getStartLine(tree, lastChunk + 1);
+    final int lineCount = blocks.getLineCount();
+
+    final List<BlockDelta.Replacement> replacements =
+        BlockDelta.diff(
+            tree.getText(firstChunk, lastChunk),
+            blocks.getBlockLines(),
+            lineCount,
+            blocks.getHashes());
+
+    final int[] startLines = new int[replacements.size()];
+    final int[] endLines = new int[replacements.size()];
+    final String[] texts = new String[replacements.size()];
+
+    for (int i = 0; i < texts.length; i++) {
+      final BlockDelta.Replacement replacement = replacements.get(i);
+
+      // lines after the range of the user start at the end line of the whole range
+      startLines[i] =
+          replacement.startLine < lineCount ? startLine + replacement.startLine : endLine;
+      endLines[i] = replacement.endLine < lineCount ? startLine + replacement.endLine : endLine;
+      texts[i] = replacement.text;
+    }
+
+    return new TextRecoveryActivity(source, target, file, startLines, endLines, texts);
+  }
+
+  /**
+   * Returns the first line of the given chunk or {@link TextRecoveryActivity#END_OF_DOCUMENT} if it
+   * is the chunk after the last one.
+   */
+  private static int getStartLine(final ChecksumTree tree, final int chunk) {
+    return chunk >= tree.getChunkCount()
+        ? TextRecoveryActivity.END_OF_DOCUMENT
+        : chunk * ChecksumTree.LINES_PER_CHUNK;
+  }
+
+  private static int[] toArray(final List<Integer> values) {
+    final int[] result = new int[values.size()];
+
+    for (int i = 0; i < result.length; i++) result[i] = values.get(i);
+
+    return result;
   }
 
   /**
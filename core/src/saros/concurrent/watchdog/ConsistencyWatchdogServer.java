@@ -1,11 +1,16 @@
 package saros.concurrent.watchdog;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -32,6 +37,12 @@ import saros.util.ThreadUtils;
  * session. It then sends these checksums to all watchdog clients, which can compare them with their
  * own checksum calculations to detect inconsistencies and request file recovery if needed.
  *
+ * <p>Unless disabled, the UI thread only captures {@linkplain DocumentSnapshot snapshots} of the
+ * documents whose checksums have to be calculated. The contents are normalized and their checksums
+ * calculated on a background pool and only published if the documents were not changed in the
+ * meantime. If the {@linkplain IEditorManager#getLineSeparator(IFile) line separator} of a
+ * document is not known in advance, its content is still normalized on the UI thread.
+ *
  * <p>This component is only run on the session's host.
  */
 @Component(module = "consistency")
@@ -43,6 +54,27 @@ public class ConsistencyWatchdogServer extends AbstractActivityProducer
   private static final long CHECKSUM_CALCULATION_INTERVAL = 10000;
   private static final long TERMINATION_TIMEOUT = 10000;
 
+  /**
+   * Whether checksums are updated with the text edits applied to their documents instead of being
+   * calculated over the whole content after every change.
+   */
+  private static final boolean INCREMENTAL_CHECKSUMS =
+      !Boolean.getBoolean("saros.watchdog.DISABLE_INCREMENTAL_CHECKSUMS");
+
+  /**
+   * Number of checksum calculation cycles after which incrementally updated checksums are verified
+   * by a calculation over the whole content, a value of zero or less disables the verification.
+   */
+  private static final int FULL_VERIFICATION_INTERVAL =
+      Integer.getInteger("saros.watchdog.FULL_VERIFICATION_INTERVAL", 30);
+
+  /**
+   * Number of threads that calculate the checksums of document snapshots in the background. A value
+   * of zero or less calculates the checksums on the UI thread.
+   */
+  private static final int HASHING_THREADS =
+      Integer.getInteger("saros.watchdog.HASHING_THREADS", 2);
+
   private final ISarosSession session;
   private final IEditorManager editorManager;
   private final UserEditorStateManager userEditorStateManager;
@@ -51,8 +83,10 @@ public class ConsistencyWatchdogServer extends AbstractActivityProducer
 
   private final Map<IFile, DocumentChecksum> documentChecksums = new HashMap<>();
   private ScheduledThreadPoolExecutor checksumCalculationExecutor;
+  private ExecutorService hashingExecutor;
   private Future<?> checksumCalculationFuture;
   private boolean blocked;
+  private int calculationCycles;
 
   private final Runnable checksumCalculation =
       new Runnable() {
@@ -61,10 +95,13 @@ public class ConsistencyWatchdogServer extends AbstractActivityProducer
          */
         @Override
         public void run() {
+          final List<DocumentSnapshot> snapshots =
+              hashingExecutor != null ? new ArrayList<DocumentSnapshot>() : null;
+
           /*
            * Run on the UI thread to guarantee that the editor contents won't
-           * be changed while we calculate the checksums. We also do this to
-           * synchronize with block().
+           * be changed while we calculate the checksums or capture the
+           * snapshots. We also do this to synchronize with block().
            */
           synchronizer.syncExec(
               ThreadUtils.wrapSafe(
@@ -73,7 +110,22 @@ public class ConsistencyWatchdogServer extends AbstractActivityProducer
                     @Override
                     public void run() {
                       if (blocked) return;
-                      calculateChecksums();
+                      calculateChecksums(snapshots);
+                    }
+                  }));
+
+          if (snapshots == null || snapshots.isEmpty()) return;
+
+          if (!calculateSnapshots(snapshots)) return;
+
+          synchronizer.syncExec(
+              ThreadUtils.wrapSafe(
+                  log,
+                  new Runnable() {
+                    @Override
+                    public void run() {
+                      if (blocked) return;
+                      publishChecksums(snapshots);
                     }
                   }));
         }
@@ -82,15 +134,16 @@ public class ConsistencyWatchdogServer extends AbstractActivityProducer
   private ISharedEditorListener sharedEditorListener =
       new ISharedEditorListener() {
         /**
-         * Marks checksums as dirty as soon as their associated documents are modified. With this
-         * information, checksum calculation can be avoided when the document hasn't changed between
-         * checksum iterations.
+         * Applies text edits to the checksums of their associated documents or marks the checksums
+         * as dirty if they cannot be updated incrementally. With this information, checksum
+         * calculation over the whole content can be avoided when the document hasn't changed or
+         * only changed by text edits between checksum iterations.
          */
         @Override
         public void textEdited(TextEditActivity textEdit) {
           DocumentChecksum checksum = documentChecksums.get(textEdit.getResource());
 
-          if (checksum != null) checksum.markDirty();
+          if (checksum != null) checksum.apply(textEdit);
         }
       };
 
@@ -131,6 +184,11 @@ public class ConsistencyWatchdogServer extends AbstractActivityProducer
 
     checksumCalculationExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
 
+    if (HASHING_THREADS > 0)
+      hashingExecutor =
+          Executors.newFixedThreadPool(
+              HASHING_THREADS, new NamedThreadFactory("Consistency-Watchdog-Hashing-"));
+
     checksumCalculationFuture =
         checksumCalculationExecutor.scheduleWithFixedDelay(
             checksumCalculation, 0, CHECKSUM_CALCULATION_INTERVAL, TimeUnit.MILLISECONDS);
@@ -158,6 +216,8 @@ public class ConsistencyWatchdogServer extends AbstractActivityProducer
 
     if (!isTerminated) log.error("Consistency watchdog server is still running");
 
+    if (hashingExecutor != null) hashingExecutor.shutdown();
+
     /*
      * Make sure we only clear the checksum map after the last checksum
      * calculation cycle that might still be running.
@@ -200,7 +260,13 @@ public class ConsistencyWatchdogServer extends AbstractActivityProducer
     blocked = false;
   }
 
-  private void calculateChecksums() {
+  /**
+   * Calculates the checksums of all open documents.
+   *
+   * @param snapshots the list to add the snapshots of the documents to whose checksums have to be
+   *     calculated in the background, or <code>null</code> to calculate all checksums immediately
+   */
+  private void calculateChecksums(List<DocumentSnapshot> snapshots) {
     Set<IFile> localEditors = editorManager.getOpenEditors();
 
     Set<IFile> remoteEditors = userEditorStateManager.getOpenEditors();
@@ -224,21 +290,94 @@ public class ConsistencyWatchdogServer extends AbstractActivityProducer
       }
     }
 
+    final boolean isVerificationCycle =
+        FULL_VERIFICATION_INTERVAL > 0 && ++calculationCycles % FULL_VERIFICATION_INTERVAL == 0;
+
     /*
      * Update or create checksums for all currently open documents.
      */
 
     for (IFile file : allEditors) {
-      updateChecksum(file, localEditors, remoteEditors);
-      broadcastChecksum(file);
+      if (updateChecksum(file, localEditors, remoteEditors, isVerificationCycle, snapshots))
+        broadcastChecksum(file);
     }
   }
 
-  private void updateChecksum(IFile file, Set<IFile> localEditors, Set<IFile> remoteEditors) {
+  /**
+   * Calculates the checksums of the given snapshots on the hashing pool.
+   *
+   * @return <code>true</code> if all checksums were calculated, <code>false</code> if the
+   *     calculation was interrupted
+   */
+  private boolean calculateSnapshots(List<DocumentSnapshot> snapshots) {
+    List<Callable<Void>> calculations = new ArrayList<Callable<Void>>(snapshots.size());
+
+    for (final DocumentSnapshot snapshot : snapshots) {
+      calculations.add(
+          new Callable<Void>() {
+            @Override
+            public Void call() {
+              snapshot.calculate();
+              return null;
+            }
+          });
+    }
+
+    try {
+      for (Future<Void> calculation : hashingExecutor.invokeAll(calculations)) calculation.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (Exception e) {
+      log.error("failed to calculate document checksums", e);
+      return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Publishes and broadcasts the checksums that were calculated for the given snapshots. Snapshots
+   * of documents that were changed or closed since they were captured are discarded. Checksums that
+   * became dirty in the meantime are calculated again in the next cycle.
+   */
+  private void publishChecksums(List<DocumentSnapshot> snapshots) {
+    for (DocumentSnapshot snapshot : snapshots) {
+      DocumentChecksum checksum = snapshot.getChecksum();
+
+      if (documentChecksums.get(checksum.getFile()) != checksum) continue;
+
+      if (snapshot.isCurrent()) {
+        if (!checksum.isDirty())
+          verifyChecksum(checksum, snapshot.getHash(), snapshot.getLength());
+
+        checksum.publish(snapshot);
+
+      } else if (checksum.isDirty()) {
+        continue;
+      }
+
+      broadcastChecksum(checksum.getFile());
+    }
+  }
+
+  /**
+   * Updates the checksum of the given file, or captures a snapshot of the document if the checksum
+   * has to be calculated in the background.
+   *
+   * @return <code>true</code> if the checksum can be broadcast, <code>false</code> if a snapshot
+   *     was captured instead
+   */
+  private boolean updateChecksum(
+      IFile file,
+      Set<IFile> localEditors,
+      Set<IFile> remoteEditors,
+      boolean isVerificationCycle,
+      List<DocumentSnapshot> snapshots) {
 
     DocumentChecksum checksum = documentChecksums.get(file);
     if (checksum == null) {
-      checksum = new DocumentChecksum(file);
+      checksum = new DocumentChecksum(file, INCREMENTAL_CHECKSUMS);
       documentChecksums.put(file, checksum);
     }
 
@@ -258,13 +397,46 @@ public class ConsistencyWatchdogServer extends AbstractActivityProducer
       checksum.markDirty();
       checksum.update(null);
 
-      return;
+      return true;
+
+    } else if (!checksum.isDirty() && (!isVerificationCycle || checksum.getAppliedEdits() == 0)) {
+      return true;
+    }
+
+    final String lineSeparator = snapshots != null ? editorManager.getLineSeparator(file) : null;
+
+    final String normalizedEditorContent;
 
-    } else if (!checksum.isDirty()) {
-      return;
+    if (lineSeparator != null) {
+      // the content is normalized along with the checksum calculation
+      final String editorContent = editorManager.getContent(file);
+
+      if (editorContent != null) {
+        snapshots.add(new DocumentSnapshot(checksum, editorContent, lineSeparator));
+        return false;
+      }
+
+      normalizedEditorContent = null;
+
+    } else {
+      normalizedEditorContent = editorManager.getNormalizedContent(file);
+
+      if (normalizedEditorContent != null && snapshots != null) {
+        snapshots.add(new DocumentSnapshot(checksum, normalizedEditorContent));
+        return false;
+      }
     }
 
-    String normalizedEditorContent = editorManager.getNormalizedContent(checksum.getFile());
+    if (!checksum.isDirty()) {
+      if (normalizedEditorContent == null) {
+        verifyChecksum(checksum, DocumentChecksum.NOT_AVAILABLE, DocumentChecksum.NOT_AVAILABLE);
+      } else {
+        verifyChecksum(
+            checksum, normalizedEditorContent.hashCode(), normalizedEditorContent.length());
+      }
+
+      checksum.markDirty();
+    }
 
     if (normalizedEditorContent == null) {
       if (localEditors.contains(checksum.getFile())) {
@@ -280,11 +452,22 @@ public class ConsistencyWatchdogServer extends AbstractActivityProducer
          * open, they are right (and our EditorPool might be confused)
          */
         documentChecksums.remove(checksum.getFile());
-        return;
+        return true;
       }
     }
 
     checksum.update(normalizedEditorContent);
+
+    return true;
+  }
+
+  /** Logs a warning if an incrementally updated checksum does not match the given values. */
+  private static void verifyChecksum(DocumentChecksum checksum, int hash, int length) {
+    if (hash != checksum.getHash() || length != checksum.getLength()) {
+      log.warn(
+          "Incrementally updated checksum does not match the content of the document: "
+              + checksum);
+    }
   }
 
   private void broadcastChecksum(IFile file) {
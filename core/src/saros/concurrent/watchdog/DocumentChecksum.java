@@ -1,10 +1,15 @@
 package saros.concurrent.watchdog;
 
+import saros.activities.TextEditActivity;
 import saros.filesystem.IFile;
 
 /**
  * Represents a checksum of a document in the workspace. It consists of the document's file, the
  * content length, and the content's string hash code.
+ *
+ * <p>An incremental checksum additionally keeps the content it was last calculated for, so text
+ * edits can be {@linkplain #apply(TextEditActivity) applied} to it instead of calculating the
+ * checksum over the whole content again.
  */
 public class DocumentChecksum {
 
@@ -16,17 +21,36 @@ public class DocumentChecksum {
 
   private final IFile file;
 
+  private final boolean isIncremental;
+
   private int length;
   private int hash;
   private boolean dirty;
 
+  private IncrementalDocumentHash incrementalHash;
+  private boolean isHashOutdated;
+  private int appliedEdits;
+
+  private long modificationStamp;
+
   /**
    * Creates a new DocumentChecksum.
    *
    * @param file the document's file
    */
   public DocumentChecksum(IFile file) {
+    this(file, false);
+  }
+
+  /**
+   * Creates a new DocumentChecksum.
+   *
+   * @param file the document's file
+   * @param isIncremental whether text edits can be applied to the checksum
+   */
+  public DocumentChecksum(IFile file, boolean isIncremental) {
     this.file = file;
+    this.isIncremental = isIncremental;
     this.dirty = true;
   }
 
@@ -61,6 +85,11 @@ public class DocumentChecksum {
    *     #NOT_AVAILABLE} if not available
    */
   public int getHash() {
+    if (isHashOutdated) {
+      hash = incrementalHash.getHash();
+      isHashOutdated = false;
+    }
+
     return hash;
   }
 
@@ -82,12 +111,68 @@ public class DocumentChecksum {
     return dirty;
   }
 
+  /**
+   * Returns whether text edits can be applied to the checksum.
+   *
+   * @return <code>true</code> if the checksum is incremental, <code>false</code> otherwise
+   */
+  public boolean isIncremental() {
+    return isIncremental;
+  }
+
+  /**
+   * Returns a stamp that changes whenever the associated document changes, i.e. whenever a text
+   * edit is {@linkplain #apply(TextEditActivity) applied} or the checksum is {@linkplain
+   * #markDirty() marked as dirty}.
+   *
+   * @return the modification stamp
+   */
+  public long getModificationStamp() {
+    return modificationStamp;
+  }
+
   /**
    * Tells the checksum that its content length and hash code are out-of-date because the associated
    * document changed.
    */
   public void markDirty() {
     dirty = true;
+    modificationStamp++;
+  }
+
+  /**
+   * Updates the checksum to the content after the given text edit, provided the checksum is
+   * incremental and not {@link #isDirty() dirty}. Otherwise, or if the edit does not match the
+   * content the checksum was calculated for, the checksum is marked as dirty.
+   *
+   * @param edit the text edit that was applied to the associated document
+   */
+  public void apply(TextEditActivity edit) {
+    modificationStamp++;
+
+    if (dirty) return;
+
+    if (incrementalHash == null
+        || !incrementalHash.apply(
+            edit.getStartPosition(), edit.getReplacedText(), edit.getNewText())) {
+      incrementalHash = null;
+      dirty = true;
+      return;
+    }
+
+    length = incrementalHash.getLength();
+    isHashOutdated = true;
+    appliedEdits++;
+  }
+
+  /**
+   * Returns the number of text edits that were {@linkplain #apply(TextEditActivity) applied} since
+   * the checksum was last calculated over the whole content.
+   *
+   * @return the number of applied text edits
+   */
+  public int getAppliedEdits() {
+    return appliedEdits;
   }
 
   /**
@@ -109,11 +194,37 @@ public class DocumentChecksum {
       hash = documentContent.hashCode();
     }
 
+    incrementalHash =
+        isIncremental && documentContent != null
+            ? new IncrementalDocumentHash(documentContent)
+            : null;
+
+    isHashOutdated = false;
+    appliedEdits = 0;
+    dirty = false;
+  }
+
+  /**
+   * Updates the checksum to the values that were calculated for the given snapshot, no matter
+   * whether the checksum is {@link #isDirty() dirty} or not. The caller has to ensure that the
+   * snapshot is {@linkplain DocumentSnapshot#isCurrent() current}.
+   *
+   * <p>This method resets the checksum to be non-dirty.
+   *
+   * @param snapshot a calculated snapshot of the associated document
+   */
+  void publish(DocumentSnapshot snapshot) {
+    length = snapshot.getLength();
+    hash = snapshot.getHash();
+    incrementalHash = snapshot.getIncrementalHash();
+
+    isHashOutdated = false;
+    appliedEdits = 0;
     dirty = false;
   }
 
   @Override
   public String toString() {
-    return file + " [" + this.length + "," + this.hash + "]";
+    return file + " [" + this.length + "," + getHash() + "]";
   }
 }
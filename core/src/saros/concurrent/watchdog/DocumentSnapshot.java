@@ -0,0 +1,100 @@
+package saros.concurrent.watchdog;
+
+import saros.util.LineSeparatorNormalizationUtil;
+
+/**
+ * A snapshot of the content of a document that is captured on the UI thread, so the content can be
+ * normalized and its checksum {@linkplain #calculate() calculated} on another thread.
+ *
+ * <p>The snapshot remembers the {@linkplain DocumentChecksum#getModificationStamp() modification
+ * stamp} of the document's checksum at the time it was captured. The calculated values may only be
+ * {@linkplain DocumentChecksum#publish(DocumentSnapshot) published} to the checksum if the stamp is
+ * still current, otherwise the document was changed in the meantime.
+ */
+final class DocumentSnapshot {
+
+  private final DocumentChecksum checksum;
+
+  private final long modificationStamp;
+
+  private final String lineSeparator;
+
+  private final boolean isIncremental;
+
+  private String content;
+
+  private int hash;
+
+  private IncrementalDocumentHash incrementalHash;
+
+  /**
+   * Captures a snapshot of normalized content. Must be called on the thread that updates the
+   * checksum.
+   *
+   * @param checksum the checksum of the document
+   * @param content the current normalized content of the document
+   */
+  DocumentSnapshot(final DocumentChecksum checksum, final String content) {
+    this(checksum, content, LineSeparatorNormalizationUtil.NORMALIZED_LINE_SEPARATOR);
+  }
+
+  /**
+   * Captures a snapshot of content that is normalized by {@link #calculate()}. Must be called on
+   * the thread that updates the checksum.
+   *
+   * @param checksum the checksum of the document
+   * @param content the current content of the document
+   * @param lineSeparator the line separator used in the content
+   */
+  DocumentSnapshot(
+      final DocumentChecksum checksum, final String content, final String lineSeparator) {
+    this.checksum = checksum;
+    this.modificationStamp = checksum.getModificationStamp();
+    this.content = content;
+    this.lineSeparator = lineSeparator;
+    this.isIncremental = checksum.isIncremental();
+  }
+
+  /** Returns the checksum the snapshot was captured for. */
+  DocumentChecksum getChecksum() {
+    return checksum;
+  }
+
+  /** Returns the modification stamp of the checksum at the time the snapshot was captured. */
+  long getModificationStamp() {
+    return modificationStamp;
+  }
+
+  /**
+   * Returns whether the document was not changed since the snapshot was captured. Must be called on
+   * the thread that updates the checksum.
+   */
+  boolean isCurrent() {
+    return checksum.getModificationStamp() == modificationStamp;
+  }
+
+  /**
+   * Normalizes the content and calculates its checksum. May be called on any thread, but only
+   * once.
+   */
+  void calculate() {
+    content = LineSeparatorNormalizationUtil.normalize(content, lineSeparator);
+    hash = content.hashCode();
+    incrementalHash = isIncremental ? new IncrementalDocumentHash(content) : null;
+  }
+
+  /** Returns the length of the normalized content, only valid after {@link #calculate()}. */
+  int getLength() {
+    return content.length();
+  }
+
+  /** Returns the hash code of the content, only valid after {@link #calculate()}. */
+  int getHash() {
+    return hash;
+  }
+
+  /** Returns the incremental hash of the content if the checksum is incremental. */
+  IncrementalDocumentHash getIncrementalHash() {
+    return incrementalHash;
+  }
+}
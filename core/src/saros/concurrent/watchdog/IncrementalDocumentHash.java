@@ -0,0 +1,205 @@
+package saros.concurrent.watchdog;
+
+import java.util.ArrayList;
+import java.util.List;
+import saros.editor.text.TextPosition;
+import saros.util.LineSeparatorNormalizationUtil;
+
+/**
+ * Maintains the {@link String#hashCode() string hash code} of a document's normalized content while
+ * text edits are applied to it.
+ *
+ * <p>The string hash code is a polynomial hash, so the hash code of a concatenation can be
+ * calculated from the hash codes and lengths of its parts: <code>
+ * hash(a + b) = hash(a) * 31^length(b) + hash(b)</code>. The content is therefore kept in chunks
+ * of at most {@value #CHUNK_SIZE} characters with cached hash codes. A text edit only rehashes the
+ * chunks it touches and the hash code of the document is combined from the cached hash codes of
+ * the chunks. This way, the cost of an edit depends on the size of the edit and not on the size of
+ * the document.
+ *
+ * <p>This class is <b>not</b> thread safe.
+ */
+final class IncrementalDocumentHash {
+
+  static final int CHUNK_SIZE = 4096;
+
+  private static final char LINE_SEPARATOR =
+      LineSeparatorNormalizationUtil.NORMALIZED_LINE_SEPARATOR.charAt(0);
+
+  private static final class Chunk {
+
+    private final String text;
+
+    private final int hash;
+
+    /** <code>31^length</code>, the factor the hash code of the preceding content is shifted by. */
+    private final int shift;
+
+    private final int lineSeparators;
+
+    private Chunk(final String text) {
+      this.text = text;
+      this.hash = text.hashCode();
+      this.shift = power(31, text.length());
+
+      int count = 0;
+
+      for (int i = 0; i < text.length(); i++) {
+        if (text.charAt(i) == LINE_SEPARATOR) count++;
+      }
+
+      this.lineSeparators = count;
+    }
+
+    private int length() {
+      return text.length();
+    }
+  }
+
+  private final List<Chunk> chunks = new ArrayList<Chunk>();
+
+  private int length;
+
+  /**
+   * Creates a new hash for the given content.
+   *
+   * @param content the normalized document content
+   */
+  IncrementalDocumentHash(final String content) {
+    insertChunks(0, content);
+    length = content.length();
+  }
+
+  /** Returns the length of the content. */
+  int getLength() {
+    return length;
+  }
+
+  /** Returns the hash code of the content, equal to the string hash code of the content. */
+  int getHash() {
+    int hash = 0;
+
+    for (final Chunk chunk : chunks) hash = hash * chunk.shift + chunk.hash;
+
+    return hash;
+  }
+
+  /**
+   * Applies a text edit to the content.
+   *
+   * @param start the position the edit starts at
+   * @param replacedText the normalized text that is replaced by the edit
+   * @param newText the normalized text that is inserted by the edit
+   * @return <code>true</code> if the edit was applied, <code>false</code> if the edit does not
+   *     match the content, i.e. the position is not part of the content or the replaced text
+   *     differs from the content at that position
+   */
+  boolean apply(final TextPosition start, final String replacedText, final String newText) {
+    final int offset = getOffset(start);
+
+    if (offset < 0 || offset + replacedText.length() > length) return false;
+
+    int first = 0;
+    int firstStart = 0;
+
+    while (first < chunks.size() - 1 && firstStart + chunks.get(first).length() <= offset) {
+      firstStart += chunks.get(first).length();
+      first++;
+    }
+
+    final int end = offset + replacedText.length();
+
+    int last = first;
+    int lastEnd = firstStart + chunks.get(first).length();
+
+    while (lastEnd < end) {
+      last++;
+      lastEnd += chunks.get(last).length();
+    }
+
+    final StringBuilder affected = new StringBuilder(lastEnd - firstStart);
+
+    for (int i = first; i <= last; i++) affected.append(chunks.get(i).text);
+
+    final int from = offset - firstStart;
+
+    if (!affected.substring(from, from + replacedText.length()).equals(replacedText)) return false;
+
+    affected.replace(from, from + replacedText.length(), newText);
+
+    // merge shrunken chunks with their successor so the number of chunks stays small
+    if (affected.length() < CHUNK_SIZE / 2
+        && last + 1 < chunks.size()
+        && affected.length() + chunks.get(last + 1).length() <= CHUNK_SIZE) {
+
+      last++;
+      affected.append(chunks.get(last).text);
+    }
+
+    chunks.subList(first, last + 1).clear();
+    insertChunks(first, affected.toString());
+
+    length += newText.length() - replacedText.length();
+
+    return true;
+  }
+
+  /**
+   * Returns the offset of the given position in the content.
+   *
+   * @return the offset or <code>-1</code> if the line of the position is not part of the content
+   */
+  private int getOffset(final TextPosition position) {
+    final int line = position.getLineNumber();
+    final int inLineOffset = position.getInLineOffset();
+
+    if (line < 0 || inLineOffset < 0) return -1;
+
+    if (line == 0) return inLineOffset;
+
+    int remaining = line;
+    int chunkStart = 0;
+
+    for (final Chunk chunk : chunks) {
+      if (chunk.lineSeparators < remaining) {
+        remaining -= chunk.lineSeparators;
+        chunkStart += chunk.length();
+        continue;
+      }
+
+      int index = -1;
+
+      for (int i = 0; i < remaining; i++) index = chunk.text.indexOf(LINE_SEPARATOR, index + 1);
+
+      return chunkStart + index + 1 + inLineOffset;
+    }
+
+    return -1;
+  }
+
+  private void insertChunks(final int index, final String text) {
+    final List<Chunk> inserted = new ArrayList<Chunk>();
+
+    for (int i = 0; i < text.length(); i += CHUNK_SIZE)
+      inserted.add(new Chunk(text.substring(i, Math.min(i + CHUNK_SIZE, text.length()))));
+
+    chunks.addAll(index, inserted);
+
+    // there is always at least one chunk to apply edits to
+    if (chunks.isEmpty()) chunks.add(new Chunk(""));
+  }
+
+  /** Calculates <code>base^exponent</code> with the overflow semantics of int arithmetic. */
+  private static int power(int base, int exponent) {
+    int result = 1;
+
+    while (exponent > 0) {
+      if ((exponent & 1) != 0) result *= base;
+
+      base *= base;
+      exponent >>= 1;
+    }
+
+    return result;
+  }
+}
@@ -4,7 +4,9 @@ import java.io.File;
 import java.util.List;
 import org.apache.log4j.Logger;
 import saros.account.XMPPAccountStore;
+import saros.communication.extensions.ActivitiesAcknowledgementExtension;
 import saros.communication.extensions.ActivitiesExtension;
+import saros.communication.extensions.BinaryActivitiesExtension;
 import saros.communication.extensions.CancelInviteExtension;
 import saros.communication.extensions.CancelResourceNegotiationExtension;
 import saros.communication.extensions.ConnectionEstablishedExtension;
@@ -131,6 +133,8 @@ public class ContainerContext implements IContainerContext {
 
       // General session extensions
       Class.forName(ActivitiesExtension.class.getName());
+      Class.forName(ActivitiesAcknowledgementExtension.class.getName());
+      Class.forName(BinaryActivitiesExtension.class.getName());
       Class.forName(KickUserExtension.class.getName());
       Class.forName(UserListExtension.class.getName());
       Class.forName(LeaveSessionExtension.class.getName());
@@ -35,7 +35,9 @@ import saros.net.xmpp.subscription.SubscriptionHandler;
 import saros.observables.FileReplacementInProgressObservable;
 import saros.repackaged.picocontainer.BindKey;
 import saros.repackaged.picocontainer.MutablePicoContainer;
+import saros.session.ActivityCodecNegotiationHook;
 import saros.session.ColorNegotiationHook;
+import saros.session.CompressionDictionaryNegotiationHook;
 import saros.session.ResourceNegotiationTypeHook;
 import saros.session.SarosSessionManager;
 import saros.versioning.VersionManager;
@@ -76,6 +78,8 @@ public class CoreContextFactory extends AbstractContextFactory {
       Component.create(SessionNegotiationHookManager.class),
       Component.create(ColorNegotiationHook.class),
       Component.create(ResourceNegotiationTypeHook.class),
+      Component.create(ActivityCodecNegotiationHook.class),
+      Component.create(CompressionDictionaryNegotiationHook.class),
 
       // Network
       Component.create(DispatchThreadContext.class),
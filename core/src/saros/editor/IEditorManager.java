@@ -69,6 +69,23 @@ public interface IEditorManager {
    */
   String getNormalizedContent(IFile file);
 
+  /**
+   * Returns the line separator that {@link #getNormalizedContent(IFile)} replaces in the result of
+   * {@link #getContent(IFile)}. This allows callers to capture the content on the UI thread and
+   * normalize it on another thread.
+   *
+   * <p>The default implementation returns <code>null</code>, i.e. the content can only be
+   * normalized by calling {@link #getNormalizedContent(IFile)}.
+   *
+   * @param file the file whose line separator should be returned
+   * @return the line separator of the matching local document, {@link
+   *     LineSeparatorNormalizationUtil#NORMALIZED_LINE_SEPARATOR} if its content is already
+   *     normalized, or <code>null</code> if the line separator is not known in advance
+   */
+  default String getLineSeparator(IFile file) {
+    return null;
+  }
+
   /**
    * Saves the local editors of all shared files belonging to the given reference point. If <code>
    * null</code> is passed, the shared files of all reference points will be saved.
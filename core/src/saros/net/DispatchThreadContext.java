@@ -1,36 +1,94 @@
 package saros.net;
 
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import org.apache.log4j.Logger;
 import saros.annotations.Component;
 import saros.repackaged.picocontainer.Disposable;
+import saros.util.KeyedSerialExecutor;
 import saros.util.NamedThreadFactory;
 import saros.util.ThreadUtils;
 
-/** The ExecutorService under which all incoming activities should be executed. */
+/**
+ * The context under which all incoming packets and activities should be executed.
+ *
+ * <p>Tasks are executed with a key (e.g the JID of the sender of a packet or the id of a
+ * negotiation). Tasks with the same key are executed one after another in the order they were
+ * submitted, tasks with different keys may be executed in parallel. The number of threads can be
+ * configured with the system property <code>saros.net.DISPATCH_THREADS</code>, a value of <code>1
+ * </code> executes all tasks one after another.
+ */
 @Component(module = "core")
 public class DispatchThreadContext implements Disposable {
 
   private static final Logger log = Logger.getLogger(DispatchThreadContext.class);
 
-  protected ExecutorService dispatch =
-      Executors.newSingleThreadExecutor(new NamedThreadFactory("DispatchContext", false));
+  private static final int DISPATCH_THREADS =
+      Math.max(1, Integer.getInteger("saros.net.DISPATCH_THREADS", 4));
+
+  /** Key for all tasks that are executed without a key. */
+  private static final Object DEFAULT_KEY = new Object();
+
+  protected ExecutorService dispatch;
+
+  private final KeyedSerialExecutor<Object> keyedDispatch;
+
+  public DispatchThreadContext() {
+    final ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            DISPATCH_THREADS,
+            DISPATCH_THREADS,
+            30,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new NamedThreadFactory("DispatchContext-"));
+
+    executor.allowCoreThreadTimeOut(true);
+
+    dispatch = executor;
+    keyedDispatch = new KeyedSerialExecutor<Object>(executor);
+  }
 
   /**
-   * Execute the given runnable as if it was received via the network component.
+   * Execute the given runnable as if it was received via the network component. All runnables
+   * submitted by this method are executed one after another, but in parallel to the runnables that
+   * are submitted with a key. Callers must not rely on any order with respect to the latter.
    *
    * <p>This is used by the ConcurrentDocumentManager to skip sending a JupiterActivity via the
    * network which originated on the host to the JupiterServer.
    */
   public void executeAsDispatch(Runnable runnable) {
-    dispatch.submit(ThreadUtils.wrapSafe(log, runnable));
+    executeAsDispatch(DEFAULT_KEY, runnable);
+  }
+
+  /**
+   * Execute the given runnable as if it was received via the network component. The runnable is
+   * executed after all runnables that were previously submitted with the same key.
+   *
+   * @param key the key of the runnable, e.g the JID of the sender of a packet, <code>null</code>
+   *     is a valid key
+   * @param runnable the runnable to execute
+   */
+  public void executeAsDispatch(Object key, Runnable runnable) {
+    keyedDispatch.execute(key, ThreadUtils.wrapSafe(log, runnable));
   }
 
+  /**
+   * Returns the thread pool that is used to execute the dispatched runnables. <b>Note:</b> Tasks
+   * that are directly submitted to this executor are <b>not</b> ordered with respect to any other
+   * task.
+   */
   public ExecutorService getDispatchExecutor() {
     return dispatch;
   }
 
+  /** Returns the number of runnables that are waiting to be executed. */
+  public int getPendingTaskCount() {
+    return keyedDispatch.getPendingTaskCount();
+  }
+
   @Override
   public void dispose() {
     dispatch.shutdownNow();
@@ -0,0 +1,78 @@
+package saros.net;
+
+import org.jivesoftware.smack.filter.AndFilter;
+import org.jivesoftware.smack.filter.PacketFilter;
+import org.jivesoftware.smack.packet.Packet;
+
+/**
+ * Packet filter that accepts packets containing a packet extension with a given element name and
+ * namespace which are additionally accepted by an optional filter.
+ *
+ * <p>Unlike Smack's {@link org.jivesoftware.smack.filter.PacketExtensionFilter} the element name
+ * and namespace of this filter are known, which allows the {@link IReceiver} to index its listeners
+ * and to only evaluate the filters of the listeners that are interested in the extensions of a
+ * received packet.
+ */
+public final class ExtensionPacketFilter implements PacketFilter {
+
+  private final String elementName;
+  private final String namespace;
+  private final PacketFilter filter;
+
+  /**
+   * Creates a filter that accepts all packets containing a packet extension with the given element
+   * name and namespace.
+   *
+   * @throws NullPointerException if the element name or namespace is <code>null</code>
+   */
+  public ExtensionPacketFilter(final String elementName, final String namespace) {
+    this(elementName, namespace, null);
+  }
+
+  private ExtensionPacketFilter(
+      final String elementName, final String namespace, final PacketFilter filter) {
+
+    if (elementName == null) throw new NullPointerException("elementName is null");
+
+    if (namespace == null) throw new NullPointerException("namespace is null");
+
+    this.elementName = elementName;
+    this.namespace = namespace;
+    this.filter = filter;
+  }
+
+  /**
+   * Returns a filter that only accepts packets that are accepted by both filters. If the first
+   * filter is an {@link ExtensionPacketFilter} the returned filter will also be one with the same
+   * element name and namespace.
+   *
+   * @param first the first filter
+   * @param second the second filter
+   * @return the combined filter
+   */
+  public static PacketFilter and(final PacketFilter first, final PacketFilter second) {
+    if (!(first instanceof ExtensionPacketFilter)) return new AndFilter(first, second);
+
+    final ExtensionPacketFilter extensionFilter = (ExtensionPacketFilter) first;
+
+    return new ExtensionPacketFilter(
+        extensionFilter.elementName,
+        extensionFilter.namespace,
+        extensionFilter.filter == null ? second : new AndFilter(extensionFilter.filter, second));
+  }
+
+  public String getElementName() {
+    return elementName;
+  }
+
+  public String getNamespace() {
+    return namespace;
+  }
+
+  @Override
+  public boolean accept(final Packet packet) {
+    if (packet.getExtension(elementName, namespace) == null) return false;
+
+    return filter == null || filter.accept(packet);
+  }
+}
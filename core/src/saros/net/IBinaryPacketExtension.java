@@ -0,0 +1,23 @@
+package saros.net;
+
+import java.io.IOException;
+import org.jivesoftware.smack.packet.PacketExtension;
+
+/**
+ * A packet extension that is able to marshal itself into a compact binary representation. When
+ * such an extension is send via the {@link ITransmitter} over a byte stream connection the result
+ * of {@link #toByteArray()} is transmitted instead of its XML representation.
+ *
+ * <p>The receiving side must have a provider installed for the element name and namespace of the
+ * extension that implements {@link IBinaryPacketExtensionProvider}.
+ */
+public interface IBinaryPacketExtension extends PacketExtension {
+
+  /**
+   * Returns the binary representation of this extension.
+   *
+   * @return the marshalled extension
+   * @throws IOException if the extension could not be marshalled
+   */
+  public byte[] toByteArray() throws IOException;
+}
@@ -0,0 +1,25 @@
+package saros.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.jivesoftware.smack.packet.PacketExtension;
+
+/**
+ * Provider counterpart of the {@link IBinaryPacketExtension}. Providers implementing this interface
+ * and which are registered at the Smack <code>ProviderManager</code> will be used by the {@link
+ * IReceiver} to unmarshal binary extensions without going through a XML parser.
+ */
+public interface IBinaryPacketExtensionProvider {
+
+  /**
+   * Unmarshals the given data that was created by {@link IBinaryPacketExtension#toByteArray()}.
+   * The data is read from the current position up to the limit of the buffer. <b>Note:</b> The
+   * buffer is only valid for the duration of this call and <b>must not</b> be referenced by the
+   * returned extension.
+   *
+   * @param data the marshalled extension
+   * @return the unmarshalled extension
+   * @throws IOException if the data could not be unmarshalled
+   */
+  public PacketExtension parseExtension(ByteBuffer data) throws IOException;
+}
@@ -29,4 +29,24 @@ public interface ITransferListener {
    * @param duration time in milliseconds it took to receive the data
    */
   public void received(StreamMode mode, long sizeCompressed, long sizeUncompressed, long duration);
+
+  /**
+   * Gets called when the compression level used for a packet extension type changes. The default
+   * implementation does nothing.
+   *
+   * @param namespace the namespace of the packet extension
+   * @param elementName the element name of the packet extension
+   * @param level the new compression level, <code>0</code> if the payload is no longer compressed,
+   *     see {@link java.util.zip.Deflater#setLevel(int)}
+   * @param compressionRatio the average ratio of compressed size to uncompressed size
+   * @param nanosPerByte the average time in nanoseconds it took to compress a single byte
+   */
+  public default void compressionChanged(
+      String namespace,
+      String elementName,
+      int level,
+      double compressionRatio,
+      double nanosPerByte) {
+    // NOP
+  }
 }
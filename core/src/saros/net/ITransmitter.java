@@ -74,6 +74,27 @@ public interface ITransmitter {
   public void send(String connectionID, JID recipient, PacketExtension extension)
       throws IOException;
 
+  /**
+   * Sets whether compressed payloads that are sent to the given peer may use a preset dictionary.
+   * This must only be enabled if the peer announced that it is able to decompress such payloads.
+   *
+   * @param peer the recipient of the payloads
+   * @param enabled <code>true</code> to use the dictionary, <code>false</code> otherwise
+   */
+  public default void setCompressionDictionaryEnabled(JID peer, boolean enabled) {
+    // NOP
+  }
+
+  /**
+   * Returns the id of the preset dictionary that is used for peers for which it is {@linkplain
+   * #setCompressionDictionaryEnabled enabled}. Both peers must use the dictionary with the same id.
+   *
+   * @return the id of the dictionary or <code>null</code> if no dictionary is supported
+   */
+  public default String getCompressionDictionaryId() {
+    return null;
+  }
+
   public default void addTransferListener(ITransferListener listener) {
     // NOP
   }
@@ -19,7 +19,7 @@ public class PacketCollector implements PacketListener {
   }
 
   private static final Logger log = Logger.getLogger(PacketCollector.class);
-  private boolean hasReveived = false;
+  private volatile boolean hasReveived = false;
 
   /**
    * Max number of packets that any one collector can hold. After the max is reached this collector
@@ -99,9 +99,10 @@ public class PacketCollector implements PacketListener {
    * <p>If the result queue's capacity {@link #MAX_PACKETS} is reached, the collector is canceled
    * using the proved {@link CancelHook}.
    *
+   * <p>This method may be called concurrently for packets of different senders by the {@link
+   * saros.net.DispatchThreadContext}.
+   *
    * @param packet the packet to process
-   * @singleThreaded should only be accessed by the single threaded executer of {@link
-   *     saros.net.DispatchThreadContext}
    */
   @Override
   public void processPacket(Packet packet) {
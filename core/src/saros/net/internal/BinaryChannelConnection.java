@@ -2,7 +2,6 @@ package saros.net.internal;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
@@ -12,10 +11,19 @@ import java.net.ProtocolException;
 import java.net.SocketException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import org.apache.log4j.Logger;
 import saros.net.stream.ByteStream;
 import saros.net.stream.StreamMode;
 import saros.net.xmpp.JID;
+import saros.util.NamedThreadFactory;
+import saros.util.ThreadUtils;
 
 /**
  * BinaryChannelConnection is a class that encapsulates a bidirectional communication channel
@@ -24,7 +32,20 @@ import saros.net.xmpp.JID;
  * <p>The threading requirements of this class are the following:
  *
  * <p>send() is a reentrant method for sending data. Any number of threads can call it in parallel.
- * <b>Note:</b> The maximum number of concurrent threads is 32 !
+ * <b>Note:</b> The maximum number of concurrent threads is limited by the number of available
+ * fragment ids, see <code>saros.net.internal.MAX_CONCURRENT_FRAGMENTS</code> !
+ *
+ * <p>Concurrent sends are interleaved chunk by chunk. Small payloads are sent with {@linkplain
+ * Priority#INTERACTIVE interactive} priority and are written before the next chunk of any pending
+ * {@linkplain Priority#BULK bulk} payload, so a large transfer does not delay e.g the text edits
+ * that are sent at the same time.
+ *
+ * <p>Frames of consecutive sends are coalesced into a single flush of the underlying stream. A
+ * flush is skipped if another thread is about to write. During a burst of sends (i.e the last flush
+ * was less than <code>saros.net.internal.CORK_TIMEOUT</code> ms ago) the flush is delayed by at
+ * most that timeout so more frames can be written in one go. <b>Note:</b> As a result send() may
+ * return before the data was flushed. If such a delayed flush fails, the error is not reported to
+ * the caller of send(). Instead the connection is closed and its listener is notified.
  *
  * @author sszuecs
  * @author coezbek
@@ -42,6 +63,13 @@ public class BinaryChannelConnection implements IByteStreamConnection {
     private static final int TRANSFERDESCRIPTION = 0xFA;
     private static final int DATA = 0xFB;
 
+    /*
+     * same as above but with a 32 bit fragment id, only used if the id does
+     * not fit into 16 bit so the protocol stays compatible for the common case
+     */
+    private static final int TRANSFERDESCRIPTION_WIDE_ID = 0xFC;
+    private static final int DATA_WIDE_ID = 0xFD;
+
     private static final int NAMESPACE_UPDATE = 0x64;
     private static final int ELEMENT_NAME_UPDATE = 0x65;
   }
@@ -49,6 +77,48 @@ public class BinaryChannelConnection implements IByteStreamConnection {
   /** Max size of data chunks */
   private static final int CHUNKSIZE = 32 * 1024 - 1;
 
+  /** Max number of fragments (i.e payloads) that can be sent concurrently. */
+  private static final int MAX_CONCURRENT_FRAGMENTS =
+      Integer.getInteger("saros.net.internal.MAX_CONCURRENT_FRAGMENTS", 65536);
+
+  /**
+   * Max time in milliseconds a flush is delayed to coalesce frames of subsequent sends. A value of
+   * <code>0</code> disables corking, frames are then only coalesced if other threads are about to
+   * write.
+   */
+  private static final long CORK_TIMEOUT = Long.getLong("saros.net.internal.CORK_TIMEOUT", 2L);
+
+  private static final ScheduledThreadPoolExecutor FLUSH_SCHEDULER =
+      new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("BinaryChannel-Flusher", false));
+
+  static {
+    // do not keep the JVM alive
+    FLUSH_SCHEDULER.setKeepAliveTime(1, TimeUnit.SECONDS);
+    FLUSH_SCHEDULER.allowCoreThreadTimeOut(true);
+  }
+
+  /** Largest fragment id that can be transmitted with the legacy 16 bit opcodes. */
+  private static final int MAX_SHORT_FRAGMENT_ID = Short.MAX_VALUE;
+
+  /** Payloads larger than this threshold are sent with {@link Priority#BULK} priority. */
+  private static final int INTERACTIVE_PAYLOAD_THRESHOLD =
+      Integer.getInteger("saros.net.internal.INTERACTIVE_PAYLOAD_THRESHOLD", 8 * 1024);
+
+  /**
+   * Max time a chunk of a bulk payload is deferred in favor of interactive payloads. Ensures that
+   * bulk transfers still make progress if there is a steady stream of interactive payloads.
+   */
+  private static final long MAX_BULK_DEFER_TIME =
+      Long.getLong("saros.net.internal.MAX_BULK_DEFER_TIME", 100L);
+
+  /** Priority classes used to schedule the chunks of outgoing payloads. */
+  public enum Priority {
+    /** Small latency sensitive payloads, e.g activities. */
+    INTERACTIVE,
+    /** Large payloads, e.g file contents. */
+    BULK
+  }
+
   private IByteStreamConnectionListener listener;
   private ReceiverThread receiveThread;
 
@@ -57,13 +127,24 @@ public class BinaryChannelConnection implements IByteStreamConnection {
 
   private final String connectionID;
 
-  private IDPool idPool = new IDPool();
+  private IDPool idPool = new IDPool(MAX_CONCURRENT_FRAGMENTS);
+
+  private final SendScheduler scheduler = new SendScheduler(MAX_BULK_DEFER_TIME);
+
+  private final long corkTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(CORK_TIMEOUT);
+
+  /* guarded by the send lock */
+  private long lastFlushTime;
+  private int unflushedFrames;
+  private boolean flushScheduled;
+
+  private final AtomicLong flushCount = new AtomicLong();
+  private final AtomicLong flushedFrameCount = new AtomicLong();
+  private volatile int maxFramesPerFlush;
 
   private boolean connected;
   private boolean initialized;
 
-  private Map<Integer, ByteArrayOutputStream> pendingFragmentedPackets =
-      new HashMap<Integer, ByteArrayOutputStream>();
   private Map<Integer, BinaryXMPPExtension> pendingXMPPExtensions =
       new HashMap<Integer, BinaryXMPPExtension>();
 
@@ -168,6 +249,12 @@ public class BinaryChannelConnection implements IByteStreamConnection {
     synchronized (this) {
       if (!isConnected()) return;
 
+      try {
+        flushCorkedFrames();
+      } catch (IOException e) {
+        log.error(this + " failed to flush corked frames: " + e.getMessage(), e);
+      }
+
       try {
         stream.close();
       } catch (Exception e) {
@@ -192,6 +279,21 @@ public class BinaryChannelConnection implements IByteStreamConnection {
       }
     }
 
+    if (log.isDebugEnabled())
+      log.debug(
+          this
+              + " send statistics: max queue depth [interactive="
+              + getMaxQueueDepth(Priority.INTERACTIVE)
+              + ", bulk="
+              + getMaxQueueDepth(Priority.BULK)
+              + "], deferred bulk chunks="
+              + getDeferredChunkCount()
+              + ", frames per flush [avg="
+              + String.format("%.2f", getAverageFramesPerFlush())
+              + ", max="
+              + getMaxFramesPerFlush()
+              + "]");
+
     listener.connectionClosed(connectionID, this);
   }
 
@@ -214,71 +316,135 @@ public class BinaryChannelConnection implements IByteStreamConnection {
 
     if (fragmentId < 0) throw new IOException("concurrent access threshold exceeded");
 
-    try {
-
-      Integer namespaceId;
-      Integer elementNameId;
-
-      synchronized (this) {
-        final String namespace = data.getNamespace();
-        namespaceId = outNamespaceCache.get(namespace);
+    assert content.length > 0;
 
-        if (namespaceId == null) {
-          if (nextNamespaceId > 255) throw new IOException("namespace cache limit exceeded");
+    final Priority priority =
+        content.length > INTERACTIVE_PAYLOAD_THRESHOLD ? Priority.BULK : Priority.INTERACTIVE;
 
-          namespaceId = Integer.valueOf(nextNamespaceId++);
-          outNamespaceCache.put(namespace, namespaceId);
+    scheduler.enqueue(priority, content.length);
 
-          if (log.isTraceEnabled())
-            log.trace(
-                "updated outgoing namespace cache, id: "
-                    + namespaceId
-                    + " , namespace: "
-                    + namespace);
-
-          outputStream.write(Opcode.NAMESPACE_UPDATE);
-          outputStream.write(namespaceId);
-          outputStream.writeUTF(namespace);
-        }
-
-        final String elementName = data.getElementName();
-        elementNameId = outElementNameCache.get(elementName);
+    try {
+      final int chunks = ((content.length - 1) / CHUNKSIZE) + 1;
 
-        if (elementNameId == null) {
-          if (nextElementNameId > 65535) throw new IOException("element name cache limit exceeded");
+      scheduler.acquire(priority);
 
-          elementNameId = Integer.valueOf(nextElementNameId++);
-          outElementNameCache.put(elementName, elementNameId);
+      try {
+        final int namespaceId = getNamespaceId(data.getNamespace());
+        final int elementNameId = getElementNameId(data.getElementName());
 
-          if (log.isTraceEnabled())
-            log.trace(
-                "updated outgoing element name cache, id: "
-                    + elementNameId
-                    + " , element name: "
-                    + elementName);
-
-          outputStream.write(Opcode.ELEMENT_NAME_UPDATE);
-          outputStream.writeShort(elementNameId);
-          outputStream.writeUTF(elementName);
-        }
+        sendTransferDescription(
+            fragmentId, chunks, namespaceId, elementNameId, data.compressContent());
+      } finally {
+        scheduler.release();
       }
 
-      assert content.length > 0;
-
-      int chunks = ((content.length - 1) / CHUNKSIZE) + 1;
-
-      sendTransferDescription(
-          fragmentId, chunks, namespaceId, elementNameId, data.compressContent());
-
-      splitAndSend(content, chunks, fragmentId);
+      splitAndSend(priority, content, chunks, fragmentId);
     } catch (IOException e) {
       close();
       throw e;
     } finally {
+      scheduler.dequeue(priority, content.length);
       idPool.freeID(fragmentId);
     }
   }
 
+  /**
+   * Returns the number of payloads with the given priority that are currently waiting to be sent
+   * or are being sent.
+   */
+  public int getQueueDepth(Priority priority) {
+    return scheduler.getQueueDepth(priority);
+  }
+
+  /** Returns the highest queue depth that was observed for the given priority. */
+  public int getMaxQueueDepth(Priority priority) {
+    return scheduler.getMaxQueueDepth(priority);
+  }
+
+  /**
+   * Returns the total size in bytes of the payloads with the given priority that are currently
+   * waiting to be sent or are being sent.
+   */
+  public long getQueuedBytes(Priority priority) {
+    return scheduler.getQueuedBytes(priority);
+  }
+
+  /** Returns the number of bulk chunks that were deferred in favor of interactive payloads. */
+  public long getDeferredChunkCount() {
+    return scheduler.getDeferredChunkCount();
+  }
+
+  /** Returns the number of times the underlying stream was flushed. */
+  public long getFlushCount() {
+    return flushCount.get();
+  }
+
+  /** Returns the average number of frames that were written per flush. */
+  public double getAverageFramesPerFlush() {
+    final long flushes = flushCount.get();
+    return flushes == 0 ? 0D : (double) flushedFrameCount.get() / flushes;
+  }
+
+  /** Returns the highest number of frames that were written by a single flush. */
+  public int getMaxFramesPerFlush() {
+    return maxFramesPerFlush;
+  }
+
+  /**
+   * Returns the id for the given namespace, transmitting a cache update to the remote side if the
+   * namespace is not known yet. Must be called while holding the send lock.
+   */
+  private int getNamespaceId(final String namespace) throws IOException {
+    Integer namespaceId = outNamespaceCache.get(namespace);
+
+    if (namespaceId != null) return namespaceId;
+
+    if (nextNamespaceId > 255) throw new IOException("namespace cache limit exceeded");
+
+    namespaceId = Integer.valueOf(nextNamespaceId++);
+    outNamespaceCache.put(namespace, namespaceId);
+
+    if (log.isTraceEnabled())
+      log.trace(
+          "updated outgoing namespace cache, id: " + namespaceId + " , namespace: " + namespace);
+
+    outputStream.write(Opcode.NAMESPACE_UPDATE);
+    outputStream.write(namespaceId);
+    outputStream.writeUTF(namespace);
+    unflushedFrames++;
+
+    return namespaceId;
+  }
+
+  /**
+   * Returns the id for the given element name, transmitting a cache update to the remote side if
+   * the element name is not known yet. Must be called while holding the send lock.
+   */
+  private int getElementNameId(final String elementName) throws IOException {
+    Integer elementNameId = outElementNameCache.get(elementName);
+
+    if (elementNameId != null) return elementNameId;
+
+    if (nextElementNameId > 65535) throw new IOException("element name cache limit exceeded");
+
+    elementNameId = Integer.valueOf(nextElementNameId++);
+    outElementNameCache.put(elementName, elementNameId);
+
+    if (log.isTraceEnabled())
+      log.trace(
+          "updated outgoing element name cache, id: "
+              + elementNameId
+              + " , element name: "
+              + elementName);
+
+    outputStream.write(Opcode.ELEMENT_NAME_UPDATE);
+    outputStream.writeShort(elementNameId);
+    outputStream.writeUTF(elementName);
+    unflushedFrames++;
+
+    return elementNameId;
+  }
+
   /**
    * Reads the next XMPP extension.
    *
@@ -301,7 +467,8 @@ public class BinaryChannelConnection implements IByteStreamConnection {
 
       switch (opcode) {
         case Opcode.TRANSFERDESCRIPTION:
-          fragmentId = inputStream.readShort();
+        case Opcode.TRANSFERDESCRIPTION_WIDE_ID:
+          fragmentId = readFragmentId(opcode == Opcode.TRANSFERDESCRIPTION_WIDE_ID);
           final int chunks = inputStream.readInt();
 
           if (log.isTraceEnabled()) {
@@ -339,7 +506,8 @@ public class BinaryChannelConnection implements IByteStreamConnection {
           break;
 
         case Opcode.DATA:
-          fragmentId = inputStream.readShort();
+        case Opcode.DATA_WIDE_ID:
+          fragmentId = readFragmentId(opcode == Opcode.DATA_WIDE_ID);
           final int payloadLength = inputStream.readInt();
 
           if (log.isTraceEnabled()) {
@@ -360,32 +528,19 @@ public class BinaryChannelConnection implements IByteStreamConnection {
                     + " <= "
                     + CHUNKSIZE);
 
-          byte[] payload = new byte[payloadLength];
-          inputStream.readFully(payload);
-
-          ByteArrayOutputStream out = pendingFragmentedPackets.get(fragmentId);
+          final BinaryXMPPExtension pendingExtension = pendingXMPPExtensions.get(fragmentId);
 
-          if (out == null) {
-            out = new ByteArrayOutputStream(payloadLength * 2);
-            pendingFragmentedPackets.put(fragmentId, out);
-          }
+          if (pendingExtension == null)
+            throw new ProtocolException("received data for unknown fragment id: " + fragmentId);
 
-          out.write(payload);
-          out.flush();
+          pendingExtension.readChunk(inputStream, payloadLength, CHUNKSIZE, BufferPool.RECEIVE);
 
-          if (!pendingXMPPExtensions.get(fragmentId).isLastChunk()) break;
+          if (!pendingExtension.isLastChunk()) break;
 
-          pendingFragmentedPackets.remove(fragmentId);
+          pendingXMPPExtensions.remove(fragmentId);
+          pendingExtension.completePayload();
 
-          BinaryXMPPExtension fullyReceivedTransferObject =
-              pendingXMPPExtensions.remove(fragmentId);
-
-          payload = out.toByteArray();
-          out = null; // help GC
-
-          fullyReceivedTransferObject.setPayload(payload.length, payload);
-
-          return fullyReceivedTransferObject;
+          return pendingExtension;
 
         case Opcode.ELEMENT_NAME_UPDATE:
           if (log.isTraceEnabled()) {
@@ -430,21 +585,35 @@ public class BinaryChannelConnection implements IByteStreamConnection {
     throw new InterruptedIOException("interrupted while reading stream data");
   }
 
-  private synchronized void sendData(int fragmentId, byte[] data, int offset, int length)
-      throws IOException {
+  private int readFragmentId(final boolean wide) throws IOException {
+    final int fragmentId = wide ? inputStream.readInt() : inputStream.readShort();
+
+    if (fragmentId < 0) throw new ProtocolException("invalid fragment id: " + fragmentId);
+
+    return fragmentId;
+  }
+
+  /** Must be called while holding the send lock. */
+  private void sendData(int fragmentId, byte[] data, int offset, int length) throws IOException {
 
     if (log.isTraceEnabled()) {
       log.trace("sending data: id=" + fragmentId + ", len=" + length + " bytes");
     }
 
-    outputStream.write(Opcode.DATA);
-    outputStream.writeShort(fragmentId);
+    if (fragmentId > MAX_SHORT_FRAGMENT_ID) {
+      outputStream.write(Opcode.DATA_WIDE_ID);
+      outputStream.writeInt(fragmentId);
+    } else {
+      outputStream.write(Opcode.DATA);
+      outputStream.writeShort(fragmentId);
+    }
     outputStream.writeInt(length);
     outputStream.write(data, offset, length);
-    outputStream.flush();
+    unflushedFrames++;
   }
 
-  private synchronized void sendTransferDescription(
+  /** Must be called while holding the send lock. */
+  private void sendTransferDescription(
       int fragmentId, int chunks, int namespaceId, int elementNameId, boolean compress)
       throws IOException {
 
@@ -452,16 +621,103 @@ public class BinaryChannelConnection implements IByteStreamConnection {
       log.trace("sending transfer description: id=" + fragmentId);
     }
 
-    outputStream.write(Opcode.TRANSFERDESCRIPTION);
-    outputStream.writeShort(fragmentId);
+    if (fragmentId > MAX_SHORT_FRAGMENT_ID) {
+      outputStream.write(Opcode.TRANSFERDESCRIPTION_WIDE_ID);
+      outputStream.writeInt(fragmentId);
+    } else {
+      outputStream.write(Opcode.TRANSFERDESCRIPTION);
+      outputStream.writeShort(fragmentId);
+    }
     outputStream.writeInt(chunks);
     outputStream.write(namespaceId);
     outputStream.writeShort(elementNameId);
     outputStream.write(compress ? 1 : 0);
+    unflushedFrames++;
+  }
+
+  /**
+   * Flushes the written frames unless they can be coalesced with the frames of subsequent sends.
+   * Must be called while holding the send lock.
+   */
+  private void flushOrCork() throws IOException {
+    if (unflushedFrames == 0) return;
+
+    // the next writer will flush
+    if (scheduler.hasWaitingSenders()) return;
+
+    if (corkTimeoutNanos > 0 && System.nanoTime() - lastFlushTime < corkTimeoutNanos) {
+      if (!flushScheduled) {
+        flushScheduled = true;
+        scheduleCorkedFlush();
+      }
+      return;
+    }
+
+    flush();
+  }
+
+  /** Must be called while holding the send lock. */
+  private void flush() throws IOException {
+    final int frames = unflushedFrames;
+
+    unflushedFrames = 0;
+
+    outputStream.flush();
+
+    lastFlushTime = System.nanoTime();
+
+    flushCount.incrementAndGet();
+    flushedFrameCount.addAndGet(frames);
+
+    if (frames > maxFramesPerFlush) maxFramesPerFlush = frames;
+  }
+
+  private void scheduleCorkedFlush() {
+    FLUSH_SCHEDULER.schedule(this::flushScheduledFrames, corkTimeoutNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Flushes the corked frames on the flush scheduler, which is shared by all connections and must
+   * therefore never block. If another thread is currently writing, the flush is rescheduled. If the
+   * flush fails, the connection is closed on another thread, as closing waits for the receiver
+   * thread.
+   */
+  private void flushScheduledFrames() {
+    try {
+      if (!flushCorkedFrames() && isConnected()) scheduleCorkedFlush();
+    } catch (IOException e) {
+      log.error(this + " failed to flush corked frames: " + e.getMessage(), e);
+      ThreadUtils.runSafeAsync("BinaryChannel-Closer", log, this::close);
+    }
+  }
+
+  /**
+   * Flushes frames that were held back by {@link #flushOrCork()} unless another thread is currently
+   * writing.
+   *
+   * @return <code>false</code> if the flush was skipped because another thread holds the send
+   *     lock, <code>true</code> otherwise
+   */
+  private boolean flushCorkedFrames() throws IOException {
+    if (!scheduler.tryAcquire()) return false;
+
+    try {
+      flushScheduled = false;
+
+      if (unflushedFrames > 0 && isConnected()) flush();
+    } finally {
+      scheduler.release();
+    }
+
+    return true;
   }
 
-  /** Splits the given data into chunks of CHUNKSIZE to send the BinaryPackets. */
-  private void splitAndSend(byte[] data, int chunks, int fragmentId) throws IOException {
+  /**
+   * Splits the given data into chunks of CHUNKSIZE to send the BinaryPackets. The send lock is
+   * acquired for every chunk so chunks of concurrent sends can be interleaved.
+   */
+  private void splitAndSend(Priority priority, byte[] data, int chunks, int fragmentId)
+      throws IOException {
 
     int offset = 0;
     int length = 0;
@@ -470,7 +726,16 @@ public class BinaryChannelConnection implements IByteStreamConnection {
 
       length = Math.min(data.length - offset, CHUNKSIZE);
 
-      sendData(fragmentId, data, offset, length);
+      scheduler.acquire(priority);
+
+      try {
+        sendData(fragmentId, data, offset, length);
+
+        if (chunks == 0) flushOrCork();
+        else if (!scheduler.hasWaitingSenders()) flush();
+      } finally {
+        scheduler.release();
+      }
 
       offset += length;
     }
@@ -481,34 +746,181 @@ public class BinaryChannelConnection implements IByteStreamConnection {
     return "[mode=" + getMode() + ", id=" + connectionID + "]" + " " + remoteAddress;
   }
 
+  /**
+   * Serializes the access to the output stream and decides which of the concurrently sending
+   * threads may write the next chunk. The underlying lock is fair so chunks of payloads with the
+   * same priority are interleaved in FIFO order. Chunks of bulk payloads are deferred as long as
+   * interactive payloads are pending, but at most for the given max defer time per chunk.
+   */
+  static class SendScheduler {
+
+    private final ReentrantLock lock = new ReentrantLock(true);
+
+    private final Condition interactiveDrained = lock.newCondition();
+
+    private final long maxBulkDeferNanos;
+
+    private final AtomicInteger[] queueDepth = {new AtomicInteger(), new AtomicInteger()};
+
+    private final AtomicInteger[] maxQueueDepth = {new AtomicInteger(), new AtomicInteger()};
+
+    private final AtomicLong[] queuedBytes = {new AtomicLong(), new AtomicLong()};
+
+    private final AtomicLong deferredChunks = new AtomicLong();
+
+    SendScheduler(final long maxBulkDeferTime) {
+      this.maxBulkDeferNanos = TimeUnit.MILLISECONDS.toNanos(maxBulkDeferTime);
+    }
+
+    /** Registers a payload of the given size that is about to be sent. */
+    void enqueue(final Priority priority, final int size) {
+      final int index = priority.ordinal();
+      final int depth = queueDepth[index].incrementAndGet();
+
+      queuedBytes[index].addAndGet(size);
+
+      int max;
+
+      while ((max = maxQueueDepth[index].get()) < depth
+          && !maxQueueDepth[index].compareAndSet(max, depth)) {
+        // retry
+      }
+    }
+
+    /** Unregisters a payload that was either completely sent or failed to send. */
+    void dequeue(final Priority priority, final int size) {
+      final int index = priority.ordinal();
+
+      queuedBytes[index].addAndGet(-size);
+
+      if (queueDepth[index].decrementAndGet() != 0 || priority != Priority.INTERACTIVE) return;
+
+      lock.lock();
+      try {
+        interactiveDrained.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * Acquires the send lock. Must be followed by a call to {@link #release()}. If the priority is
+     * {@link Priority#BULK} the caller is deferred while interactive payloads are pending.
+     */
+    void acquire(final Priority priority) {
+      lock.lock();
+
+      if (priority != Priority.BULK) return;
+
+      long nanos = maxBulkDeferNanos;
+
+      if (queueDepth[Priority.INTERACTIVE.ordinal()].get() > 0) deferredChunks.incrementAndGet();
+
+      while (nanos > 0 && queueDepth[Priority.INTERACTIVE.ordinal()].get() > 0) {
+        try {
+          nanos = interactiveDrained.awaitNanos(nanos);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+
+    /** Acquires the send lock if it is not held by another thread. */
+    boolean tryAcquire() {
+      return lock.tryLock();
+    }
+
+    /** Releases the send lock. */
+    void release() {
+      lock.unlock();
+    }
+
+    /** Returns whether other threads are waiting to acquire the send lock. */
+    boolean hasWaitingSenders() {
+      return lock.hasQueuedThreads();
+    }
+
+    int getQueueDepth(final Priority priority) {
+      return queueDepth[priority.ordinal()].get();
+    }
+
+    int getMaxQueueDepth(final Priority priority) {
+      return maxQueueDepth[priority.ordinal()].get();
+    }
+
+    long getQueuedBytes(final Priority priority) {
+      return queuedBytes[priority.ordinal()].get();
+    }
+
+    long getDeferredChunkCount() {
+      return deferredChunks.get();
+    }
+  }
+
+  /**
+   * Lock-free allocator for fragment ids. The ids are managed in a bitmap of 64 bit words that are
+   * updated with CAS operations. The search for a free id starts at the word that satisfied the
+   * last request so concurrent senders rarely compete for the same word.
+   */
   static class IDPool {
 
-    private final int MAX_ID = 32;
-    private int pool = 0; // 32 ids
+    private final AtomicLongArray pool;
 
-    // see
-    // http://graphics.stanford.edu/~seander/bithacks.html#IntegerLogDeBruijn
-    private static final int LOG_2_TABLE[] = {
-      0, 1, 28, 2, 29, 14, 24, 3, 30, 22, 20, 15, 25, 17, 4, 8, 31, 27, 13, 23, 21, 19, 16, 7, 26,
-      12, 18, 6, 11, 5, 10, 9
-    };
+    private final int maxID;
 
-    public synchronized int nextID() {
+    private final AtomicInteger hint = new AtomicInteger();
 
-      final int bitIdx = Integer.lowestOneBit(~pool);
+    /**
+     * Creates a new pool.
+     *
+     * @param size the number of ids, will be rounded up to the next multiple of 64
+     */
+    IDPool(final int size) {
+      if (size <= 0) throw new IllegalArgumentException("size must be positive: " + size);
 
-      if (bitIdx == 0) return -1;
+      pool = new AtomicLongArray((size + 63) >>> 6);
+      maxID = pool.length() * 64;
+    }
+
+    /** Returns the next free id or <code>-1</code> if all ids are in use. */
+    public int nextID() {
+      final int words = pool.length();
+      final int start = hint.get();
+
+      for (int i = 0; i < words; i++) {
+        final int index = (start + i) % words;
+
+        long word;
+
+        while ((word = pool.get(index)) != -1L) {
+          final long bit = Long.lowestOneBit(~word);
+
+          if (pool.compareAndSet(index, word, word | bit)) {
+            if (index != start) hint.lazySet(index);
 
-      pool |= bitIdx;
+            return (index << 6) + Long.numberOfTrailingZeros(bit);
+          }
+        }
+      }
 
-      return LOG_2_TABLE[(bitIdx * 0x077CB531) >>> 27];
+      return -1;
     }
 
-    public synchronized void freeID(int id) {
-      if (id < 0 || id >= MAX_ID) return;
+    /** Returns the given id to the pool. Ids that are not part of this pool are ignored. */
+    public void freeID(int id) {
+      if (id < 0 || id >= maxID) return;
+
+      final int index = id >>> 6;
+      final long mask = ~(1L << (id & 63));
+
+      long word;
+
+      do {
+        word = pool.get(index);
+      } while (!pool.compareAndSet(index, word, word & mask));
 
-      int bitIdx = 1 << id;
-      pool &= (~bitIdx);
+      if (index < hint.get()) hint.lazySet(index);
     }
   }
 }
@@ -1,5 +1,10 @@
 package saros.net.internal;
 
+import java.io.DataInput;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import saros.net.stream.StreamMode;
 
 public final class BinaryXMPPExtension {
@@ -10,6 +15,9 @@ public final class BinaryXMPPExtension {
   private long transferredSize;
   private long uncompressedSize;
   private byte[] payload;
+  private int payloadLength;
+  private int maxPayloadLength;
+  private BufferPool bufferPool;
   private long transferDuration;
   private StreamMode transferMode;
 
@@ -26,9 +34,31 @@ public final class BinaryXMPPExtension {
   /**
    * Returns the XMPP packet extension in binary form. <b>Note:</b>The returned byte array <b>must
    * not</b> be modified directly.
+   *
+   * <p>If the payload is backed by a larger (pooled) buffer a copy of the payload is returned. Use
+   * {@link #getPayloadBuffer()} to access the payload without copying it.
    */
   byte[] getPayload() {
-    return payload;
+    if (payload == null || payload.length == payloadLength) return payload;
+
+    return Arrays.copyOf(payload, payloadLength);
+  }
+
+  /**
+   * Returns the XMPP packet extension in binary form without copying it. The returned buffer is
+   * backed by an array, i.e {@link ByteBuffer#array()} can be used and its position is always
+   * <code>0</code>. <b>Note:</b>The content of the returned buffer <b>must not</b> be modified and
+   * the buffer <b>must not</b> be accessed after {@link #release()} was called.
+   */
+  ByteBuffer getPayloadBuffer() {
+    if (payload == null) return null;
+
+    return ByteBuffer.wrap(payload, 0, payloadLength).slice();
+  }
+
+  /** Returns the size of the payload in bytes. */
+  int getPayloadLength() {
+    return payloadLength;
   }
 
   /** Returns the transfer description of this transfer object. */
@@ -65,13 +95,107 @@ public final class BinaryXMPPExtension {
    * @throws IllegalStateException if there are still missing chunks, see also {@link #isLastChunk}
    */
   void setPayload(long originalSize, byte[] data) {
+    setPayload(originalSize, data, data.length, null);
+  }
+
+  /**
+   * Sets the data for this XMPP packet extension. A previously set payload is released.
+   *
+   * @param originalSize the original size of the received data
+   * @param data the buffer containing the binary form of the XMPP packet extension
+   * @param length the length of the data in the buffer
+   * @param pool the pool the buffer was acquired from or <code>null</code>
+   * @throws IllegalStateException if there are still missing chunks, see also {@link #isLastChunk}
+   */
+  void setPayload(long originalSize, byte[] data, int length, BufferPool pool) {
 
     if (chunkCount > 0)
       throw new IllegalStateException("there are chunks missing: " + chunkCount + " > 0");
 
+    if (payload != data) release();
+
     payload = data;
+    payloadLength = length;
+    bufferPool = pool;
     transferredSize = originalSize;
-    uncompressedSize = data.length;
+    uncompressedSize = length;
+  }
+
+  /**
+   * Reads the next chunk of this XMPP packet extension directly into the payload buffer. The buffer
+   * is acquired from the given pool when the first chunk arrives. As the number of chunks is
+   * announced by the remote side, the buffer initially does not exceed the maximum buffer size of
+   * the pool and grows as further chunks arrive. This method <b>must</b> be called before {@link
+   * #isLastChunk}.
+   *
+   * @param in the input to read the chunk from
+   * @param length the length of the chunk
+   * @param maxChunkSize the maximum size of a chunk
+   * @param pool the pool to acquire the payload buffer from
+   * @throws IOException if an I/O error occurs or the chunk exceeds the announced payload size
+   */
+  void readChunk(DataInput in, int length, int maxChunkSize, BufferPool pool) throws IOException {
+
+    if (chunkCount <= 0) throw new ProtocolException("received more chunks than announced");
+
+    if (payload == null) {
+      final long capacity = length + (long) (chunkCount - 1) * maxChunkSize;
+
+      if (capacity > Integer.MAX_VALUE)
+        throw new ProtocolException("payload too large: " + capacity + " bytes");
+
+      maxPayloadLength = (int) capacity;
+      payload = pool.acquire(Math.min(maxPayloadLength, Math.max(length, pool.getMaxBufferSize())));
+      payloadLength = 0;
+      bufferPool = pool;
+    }
+
+    if (maxPayloadLength - payloadLength < length)
+      throw new ProtocolException(
+          "chunk exceeds announced payload size: "
+              + length
+              + " > "
+              + (maxPayloadLength - payloadLength));
+
+    if (payload.length - payloadLength < length)
+      growPayload(
+          (int) Math.min(maxPayloadLength, Math.max(payloadLength + length, 2L * payload.length)));
+
+    in.readFully(payload, payloadLength, length);
+    payloadLength += length;
+  }
+
+  /** Replaces the payload buffer with a larger one from the same pool and copies the payload. */
+  private void growPayload(int capacity) {
+    final byte[] buffer = bufferPool.acquire(capacity);
+
+    System.arraycopy(payload, 0, buffer, 0, payloadLength);
+    bufferPool.release(payload);
+    payload = buffer;
+  }
+
+  /**
+   * Marks the payload that was read via {@link #readChunk} as complete.
+   *
+   * @throws IllegalStateException if there are still missing chunks, see also {@link #isLastChunk}
+   */
+  void completePayload() {
+    setPayload(payloadLength, payload, payloadLength, bufferPool);
+  }
+
+  /**
+   * Returns the payload buffer to its pool. The payload of this extension <b>must not</b> be
+   * accessed afterwards.
+   */
+  void release() {
+    final BufferPool pool = bufferPool;
+    final byte[] buffer = payload;
+
+    bufferPool = null;
+    payload = null;
+    payloadLength = 0;
+
+    if (pool != null) pool.release(buffer);
   }
 
   /**
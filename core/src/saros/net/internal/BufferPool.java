@@ -0,0 +1,122 @@
+package saros.net.internal;
+
+import java.util.ArrayDeque;
+
+/**
+ * A simple pool of byte arrays that is used to avoid allocating (and later collecting) a new array
+ * for every received packet.
+ *
+ * <p>Buffers are managed in power of two size classes. A request for a buffer is rounded up to the
+ * next size class, so callers <b>must not</b> assume that the returned array has exactly the
+ * requested size. Requests that exceed the maximum buffer size are served with a newly allocated
+ * array of the exact size which is silently dropped when it is released.
+ *
+ * <p>This class is thread safe.
+ */
+final class BufferPool {
+
+  /**
+   * Pool for the payloads of incoming packets. Buffers are acquired by the connections when a
+   * packet arrives and released by the {@link XMPPReceiver} after the packet has been dispatched.
+   */
+  static final BufferPool RECEIVE =
+      new BufferPool(
+          Integer.getInteger("saros.net.internal.RECEIVE_BUFFER_POOL_MAX_SIZE", 1024 * 1024),
+          Integer.getInteger("saros.net.internal.RECEIVE_BUFFER_POOL_BUFFERS_PER_SIZE", 8));
+
+  private static final int MIN_SHIFT = 8; // 256 bytes
+
+  private final int maxShift;
+  private final int maxBuffersPerClass;
+
+  private final ArrayDeque<byte[]>[] pools;
+
+  /**
+   * Creates a new buffer pool.
+   *
+   * @param maxBufferSize the size of the largest buffer that will be pooled, will be rounded up to
+   *     the next power of two
+   * @param maxBuffersPerClass the maximum number of buffers that are retained per size class
+   */
+  @SuppressWarnings("unchecked")
+  BufferPool(final int maxBufferSize, final int maxBuffersPerClass) {
+    this.maxShift = Math.max(MIN_SHIFT, shiftFor(maxBufferSize));
+    this.maxBuffersPerClass = maxBuffersPerClass;
+
+    pools = new ArrayDeque[maxShift - MIN_SHIFT + 1];
+
+    for (int i = 0; i < pools.length; i++) pools[i] = new ArrayDeque<byte[]>();
+  }
+
+  /**
+   * Returns a buffer that is at least <code>size</code> bytes large.
+   *
+   * @param size the minimum size of the buffer
+   * @return a buffer with a length <code>&gt;= size</code>
+   */
+  byte[] acquire(final int size) {
+    if (size < 0) throw new IllegalArgumentException("size is negative: " + size);
+
+    final int shift = Math.max(MIN_SHIFT, shiftFor(size));
+
+    if (shift > maxShift) return new byte[size];
+
+    final ArrayDeque<byte[]> pool = pools[shift - MIN_SHIFT];
+
+    byte[] buffer;
+
+    synchronized (pool) {
+      buffer = pool.pollFirst();
+    }
+
+    if (buffer == null) buffer = new byte[1 << shift];
+
+    return buffer;
+  }
+
+  /**
+   * Returns the given buffer to the pool. The buffer <b>must not</b> be used after it was released.
+   * Buffers that were not acquired from this pool are ignored.
+   *
+   * @param buffer the buffer to release, may be <code>null</code>
+   */
+  void release(final byte[] buffer) {
+    if (buffer == null) return;
+
+    final int length = buffer.length;
+
+    if (Integer.bitCount(length) != 1) return;
+
+    final int shift = Integer.numberOfTrailingZeros(length);
+
+    if (shift < MIN_SHIFT || shift > maxShift) return;
+
+    final ArrayDeque<byte[]> pool = pools[shift - MIN_SHIFT];
+
+    synchronized (pool) {
+      if (pool.size() < maxBuffersPerClass) pool.addFirst(buffer);
+    }
+  }
+
+  /** Returns the size of the largest buffer that is pooled. */
+  int getMaxBufferSize() {
+    return 1 << maxShift;
+  }
+
+  /** Returns the number of buffers that are currently retained by this pool. */
+  int getPooledBufferCount() {
+    int count = 0;
+
+    for (final ArrayDeque<byte[]> pool : pools) {
+      synchronized (pool) {
+        count += pool.size();
+      }
+    }
+
+    return count;
+  }
+
+  private static int shiftFor(final int size) {
+    return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+  }
+}
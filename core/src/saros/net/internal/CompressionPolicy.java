@@ -0,0 +1,211 @@
+package saros.net.internal;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.Deflater;
+
+/**
+ * Adaptive compression policy that decides per packet extension type (namespace and element name)
+ * whether and how its payload should be compressed.
+ *
+ * <p>For every type the achieved compression ratio and the time spent compressing are tracked as
+ * exponentially weighted moving averages. Based on these values the policy selects one of the
+ * following compression levels:
+ *
+ * <ul>
+ *   <li>{@link Deflater#NO_COMPRESSION} if the payloads of that type do not compress well or the
+ *       average amount of saved bytes is negligible (e.g for single keystrokes). Such types are
+ *       sampled every {@value #PROBE_INTERVAL} packets to detect changes of the payload.
+ *   <li>{@link Deflater#BEST_SPEED} if compressing the payloads of that type is expensive.
+ *   <li>{@link Deflater#DEFAULT_COMPRESSION} otherwise.
+ * </ul>
+ *
+ * <p>This class is thread safe.
+ */
+final class CompressionPolicy {
+
+  /** Max ratio (compressed size / uncompressed size) that is considered worth compressing. */
+  private static final double MAX_COMPRESSION_RATIO =
+      Integer.getInteger("saros.net.transmitter.MAX_COMPRESSION_RATIO_PERCENT", 90) / 100D;
+
+  /** Min average number of bytes that must be saved per packet to be worth compressing. */
+  private static final int MIN_SAVED_BYTES =
+      Integer.getInteger("saros.net.transmitter.MIN_COMPRESSION_SAVED_BYTES", 16);
+
+  /** Compression time in nanoseconds per input byte above which the fastest level is used. */
+  private static final int MAX_NANOS_PER_BYTE =
+      Integer.getInteger("saros.net.transmitter.MAX_COMPRESSION_NANOS_PER_BYTE", 50);
+
+  /** Number of samples that must be collected before the policy deviates from the default. */
+  private static final int MIN_SAMPLES = 8;
+
+  /** Every n-th payload of a type that is not compressed is compressed to refresh the samples. */
+  private static final int PROBE_INTERVAL = 64;
+
+  /** Weight of a new sample for the moving averages. */
+  private static final double ALPHA = 0.125;
+
+  /** Statistics and the current decision of a single packet extension type. */
+  static final class Entry {
+
+    private final String namespace;
+    private final String elementName;
+
+    private int level = Deflater.DEFAULT_COMPRESSION;
+
+    private long samples;
+    private long skipped;
+
+    private double ratio;
+    private double savedBytes;
+    private double nanosPerByte;
+
+    private Entry(final String namespace, final String elementName) {
+      this.namespace = namespace;
+      this.elementName = elementName;
+    }
+
+    String getNamespace() {
+      return namespace;
+    }
+
+    String getElementName() {
+      return elementName;
+    }
+
+    /** Returns the compression level that is currently used for this type. */
+    synchronized int getLevel() {
+      return level;
+    }
+
+    /** Returns the average compression ratio (compressed size / uncompressed size). */
+    synchronized double getCompressionRatio() {
+      return ratio;
+    }
+
+    /** Returns the average time in nanoseconds it takes to compress a single byte. */
+    synchronized double getNanosPerByte() {
+      return nanosPerByte;
+    }
+
+    private synchronized int nextLevel() {
+      if (level != Deflater.NO_COMPRESSION) return level;
+
+      if (++skipped % PROBE_INTERVAL != 0) return Deflater.NO_COMPRESSION;
+
+      return Deflater.BEST_SPEED;
+    }
+
+    /** @return <code>true</code> if the decision changed, <code>false</code> otherwise */
+    private synchronized boolean update(
+        final long sizeUncompressed, final long sizeCompressed, final long nanos) {
+
+      final double currentRatio = (double) sizeCompressed / sizeUncompressed;
+      final double currentSavedBytes = sizeUncompressed - sizeCompressed;
+      final double currentNanosPerByte = (double) nanos / sizeUncompressed;
+
+      if (samples++ == 0) {
+        ratio = currentRatio;
+        savedBytes = currentSavedBytes;
+        nanosPerByte = currentNanosPerByte;
+      } else {
+        ratio += ALPHA * (currentRatio - ratio);
+        savedBytes += ALPHA * (currentSavedBytes - savedBytes);
+
+        /*
+         * probes are always done with the fastest level so their timing
+         * must not influence the decision between the compression levels
+         */
+        if (level != Deflater.NO_COMPRESSION)
+          nanosPerByte += ALPHA * (currentNanosPerByte - nanosPerByte);
+      }
+
+      if (samples < MIN_SAMPLES) return false;
+
+      final int oldLevel = level;
+
+      /*
+       * the fastest level is kept until the time drops well below the limit
+       * as it would otherwise toggle with every few packets
+       */
+      if (ratio > MAX_COMPRESSION_RATIO || savedBytes < MIN_SAVED_BYTES)
+        level = Deflater.NO_COMPRESSION;
+      else if (nanosPerByte > MAX_NANOS_PER_BYTE) level = Deflater.BEST_SPEED;
+      else if (level == Deflater.NO_COMPRESSION || nanosPerByte < MAX_NANOS_PER_BYTE / 2D)
+        level = Deflater.DEFAULT_COMPRESSION;
+
+      if (level == Deflater.NO_COMPRESSION && oldLevel != Deflater.NO_COMPRESSION) skipped = 0;
+
+      return level != oldLevel;
+    }
+
+    @Override
+    public synchronized String toString() {
+      return "CompressionPolicy.Entry [namespace="
+          + namespace
+          + ", elementName="
+          + elementName
+          + ", level="
+          + level
+          + ", ratio="
+          + String.format("%.2f", ratio)
+          + ", savedBytes="
+          + String.format("%.1f", savedBytes)
+          + ", nanosPerByte="
+          + String.format("%.1f", nanosPerByte)
+          + ", samples="
+          + samples
+          + "]";
+    }
+  }
+
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+  /**
+   * Returns the entry for the given packet extension type.
+   *
+   * @param namespace the namespace of the packet extension
+   * @param elementName the element name of the packet extension
+   */
+  Entry getEntry(final String namespace, final String elementName) {
+    final String key = namespace + ":" + elementName;
+
+    Entry entry = entries.get(key);
+
+    if (entry != null) return entry;
+
+    entry = new Entry(namespace, elementName);
+
+    final Entry existing = entries.putIfAbsent(key, entry);
+
+    return existing != null ? existing : entry;
+  }
+
+  /**
+   * Returns the compression level that should be used for the next payload of the given entry.
+   *
+   * @return {@link Deflater#NO_COMPRESSION} if the payload should not be compressed, otherwise a
+   *     valid compression level
+   */
+  int nextLevel(final Entry entry) {
+    return entry.nextLevel();
+  }
+
+  /**
+   * Records the outcome of compressing a payload of the given entry.
+   *
+   * @param entry the entry of the packet extension type
+   * @param sizeUncompressed the size of the payload before compressing it
+   * @param sizeCompressed the size of the payload after compressing it
+   * @param nanos the time in nanoseconds it took to compress the payload
+   * @return <code>true</code> if the compression level of the entry changed, <code>false</code>
+   *     otherwise
+   */
+  boolean update(
+      final Entry entry, final long sizeUncompressed, final long sizeCompressed, final long nanos) {
+
+    if (sizeUncompressed <= 0) return false;
+
+    return entry.update(sizeUncompressed, sizeCompressed, nanos);
+  }
+}
@@ -0,0 +1,168 @@
+package saros.net.internal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Pool for {@link Deflater} and {@link Inflater} instances. Creating these objects is expensive as
+ * each of them allocates native memory that is only freed by calling <code>end()</code> or when the
+ * object is finalized.
+ *
+ * <p>Compressors can be requested with a preset dictionary containing strings that are common in
+ * the payloads Saros sends. Activities are sent in the binary format of the activity codec, whose
+ * payloads mostly consist of the JIDs and paths in its reference tables, so the dictionary contains
+ * their common parts, followed by the XML element names of the packets that are still sent as
+ * XML. This noticeably improves the compression ratio of small payloads. The receiving side
+ * detects the dictionary by the {@linkplain #getDictionaryId() dictionary id} (Adler-32 checksum)
+ * that is part of the zlib header. Peers that do not know the dictionary cannot decompress such
+ * payloads, so it must only be used for peers that announced to know the same dictionary during
+ * the session negotiation.
+ *
+ * <p>This class is thread safe.
+ */
+final class CompressionPool {
+
+  /** Max number of idle compressors and decompressors that are retained. */
+  private static final int MAX_POOL_SIZE = 8;
+
+  /*
+   * The most common strings should be placed at the end of the dictionary
+   * as they can then be referenced with shorter distances.
+   */
+  private static final byte[] DICTIONARY =
+      ("<description><error></error><settings><version>"
+              + "<PING xmlns=\"saros\"><PONG xmlns=\"saros\">"
+              + "<progressActivity<permissionActivity<stopActivity<changeColorActivity"
+              + "<checksumErrorActivity<deletionAcknowledgementActivity<folderCreated"
+              + "<folderDeleted<fileActivity<targetedFileActivity<startFollowingActivity"
+              + "<stopFollowingActivity<nopActivity<editorActivity<checksumActivity"
+              + "<viewportActivity<textSelectionActivity<timestampOp<noOp<splitOp"
+              + "<deleteOp<insertOp<vectorTime local=\"\" remote=\"\"/>"
+              + "<jupiterActivity source=\"@/Saros\"><r><RTW r=\"\" p=\"\"/></r><t><o>"
+              + "<ADOS xmlns=\"saros\"><sid></sid><seq></seq></ADOS>"
+              // reference table strings of the binary activity codec
+              + ".xml.properties.gradle.html.css.js.ts.py.c.h.cpp.md.txt"
+              + "src/test/java/src/main/resources/src/main/java/.java"
+              + "@jabber.org/Saros@saros-con.imp.fu-berlin.de/Saros")
+          .getBytes(StandardCharsets.UTF_8);
+
+  private static final int DICTIONARY_ID;
+
+  static {
+    final Adler32 checksum = new Adler32();
+    checksum.update(DICTIONARY);
+    DICTIONARY_ID = (int) checksum.getValue();
+  }
+
+  private static final ArrayDeque<Deflater> deflaters = new ArrayDeque<Deflater>();
+
+  private static final ArrayDeque<Inflater> inflaters = new ArrayDeque<Inflater>();
+
+  private CompressionPool() {
+    // NOP
+  }
+
+  /** Returns the id of the preset dictionary, i.e its Adler-32 checksum. */
+  static int getDictionaryId() {
+    return DICTIONARY_ID;
+  }
+
+  /**
+   * Returns a compressor with the default compression level and without a dictionary from the
+   * pool. The compressor <b>must</b> be returned by calling {@link #release(Deflater)}.
+   */
+  static Deflater acquireDeflater() {
+    return acquireDeflater(Deflater.DEFAULT_COMPRESSION, false);
+  }
+
+  /**
+   * Returns a compressor with the given compression level from the pool. The compressor
+   * <b>must</b> be returned by calling {@link #release(Deflater)}.
+   *
+   * @param level the compression level, see {@link Deflater#setLevel(int)}
+   * @param useDictionary whether the compressor uses the preset dictionary, must only be <code>true
+   *     </code> if the receiver is able to decompress such payloads
+   */
+  static Deflater acquireDeflater(final int level, final boolean useDictionary) {
+    Deflater deflater;
+
+    synchronized (deflaters) {
+      deflater = deflaters.pollFirst();
+    }
+
+    if (deflater == null) deflater = new Deflater(Deflater.DEFLATED);
+
+    /*
+     * the level must be set before the dictionary, it is applied by the
+     * first call to deflate and does not alter the dictionary
+     */
+    deflater.setLevel(level);
+
+    if (useDictionary) deflater.setDictionary(DICTIONARY);
+
+    return deflater;
+  }
+
+  /**
+   * Returns a decompressor from the pool. The decompressor <b>must</b> be returned by calling
+   * {@link #release(Inflater)}.
+   */
+  static Inflater acquireInflater() {
+    Inflater inflater;
+
+    synchronized (inflaters) {
+      inflater = inflaters.pollFirst();
+    }
+
+    if (inflater == null) inflater = new Inflater();
+
+    return inflater;
+  }
+
+  /** Resets the given compressor and returns it to the pool. */
+  static void release(final Deflater deflater) {
+    deflater.reset();
+
+    synchronized (deflaters) {
+      if (deflaters.size() < MAX_POOL_SIZE) {
+        deflaters.addFirst(deflater);
+        return;
+      }
+    }
+
+    deflater.end();
+  }
+
+  /** Resets the given decompressor and returns it to the pool. */
+  static void release(final Inflater inflater) {
+    inflater.reset();
+
+    synchronized (inflaters) {
+      if (inflaters.size() < MAX_POOL_SIZE) {
+        inflaters.addFirst(inflater);
+        return;
+      }
+    }
+
+    inflater.end();
+  }
+
+  /**
+   * Sets the preset dictionary on the given decompressor. Must be called if {@link
+   * Inflater#needsDictionary()} returns <code>true</code>.
+   *
+   * @throws DataFormatException if the data was compressed with an unknown dictionary
+   */
+  static void setDictionary(final Inflater inflater) throws DataFormatException {
+    if (inflater.getAdler() != DICTIONARY_ID)
+      throw new DataFormatException(
+          "data was compressed with an unknown dictionary, id: 0x"
+              + Integer.toHexString(inflater.getAdler()));
+
+    inflater.setDictionary(DICTIONARY);
+  }
+}
@@ -0,0 +1,180 @@
+package saros.net.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import org.jivesoftware.smack.PacketListener;
+import org.jivesoftware.smack.filter.PacketFilter;
+import org.jivesoftware.smack.packet.Packet;
+import org.jivesoftware.smack.packet.PacketExtension;
+import saros.net.ExtensionPacketFilter;
+
+/**
+ * Immutable routing table that forwards packets to the listeners whose filters accept them.
+ *
+ * <p>Listeners registered with an {@link ExtensionPacketFilter} are indexed by the namespace and
+ * element name of the filter and are only considered for packets that contain a matching packet
+ * extension. All other listeners are considered for every packet.
+ *
+ * <p>The table is never modified. Adding or removing a listener creates a new table, so the table
+ * can be used by any thread without synchronization and routing a packet does not need to copy the
+ * registered listeners.
+ */
+final class PacketRoutingTable {
+
+  /** Routing table without any listeners. */
+  static final PacketRoutingTable EMPTY =
+      new PacketRoutingTable(new HashMap<String, Map<String, Route[]>>(), new Route[0]);
+
+  private static final class Route {
+    private final PacketListener listener;
+    private final PacketFilter filter;
+
+    private Route(final PacketListener listener, final PacketFilter filter) {
+      this.listener = listener;
+      this.filter = filter;
+    }
+  }
+
+  /** namespace -> element name -> routes */
+  private final Map<String, Map<String, Route[]>> indexedRoutes;
+
+  private final Route[] unindexedRoutes;
+
+  private PacketRoutingTable(
+      final Map<String, Map<String, Route[]>> indexedRoutes, final Route[] unindexedRoutes) {
+    this.indexedRoutes = indexedRoutes;
+    this.unindexedRoutes = unindexedRoutes;
+  }
+
+  /**
+   * Creates a routing table for the given listeners.
+   *
+   * @param listeners the listeners and their filters, a <code>null</code> filter accepts every
+   *     packet
+   */
+  static PacketRoutingTable create(final Map<PacketListener, PacketFilter> listeners) {
+    final Map<String, Map<String, List<Route>>> indexed =
+        new HashMap<String, Map<String, List<Route>>>();
+
+    final List<Route> unindexed = new ArrayList<Route>();
+
+    for (final Entry<PacketListener, PacketFilter> entry : listeners.entrySet()) {
+      final Route route = new Route(entry.getKey(), entry.getValue());
+
+      if (!(route.filter instanceof ExtensionPacketFilter)) {
+        unindexed.add(route);
+        continue;
+      }
+
+      final ExtensionPacketFilter filter = (ExtensionPacketFilter) route.filter;
+
+      Map<String, List<Route>> elements = indexed.get(filter.getNamespace());
+
+      if (elements == null) {
+        elements = new HashMap<String, List<Route>>();
+        indexed.put(filter.getNamespace(), elements);
+      }
+
+      List<Route> routes = elements.get(filter.getElementName());
+
+      if (routes == null) {
+        routes = new ArrayList<Route>();
+        elements.put(filter.getElementName(), routes);
+      }
+
+      routes.add(route);
+    }
+
+    final Map<String, Map<String, Route[]>> indexedRoutes =
+        new HashMap<String, Map<String, Route[]>>();
+
+    for (final Entry<String, Map<String, List<Route>>> namespace : indexed.entrySet()) {
+      final Map<String, Route[]> elements = new HashMap<String, Route[]>();
+
+      for (final Entry<String, List<Route>> element : namespace.getValue().entrySet())
+        elements.put(element.getKey(), toArray(element.getValue()));
+
+      indexedRoutes.put(namespace.getKey(), elements);
+    }
+
+    return new PacketRoutingTable(indexedRoutes, toArray(unindexed));
+  }
+
+  /**
+   * Forwards the packet to all listeners whose filter accepts it. Every listener is invoked at most
+   * once per packet.
+   *
+   * @param packet the packet to forward
+   */
+  void route(final Packet packet) {
+    forward(unindexedRoutes, packet);
+
+    if (indexedRoutes.isEmpty()) return;
+
+    final Collection<PacketExtension> extensions = packet.getExtensions();
+
+    int index = 0;
+
+    for (final PacketExtension extension : extensions) {
+      if (!isFirstOccurrence(extensions, extension, index++)) continue;
+
+      final Map<String, Route[]> elements = indexedRoutes.get(extension.getNamespace());
+
+      if (elements == null) continue;
+
+      final Route[] routes = elements.get(extension.getElementName());
+
+      if (routes != null) forward(routes, packet);
+    }
+  }
+
+  /** Returns the number of listeners in this table. */
+  int size() {
+    int size = unindexedRoutes.length;
+
+    for (final Map<String, Route[]> elements : indexedRoutes.values())
+      for (final Route[] routes : elements.values()) size += routes.length;
+
+    return size;
+  }
+
+  private static void forward(final Route[] routes, final Packet packet) {
+    for (final Route route : routes) {
+      if (route.filter == null || route.filter.accept(packet))
+        route.listener.processPacket(packet);
+    }
+  }
+
+  /**
+   * Checks if the given extension is the first one of the given extensions with its namespace and
+   * element name. Packets normally contain only one extension so this is cheaper than collecting
+   * the visited names.
+   */
+  private static boolean isFirstOccurrence(
+      final Collection<PacketExtension> extensions,
+      final PacketExtension extension,
+      final int index) {
+
+    if (index == 0) return true;
+
+    int i = 0;
+
+    for (final PacketExtension other : extensions) {
+      if (i++ == index) break;
+
+      if (Objects.equals(other.getNamespace(), extension.getNamespace())
+          && Objects.equals(other.getElementName(), extension.getElementName())) return false;
+    }
+
+    return true;
+  }
+
+  private static Route[] toArray(final List<Route> routes) {
+    return routes.toArray(new Route[routes.size()]);
+  }
+}
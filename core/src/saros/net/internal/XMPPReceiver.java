@@ -1,13 +1,14 @@
 package saros.net.internal;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.util.Collections;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 import org.apache.log4j.Logger;
@@ -24,6 +25,7 @@ import org.xmlpull.v1.XmlPullParser;
 import saros.annotations.Component;
 import saros.net.ConnectionState;
 import saros.net.DispatchThreadContext;
+import saros.net.IBinaryPacketExtensionProvider;
 import saros.net.IPacketInterceptor;
 import saros.net.IReceiver;
 import saros.net.ITransferListener;
@@ -31,19 +33,50 @@ import saros.net.PacketCollector;
 import saros.net.PacketCollector.CancelHook;
 import saros.net.stream.StreamMode;
 import saros.net.xmpp.IConnectionListener;
+import saros.net.xmpp.JID;
 import saros.net.xmpp.XMPPConnectionService;
-
+import saros.repackaged.picocontainer.Disposable;
+import saros.util.KeyedSerialExecutor;
+import saros.util.NamedThreadFactory;
+
+/**
+ * IReceiver implementation that dispatches packets received via XMPP and the byte stream
+ * connections to the registered listeners.
+ *
+ * <p>Binary XMPP extensions are decompressed and deserialized on a pool of decoder threads before
+ * they are dispatched. Extensions of the same sender are decoded one after another so that they
+ * are dispatched in the order they were received. The size of the pool can be configured with the
+ * system property <code>saros.net.internal.RECEIVER_DECODER_THREADS</code>, a value of <code>0
+ * </code> decodes all extensions on the dispatch thread.
+ */
 @Component(module = "net")
-public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver {
+public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver, Disposable {
 
   private static final Logger log = Logger.getLogger(XMPPReceiver.class);
 
-  private static final int CHUNKSIZE = 16 * 1024;
+  private static final int DECODER_THREADS =
+      Integer.getInteger(
+          "saros.net.internal.RECEIVER_DECODER_THREADS",
+          Math.min(4, Runtime.getRuntime().availableProcessors()));
 
   private final DispatchThreadContext dispatchThreadContext;
 
+  private final ThreadPoolExecutor decoderPool;
+
+  private final KeyedSerialExecutor<JID> decoder;
+
+  private final AtomicLong decodedPacketCount = new AtomicLong();
+  private final AtomicLong decodedByteCount = new AtomicLong();
+  private final AtomicLong totalDecodeTime = new AtomicLong();
+  private final AtomicLong totalDecodeQueueLatency = new AtomicLong();
+  private final AtomicLong maxDecodeQueueLatency = new AtomicLong();
+
+  /** Registered listeners, guarded by itself. */
   private final Map<PacketListener, PacketFilter> listeners =
-      Collections.synchronizedMap(new HashMap<PacketListener, PacketFilter>());
+      new HashMap<PacketListener, PacketFilter>();
+
+  /** Snapshot of the registered listeners that is recreated whenever they change. */
+  private volatile PacketRoutingTable routingTable = PacketRoutingTable.EMPTY;
 
   private final CopyOnWriteArrayList<ITransferListener> transferListeners =
       new CopyOnWriteArrayList<>();
@@ -51,7 +84,13 @@ public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver {
   private final CopyOnWriteArrayList<IPacketInterceptor> packetInterceptors =
       new CopyOnWriteArrayList<>();
 
-  private XmlPullParser parser;
+  private final ThreadLocal<XmlPullParser> parser =
+      new ThreadLocal<XmlPullParser>() {
+        @Override
+        protected XmlPullParser initialValue() {
+          return new MXParser();
+        }
+      };
 
   private final PacketListener smackPacketListener =
       new PacketListener() {
@@ -86,7 +125,23 @@ public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver {
       DataTransferManager dataTransferManager) {
 
     this.dispatchThreadContext = dispatchThreadContext;
-    this.parser = new MXParser();
+
+    if (DECODER_THREADS > 0) {
+      decoderPool =
+          new ThreadPoolExecutor(
+              DECODER_THREADS,
+              DECODER_THREADS,
+              30,
+              TimeUnit.SECONDS,
+              new LinkedBlockingQueue<Runnable>(),
+              new NamedThreadFactory("XMPPReceiver-Decoder-"));
+
+      decoderPool.allowCoreThreadTimeOut(true);
+      decoder = new KeyedSerialExecutor<JID>(decoderPool);
+    } else {
+      decoderPool = null;
+      decoder = null;
+    }
 
     connectionService.addListener(connectionListener);
     dataTransferManager.addConnectionListener(
@@ -103,12 +158,20 @@ public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver {
 
   @Override
   public void addPacketListener(PacketListener listener, PacketFilter filter) {
-    listeners.put(listener, filter);
+    synchronized (listeners) {
+      listeners.put(listener, filter);
+      routingTable = PacketRoutingTable.create(listeners);
+    }
   }
 
   @Override
   public void removePacketListener(PacketListener listener) {
-    listeners.remove(listener);
+    synchronized (listeners) {
+      if (!listeners.containsKey(listener)) return;
+
+      listeners.remove(listener);
+      routingTable = PacketRoutingTable.create(listeners);
+    }
   }
 
   @Override
@@ -133,7 +196,10 @@ public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver {
 
   @Override
   public void processPacket(final Packet packet) {
+    final JID sender = packet.getFrom() == null ? null : new JID(packet.getFrom());
+
     dispatchThreadContext.executeAsDispatch(
+        sender,
         new Runnable() {
           @Override
           public void run() {
@@ -160,46 +226,153 @@ public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver {
 
   @Override
   public void receive(BinaryXMPPExtension extension) {
-    dispatchThreadContext.executeAsDispatch(
+    final JID sender = extension.getTransferDescription().getSender();
+
+    if (decoder == null) {
+      dispatchThreadContext.executeAsDispatch(
+          sender,
+          new Runnable() {
+
+            @Override
+            public void run() {
+
+              Packet packet = decode(extension, System.nanoTime());
+
+              if (packet != null) forwardPacket(packet);
+            }
+          });
+
+      return;
+    }
+
+    final long receiveTime = System.nanoTime();
+
+    decoder.execute(
+        sender,
         new Runnable() {
 
           @Override
           public void run() {
 
-            Packet packet = convertBinaryXMPPExtension(extension);
-
-            if (packet != null) forwardPacket(packet);
+            final Packet packet = decode(extension, receiveTime);
+
+            if (packet == null) return;
+
+            /*
+             * the decoder runs the tasks of a sender one after another so the
+             * packets of that sender are dispatched in the order they arrived
+             */
+            dispatchThreadContext.executeAsDispatch(
+                sender,
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    forwardPacket(packet);
+                  }
+                });
           }
         });
   }
 
+  @Override
+  public void dispose() {
+    if (decoderPool != null) decoderPool.shutdownNow();
+
+    if (log.isDebugEnabled())
+      log.debug(
+          "decoder statistics: packets="
+              + getDecodedPacketCount()
+              + ", bytes="
+              + getDecodedByteCount()
+              + ", avg decode time="
+              + String.format("%.3f", getAverageDecodeTime())
+              + " ms, queue latency [avg="
+              + String.format("%.3f", getAverageDecodeQueueLatency())
+              + " ms, max="
+              + String.format("%.3f", getMaxDecodeQueueLatency())
+              + " ms]");
+  }
+
+  /** Returns the number of binary XMPP extensions that were decoded. */
+  public long getDecodedPacketCount() {
+    return decodedPacketCount.get();
+  }
+
+  /** Returns the total uncompressed size in bytes of all decoded binary XMPP extensions. */
+  public long getDecodedByteCount() {
+    return decodedByteCount.get();
+  }
+
+  /** Returns the number of binary XMPP extensions that are waiting to be decoded. */
+  public int getPendingDecodeCount() {
+    return decoder == null ? 0 : decoder.getPendingTaskCount();
+  }
+
+  /** Returns the average time in milliseconds it took to decode a binary XMPP extension. */
+  public double getAverageDecodeTime() {
+    final long packets = decodedPacketCount.get();
+    return packets == 0 ? 0D : totalDecodeTime.get() / 1E6 / packets;
+  }
+
+  /**
+   * Returns the average time in milliseconds a binary XMPP extension had to wait before it was
+   * decoded.
+   */
+  public double getAverageDecodeQueueLatency() {
+    final long packets = decodedPacketCount.get();
+    return packets == 0 ? 0D : totalDecodeQueueLatency.get() / 1E6 / packets;
+  }
+
+  /**
+   * Returns the longest time in milliseconds a binary XMPP extension had to wait before it was
+   * decoded.
+   */
+  public double getMaxDecodeQueueLatency() {
+    return maxDecodeQueueLatency.get() / 1E6;
+  }
+
   /**
-   * Dispatches the packet to all registered listeners.
+   * Decodes the given extension and updates the decoder statistics.
    *
-   * @sarosThread must be called from the Dispatch Thread
+   * @param receiveTime the value of {@link System#nanoTime()} when the extension was received
    */
-  private void forwardPacket(Packet packet) {
-    Map<PacketListener, PacketFilter> copy;
+  private Packet decode(final BinaryXMPPExtension extension, final long receiveTime) {
+    final long decodeStartTime = System.nanoTime();
+    final long queueLatency = decodeStartTime - receiveTime;
 
-    synchronized (listeners) {
-      copy = new HashMap<PacketListener, PacketFilter>(listeners);
-    }
-    for (Entry<PacketListener, PacketFilter> entry : copy.entrySet()) {
-      PacketListener listener = entry.getKey();
-      PacketFilter filter = entry.getValue();
+    final Packet packet = convertBinaryXMPPExtension(extension);
 
-      if (filter == null || filter.accept(packet)) {
-        listener.processPacket(packet);
-      }
+    decodedPacketCount.incrementAndGet();
+    decodedByteCount.addAndGet(extension.getUncompressedSize());
+    totalDecodeTime.addAndGet(System.nanoTime() - decodeStartTime);
+    totalDecodeQueueLatency.addAndGet(queueLatency);
+
+    long max;
+
+    while ((max = maxDecodeQueueLatency.get()) < queueLatency
+        && !maxDecodeQueueLatency.compareAndSet(max, queueLatency)) {
+      // retry
     }
+
+    return packet;
+  }
+
+  /**
+   * Dispatches the packet to all registered listeners. Packets of the same sender are dispatched
+   * one after another, packets of different senders may be dispatched concurrently.
+   *
+   * @sarosThread must be called from the Dispatch Thread
+   */
+  private void forwardPacket(Packet packet) {
+    routingTable.route(packet);
   }
 
   /**
    * Deserializes the payload of an {@link BinaryXMPPExtension} back to its original {@link
    * PacketExtension} and returns a new packet containing the deserialized packet extension.
    *
-   * <p>This method is <b>not</b> thread safe and <b>must not</b> accessed by multiple threads
-   * concurrently.
+   * <p>This method is thread safe but extensions of the same sender <b>must</b> be converted one
+   * after another to preserve their order.
    */
   private Packet convertBinaryXMPPExtension(BinaryXMPPExtension extension) {
 
@@ -222,18 +395,67 @@ public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver {
               + extension.getTransferMode()
               + "]");
 
+    try {
+      return deserializeBinaryXMPPExtension(extension);
+    } finally {
+      extension.release();
+    }
+  }
+
+  /**
+   * Performs the actual deserialization for {@link #convertBinaryXMPPExtension}. The payload buffer
+   * of the extension is only valid during this call and <b>must not</b> be referenced by the
+   * returned packet.
+   */
+  private Packet deserializeBinaryXMPPExtension(BinaryXMPPExtension extension) {
+
     if (extension.getTransferDescription().compressContent()) {
-      byte[] payload = extension.getPayload();
-      long compressedPayloadLength = payload.length;
+      final ByteBuffer compressedPayload = extension.getPayloadBuffer();
+      final int compressedPayloadLength = compressedPayload.remaining();
+
+      final byte[] payload;
+      final int payloadLength;
+
+      final Inflater decompressor = CompressionPool.acquireInflater();
 
       try {
-        payload = inflate(payload);
-      } catch (IOException e) {
+        decompressor.setInput(
+            compressedPayload.array(), compressedPayload.arrayOffset(), compressedPayloadLength);
+
+        byte[] buffer = BufferPool.RECEIVE.acquire(Math.max(compressedPayloadLength * 4, 1024));
+        int length = 0;
+
+        while (!decompressor.finished()) {
+          if (length == buffer.length) {
+            final byte[] largerBuffer = BufferPool.RECEIVE.acquire(buffer.length * 2);
+            System.arraycopy(buffer, 0, largerBuffer, 0, length);
+            BufferPool.RECEIVE.release(buffer);
+            buffer = largerBuffer;
+          }
+
+          final int count = decompressor.inflate(buffer, length, buffer.length - length);
+
+          if (count == 0 && decompressor.needsDictionary()) {
+            CompressionPool.setDictionary(decompressor);
+            continue;
+          }
+
+          if (count == 0 && decompressor.needsInput())
+            throw new DataFormatException("truncated or corrupted compressed data");
+
+          length += count;
+        }
+
+        payload = buffer;
+        payloadLength = length;
+      } catch (DataFormatException e) {
         log.error("could not decompress extension payload", e);
         return null;
+      } finally {
+        CompressionPool.release(decompressor);
       }
 
-      extension.setPayload(compressedPayloadLength, payload);
+      extension.setPayload(compressedPayloadLength, payload, payloadLength, BufferPool.RECEIVE);
     }
 
     notifyDataReceived(
@@ -248,9 +470,7 @@ public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver {
     String namespace = description.getNamespace();
     // IQ provider?
 
-    PacketExtensionProvider provider =
-        (PacketExtensionProvider)
-            ProviderManager.getInstance().getExtensionProvider(name, namespace);
+    final Object provider = ProviderManager.getInstance().getExtensionProvider(name, namespace);
 
     if (provider == null) {
       log.warn(
@@ -264,20 +484,37 @@ public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver {
 
     PacketExtension packetExtension = null;
 
-    try {
-      parser.setInput(new ByteArrayInputStream(extension.getPayload()), "UTF-8");
-      /*
-       * We have to skip the empty start tag because Smack expects a
-       * parser that already has started parsing.
-       */
-      parser.next();
-      packetExtension = provider.parseExtension(parser);
-    } catch (Exception e) {
-      log.error("could not deserialize transfer object payload: " + e.getMessage(), e);
-
-      // just to be safe
-      parser = new MXParser();
-      return null;
+    if (provider instanceof IBinaryPacketExtensionProvider) {
+      try {
+        packetExtension =
+            ((IBinaryPacketExtensionProvider) provider)
+                .parseExtension(extension.getPayloadBuffer());
+      } catch (Exception e) {
+        log.error("could not deserialize binary transfer object payload: " + e.getMessage(), e);
+        return null;
+      }
+    } else {
+      try {
+        final ByteBuffer payload = extension.getPayloadBuffer();
+
+        final XmlPullParser currentParser = parser.get();
+
+        currentParser.setInput(
+            new ByteArrayInputStream(payload.array(), payload.arrayOffset(), payload.remaining()),
+            "UTF-8");
+        /*
+         * We have to skip the empty start tag because Smack expects a
+         * parser that already has started parsing.
+         */
+        currentParser.next();
+        packetExtension = ((PacketExtensionProvider) provider).parseExtension(currentParser);
+      } catch (Exception e) {
+        log.error("could not deserialize transfer object payload: " + e.getMessage(), e);
+
+        // just to be safe
+        parser.set(new MXParser());
+        return null;
+      }
     }
 
     Packet packet = new Message();
@@ -303,25 +540,4 @@ public class XMPPReceiver implements IReceiver, IBinaryXMPPExtensionReceiver {
       }
     }
   }
-
-  private static byte[] inflate(byte[] input) throws IOException {
-
-    ByteArrayOutputStream bos;
-    Inflater decompressor = new Inflater();
-
-    decompressor.setInput(input, 0, input.length);
-    bos = new ByteArrayOutputStream(input.length);
-
-    byte[] buf = new byte[CHUNKSIZE];
-
-    try {
-      while (!decompressor.finished()) {
-        int count = decompressor.inflate(buf);
-        bos.write(buf, 0, count);
-      }
-      return bos.toByteArray();
-    } catch (DataFormatException e) {
-      throw new IOException("failed to inflate data", e);
-    }
-  }
 }
@@ -21,6 +21,8 @@ package saros.net.internal;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.zip.Deflater;
 import org.apache.log4j.Logger;
@@ -30,6 +32,7 @@ import org.jivesoftware.smack.packet.Packet;
 import org.jivesoftware.smack.packet.PacketExtension;
 import saros.annotations.Component;
 import saros.net.ConnectionState;
+import saros.net.IBinaryPacketExtension;
 import saros.net.IPacketInterceptor;
 import saros.net.ITransferListener;
 import saros.net.ITransmitter;
@@ -55,6 +58,8 @@ public class XMPPTransmitter implements ITransmitter, IConnectionListener {
 
   private final DataTransferManager dataManager;
 
+  private final CompressionPolicy compressionPolicy = new CompressionPolicy();
+
   private Connection connection;
 
   private final CopyOnWriteArrayList<ITransferListener> transferListeners =
@@ -65,6 +70,9 @@ public class XMPPTransmitter implements ITransmitter, IConnectionListener {
 
   private volatile JID localJid;
 
+  /** The peers that are able to decompress payloads with the preset dictionary. */
+  private final Set<JID> dictionaryPeers = ConcurrentHashMap.newKeySet();
+
   public XMPPTransmitter(DataTransferManager dataManager, XMPPConnectionService connectionService) {
     connectionService.addListener(this);
     this.dataManager = dataManager;
@@ -110,13 +118,41 @@ public class XMPPTransmitter implements ITransmitter, IConnectionListener {
             .setElementName(extension.getElementName())
             .setNamespace(extension.getNamespace());
 
-    byte[] data = extension.toXML().getBytes("UTF-8");
+    final byte[] data;
+
+    if (extension instanceof IBinaryPacketExtension)
+      data = ((IBinaryPacketExtension) extension).toByteArray();
+    else data = extension.toXML().getBytes("UTF-8");
+
+    CompressionPolicy.Entry compressionEntry = null;
+    int compressionLevel = Deflater.NO_COMPRESSION;
 
     if (data.length > PACKET_EXTENSION_COMPRESS_THRESHOLD) {
-      transferDescription.setCompressContent(true);
+      compressionEntry =
+          compressionPolicy.getEntry(extension.getNamespace(), extension.getElementName());
+      compressionLevel = compressionPolicy.nextLevel(compressionEntry);
     }
 
-    sendPacketExtension(connection, transferDescription, data);
+    if (compressionLevel != Deflater.NO_COMPRESSION) transferDescription.setCompressContent(true);
+
+    sendPacketExtension(
+        connection,
+        transferDescription,
+        data,
+        compressionEntry,
+        compressionLevel,
+        dictionaryPeers.contains(recipient));
+  }
+
+  @Override
+  public void setCompressionDictionaryEnabled(final JID peer, final boolean enabled) {
+    if (enabled) dictionaryPeers.add(peer);
+    else dictionaryPeers.remove(peer);
+  }
+
+  @Override
+  public String getCompressionDictionaryId() {
+    return Integer.toHexString(CompressionPool.getDictionaryId());
   }
 
   @Override
@@ -196,7 +232,12 @@ public class XMPPTransmitter implements ITransmitter, IConnectionListener {
   }
 
   private void sendPacketExtension(
-      final IByteStreamConnection connection, final TransferDescription description, byte[] payload)
+      final IByteStreamConnection connection,
+      final TransferDescription description,
+      byte[] payload,
+      final CompressionPolicy.Entry compressionEntry,
+      final int compressionLevel,
+      final boolean useDictionary)
       throws IOException {
 
     if (log.isTraceEnabled())
@@ -210,7 +251,17 @@ public class XMPPTransmitter implements ITransmitter, IConnectionListener {
 
     long sizeUncompressed = payload.length;
 
-    if (description.compressContent()) payload = deflate(payload);
+    if (description.compressContent()) {
+      final long compressionStartTime = System.nanoTime();
+
+      payload = deflate(payload, compressionLevel, useDictionary);
+
+      final long compressionTime = System.nanoTime() - compressionStartTime;
+
+      if (compressionPolicy.update(
+          compressionEntry, sizeUncompressed, payload.length, compressionTime))
+        notifyCompressionChanged(compressionEntry);
+    }
 
     final long transferStartTime = System.currentTimeMillis();
 
@@ -244,21 +295,44 @@ public class XMPPTransmitter implements ITransmitter, IConnectionListener {
     }
   }
 
-  private static byte[] deflate(byte[] input) {
+  private void notifyCompressionChanged(final CompressionPolicy.Entry entry) {
 
-    Deflater compressor = new Deflater(Deflater.DEFLATED);
-    compressor.setInput(input);
-    compressor.finish();
+    if (log.isDebugEnabled()) log.debug("compression policy changed: " + entry);
 
-    ByteArrayOutputStream bos = new ByteArrayOutputStream(input.length);
+    for (final ITransferListener listener : transferListeners) {
+      try {
+        listener.compressionChanged(
+            entry.getNamespace(),
+            entry.getElementName(),
+            entry.getLevel(),
+            entry.getCompressionRatio(),
+            entry.getNanosPerByte());
+      } catch (RuntimeException e) {
+        log.error("invoking compressionChanged() on listener: " + listener + " failed", e);
+      }
+    }
+  }
 
-    byte[] buf = new byte[CHUNKSIZE];
+  private static byte[] deflate(byte[] input, int level, boolean useDictionary) {
 
-    while (!compressor.finished()) {
-      int count = compressor.deflate(buf);
-      bos.write(buf, 0, count);
-    }
+    final Deflater compressor = CompressionPool.acquireDeflater(level, useDictionary);
 
-    return bos.toByteArray();
+    try {
+      compressor.setInput(input);
+      compressor.finish();
+
+      ByteArrayOutputStream bos = new ByteArrayOutputStream(input.length);
+
+      byte[] buf = new byte[Math.min(CHUNKSIZE, input.length + 64)];
+
+      while (!compressor.finished()) {
+        int count = compressor.deflate(buf);
+        bos.write(buf, 0, count);
+      }
+
+      return bos.toByteArray();
+    } finally {
+      CompressionPool.release(compressor);
+    }
   }
 }
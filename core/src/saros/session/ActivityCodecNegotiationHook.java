@@ -0,0 +1,119 @@
+package saros.session;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.apache.log4j.Logger;
+import saros.negotiation.hooks.ISessionNegotiationHook;
+import saros.negotiation.hooks.SessionNegotiationHookManager;
+import saros.net.xmpp.JID;
+import saros.preferences.IPreferenceStore;
+import saros.session.internal.ActivityCodec;
+
+/**
+ * Hook for negotiating the wire format that is used to transmit {@linkplain
+ * saros.activities.IActivity activities} between two {@link User}s.
+ *
+ * <p>The client tells the codecs it is able to decode, the host decides if the binary codec is
+ * used. The binary codec is announced together with its {@linkplain ActivityCodec#VERSION version}
+ * (e.g <code>binary/4</code>) and is only used if both sides support the same version. Otherwise,
+ * or if the client did not announce any codec (e.g an older version), the XML format is used. The
+ * binary codec can be disabled locally by setting the system property <code>
+ * saros.session.BINARY_ACTIVITY_CODEC</code> to <code>false</code>.
+ */
+public class ActivityCodecNegotiationHook implements ISessionNegotiationHook {
+  private static final String HOOK_IDENTIFIER = "activityCodecHook";
+  private static final String KEY_SUPPORTED_CODECS = "supportedActivityCodecs";
+
+  public static final String KEY_CODEC = "activityCodec";
+
+  public static final String CODEC_XML = "xml";
+  public static final String CODEC_BINARY = "binary/" + ActivityCodec.VERSION;
+
+  private static final boolean BINARY_CODEC_ENABLED =
+      Boolean.valueOf(System.getProperty("saros.session.BINARY_ACTIVITY_CODEC", "true"));
+
+  private static final Logger log = Logger.getLogger(ActivityCodecNegotiationHook.class);
+
+  public ActivityCodecNegotiationHook(SessionNegotiationHookManager hookManager) {
+    hookManager.addHook(this);
+  }
+
+  /**
+   * Returns whether the binary codec was negotiated for the given user.
+   *
+   * @param user the remote user
+   * @return <code>true</code> if activities to the user should be send in the binary format, <code>
+   *     false</code> otherwise
+   */
+  public static boolean isBinaryCodecNegotiated(User user) {
+    return CODEC_BINARY.equals(user.getPreferences().getString(KEY_CODEC));
+  }
+
+  @Override
+  public String getIdentifier() {
+    return HOOK_IDENTIFIER;
+  }
+
+  @Override
+  public void setInitialHostPreferences(IPreferenceStore hostPreferences) {
+    // NOP
+  }
+
+  @Override
+  public Map<String, String> tellClientPreferences() {
+    return Collections.singletonMap(KEY_SUPPORTED_CODECS, getSupportedCodecs());
+  }
+
+  @Override
+  public Map<String, String> considerClientPreferences(JID client, Map<String, String> input) {
+    if (input == null || !input.containsKey(KEY_SUPPORTED_CODECS)) {
+      log.debug("client " + client + " did not announce any activity codecs, using XML");
+      return Collections.singletonMap(KEY_CODEC, CODEC_XML);
+    }
+
+    final List<String> clientCodecs = Arrays.asList(input.get(KEY_SUPPORTED_CODECS).split(","));
+
+    if (BINARY_CODEC_ENABLED && clientCodecs.contains(CODEC_BINARY))
+      return Collections.singletonMap(KEY_CODEC, CODEC_BINARY);
+
+    if (BINARY_CODEC_ENABLED)
+      log.debug(
+          "client "
+              + client
+              + " does not support activity codec "
+              + CODEC_BINARY
+              + " (supported: "
+              + clientCodecs
+              + "), using XML");
+
+    return Collections.singletonMap(KEY_CODEC, CODEC_XML);
+  }
+
+  @Override
+  public void applyActualParameters(
+      Map<String, String> input,
+      IPreferenceStore hostPreferences,
+      IPreferenceStore clientPreferences) {
+
+    String codec = input == null ? null : input.get(KEY_CODEC);
+
+    if (!CODEC_BINARY.equals(codec) && !CODEC_XML.equals(codec)) {
+      if (codec != null)
+        log.warn(
+            "the host selected an unknown activity codec: '"
+                + codec
+                + "'! This could be an indication for a version mismatch.");
+
+      codec = CODEC_XML;
+    }
+
+    hostPreferences.setValue(KEY_CODEC, codec);
+    clientPreferences.setValue(KEY_CODEC, codec);
+  }
+
+  private static String getSupportedCodecs() {
+    return BINARY_CODEC_ENABLED ? CODEC_XML + "," + CODEC_BINARY : CODEC_XML;
+  }
+}
@@ -0,0 +1,99 @@
+package saros.session;
+
+import java.util.Collections;
+import java.util.Map;
+import org.apache.log4j.Logger;
+import saros.negotiation.hooks.ISessionNegotiationHook;
+import saros.negotiation.hooks.SessionNegotiationHookManager;
+import saros.net.ITransmitter;
+import saros.net.xmpp.JID;
+import saros.preferences.IPreferenceStore;
+
+/**
+ * Hook for negotiating whether payloads that are sent between two {@link User}s are compressed
+ * with a preset dictionary.
+ *
+ * <p>A peer that does not know the dictionary cannot decompress such payloads, so the client
+ * announces the {@linkplain ITransmitter#getCompressionDictionaryId() id} of its dictionary and the
+ * dictionary is only used if the host uses a dictionary with the same id. If the client did not
+ * announce anything (e.g an older version) the dictionary is not used. The dictionary can be
+ * disabled locally by setting the system property <code>
+ * saros.net.transmitter.DISABLE_COMPRESSION_DICTIONARY</code> to <code>true</code>.
+ */
+public class CompressionDictionaryNegotiationHook implements ISessionNegotiationHook {
+  private static final String HOOK_IDENTIFIER = "compressionDictionaryHook";
+  private static final String KEY_SUPPORTS_DICTIONARY = "supportsCompressionDictionary";
+
+  public static final String KEY_USE_DICTIONARY = "useCompressionDictionary";
+
+  private static final boolean DICTIONARY_DISABLED =
+      Boolean.getBoolean("saros.net.transmitter.DISABLE_COMPRESSION_DICTIONARY");
+
+  private static final Logger log = Logger.getLogger(CompressionDictionaryNegotiationHook.class);
+
+  /** The id of the local dictionary or <code>null</code> if no dictionary is used. */
+  private final String dictionaryId;
+
+  public CompressionDictionaryNegotiationHook(
+      SessionNegotiationHookManager hookManager, ITransmitter transmitter) {
+    dictionaryId = DICTIONARY_DISABLED ? null : transmitter.getCompressionDictionaryId();
+    hookManager.addHook(this);
+  }
+
+  /**
+   * Returns whether the compression dictionary was negotiated for the given user.
+   *
+   * @param user the remote user
+   * @return <code>true</code> if payloads to the user may be compressed with the dictionary,
+   *     <code>false</code> otherwise
+   */
+  public static boolean isDictionaryNegotiated(User user) {
+    return Boolean.parseBoolean(user.getPreferences().getString(KEY_USE_DICTIONARY));
+  }
+
+  @Override
+  public String getIdentifier() {
+    return HOOK_IDENTIFIER;
+  }
+
+  @Override
+  public void setInitialHostPreferences(IPreferenceStore hostPreferences) {
+    // NOP
+  }
+
+  @Override
+  public Map<String, String> tellClientPreferences() {
+    if (dictionaryId == null) return null;
+
+    return Collections.singletonMap(KEY_SUPPORTS_DICTIONARY, dictionaryId);
+  }
+
+  @Override
+  public Map<String, String> considerClientPreferences(JID client, Map<String, String> input) {
+    final boolean useDictionary =
+        dictionaryId != null
+            && input != null
+            && dictionaryId.equals(input.get(KEY_SUPPORTS_DICTIONARY));
+
+    if (!useDictionary)
+      log.debug("client " + client + " does not support the local compression dictionary");
+
+    return Collections.singletonMap(KEY_USE_DICTIONARY, String.valueOf(useDictionary));
+  }
+
+  @Override
+  public void applyActualParameters(
+      Map<String, String> input,
+      IPreferenceStore hostPreferences,
+      IPreferenceStore clientPreferences) {
+
+    // an older host does not send this setting
+    final boolean useDictionary =
+        dictionaryId != null
+            && input != null
+            && Boolean.parseBoolean(input.get(KEY_USE_DICTIONARY));
+
+    hostPreferences.setValue(KEY_USE_DICTIONARY, String.valueOf(useDictionary));
+    clientPreferences.setValue(KEY_USE_DICTIONARY, String.valueOf(useDictionary));
+  }
+}
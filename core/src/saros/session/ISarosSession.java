@@ -25,6 +25,7 @@ import java.util.concurrent.CancellationException;
 import saros.activities.IActivity;
 import saros.activities.IResourceActivity;
 import saros.concurrent.management.ConcurrentDocumentClient;
+import saros.filesystem.IFile;
 import saros.filesystem.IReferencePoint;
 import saros.filesystem.IResource;
 import saros.net.xmpp.JID;
@@ -191,6 +192,27 @@ public interface ISarosSession {
    */
   User getUser(JID jid);
 
+  /**
+   * Returns the number of activities that are waiting to be sent or are currently sent to the given
+   * remote user.
+   *
+   * @param user the remote user
+   * @return the number of activities, <code>0</code> for the local user or a user that is not part
+   *     of the session
+   */
+  int getOutgoingActivityQueueSize(User user);
+
+  /**
+   * Returns the time in milliseconds the oldest activity that was not yet sent to the given remote
+   * user is waiting. Activities to every user are sent independently, so a high value indicates a
+   * slow connection to that user.
+   *
+   * @param user the remote user
+   * @return the time in milliseconds, <code>0</code> if there are no pending activities for the
+   *     user
+   */
+  long getOutgoingActivityLag(User user);
+
   /**
    * Given a JID (resource qualified or not), will return the resource qualified JID associated with
    * this user or <code>null</code> if no user for the given JID exists in the session.
@@ -380,6 +402,25 @@ public interface ISarosSession {
    */
   void disableQueuing(IReferencePoint referencePoint);
 
+  /**
+   * FOR INTERNAL USE ONLY !
+   *
+   * <p>Starts queuing of incoming {@linkplain saros.activities.JupiterActivity document changes} of
+   * the given file, e.g. while the document of an inconsistent user is recovered. The changes are
+   * applied after the queuing is disabled again. The changes of the local user are not queued.
+   *
+   * @param file the file whose document changes should be queued
+   * @see #disableQueuing(IFile)
+   */
+  void enableQueuing(IFile file);
+
+  /**
+   * FOR INTERNAL USE ONLY !
+   *
+   * <p>Disables queuing for the given file and flushes all queued document changes.
+   */
+  void disableQueuing(IFile file);
+
   /**
    * Returns the id of the current session.
    *
@@ -13,6 +13,7 @@ import saros.communication.extensions.ResourceNegotiationOfferingExtension;
 import saros.negotiation.ResourceNegotiation;
 import saros.negotiation.ResourceNegotiationData;
 import saros.negotiation.SessionNegotiation;
+import saros.net.DispatchThreadContext;
 import saros.net.IReceiver;
 import saros.net.ITransmitter;
 import saros.net.xmpp.JID;
@@ -21,6 +22,10 @@ import saros.net.xmpp.JID;
  * This class is responsible for receiving, handling, and/or forwarding specific network messages
  * (packets) to the Saros session {@linkplain SarosSessionManager manager}.
  *
+ * <p>The packets are handled in the {@link DispatchThreadContext} keyed by the negotiation id, so a
+ * negotiation that takes a long time to be handled does neither delay other negotiations nor the
+ * delivery of other packets of the same sender.
+ *
  * <p><b>Restriction:</b> This class must only instantiated by the <code>SarosSessionManager</code>
  * itself.
  */
@@ -30,9 +35,13 @@ final class NegotiationPacketListener {
 
   private final ITransmitter transmitter;
   private final IReceiver receiver;
+  private final DispatchThreadContext dispatchThreadContext;
 
   private final SarosSessionManager sessionManager;
 
+  /** Guards the handling of session negotiation requests, see {@link #sessionNegotiationRequest} */
+  private final Object sessionNegotiationRequestLock = new Object();
+
   private final SessionNegotiationObservable sessionNegotiations;
   private final ResourceNegotiationObservable resourceNegotiations;
 
@@ -76,8 +85,13 @@ final class NegotiationPacketListener {
             return;
           }
 
-          sessionNegotiationCanceled(
-              new JID(packet.getFrom()), extension.getNegotiationID(), extension.getErrorMessage());
+          dispatchThreadContext.executeAsDispatch(
+              extension.getNegotiationID(),
+              () ->
+                  sessionNegotiationCanceled(
+                      new JID(packet.getFrom()),
+                      extension.getNegotiationID(),
+                      extension.getErrorMessage()));
         }
       };
 
@@ -95,12 +109,15 @@ final class NegotiationPacketListener {
             return;
           }
 
-          sessionNegotiationRequest(
-              new JID(packet.getFrom()),
+          dispatchThreadContext.executeAsDispatch(
               extension.getNegotiationID(),
-              extension.getVersion(),
-              extension.getSessionID(),
-              extension.getDescription());
+              () ->
+                  sessionNegotiationRequest(
+                      new JID(packet.getFrom()),
+                      extension.getNegotiationID(),
+                      extension.getVersion(),
+                      extension.getSessionID(),
+                      extension.getDescription()));
         }
       };
 
@@ -118,8 +135,13 @@ final class NegotiationPacketListener {
             return;
           }
 
-          resourceNegotiationCanceled(
-              new JID(packet.getFrom()), extension.getNegotiationID(), extension.getErrorMessage());
+          dispatchThreadContext.executeAsDispatch(
+              extension.getNegotiationID(),
+              () ->
+                  resourceNegotiationCanceled(
+                      new JID(packet.getFrom()),
+                      extension.getNegotiationID(),
+                      extension.getErrorMessage()));
         }
       };
 
@@ -137,10 +159,13 @@ final class NegotiationPacketListener {
             return;
           }
 
-          resourceNegotiationRequest(
-              new JID(packet.getFrom()),
+          dispatchThreadContext.executeAsDispatch(
               extension.getNegotiationID(),
-              extension.getResourceNegotiationData());
+              () ->
+                  resourceNegotiationRequest(
+                      new JID(packet.getFrom()),
+                      extension.getNegotiationID(),
+                      extension.getResourceNegotiationData()));
         }
       };
 
@@ -153,13 +178,15 @@ final class NegotiationPacketListener {
       final SessionNegotiationObservable sessionNegotiations,
       final ResourceNegotiationObservable resourceNegotiations,
       final ITransmitter transmitter,
-      final IReceiver receiver) {
+      final IReceiver receiver,
+      final DispatchThreadContext dispatchThreadContext) {
     this.sessionManager = sessionManager;
 
     this.sessionNegotiations = sessionNegotiations;
     this.resourceNegotiations = resourceNegotiations;
     this.transmitter = transmitter;
     this.receiver = receiver;
+    this.dispatchThreadContext = dispatchThreadContext;
 
     init();
   }
@@ -217,6 +244,10 @@ final class NegotiationPacketListener {
     negotiation.remoteCancel(errorMessage);
   }
 
+  /**
+   * Handles an incoming session negotiation request. Requests are handled one after another as the
+   * session manager decides while handling a request whether further requests are rejected.
+   */
   private void sessionNegotiationRequest(
       final JID sender,
       final String negotiationID,
@@ -224,6 +255,19 @@ final class NegotiationPacketListener {
       final String sessionID,
       final String description) {
 
+    synchronized (sessionNegotiationRequestLock) {
+      handleSessionNegotiationRequest(
+          sender, negotiationID, remoteVersion, sessionID, description);
+    }
+  }
+
+  private void handleSessionNegotiationRequest(
+      final JID sender,
+      final String negotiationID,
+      final String remoteVersion,
+      final String sessionID,
+      final String description) {
+
     log.info(
         "received invitation from "
             + sender
@@ -13,6 +13,7 @@ import saros.misc.xstream.ResourceTransportWrapperConverter;
 import saros.misc.xstream.UserConverter;
 import saros.negotiation.ResourceNegotiationFactory;
 import saros.repackaged.picocontainer.MutablePicoContainer;
+import saros.session.internal.ActivityCodec;
 import saros.session.internal.ActivityHandler;
 import saros.session.internal.ActivitySequencer;
 import saros.session.internal.ChangeColorManager;
@@ -59,6 +60,9 @@ public class SarosCoreSessionContextFactory implements ISarosSessionContextFacto
     container.addComponent(ResourceTransportWrapperConverter.class);
     container.addComponent(UserConverter.class);
 
+    // Session-dependent binary Activity codec
+    container.addComponent(ActivityCodec.class);
+
     // Other
     container.addComponent(ActivityHandler.class);
     container.addComponent(ActivitySequencer.class);
@@ -50,6 +50,7 @@ import saros.negotiation.SessionNegotiationFactory;
 import saros.negotiation.hooks.ISessionNegotiationHook;
 import saros.negotiation.hooks.SessionNegotiationHookManager;
 import saros.net.ConnectionState;
+import saros.net.DispatchThreadContext;
 import saros.net.IReceiver;
 import saros.net.ITransmitter;
 import saros.net.xmpp.JID;
@@ -173,7 +174,8 @@ public class SarosSessionManager implements ISarosSessionManager {
       SessionNegotiationHookManager hookManager,
       ConnectionHandler connectionHandler,
       ITransmitter transmitter,
-      IReceiver receiver) {
+      IReceiver receiver,
+      DispatchThreadContext dispatchThreadContext) {
 
     this.context = context;
     this.connectionHandler = connectionHandler;
@@ -186,7 +188,12 @@ public class SarosSessionManager implements ISarosSessionManager {
 
     this.negotiationPacketLister =
         new NegotiationPacketListener(
-            this, currentSessionNegotiations, currentResourceNegotiations, transmitter, receiver);
+            this,
+            currentSessionNegotiations,
+            currentResourceNegotiations,
+            transmitter,
+            receiver,
+            dispatchThreadContext);
   }
 
   @Override
@@ -0,0 +1,1108 @@
+package saros.session.internal;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.log4j.Logger;
+import saros.activities.BlockChecksumActivity;
+import saros.activities.ChangeColorActivity;
+import saros.activities.ChecksumActivity;
+import saros.activities.ChecksumErrorActivity;
+import saros.activities.ChecksumTreeActivity;
+import saros.activities.DeletionAcknowledgmentActivity;
+import saros.activities.EditorActivity;
+import saros.activities.FileActivity;
+import saros.activities.FileActivity.Purpose;
+import saros.activities.FolderCreatedActivity;
+import saros.activities.FolderDeletedActivity;
+import saros.activities.IActivity;
+import saros.activities.JupiterActivity;
+import saros.activities.NOPActivity;
+import saros.activities.PermissionActivity;
+import saros.activities.ProgressActivity;
+import saros.activities.ProgressActivity.ProgressAction;
+import saros.activities.StartFollowingActivity;
+import saros.activities.StopActivity;
+import saros.activities.StopFollowingActivity;
+import saros.activities.TargetedFileActivity;
+import saros.activities.TextRecoveryActivity;
+import saros.activities.TextSelectionActivity;
+import saros.activities.ViewportActivity;
+import saros.annotations.Component;
+import saros.communication.extensions.BinaryActivitiesExtension;
+import saros.concurrent.jupiter.Operation;
+import saros.concurrent.jupiter.Timestamp;
+import saros.concurrent.jupiter.internal.JupiterVectorTime;
+import saros.concurrent.jupiter.internal.text.DeleteOperation;
+import saros.concurrent.jupiter.internal.text.InsertOperation;
+import saros.concurrent.jupiter.internal.text.NoOperation;
+import saros.concurrent.jupiter.internal.text.OperationComposer;
+import saros.concurrent.jupiter.internal.text.SplitOperation;
+import saros.concurrent.jupiter.internal.text.TimestampOperation;
+import saros.editor.text.TextPosition;
+import saros.editor.text.TextSelection;
+import saros.filesystem.IFile;
+import saros.filesystem.IFolder;
+import saros.filesystem.IPath;
+import saros.filesystem.IPathFactory;
+import saros.filesystem.IReferencePoint;
+import saros.filesystem.IResource;
+import saros.filesystem.IResource.Type;
+import saros.net.xmpp.JID;
+import saros.repackaged.picocontainer.Startable;
+import saros.session.ISarosSession;
+import saros.session.User;
+import saros.session.User.Permission;
+
+/**
+ * Marshals and unmarshals {@linkplain IActivity activities} into a compact binary representation
+ * that is used by the {@link BinaryActivitiesExtension}.
+ *
+ * <p>All integer values are written as variable length quantities. Users, reference points and
+ * resources are only written once per batch, further occurrences just refer to their index in the
+ * batch. Like the session-dependent XStream converters the codec needs a running session to resolve
+ * users and resources.
+ *
+ * <p><b>Important:</b> Changing the wire format requires an increase of {@link #VERSION}.
+ */
+@Component
+public class ActivityCodec implements Startable {
+
+  private static final Logger log = Logger.getLogger(ActivityCodec.class);
+
+  /** The version of the wire format written by this codec. */
+  public static final int VERSION = 4;
+
+  /* activity tags, do not change the values of existing tags ! */
+  private static final int CHANGE_COLOR = 1;
+  private static final int CHECKSUM = 2;
+  private static final int CHECKSUM_ERROR = 3;
+  private static final int DELETION_ACKNOWLEDGMENT = 4;
+  private static final int EDITOR = 5;
+  private static final int FILE = 6;
+  private static final int FOLDER_CREATED = 7;
+  private static final int FOLDER_DELETED = 8;
+  private static final int JUPITER = 9;
+  private static final int NOP = 10;
+  private static final int PERMISSION = 11;
+  private static final int PROGRESS = 12;
+  private static final int START_FOLLOWING = 13;
+  private static final int STOP = 14;
+  private static final int STOP_FOLLOWING = 15;
+  private static final int TARGETED_FILE = 16;
+  private static final int TEXT_SELECTION = 17;
+  private static final int VIEWPORT = 18;
+  private static final int CHECKSUM_TREE = 19;
+  private static final int TEXT_RECOVERY = 20;
+  private static final int BLOCK_CHECKSUM = 21;
+
+  /* operation tags, do not change the values of existing tags ! */
+  private static final int NO_OPERATION = 1;
+  private static final int TIMESTAMP_OPERATION = 2;
+  private static final int INSERT_OPERATION = 3;
+  private static final int DELETE_OPERATION = 4;
+  /* 5 was used for split operations, which are written as operation sequences now */
+  private static final int OPERATION_SEQUENCE = 6;
+
+  /** Reference index that denotes a <code>null</code> value. */
+  private static final int NULL = 0;
+
+  private final ISarosSession session;
+  private final IPathFactory pathFactory;
+
+  /** The result of a decoding operation. */
+  public static final class DecodeResult {
+    private final List<IActivity> activities;
+    private final int activityCount;
+
+    private DecodeResult(List<IActivity> activities, int activityCount) {
+      this.activities = activities;
+      this.activityCount = activityCount;
+    }
+
+    /** Returns all activities that could be successfully unmarshalled. */
+    public List<IActivity> getActivities() {
+      return activities;
+    }
+
+    /** Returns the number of activities that were marshalled by the sender. */
+    public int getActivityCount() {
+      return activityCount;
+    }
+  }
+
+  public ActivityCodec(ISarosSession session, IPathFactory pathFactory) {
+    this.session = session;
+    this.pathFactory = pathFactory;
+  }
+
+  @Override
+  public void start() {
+    BinaryActivitiesExtension.PROVIDER.registerCodec(this);
+  }
+
+  @Override
+  public void stop() {
+    BinaryActivitiesExtension.PROVIDER.unregisterCodec(this);
+  }
+
+  /**
+   * Writes the given activities to the given output stream.
+   *
+   * @param activities the activities to marshal
+   * @param out the stream to write to
+   * @throws IOException if an I/O error occurs or the list contains an activity that is not
+   *     supported by this codec
+   */
+  public void encode(final List<IActivity> activities, final DataOutputStream out)
+      throws IOException {
+    final Encoder encoder = new Encoder(out);
+
+    writeVarInt(out, activities.size());
+
+    for (final IActivity activity : activities) encoder.writeActivity(activity);
+  }
+
+  /**
+   * Reads activities from the given input stream that were written by {@link #encode}. Activities
+   * that cannot be unmarshalled because they refer to users or resources that are not known (or no
+   * longer known) in the current session are dropped.
+   *
+   * @param in the stream to read from
+   * @return the result containing the unmarshalled activities
+   * @throws IOException if an I/O error occurs or the data is corrupted
+   */
+  public DecodeResult decode(final DataInputStream in) throws IOException {
+    final Decoder decoder = new Decoder(in);
+
+    final int count = readVarInt(in);
+
+    if (count < 0 || count > in.available())
+      throw new ProtocolException("invalid activity count: " + count);
+
+    final List<IActivity> activities = new ArrayList<IActivity>();
+
+    for (int i = 0; i < count; i++) {
+      final IActivity activity = decoder.readActivity();
+
+      if (activity != null) activities.add(activity);
+    }
+
+    return new DecodeResult(activities, count);
+  }
+
+  private class Encoder {
+
+    private final DataOutputStream out;
+
+    private final Map<User, Integer> users = new HashMap<User, Integer>();
+    private final Map<String, Integer> referencePoints = new HashMap<String, Integer>();
+    private final Map<IResource, Integer> resources = new HashMap<IResource, Integer>();
+
+    private Encoder(final DataOutputStream out) {
+      this.out = out;
+    }
+
+    private void writeActivity(final IActivity activity) throws IOException {
+
+      if (activity instanceof JupiterActivity) {
+        final JupiterActivity jupiterActivity = (JupiterActivity) activity;
+        writeTag(JUPITER, activity);
+        writeResource(jupiterActivity.getResource());
+        writeTimestamp(jupiterActivity.getTimestamp());
+        writeOperation(jupiterActivity.getOperation());
+
+      } else if (activity instanceof TextSelectionActivity) {
+        final TextSelectionActivity selectionActivity = (TextSelectionActivity) activity;
+        final TextSelection selection = selectionActivity.getSelection();
+        writeTag(TEXT_SELECTION, activity);
+        writeResource(selectionActivity.getResource());
+        writePosition(selection.getStartPosition());
+        writePosition(selection.getEndPosition());
+        out.writeBoolean(selection.isBackwardsSelection());
+
+      } else if (activity instanceof ViewportActivity) {
+        final ViewportActivity viewportActivity = (ViewportActivity) activity;
+        writeTag(VIEWPORT, activity);
+        writeResource(viewportActivity.getResource());
+        writeVarInt(out, viewportActivity.getStartLine());
+        writeVarInt(out, viewportActivity.getNumberOfLines());
+
+      } else if (activity instanceof ChecksumActivity) {
+        final ChecksumActivity checksumActivity = (ChecksumActivity) activity;
+        writeTag(CHECKSUM, activity);
+        writeResource(checksumActivity.getResource());
+        writeVarLong(out, checksumActivity.getHash());
+        writeVarLong(out, checksumActivity.getLength());
+        writeTimestamp(checksumActivity.getTimestamp());
+
+      } else if (activity instanceof EditorActivity) {
+        final EditorActivity editorActivity = (EditorActivity) activity;
+        writeTag(EDITOR, activity);
+        writeResource(editorActivity.getResource());
+        writeEnum(editorActivity.getType());
+
+      } else if (activity instanceof TargetedFileActivity) {
+        final TargetedFileActivity fileActivity = (TargetedFileActivity) activity;
+        writeTag(TARGETED_FILE, activity);
+        writeUser(fileActivity.getTarget());
+        writeFileActivity(fileActivity);
+
+      } else if (activity instanceof FileActivity) {
+        writeTag(FILE, activity);
+        writeFileActivity((FileActivity) activity);
+
+      } else if (activity instanceof FolderCreatedActivity) {
+        writeTag(FOLDER_CREATED, activity);
+        writeResource(((FolderCreatedActivity) activity).getResource());
+
+      } else if (activity instanceof FolderDeletedActivity) {
+        writeTag(FOLDER_DELETED, activity);
+        writeResource(((FolderDeletedActivity) activity).getResource());
+
+      } else if (activity instanceof DeletionAcknowledgmentActivity) {
+        writeTag(DELETION_ACKNOWLEDGMENT, activity);
+        writeResource(((DeletionAcknowledgmentActivity) activity).getResource());
+
+      } else if (activity instanceof ChecksumErrorActivity) {
+        final ChecksumErrorActivity errorActivity = (ChecksumErrorActivity) activity;
+        final List<IFile> files = errorActivity.getFiles();
+        writeTag(CHECKSUM_ERROR, activity);
+        writeUser(errorActivity.getTarget());
+        writeString(out, errorActivity.getRecoveryID());
+        writeVarInt(out, files == null ? 0 : files.size() + 1);
+
+        if (files != null) for (final IFile file : files) writeResource(file);
+
+      } else if (activity instanceof ChecksumTreeActivity) {
+        final ChecksumTreeActivity treeActivity = (ChecksumTreeActivity) activity;
+        final int[] nodes = treeActivity.getNodes();
+        final long[] hashes = treeActivity.getHashes();
+        writeTag(CHECKSUM_TREE, activity);
+        writeUser(treeActivity.getTarget());
+        writeResource(treeActivity.getResource());
+        writeString(out, treeActivity.getRecoveryID());
+        writeVarInt(out, treeActivity.getChunkCount());
+        writeVarInt(out, treeActivity.getLevel());
+        writeVarInt(out, nodes == null ? 0 : nodes.length + 1);
+
+        if (nodes != null) for (final int node : nodes) writeVarInt(out, node);
+
+        out.writeBoolean(hashes != null);
+
+        if (hashes != null) for (final long hash : hashes) out.writeLong(hash);
+
+      } else if (activity instanceof TextRecoveryActivity) {
+        final TextRecoveryActivity recoveryActivity = (TextRecoveryActivity) activity;
+        writeTag(TEXT_RECOVERY, activity);
+        writeUser(recoveryActivity.getTarget());
+        writeResource(recoveryActivity.getResource());
+        writeVarInt(out, recoveryActivity.getRangeCount());
+
+        for (int i = 0; i < recoveryActivity.getRangeCount(); i++) {
+          writeVarInt(out, recoveryActivity.getStartLine(i));
+          writeVarInt(out, recoveryActivity.getEndLine(i));
+          writeString(out, recoveryActivity.getText(i));
+        }
+
+      } else if (activity instanceof BlockChecksumActivity) {
+        final BlockChecksumActivity blockActivity = (BlockChecksumActivity) activity;
+        final long[] hashes = blockActivity.getHashes();
+        writeTag(BLOCK_CHECKSUM, activity);
+        writeUser(blockActivity.getTarget());
+        writeResource(blockActivity.getResource());
+        writeString(out, blockActivity.getRecoveryID());
+        writeVarInt(out, blockActivity.getStartLine());
+        writeVarInt(out, blockActivity.getEndLine());
+        writeVarInt(out, blockActivity.getBlockLines());
+        writeVarInt(out, blockActivity.getLineCount());
+        writeVarInt(out, hashes == null ? 0 : hashes.length + 1);
+
+        if (hashes != null) for (final long hash : hashes) out.writeLong(hash);
+
+      } else if (activity instanceof ChangeColorActivity) {
+        final ChangeColorActivity colorActivity = (ChangeColorActivity) activity;
+        writeTag(CHANGE_COLOR, activity);
+        writeUser(colorActivity.getTarget());
+        writeUser(colorActivity.getAffected());
+        writeVarInt(out, colorActivity.getColorID());
+
+      } else if (activity instanceof NOPActivity) {
+        final NOPActivity nopActivity = (NOPActivity) activity;
+        writeTag(NOP, activity);
+        writeUser(nopActivity.getTarget());
+        writeVarInt(out, nopActivity.getID());
+
+      } else if (activity instanceof PermissionActivity) {
+        final PermissionActivity permissionActivity = (PermissionActivity) activity;
+        writeTag(PERMISSION, activity);
+        writeUser(permissionActivity.getAffectedUser());
+        writeEnum(permissionActivity.getPermission());
+
+      } else if (activity instanceof ProgressActivity) {
+        final ProgressActivity progressActivity = (ProgressActivity) activity;
+        writeTag(PROGRESS, activity);
+        writeUser(progressActivity.getTarget());
+        writeString(out, progressActivity.getProgressID());
+        writeVarInt(out, progressActivity.getWorkCurrent());
+        writeVarInt(out, progressActivity.getWorkTotal());
+        writeString(out, progressActivity.getTaskName());
+        writeEnum(progressActivity.getAction());
+
+      } else if (activity instanceof StartFollowingActivity) {
+        writeTag(START_FOLLOWING, activity);
+        writeUser(((StartFollowingActivity) activity).getFollowedUser());
+
+      } else if (activity instanceof StopFollowingActivity) {
+        writeTag(STOP_FOLLOWING, activity);
+
+      } else if (activity instanceof StopActivity) {
+        final StopActivity stopActivity = (StopActivity) activity;
+        writeTag(STOP, activity);
+        writeUser(stopActivity.getInitiator());
+        writeUser(stopActivity.getAffected());
+        writeEnum(stopActivity.getType());
+        writeEnum(stopActivity.getState());
+        writeString(out, stopActivity.getActivityID());
+
+      } else {
+        throw new IOException("unsupported activity type: " + activity.getClass().getName());
+      }
+    }
+
+    private void writeTag(final int tag, final IActivity activity) throws IOException {
+      out.writeByte(tag);
+      writeUser(activity.getSource());
+    }
+
+    private void writeFileActivity(final FileActivity activity) throws IOException {
+      writeEnum(activity.getType());
+      writeEnum(activity.isRecovery() ? Purpose.RECOVERY : Purpose.ACTIVITY);
+      writeResource(activity.getResource());
+      writeResource(activity.getOldResource());
+      writeBytes(out, activity.getContent());
+      writeString(out, activity.getEncoding());
+    }
+
+    private void writeUser(final User user) throws IOException {
+      if (user == null) {
+        writeVarInt(out, NULL);
+        return;
+      }
+
+      final Integer index = users.get(user);
+
+      if (index != null) {
+        writeVarInt(out, index);
+        return;
+      }
+
+      final int newIndex = users.size() + 1;
+      users.put(user, newIndex);
+
+      writeVarInt(out, newIndex);
+      writeString(out, user.getJID().toString());
+    }
+
+    private void writeResource(final IResource resource) throws IOException {
+      if (resource == null) {
+        writeVarInt(out, NULL);
+        return;
+      }
+
+      final Integer index = resources.get(resource);
+
+      if (index != null) {
+        writeVarInt(out, index);
+        return;
+      }
+
+      final String referencePointId = session.getReferencePointId(resource.getReferencePoint());
+
+      if (referencePointId == null) {
+        log.error(
+            "Could not retrieve reference point id for reference point '"
+                + resource.getReferencePoint().getName()
+                + "' of resource "
+                + resource
+                + ". Make sure you don't create activities for non-shared resources");
+
+        writeVarInt(out, NULL);
+        return;
+      }
+
+      final Type type = resource.getType();
+
+      if (type != Type.FILE && type != Type.FOLDER)
+        throw new IllegalStateException(
+            "Illegal resource type " + type + " for resource " + resource);
+
+      final int newIndex = resources.size() + 1;
+      resources.put(resource, newIndex);
+
+      writeVarInt(out, newIndex);
+      writeReferencePoint(referencePointId);
+      writeString(out, pathFactory.fromPath(resource.getReferencePointRelativePath()));
+      out.writeByte(type == Type.FILE ? 0 : 1);
+    }
+
+    private void writeReferencePoint(final String referencePointId) throws IOException {
+      final Integer index = referencePoints.get(referencePointId);
+
+      if (index != null) {
+        writeVarInt(out, index);
+        return;
+      }
+
+      final int newIndex = referencePoints.size() + 1;
+      referencePoints.put(referencePointId, newIndex);
+
+      writeVarInt(out, newIndex);
+      writeString(out, referencePointId);
+    }
+
+    private void writeTimestamp(final Timestamp timestamp) throws IOException {
+      if (timestamp == null) {
+        writeVarInt(out, 0);
+        return;
+      }
+
+      final int[] components = timestamp.getComponents();
+
+      writeVarInt(out, components.length + 1);
+
+      for (final int component : components) writeVarInt(out, component);
+    }
+
+    private void writePosition(final TextPosition position) throws IOException {
+      writeVarInt(out, position.getLineNumber());
+      writeVarInt(out, position.getInLineOffset());
+    }
+
+    private void writeOperation(final Operation operation) throws IOException {
+      if (operation instanceof InsertOperation) {
+        final InsertOperation insert = (InsertOperation) operation;
+        out.writeByte(INSERT_OPERATION);
+        writePosition(insert.getStartPosition());
+        writeVarInt(out, insert.getLineDelta());
+        writeVarInt(out, insert.getOffsetDelta());
+        writeString(out, insert.getText());
+        writePosition(insert.getOriginStartPosition());
+
+      } else if (operation instanceof DeleteOperation) {
+        final DeleteOperation delete = (DeleteOperation) operation;
+        out.writeByte(DELETE_OPERATION);
+        writePosition(delete.getStartPosition());
+        writeVarInt(out, delete.getLineDelta());
+        writeVarInt(out, delete.getOffsetDelta());
+        writeString(out, delete.getText());
+
+      } else if (operation instanceof SplitOperation) {
+        // nested split operations are written as the flat sequence of the contained operations
+        final List<Operation> operations = OperationComposer.flatten(operation);
+        out.writeByte(OPERATION_SEQUENCE);
+        writeVarInt(out, operations.size());
+
+        for (final Operation contained : operations) writeOperation(contained);
+
+      } else if (operation instanceof NoOperation) {
+        out.writeByte(NO_OPERATION);
+
+      } else if (operation instanceof TimestampOperation) {
+        out.writeByte(TIMESTAMP_OPERATION);
+
+      } else {
+        throw new IOException(
+            "unsupported operation type: "
+                + (operation == null ? "null" : operation.getClass().getName()));
+      }
+    }
+
+    private void writeEnum(final Enum<?> value) throws IOException {
+      writeVarInt(out, value == null ? 0 : value.ordinal() + 1);
+    }
+  }
+
+  private class Decoder {
+
+    private final DataInputStream in;
+
+    private final List<User> users = new ArrayList<User>();
+    private final List<IReferencePoint> referencePoints = new ArrayList<IReferencePoint>();
+    private final List<IResource> resources = new ArrayList<IResource>();
+
+    private Decoder(final DataInputStream in) {
+      this.in = in;
+    }
+
+    /** Returns the next activity or <code>null</code> if the activity could not be created. */
+    private IActivity readActivity() throws IOException {
+      final int tag = in.readUnsignedByte();
+      final User source = readUser();
+
+      switch (tag) {
+        case JUPITER:
+          {
+            final IResource file = readResource();
+            final Timestamp timestamp = readTimestamp();
+            final Operation operation = readOperation();
+
+            if (source == null || !(file instanceof IFile)) return drop(tag);
+
+            return new JupiterActivity(timestamp, operation, source, (IFile) file);
+          }
+
+        case TEXT_SELECTION:
+          {
+            final IResource file = readResource();
+            final TextPosition start = readPosition();
+            final TextPosition end = readPosition();
+            final boolean isBackwardsSelection = in.readBoolean();
+
+            if (source == null || !(file instanceof IFile)) return drop(tag);
+
+            final TextSelection selection =
+                start.isValid() && end.isValid()
+                    ? new TextSelection(start, end, isBackwardsSelection)
+                    : TextSelection.EMPTY_SELECTION;
+
+            return new TextSelectionActivity(source, selection, (IFile) file);
+          }
+
+        case VIEWPORT:
+          {
+            final IResource file = readResource();
+            final int startLine = readVarInt(in);
+            final int numberOfLines = readVarInt(in);
+
+            if (source == null || !(file instanceof IFile)) return drop(tag);
+
+            return new ViewportActivity(source, startLine, numberOfLines, (IFile) file);
+          }
+
+        case CHECKSUM:
+          {
+            final IResource file = readResource();
+            final long hash = readVarLong(in);
+            final long length = readVarLong(in);
+            final Timestamp timestamp = readTimestamp();
+
+            if (source == null || !(file instanceof IFile)) return drop(tag);
+
+            return new ChecksumActivity(source, (IFile) file, hash, length, timestamp);
+          }
+
+        case EDITOR:
+          {
+            final IResource file = readResource();
+            final EditorActivity.Type type = readEnum(EditorActivity.Type.values());
+
+            if (source == null || (file == null && type != EditorActivity.Type.ACTIVATED))
+              return drop(tag);
+
+            if (file != null && !(file instanceof IFile)) return drop(tag);
+
+            return new EditorActivity(source, type, (IFile) file);
+          }
+
+        case TARGETED_FILE:
+        case FILE:
+          {
+            final User target = tag == TARGETED_FILE ? readUser() : null;
+            final FileActivity.Type type = readEnum(FileActivity.Type.values());
+            final Purpose purpose = readEnum(Purpose.values());
+            final IResource newFile = readResource();
+            final IResource oldFile = readResource();
+            final byte[] content = readBytes(in);
+            final String encoding = readString(in);
+
+            if (source == null
+                || (tag == TARGETED_FILE && target == null)
+                || !(newFile instanceof IFile)
+                || (oldFile != null && !(oldFile instanceof IFile))
+                || (oldFile == null && type == FileActivity.Type.MOVED)) return drop(tag);
+
+            if (tag == TARGETED_FILE)
+              return new TargetedFileActivity(
+                  source,
+                  target,
+                  type,
+                  (IFile) newFile,
+                  (IFile) oldFile,
+                  content,
+                  encoding,
+                  purpose);
+
+            return new FileActivity(
+                source, type, purpose, (IFile) newFile, (IFile) oldFile, content, encoding);
+          }
+
+        case FOLDER_CREATED:
+        case FOLDER_DELETED:
+          {
+            final IResource folder = readResource();
+
+            if (source == null || !(folder instanceof IFolder)) return drop(tag);
+
+            return tag == FOLDER_CREATED
+                ? new FolderCreatedActivity(source, (IFolder) folder)
+                : new FolderDeletedActivity(source, (IFolder) folder);
+          }
+
+        case DELETION_ACKNOWLEDGMENT:
+          {
+            final IResource file = readResource();
+
+            if (source == null || (file != null && !(file instanceof IFile))) return drop(tag);
+
+            return new DeletionAcknowledgmentActivity(source, (IFile) file);
+          }
+
+        case CHECKSUM_ERROR:
+          {
+            final User target = readUser();
+            final String recoveryID = readString(in);
+            final int fileCount = readVarInt(in);
+
+            if (fileCount < 0 || fileCount - 1 > in.available())
+              throw new ProtocolException("invalid file count: " + (fileCount - 1));
+
+            List<IFile> files = null;
+
+            if (fileCount > 0) {
+              files = new ArrayList<IFile>();
+
+              for (int i = 0; i < fileCount - 1; i++) {
+                final IResource file = readResource();
+
+                if (file instanceof IFile) files.add((IFile) file);
+              }
+            }
+
+            if (source == null || target == null) return drop(tag);
+
+            return new ChecksumErrorActivity(source, target, files, recoveryID);
+          }
+
+        case CHECKSUM_TREE:
+          {
+            final User target = readUser();
+            final IResource file = readResource();
+            final String recoveryID = readString(in);
+            final int chunkCount = readVarInt(in);
+            final int level = readVarInt(in);
+            final int nodeCount = readVarInt(in);
+
+            if (nodeCount < 0 || nodeCount - 1 > in.available())
+              throw new ProtocolException("invalid node count: " + (nodeCount - 1));
+
+            int[] nodes = null;
+
+            if (nodeCount > 0) {
+              nodes = new int[nodeCount - 1];
+
+              for (int i = 0; i < nodes.length; i++) nodes[i] = readVarInt(in);
+            }
+
+            long[] hashes = null;
+
+            if (in.readBoolean()) {
+              if (nodes == null) throw new ProtocolException("hashes without nodes");
+
+              hashes = new long[nodes.length];
+
+              for (int i = 0; i < hashes.length; i++) hashes[i] = in.readLong();
+            }
+
+            if (source == null || target == null || !(file instanceof IFile)) return drop(tag);
+
+            return new ChecksumTreeActivity(
+                source, target, (IFile) file, recoveryID, chunkCount, level, nodes, hashes);
+          }
+
+        case TEXT_RECOVERY:
+          {
+            final User target = readUser();
+            final IResource file = readResource();
+            final int rangeCount = readVarInt(in);
+
+            if (rangeCount < 0 || rangeCount > in.available())
+              throw new ProtocolException("invalid range count: " + rangeCount);
+
+            final int[] startLines = new int[rangeCount];
+            final int[] endLines = new int[rangeCount];
+            final String[] texts = new String[rangeCount];
+
+            for (int i = 0; i < rangeCount; i++) {
+              startLines[i] = readVarInt(in);
+              endLines[i] = readVarInt(in);
+              texts[i] = readString(in);
+            }
+
+            if (source == null || target == null || !(file instanceof IFile)) return drop(tag);
+
+            return new TextRecoveryActivity(
+                source, target, (IFile) file, startLines, endLines, texts);
+          }
+
+        case BLOCK_CHECKSUM:
+          {
+            final User target = readUser();
+            final IResource file = readResource();
+            final String recoveryID = readString(in);
+            final int startLine = readVarInt(in);
+            final int endLine = readVarInt(in);
+            final int blockLines = readVarInt(in);
+            final int lineCount = readVarInt(in);
+            final int hashCount = readVarInt(in);
+
+            if (hashCount < 0 || (long) (hashCount - 1) * 8 > in.available())
+              throw new ProtocolException("invalid hash count: " + (hashCount - 1));
+
+            long[] hashes = null;
+
+            if (hashCount > 0) {
+              hashes = new long[hashCount - 1];
+
+              for (int i = 0; i < hashes.length; i++) hashes[i] = in.readLong();
+            }
+
+            if (source == null || target == null || !(file instanceof IFile)) return drop(tag);
+
+            return new BlockChecksumActivity(
+                source,
+                target,
+                (IFile) file,
+                recoveryID,
+                startLine,
+                endLine,
+                blockLines,
+                lineCount,
+                hashes);
+          }
+
+        case CHANGE_COLOR:
+          {
+            final User target = readUser();
+            final User affected = readUser();
+            final int colorID = readVarInt(in);
+
+            if (source == null || target == null || affected == null) return drop(tag);
+
+            return new ChangeColorActivity(source, target, affected, colorID);
+          }
+
+        case NOP:
+          {
+            final User target = readUser();
+            final int id = readVarInt(in);
+
+            if (source == null || target == null) return drop(tag);
+
+            return new NOPActivity(source, target, id);
+          }
+
+        case PERMISSION:
+          {
+            final User affected = readUser();
+            final Permission permission = readEnum(Permission.values());
+
+            if (source == null || affected == null) return drop(tag);
+
+            return new PermissionActivity(source, affected, permission);
+          }
+
+        case PROGRESS:
+          {
+            final User target = readUser();
+            final String progressID = readString(in);
+            final int workCurrent = readVarInt(in);
+            final int workTotal = readVarInt(in);
+            final String taskName = readString(in);
+            final ProgressAction action = readEnum(ProgressAction.values());
+
+            if (source == null || target == null) return drop(tag);
+
+            return new ProgressActivity(
+                source, target, progressID, workCurrent, workTotal, taskName, action);
+          }
+
+        case START_FOLLOWING:
+          {
+            final User followedUser = readUser();
+
+            if (source == null || followedUser == null) return drop(tag);
+
+            return new StartFollowingActivity(source, followedUser);
+          }
+
+        case STOP_FOLLOWING:
+          {
+            if (source == null) return drop(tag);
+
+            return new StopFollowingActivity(source);
+          }
+
+        case STOP:
+          {
+            final User initiator = readUser();
+            final User affected = readUser();
+            final StopActivity.Type type = readEnum(StopActivity.Type.values());
+            final StopActivity.State state = readEnum(StopActivity.State.values());
+            final String stopActivityID = readString(in);
+
+            if (source == null || initiator == null || affected == null) return drop(tag);
+
+            return new StopActivity(source, initiator, affected, type, state, stopActivityID);
+          }
+
+        default:
+          throw new ProtocolException("unknown activity tag: " + tag);
+      }
+    }
+
+    private IActivity drop(final int tag) {
+      log.error("could not unmarshal incoming activity with tag " + tag + ", dropping it");
+      return null;
+    }
+
+    private User readUser() throws IOException {
+      final int index = readVarInt(in);
+
+      if (index == NULL) return null;
+
+      if (index == users.size() + 1) {
+        final User user = session.getUser(new JID(readString(in)));
+        users.add(user);
+        return user;
+      }
+
+      if (index > users.size()) throw new ProtocolException("invalid user reference: " + index);
+
+      return users.get(index - 1);
+    }
+
+    private IResource readResource() throws IOException {
+      final int index = readVarInt(in);
+
+      if (index == NULL) return null;
+
+      if (index == resources.size() + 1) {
+        final IReferencePoint referencePoint = readReferencePoint();
+        final String path = readString(in);
+        final int type = in.readUnsignedByte();
+
+        IResource resource = null;
+
+        if (referencePoint != null) {
+          final IPath resourcePath = pathFactory.fromString(path);
+
+          resource =
+              type == 0
+                  ? referencePoint.getFile(resourcePath)
+                  : referencePoint.getFolder(resourcePath);
+        }
+
+        resources.add(resource);
+        return resource;
+      }
+
+      if (index > resources.size())
+        throw new ProtocolException("invalid resource reference: " + index);
+
+      return resources.get(index - 1);
+    }
+
+    private IReferencePoint readReferencePoint() throws IOException {
+      final int index = readVarInt(in);
+
+      if (index == referencePoints.size() + 1) {
+        final String referencePointId = readString(in);
+        final IReferencePoint referencePoint = session.getReferencePoint(referencePointId);
+
+        if (referencePoint == null)
+          log.error(
+              "Could not create resource because there is no shared reference point for id '"
+                  + referencePointId
+                  + "'");
+
+        referencePoints.add(referencePoint);
+        return referencePoint;
+      }
+
+      if (index == NULL || index > referencePoints.size())
+        throw new ProtocolException("invalid reference point reference: " + index);
+
+      return referencePoints.get(index - 1);
+    }
+
+    private Timestamp readTimestamp() throws IOException {
+      final int length = readVarInt(in);
+
+      if (length == 0) return null;
+
+      if (length != 3) throw new ProtocolException("unsupported timestamp length: " + (length - 1));
+
+      return new JupiterVectorTime(readVarInt(in), readVarInt(in));
+    }
+
+    private TextPosition readPosition() throws IOException {
+      final int lineNumber = readVarInt(in);
+      final int inLineOffset = readVarInt(in);
+
+      if (lineNumber < 0 || inLineOffset < 0) return TextPosition.INVALID_TEXT_POSITION;
+
+      return new TextPosition(lineNumber, inLineOffset);
+    }
+
+    private Operation readOperation() throws IOException {
+      return readOperation(true);
+    }
+
+    /**
+     * Reads an operation. Operation sequences are never nested as the encoder flattens them, so a
+     * nested sequence is rejected instead of being read recursively.
+     */
+    private Operation readOperation(final boolean isSequenceAllowed) throws IOException {
+      final int tag = in.readUnsignedByte();
+
+      switch (tag) {
+        case INSERT_OPERATION:
+          {
+            final TextPosition start = readPosition();
+            final int lineDelta = readVarInt(in);
+            final int offsetDelta = readVarInt(in);
+            final String text = readString(in);
+            final TextPosition origin = readPosition();
+
+            return new InsertOperation(start, lineDelta, offsetDelta, text, origin);
+          }
+
+        case DELETE_OPERATION:
+          {
+            final TextPosition start = readPosition();
+            final int lineDelta = readVarInt(in);
+            final int offsetDelta = readVarInt(in);
+            final String text = readString(in);
+
+            return new DeleteOperation(start, lineDelta, offsetDelta, text);
+          }
+
+        case OPERATION_SEQUENCE:
+          {
+            if (!isSequenceAllowed) throw new ProtocolException("nested operation sequence");
+
+            final int size = readVarInt(in);
+
+            if (size < 2 || size > in.available())
+              throw new ProtocolException("invalid operation sequence size: " + size);
+
+            final List<Operation> operations = new ArrayList<Operation>();
+
+            for (int i = 0; i < size; i++) operations.add(readOperation(false));
+
+            return OperationComposer.compose(operations);
+          }
+
+        case NO_OPERATION:
+          return new NoOperation();
+
+        case TIMESTAMP_OPERATION:
+          return new TimestampOperation();
+
+        default:
+          throw new ProtocolException("unknown operation tag: " + tag);
+      }
+    }
+
+    private <E extends Enum<E>> E readEnum(final E[] values) throws IOException {
+      final int value = readVarInt(in);
+
+      if (value == 0) return null;
+
+      if (value > values.length)
+        throw new ProtocolException(
+            "invalid ordinal " + (value - 1) + " for " + values[0].getDeclaringClass().getName());
+
+      return values[value - 1];
+    }
+  }
+
+  /* primitives */
+
+  static void writeVarInt(final DataOutputStream out, final int value) throws IOException {
+    writeVarLong(out, value);
+  }
+
+  static int readVarInt(final DataInputStream in) throws IOException {
+    final long value = readVarLong(in);
+
+    if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+      throw new ProtocolException("integer value out of range: " + value);
+
+    return (int) value;
+  }
+
+  /** Writes the given value ZigZag encoded as a sequence of 7 bit groups. */
+  static void writeVarLong(final DataOutputStream out, final long value) throws IOException {
+    long zigZag = (value << 1) ^ (value >> 63);
+
+    while ((zigZag & ~0x7FL) != 0) {
+      out.writeByte((int) ((zigZag & 0x7F) | 0x80));
+      zigZag >>>= 7;
+    }
+
+    out.writeByte((int) zigZag);
+  }
+
+  static long readVarLong(final DataInputStream in) throws IOException {
+    long zigZag = 0;
+
+    for (int shift = 0; shift < 64; shift += 7) {
+      final int b = in.readUnsignedByte();
+      zigZag |= (long) (b & 0x7F) << shift;
+
+      if ((b & 0x80) == 0) return (zigZag >>> 1) ^ -(zigZag & 1);
+    }
+
+    throw new ProtocolException("malformed variable length quantity");
+  }
+
+  static void writeString(final DataOutputStream out, final String value) throws IOException {
+    writeBytes(out, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  static String readString(final DataInputStream in) throws IOException {
+    final byte[] data = readBytes(in);
+    return data == null ? null : new String(data, StandardCharsets.UTF_8);
+  }
+
+  static void writeBytes(final DataOutputStream out, final byte[] value) throws IOException {
+    if (value == null) {
+      writeVarInt(out, 0);
+      return;
+    }
+
+    writeVarInt(out, value.length + 1);
+    out.write(value);
+  }
+
+  static byte[] readBytes(final DataInputStream in) throws IOException {
+    final int length = readVarInt(in);
+
+    if (length == 0) return null;
+
+    if (length < 0 || length - 1 > in.available())
+      throw new ProtocolException("invalid length field: " + (length - 1));
+
+    final byte[] data = new byte[length - 1];
+    in.readFully(data);
+    return data;
+  }
+}
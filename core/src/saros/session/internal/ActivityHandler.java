@@ -3,15 +3,20 @@ package saros.session.internal;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import org.apache.log4j.Logger;
 import saros.activities.ActivityOptimizer;
-import saros.activities.ChecksumActivity;
 import saros.activities.IActivity;
 import saros.activities.IResourceActivity;
 import saros.activities.ITargetedActivity;
-import saros.activities.JupiterActivity;
 import saros.activities.QueueItem;
+import saros.activities.TextEditActivity;
+import saros.activities.TextSelectionActivity;
 import saros.concurrent.management.ConcurrentDocumentClient;
 import saros.concurrent.management.ConcurrentDocumentServer;
 import saros.concurrent.management.TransformationResult;
@@ -21,6 +26,7 @@ import saros.session.IActivityHandlerCallback;
 import saros.session.ISarosSession;
 import saros.session.User;
 import saros.synchronize.UISynchronizer;
+import saros.util.NamedThreadFactory;
 import saros.util.ThreadUtils;
 
 /**
@@ -55,6 +61,29 @@ public final class ActivityHandler implements Startable {
     DISPATCH_MODE = dispatchModeToUse;
   }
 
+  /**
+   * Time in milliseconds during which consecutive text edits of the local user are collected and
+   * merged before they are transformed, a value of zero or less disables the merging.
+   */
+  private static final long TYPING_COALESCE_DELAY =
+      Long.getLong("saros.session.TYPING_COALESCE_DELAY", 100L);
+
+  /**
+   * Maximum number of selection and viewport updates per second that are sent for every file, a
+   * value of zero or less disables the limit. Values above 1000 are treated as 1000.
+   */
+  private static final int PRESENCE_UPDATE_RATE =
+      Integer.getInteger("saros.session.PRESENCE_UPDATE_RATE", 20);
+
+  /**
+   * Number of threads that transform incoming Jupiter and checksum activities of different files in
+   * parallel on the host, in addition to the thread that receives them. A value of zero or less
+   * transforms all activities in the receiving thread.
+   */
+  private static final int TRANSFORMATION_THREADS =
+      Integer.getInteger(
+          "saros.session.TRANSFORMATION_THREADS", Runtime.getRuntime().availableProcessors() - 1);
+
   private final LinkedBlockingQueue<List<IActivity>> dispatchQueue =
       new LinkedBlockingQueue<List<IActivity>>();
 
@@ -68,6 +97,12 @@ public final class ActivityHandler implements Startable {
 
   private final UISynchronizer synchronizer;
 
+  private final TransformationPipeline transformationPipeline;
+
+  /** Received activities that are not yet transformed, in the order they were received. */
+  private final ConcurrentLinkedQueue<List<IActivity>> incomingActivities =
+      new ConcurrentLinkedQueue<List<IActivity>>();
+
   /*
    * We must use a thread for synchronous execution otherwise we would block
    * the DispatchThreadContext which handles the dispatching of all network
@@ -75,6 +110,50 @@ public final class ActivityHandler implements Startable {
    */
   private Thread dispatchThread;
 
+  private ScheduledExecutorService flushTimer;
+
+  /*
+   * The following fields are only accessed in the UI thread. A text edit is only held back while
+   * a coalescing window is open. The window is opened by a text edit that is sent immediately and
+   * stays open as long as the pending edits are flushed by the timer.
+   */
+  private TextEditActivity pendingEdit;
+
+  private TextSelectionActivity pendingSelection;
+
+  private boolean isCoalesceWindowOpen;
+
+  private long mergedEditCount;
+
+  private final long typingCoalesceDelay;
+
+  private final int transformationThreads;
+
+  /** Time in milliseconds between two flushes of the held back presence updates. */
+  private final long presenceUpdateInterval;
+
+  private final PresenceSampler presenceSampler;
+
+  private boolean isPresenceFlushScheduled;
+
+  private final Runnable flushPresenceUpdatesRunnable =
+      new Runnable() {
+        @Override
+        public void run() {
+          isPresenceFlushScheduled = false;
+          flushPresenceUpdates();
+        }
+      };
+
+  private final Runnable flushPendingEditsRunnable =
+      new Runnable() {
+        @Override
+        public void run() {
+          if (flushPendingEdits()) scheduleFlush();
+          else isCoalesceWindowOpen = false;
+        }
+      };
+
   private final Runnable dispatchThreadRunnable =
       new Runnable() {
 
@@ -131,22 +210,103 @@ public final class ActivityHandler implements Startable {
       ConcurrentDocumentServer documentServer,
       ConcurrentDocumentClient documentClient,
       UISynchronizer synchronizer) {
+    this(
+        session,
+        callback,
+        documentServer,
+        documentClient,
+        synchronizer,
+        TYPING_COALESCE_DELAY,
+        PRESENCE_UPDATE_RATE,
+        TRANSFORMATION_THREADS);
+  }
+
+  /**
+   * Creates a handler that uses the given settings instead of the ones configured by system
+   * properties.
+   *
+   * @param typingCoalesceDelay see {@link #TYPING_COALESCE_DELAY}
+   * @param presenceUpdateRate see {@link #PRESENCE_UPDATE_RATE}
+   * @param transformationThreads see {@link #TRANSFORMATION_THREADS}
+   */
+  ActivityHandler(
+      ISarosSession session,
+      IActivityHandlerCallback callback,
+      ConcurrentDocumentServer documentServer,
+      ConcurrentDocumentClient documentClient,
+      UISynchronizer synchronizer,
+      long typingCoalesceDelay,
+      int presenceUpdateRate,
+      int transformationThreads) {
     this.session = session;
     this.callback = callback;
     this.documentServer = documentServer;
     this.documentClient = documentClient;
     this.synchronizer = synchronizer;
+
+    transformationPipeline =
+        documentServer != null ? new TransformationPipeline(documentServer) : null;
+
+    this.typingCoalesceDelay = typingCoalesceDelay;
+    this.transformationThreads = transformationThreads;
+
+    presenceUpdateInterval = presenceUpdateRate > 0 ? 1000 / Math.min(presenceUpdateRate, 1000) : 0;
+
+    presenceSampler =
+        presenceUpdateInterval > 0 ? new PresenceSampler(presenceUpdateInterval) : null;
   }
 
   /**
    * Transforms and dispatches the activities. The {@linkplain IActivityHandlerCallback callback}
    * will be notified about the results.
    *
+   * <p>On the host, activities that are received while the activities of another call are
+   * transformed are transformed together in the next round, so the activities of different users
+   * and files can be transformed in parallel. This method returns after the given activities are
+   * transformed, no matter which thread performed the transformation.
+   *
+   * @param activities an <b>immutable</b> list containing the activities
+   */
+  public void handleIncomingActivities(List<IActivity> activities) {
+    addIncomingActivities(activities);
+    handleAddedActivities();
+  }
+
+  /**
+   * Adds the activities to the activities that are handled by the next call of {@link
+   * #handleAddedActivities()}. Activities are handled in the order they were added, no matter
+   * which thread handles them.
+   *
    * @param activities an <b>immutable</b> list containing the activities
    */
-  public synchronized void handleIncomingActivities(List<IActivity> activities) {
+  void addIncomingActivities(List<IActivity> activities) {
+    incomingActivities.add(activities);
+  }
+
+  /**
+   * Transforms and dispatches all activities that were added by {@link
+   * #addIncomingActivities(List)}. Returns after these activities are transformed, no matter which
+   * thread performed the transformation.
+   */
+  void handleAddedActivities() {
+    synchronized (this) {
+      handleIncomingActivitiesLocked();
+    }
+  }
+
+  private void handleIncomingActivitiesLocked() {
+
+    List<IActivity> activities = new ArrayList<IActivity>();
+
+    List<IActivity> received;
+
+    while ((received = incomingActivities.poll()) != null) activities.addAll(received);
+
+    // already handled together with the activities of another call
+    if (activities.isEmpty()) return;
 
     if (session.isHost()) {
+
       /**
        * @JTourBusStop 8, Activity sending, Activity Server:
        *
@@ -247,17 +407,162 @@ public final class ActivityHandler implements Startable {
               @Override
               public void run() {
                 for (IActivity activity : activities) {
-
-                  IActivity transformationResult = documentClient.transformToJupiter(activity);
-
-                  callback.send(Collections.singletonList(session.getHost()), transformationResult);
+                  if (presenceSampler != null && PresenceSampler.isPresenceUpdate(activity)) {
+                    if (presenceSampler.offer(activity, System.currentTimeMillis())) {
+                      schedulePresenceFlush();
+                      continue;
+                    }
+                  } else {
+                    flushPresenceUpdates();
+                  }
+
+                  send(activity);
                 }
               }
             }));
   }
 
+  private void send(final IActivity activity) {
+    if (typingCoalesceDelay > 0 && coalesce(activity)) return;
+
+    transformAndSend(activity);
+  }
+
+  /**
+   * Sends the selection and viewport updates that were held back by the {@link PresenceSampler}.
+   * Must be called in the UI thread.
+   */
+  private void flushPresenceUpdates() {
+    if (presenceSampler == null) return;
+
+    for (IActivity activity : presenceSampler.drain(System.currentTimeMillis())) send(activity);
+  }
+
+  private void schedulePresenceFlush() {
+    if (isPresenceFlushScheduled) return;
+
+    isPresenceFlushScheduled = schedule(flushPresenceUpdatesRunnable, presenceUpdateInterval);
+  }
+
+  /**
+   * Merges consecutive text edits so that fast typing produces less Jupiter activities. Must be
+   * called in the UI thread.
+   *
+   * <p>Text edits are only held back while a coalescing window is open, the first text edit of a
+   * burst is always sent immediately. Selections of the user who performs the pending text edit in
+   * the same file are held back too and sent after the pending text edit. All other activities
+   * cause the pending activities to be sent first.
+   *
+   * @param activity the activity to send
+   * @return <code>true</code> if the activity was sent or held back, <code>false</code> if the
+   *     caller has to send the activity
+   */
+  private boolean coalesce(final IActivity activity) {
+    if (activity instanceof TextEditActivity) {
+      final TextEditActivity edit = (TextEditActivity) activity;
+
+      if (!isCoalesceWindowOpen) {
+        transformAndSend(edit);
+        isCoalesceWindowOpen = true;
+        scheduleFlush();
+        return true;
+      }
+
+      if (pendingEdit != null) {
+        final TextEditActivity merged = ActivityOptimizer.merge(pendingEdit, edit);
+
+        if (merged != null) {
+          // the held back selection belongs to an intermediate state that is never sent
+          pendingEdit = merged;
+          pendingSelection = null;
+          mergedEditCount++;
+          return true;
+        }
+      }
+
+      flushPendingEdits();
+      pendingEdit = edit;
+      return true;
+    }
+
+    if (activity instanceof TextSelectionActivity && pendingEdit != null) {
+      final TextSelectionActivity selection = (TextSelectionActivity) activity;
+
+      if (selection.getSource().equals(pendingEdit.getSource())
+          && selection.getResource().equals(pendingEdit.getResource())) {
+        pendingSelection = selection;
+        return true;
+      }
+    }
+
+    flushPendingEdits();
+    return false;
+  }
+
+  /**
+   * Transforms and sends the pending text edit and selection. Must be called in the UI thread.
+   *
+   * @return <code>true</code> if there were pending activities, <code>false</code> otherwise
+   */
+  private boolean flushPendingEdits() {
+    if (pendingEdit == null) return false;
+
+    final TextEditActivity edit = pendingEdit;
+    final TextSelectionActivity selection = pendingSelection;
+
+    pendingEdit = null;
+    pendingSelection = null;
+
+    transformAndSend(edit);
+
+    if (selection != null) transformAndSend(selection);
+
+    return true;
+  }
+
+  private void scheduleFlush() {
+    schedule(flushPendingEditsRunnable, typingCoalesceDelay);
+  }
+
+  /**
+   * Executes the given runnable in the UI thread after the given delay.
+   *
+   * @return <code>true</code> if the runnable was scheduled, <code>false</code> if the handler is
+   *     stopped
+   */
+  private boolean schedule(final Runnable runnable, final long delay) {
+    try {
+      flushTimer.schedule(
+          new Runnable() {
+            @Override
+            public void run() {
+              synchronizer.asyncExec(ThreadUtils.wrapSafe(log, runnable));
+            }
+          },
+          delay,
+          TimeUnit.MILLISECONDS);
+
+      return true;
+    } catch (RejectedExecutionException e) {
+      // the handler is stopped, held back activities are sent with the next activity
+      log.debug("could not schedule the flush of held back activities", e);
+      return false;
+    }
+  }
+
+  private void transformAndSend(final IActivity activity) {
+    IActivity transformationResult = documentClient.transformToJupiter(activity);
+
+    callback.send(Collections.singletonList(session.getHost()), transformationResult);
+  }
+
   @Override
   public void start() {
+    flushTimer =
+        Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("ActivityFlush-"));
+
+    if (transformationPipeline != null) transformationPipeline.start(transformationThreads);
+
     if (DISPATCH_MODE == DISPATCH_MODE_ASYNC) return;
 
     dispatchThread = ThreadUtils.runSafeAsync("activity-dispatcher", log, dispatchThreadRunnable);
@@ -265,6 +570,15 @@ public final class ActivityHandler implements Startable {
 
   @Override
   public void stop() {
+    flushTimer.shutdownNow();
+
+    if (transformationPipeline != null) transformationPipeline.stop();
+
+    log.debug("merged " + mergedEditCount + " text edits before transformation");
+
+    if (presenceSampler != null)
+      log.debug("dropped " + presenceSampler.getSupersededCount() + " superseded presence updates");
+
     if (DISPATCH_MODE == DISPATCH_MODE_ASYNC) return;
 
     dispatchQueue.add(POISON_PILL);
@@ -331,6 +645,14 @@ public final class ActivityHandler implements Startable {
           @Override
           public void run() {
 
+            /*
+             * the Jupiter state must contain all local edits before remote
+             * activities are transformed against it, held back presence
+             * updates refer to the current state of the documents
+             */
+            flushPendingEdits();
+            flushPresenceUpdates();
+
             for (IActivity activity : optimizedActivities) {
 
               User source = activity.getSource();
@@ -390,6 +712,9 @@ public final class ActivityHandler implements Startable {
    * This method is responsible for directing activities received at the server to the various
    * clients.
    *
+   * <p>Consecutive Jupiter and checksum activities are transformed together by the {@link
+   * TransformationPipeline}, all other activities are handled one after another in between.
+   *
    * @param activities A list of incoming activities
    * @return A number of targeted activities.
    */
@@ -402,13 +727,22 @@ public final class ActivityHandler implements Startable {
     final List<User> remoteUsers = session.getRemoteUsers();
     final List<User> allUsers = session.getUsers();
 
+    final List<IActivity> activitiesToTransform = new ArrayList<IActivity>();
+
     for (IActivity activity : activities) {
-      documentServer.handleResourceChange(activity);
+      if (TransformationPipeline.isTransformed(activity)) {
+        activitiesToTransform.add(activity);
+        continue;
+      }
+
+      if (!activitiesToTransform.isEmpty()) {
+        result.addAll(transformationPipeline.transform(activitiesToTransform));
+        activitiesToTransform.clear();
+      }
 
-      if (activity instanceof JupiterActivity || activity instanceof ChecksumActivity) {
+      documentServer.handleResourceChange(activity);
 
-        result.addAll(documentServer.transformIncoming(activity));
-      } else if (activity instanceof ITargetedActivity) {
+      if (activity instanceof ITargetedActivity) {
         ITargetedActivity target = (ITargetedActivity) activity;
         result.add(new QueueItem(target.getTarget(), activity));
 
@@ -431,6 +765,10 @@ public final class ActivityHandler implements Startable {
         result.executeLocally.add(activity);
       }
     }
+
+    if (!activitiesToTransform.isEmpty())
+      result.addAll(transformationPipeline.transform(activitiesToTransform));
+
     return result;
   }
 }
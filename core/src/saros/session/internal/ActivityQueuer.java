@@ -4,6 +4,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import saros.activities.BlockChecksumActivity;
+import saros.activities.ChecksumTreeActivity;
 import saros.activities.EditorActivity;
 import saros.activities.EditorActivity.Type;
 import saros.activities.IActivity;
@@ -15,7 +17,8 @@ import saros.filesystem.IResource;
 import saros.session.User;
 
 /**
- * This class enables the queuing of {@linkplain IActivity activities} for given reference points.
+ * This class enables the queuing of {@linkplain IActivity activities} for given reference points
+ * and for given files.
  */
 public class ActivityQueuer {
 
@@ -31,17 +34,36 @@ public class ActivityQueuer {
     }
   }
 
+  private static class DocumentQueue {
+    private final IFile file;
+    private final User localUser;
+    private final List<IResourceActivity<? extends IResource>> buffer;
+    private int readyToFlush;
+
+    private DocumentQueue(IFile file, User localUser) {
+      this.file = file;
+      this.localUser = localUser;
+      buffer = new ArrayList<>();
+      readyToFlush = 1;
+    }
+  }
+
   private final List<ReferencePointQueue> referencePointQueues;
 
+  private final List<DocumentQueue> documentQueues;
+
   public ActivityQueuer() {
     referencePointQueues = new ArrayList<ReferencePointQueue>();
+    documentQueues = new ArrayList<DocumentQueue>();
   }
 
   /**
    * Processes the incoming {@linkplain IActivity activities} and decides which activities should be
    * queued. All {@linkplain IResourceActivity resource related activities} which relate to a
-   * reference point that is configured for queuing using {@link #enableQueuing} will be queued. The
-   * method returns all other activities which should not be queued.
+   * reference point that is configured for queuing using {@link #enableQueuing} will be queued, as
+   * well as the resource related activities of a file that is configured for queuing using {@link
+   * #enableQueuing(IFile, User)}. The method returns all other activities which should not be
+   * queued.
    *
    * <p>If a flushing of the queue was previously requested by calling {@link #disableQueuing} than
    * the method will return a list of all queued activities.
@@ -51,7 +73,7 @@ public class ActivityQueuer {
    */
   public synchronized List<IActivity> process(final List<IActivity> activities) {
 
-    if (referencePointQueues.isEmpty()) return activities;
+    if (referencePointQueues.isEmpty() && documentQueues.isEmpty()) return activities;
 
     final List<IActivity> activitiesToExecute = new ArrayList<IActivity>();
 
@@ -109,6 +131,57 @@ public class ActivityQueuer {
     }
   }
 
+  /**
+   * Enables the queuing of the {@linkplain IResourceActivity resource related activities} of the
+   * given file, e.g. while the document is recovered for an inconsistent user. All activities of
+   * the file are queued, not only its {@linkplain JupiterActivity Jupiter activities}, so e.g. a
+   * selection or a save of a user is not executed before the edits of the user that precede it.
+   *
+   * <p>The activities of the local user are never queued. The changes of the local user are
+   * already contained in the local document, so they must be transformed before the document is
+   * recovered and not after it. The {@linkplain ChecksumTreeActivity checksum trees} and the
+   * {@linkplain BlockChecksumActivity block checksums} are not queued either, as the recovery of
+   * the document waits for them.
+   *
+   * <p>This method and {@link #disableQueuing(IFile)} can be called multiples time for a given
+   * file, increasing or decreasing the internal counter. Activities can be flushed when the counter
+   * reaches zero.
+   *
+   * @param file file
+   * @param localUser the local user whose activities are not queued
+   */
+  public synchronized void enableQueuing(final IFile file, final User localUser) {
+    for (final DocumentQueue documentQueue : documentQueues) {
+
+      if (documentQueue.file.equals(file)) {
+
+        documentQueue.readyToFlush++;
+        return;
+      }
+    }
+
+    documentQueues.add(new DocumentQueue(file, localUser));
+  }
+
+  /**
+   * Disables the queuing for the given file. Currently queued activities will be flushed after the
+   * next invocation of {@link #process} if the file is marked as flush-able.
+   *
+   * @param file file
+   * @see #enableQueuing(IFile, User)
+   */
+  public synchronized void disableQueuing(final IFile file) {
+    for (final DocumentQueue documentQueue : documentQueues) {
+
+      if (documentQueue.file.equals(file)) {
+
+        if (documentQueue.readyToFlush > 0) documentQueue.readyToFlush--;
+
+        return;
+      }
+    }
+  }
+
   private boolean alreadyRememberedEditorActivity(
       final Map<IFile, List<User>> editorActivities, final IFile file, final User user) {
 
@@ -155,6 +228,13 @@ public class ActivityQueuer {
             referencePointQueue.buffer.add(resourceActivity);
             continue;
           }
+
+          final DocumentQueue documentQueue = getDocumentQueue(resource);
+
+          if (documentQueue != null && isQueuedForDocument(documentQueue, activity)) {
+            documentQueue.buffer.add(resourceActivity);
+            continue;
+          }
         }
       }
 
@@ -162,6 +242,14 @@ public class ActivityQueuer {
     }
   }
 
+  private static boolean isQueuedForDocument(
+      final DocumentQueue documentQueue, final IActivity activity) {
+
+    return !documentQueue.localUser.equals(activity.getSource())
+        && !(activity instanceof ChecksumTreeActivity)
+        && !(activity instanceof BlockChecksumActivity);
+  }
+
   private void flushQueues(final List<IActivity> activities) {
     final List<ReferencePointQueue> referencePointQueuesToRemove =
         new ArrayList<ReferencePointQueue>();
@@ -220,6 +308,18 @@ public class ActivityQueuer {
 
     for (final ReferencePointQueue referencePointQueue : referencePointQueuesToRemove)
       referencePointQueues.remove(referencePointQueue);
+
+    final List<DocumentQueue> documentQueuesToRemove = new ArrayList<DocumentQueue>();
+
+    for (final DocumentQueue documentQueue : documentQueues) {
+
+      if (documentQueue.readyToFlush > 0) continue;
+
+      activities.addAll(documentQueue.buffer);
+      documentQueuesToRemove.add(documentQueue);
+    }
+
+    documentQueues.removeAll(documentQueuesToRemove);
   }
 
   private ReferencePointQueue getReferencePointQueue(final IReferencePoint referencePoint) {
@@ -230,4 +330,13 @@ public class ActivityQueuer {
 
     return null;
   }
+
+  private DocumentQueue getDocumentQueue(final IResource resource) {
+
+    for (final DocumentQueue documentQueue : documentQueues) {
+      if (documentQueue.file.equals(resource)) return documentQueue;
+    }
+
+    return null;
+  }
 }
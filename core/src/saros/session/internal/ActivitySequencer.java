@@ -20,6 +20,7 @@
 package saros.session.internal;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Deque;
@@ -29,6 +30,11 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import org.apache.log4j.Logger;
 import org.jivesoftware.smack.PacketListener;
 import org.jivesoftware.smack.packet.Packet;
@@ -36,20 +42,31 @@ import org.jivesoftware.smack.packet.PacketExtension;
 import saros.activities.ActivityOptimizer;
 import saros.activities.FileActivity;
 import saros.activities.IActivity;
+import saros.communication.extensions.ActivitiesAcknowledgementExtension;
 import saros.communication.extensions.ActivitiesExtension;
+import saros.communication.extensions.BinaryActivitiesExtension;
 import saros.net.DispatchThreadContext;
+import saros.net.IConnectionManager;
 import saros.net.IReceiver;
 import saros.net.ITransmitter;
 import saros.net.xmpp.JID;
 import saros.repackaged.picocontainer.Startable;
+import saros.session.ActivityCodecNegotiationHook;
+import saros.session.CompressionDictionaryNegotiationHook;
 import saros.session.ISarosSession;
 import saros.session.User;
+import saros.util.NamedThreadFactory;
 import saros.util.ThreadUtils;
 
 /**
  * The ActivitySequencer is responsible for making sure that transformed {@linkplain IActivity
  * activities} are sent and received in the right order.
  *
+ * <p>Received activities are acknowledged to their sender. Sent activities are kept until they are
+ * acknowledged, so if the session connection to a user breaks the sequencer tries to reconnect and
+ * replays the activities that were not acknowledged yet. Activities that are received twice due to
+ * such a replay are discarded.
+ *
  * @author rdjemili
  * @author coezbek
  * @author marrin
@@ -64,13 +81,67 @@ public class ActivitySequencer implements Startable {
   /** Sequence numbers for outgoing and incoming activities start with this value. */
   private static final int FIRST_SEQUENCE_NUMBER = 0;
 
+  /** Number of received activities after which an acknowledgement is sent. */
+  private static final int ACKNOWLEDGEMENT_INTERVAL = 32;
+
+  /**
+   * Max time (ms) received activities are not acknowledged, so the sender can discard them even if
+   * fewer than {@link #ACKNOWLEDGEMENT_INTERVAL} activities are received before the stream is idle.
+   */
+  private static final long ACKNOWLEDGEMENT_DELAY = 1000;
+
+  /** Delay (ms) between two attempts to resume an interrupted activity stream. */
+  private static final long RESUME_RETRY_DELAY = 500;
+
+  /** Approximated size in bytes of a single activity, the content of file activities is added. */
+  private static final int MIN_ACTIVITY_SIZE = 512;
+
+  /**
+   * Determines what happens if the outgoing buffer of a recipient is still full after it was
+   * compacted.
+   */
+  enum SpillPolicy {
+    /**
+     * The activity is buffered anyway, so the producer is never blocked. The recipient is
+     * disconnected if its buffer does not drain in time or grows to twice its limits.
+     */
+    OVERFLOW,
+    /**
+     * The producer waits until the buffer has drained. If the buffer does not drain in time the
+     * recipient is disconnected. <b>Note:</b> activities are usually sent from the UI thread, which
+     * is blocked as well.
+     */
+    BLOCK,
+    /** The recipient is disconnected immediately. */
+    DISCONNECT
+  }
+
   private static class SequencedActivities {
     private final int sequenceNumber;
     private final List<IActivity> activites;
+    private final boolean useBinaryCodec;
 
-    private SequencedActivities(List<IActivity> activites, int sequenceNumber) {
+    private SequencedActivities(
+        List<IActivity> activites, int sequenceNumber, boolean useBinaryCodec) {
       this.activites = activites;
       this.sequenceNumber = sequenceNumber;
+      this.useBinaryCodec = useBinaryCodec;
+    }
+  }
+
+  /** Activities that were sent but not acknowledged yet. */
+  private static class TransmittedActivities {
+    private final int sequenceNumber;
+    private final int activityCount;
+    private final long size;
+    private final PacketExtension extension;
+
+    private TransmittedActivities(
+        PacketExtension extension, int sequenceNumber, int activityCount, long size) {
+      this.extension = extension;
+      this.sequenceNumber = sequenceNumber;
+      this.activityCount = activityCount;
+      this.size = size;
     }
   }
 
@@ -81,11 +152,67 @@ public class ActivitySequencer implements Startable {
      */
     private boolean isInTransmission;
 
+    /** Flag to signal that an {@link ActivitySender} is scheduled or running for this buffer. */
+    private boolean isScheduled;
+
+    /** Time (ms) when the oldest activity that is currently buffered was added, or 0. */
+    private long firstEnqueueTime;
+
+    /** Time (ms) when the oldest activity that is currently sent was added, or 0. */
+    private long transmissionEnqueueTime;
+
+    /** Number of activities that are currently sent. */
+    private int transmissionSize;
+
+    /** Highest time (ms) an activity had to wait until it was sent. */
+    private long maxLag;
+
+    /** Approximated size in bytes of the activities that are currently buffered. */
+    private long bufferedBytes;
+
+    /** Time (ms) since the buffer is full, or 0. */
+    private long fullSince;
+
+    /** Highest number of activities that were buffered at the same time. */
+    private int highWaterMark;
+
+    /** Highest approximated size in bytes of the activities that were buffered at the same time. */
+    private long highWaterMarkBytes;
+
     private int nextSequenceNumber;
     private final Deque<T> activities = new LinkedList<T>();
 
+    /**
+     * Activities that were sent but not acknowledged yet, oldest first. Only used for outgoing
+     * buffers.
+     */
+    private final Deque<TransmittedActivities> retransmitWindow =
+        new ArrayDeque<TransmittedActivities>();
+
+    /** Number of activities in the retransmit window. */
+    private int retransmitWindowSize;
+
+    /** Approximated size in bytes of the activities in the retransmit window. */
+    private long retransmitWindowBytes;
+
+    /** Sequence number that was acknowledged last. Only used for incoming buffers. */
+    private int acknowledgedSequenceNumber;
+
+    /**
+     * Lock that is held while sending to or resuming the stream of the recipient so that replayed
+     * activities cannot be overtaken by new ones. Only used for outgoing buffers.
+     */
+    private final Object transmissionLock = new Object();
+
+    /**
+     * Flag to signal that the remote side negotiated the {@linkplain BinaryActivitiesExtension
+     * binary format}. Only used for outgoing buffers.
+     */
+    private boolean useBinaryCodec;
+
     private ActivityBuffer(int firstSequenceNumber) {
       nextSequenceNumber = firstSequenceNumber;
+      acknowledgedSequenceNumber = firstSequenceNumber;
     }
   }
 
@@ -98,82 +225,114 @@ public class ActivitySequencer implements Startable {
         }
       };
 
-  private final Runnable activitySender =
-      new Runnable() {
+  private final PacketListener binaryActivitiesPacketListener =
+      new PacketListener() {
 
         @Override
-        public void run() {
+        public void processPacket(Packet packet) {
+          receiveBinaryActivities(packet);
+        }
+      };
 
-          Map<JID, SequencedActivities> activitiesToSend = new HashMap<JID, SequencedActivities>();
+  private final PacketListener acknowledgementPacketListener =
+      new PacketListener() {
 
-          send:
-          while (true) {
-            activitiesToSend.clear();
+        @Override
+        public void processPacket(Packet packet) {
+          receiveAcknowledgement(packet);
+        }
+      };
 
-            synchronized (bufferedOutgoingActivities) {
-              if (stopSending) return;
+  /**
+   * Sends the buffered activities of a single recipient until its buffer is empty. There is at
+   * most one sender per buffer, so a recipient on a slow link does not delay the delivery of
+   * activities to other recipients.
+   */
+  private final class ActivitySender implements Runnable {
 
-              for (Entry<JID, ActivityBuffer<IActivity>> entry :
-                  bufferedOutgoingActivities.entrySet()) {
+    private final JID recipient;
+    private final ActivityBuffer<IActivity> buffer;
 
-                ActivityBuffer<IActivity> buffer = entry.getValue();
+    private ActivitySender(final JID recipient, final ActivityBuffer<IActivity> buffer) {
+      this.recipient = recipient;
+      this.buffer = buffer;
+    }
 
-                if (buffer == null || buffer.activities.isEmpty()) continue;
+    @Override
+    public void run() {
+      while (true) {
+        final SequencedActivities activitiesToSend;
+        final long enqueueTime;
 
-                List<IActivity> optimizedActivities = ActivityOptimizer.optimize(buffer.activities);
+        synchronized (bufferedOutgoingActivities) {
+          buffer.isInTransmission = false;
+          buffer.transmissionEnqueueTime = 0;
+          buffer.transmissionSize = 0;
 
-                buffer.activities.clear();
-                buffer.isInTransmission = true;
+          if (stopSending
+              || buffer.activities.isEmpty()
+              || bufferedOutgoingActivities.get(recipient) != buffer) {
 
-                int currentSequenceNumber = buffer.nextSequenceNumber;
-                buffer.nextSequenceNumber += optimizedActivities.size();
+            buffer.isScheduled = false;
 
-                activitiesToSend.put(
-                    entry.getKey(),
-                    new SequencedActivities(optimizedActivities, currentSequenceNumber));
-              }
+            // notify waiting threads in flush method that we are done
+            bufferedOutgoingActivities.notifyAll();
+            return;
+          }
 
-              if (activitiesToSend.isEmpty()) {
-                try {
-                  bufferedOutgoingActivities.wait();
-                  continue send;
-                } catch (InterruptedException e) {
-                  return;
-                }
-              }
-            }
+          final List<IActivity> optimizedActivities =
+              ActivityOptimizer.optimize(buffer.activities);
 
-            for (Entry<JID, SequencedActivities> e : activitiesToSend.entrySet()) {
-              sendActivities(e.getKey(), e.getValue().activites, e.getValue().sequenceNumber);
-            }
+          buffer.activities.clear();
+          buffer.bufferedBytes = 0;
+          buffer.isInTransmission = true;
+          buffer.transmissionEnqueueTime = buffer.firstEnqueueTime;
+          buffer.transmissionSize = optimizedActivities.size();
+          buffer.firstEnqueueTime = 0;
 
-            synchronized (bufferedOutgoingActivities) {
-              for (Entry<JID, ActivityBuffer<IActivity>> entry :
-                  bufferedOutgoingActivities.entrySet()) {
+          final int currentSequenceNumber = buffer.nextSequenceNumber;
+          buffer.nextSequenceNumber += optimizedActivities.size();
 
-                ActivityBuffer<IActivity> buffer = entry.getValue();
+          activitiesToSend =
+              new SequencedActivities(
+                  optimizedActivities, currentSequenceNumber, buffer.useBinaryCodec);
 
-                if (buffer == null) continue;
+          enqueueTime = buffer.transmissionEnqueueTime;
 
-                buffer.isInTransmission = false;
-              }
+          // notify producers that are waiting for the buffer to drain
+          bufferedOutgoingActivities.notifyAll();
+        }
 
-              // notify waiting threads in flush method that we are done
-              bufferedOutgoingActivities.notifyAll();
-            }
-          }
+        sendActivities(
+            recipient,
+            buffer,
+            activitiesToSend.activites,
+            activitiesToSend.sequenceNumber,
+            activitiesToSend.useBinaryCodec);
+
+        final long lag = System.currentTimeMillis() - enqueueTime;
+
+        synchronized (bufferedOutgoingActivities) {
+          if (lag > buffer.maxLag) buffer.maxLag = lag;
         }
-      };
+      }
+    }
+  }
 
   private volatile IActivitySequencerCallback callback;
 
   private boolean started = false;
   private boolean stopped = false;
 
+  private boolean startSending = false;
   private boolean stopSending = false;
   private final String currentSessionID;
 
-  private Thread activitySendThread;
+  private final ExecutorService activitySenders =
+      Executors.newCachedThreadPool(new NamedThreadFactory("ActivitySender-"));
+
+  private final ScheduledExecutorService acknowledgementTimer =
+      Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("ActivityAcknowledger-"));
 
   private final ISarosSession sarosSession;
 
@@ -183,17 +342,64 @@ public class ActivitySequencer implements Startable {
 
   private final DispatchThreadContext dispatchThread;
 
+  private final IConnectionManager connectionManager;
+
+  /** Shares the encoded activities between the recipients, see {@link EncodedActivitiesCache}. */
+  private final EncodedActivitiesCache encodedActivitiesCache = new EncodedActivitiesCache();
+
   private final Map<JID, ActivityBuffer<IActivity>> bufferedIncomingActivities;
 
   private final Map<JID, ActivityBuffer<IActivity>> bufferedOutgoingActivities;
 
+  /** Max number of activities buffered per recipient, <code>0</code> means unbounded. */
+  private final int maxBufferedActivities =
+      Math.max(0, Integer.getInteger("saros.session.MAX_OUTGOING_BUFFERED_ACTIVITIES", 10000));
+
+  /** Max approximated size in bytes buffered per recipient, <code>0</code> means unbounded. */
+  private final long maxBufferedBytes =
+      Math.max(0, Long.getLong("saros.session.MAX_OUTGOING_BUFFERED_BYTES", 32L * 1024 * 1024));
+
+  private final SpillPolicy spillPolicy = getSpillPolicy();
+
+  /**
+   * Max time (ms) a full buffer may take to drain before the recipient is disconnected. With the
+   * policy {@code BLOCK}, the producer waits for this time.
+   */
+  private final long maxBackpressureWait =
+      Math.max(0, Long.getLong("saros.session.MAX_OUTGOING_BACKPRESSURE_WAIT", 10000L));
+
+  /** Max number of not acknowledged activities that are kept per recipient for a replay. */
+  private final int maxRetransmitWindow =
+      Math.max(0, Integer.getInteger("saros.session.MAX_RETRANSMIT_WINDOW", 8192));
+
+  /**
+   * Max approximated size in bytes of the not acknowledged activities that are kept per recipient
+   * for a replay.
+   */
+  private final long maxRetransmitWindowBytes =
+      Math.max(0, Long.getLong("saros.session.MAX_RETRANSMIT_WINDOW_BYTES", 16L * 1024 * 1024));
+
+  /**
+   * Max time (ms) spent to resume an interrupted activity stream before the recipient is
+   * disconnected, <code>0</code> disables resuming.
+   */
+  private final long resumeTimeout =
+      Math.max(0, Long.getLong("saros.session.ACTIVITY_STREAM_RESUME_TIMEOUT", 15000L));
+
+  /**
+   * @param connectionManager the connection manager that is used to re-establish the session
+   *     connection, may be <code>null</code> in which case interrupted activity streams are not
+   *     resumed
+   */
   public ActivitySequencer(
       final ISarosSession sarosSession,
       final ITransmitter transmitter,
       final IReceiver receiver,
-      final DispatchThreadContext threadContext) {
+      final DispatchThreadContext threadContext,
+      final IConnectionManager connectionManager) {
 
     this.dispatchThread = threadContext;
+    this.connectionManager = connectionManager;
     this.sarosSession = sarosSession;
     this.transmitter = transmitter;
     this.receiver = receiver;
@@ -249,7 +455,33 @@ public class ActivitySequencer implements Startable {
     receiver.addPacketListener(
         activitiesPacketListener, ActivitiesExtension.PROVIDER.getPacketFilter(currentSessionID));
 
-    activitySendThread = ThreadUtils.runSafeAsync("activity-sender", log, activitySender);
+    receiver.addPacketListener(
+        binaryActivitiesPacketListener,
+        BinaryActivitiesExtension.PROVIDER.getPacketFilter(currentSessionID));
+
+    receiver.addPacketListener(
+        acknowledgementPacketListener,
+        ActivitiesAcknowledgementExtension.PROVIDER.getPacketFilter(currentSessionID));
+
+    synchronized (bufferedOutgoingActivities) {
+      startSending = true;
+
+      for (final Entry<JID, ActivityBuffer<IActivity>> entry :
+          bufferedOutgoingActivities.entrySet()) scheduleSender(entry.getKey(), entry.getValue());
+    }
+
+    acknowledgementTimer.scheduleWithFixedDelay(
+        ThreadUtils.wrapSafe(
+            log,
+            new Runnable() {
+              @Override
+              public void run() {
+                acknowledgePendingActivities();
+              }
+            }),
+        ACKNOWLEDGEMENT_DELAY,
+        ACKNOWLEDGEMENT_DELAY,
+        TimeUnit.MILLISECONDS);
   }
 
   /**
@@ -271,27 +503,34 @@ public class ActivitySequencer implements Startable {
     }
 
     receiver.removePacketListener(activitiesPacketListener);
+    receiver.removePacketListener(binaryActivitiesPacketListener);
+    receiver.removePacketListener(acknowledgementPacketListener);
+
+    acknowledgementTimer.shutdownNow();
 
     synchronized (bufferedOutgoingActivities) {
       stopSending = true;
       bufferedOutgoingActivities.notifyAll();
     }
 
+    activitySenders.shutdown();
+
     boolean isStoppingInterrupted = false;
 
     try {
-      activitySendThread.join(TIMEOUT);
+      if (!activitySenders.awaitTermination(TIMEOUT, TimeUnit.MILLISECONDS))
+        log.error("activity sender threads are still running");
     } catch (InterruptedException e) {
-      log.warn(
-          "interrupted while waiting for " + activitySendThread.getName() + " thread to terminate");
+      log.warn("interrupted while waiting for activity sender threads to terminate");
 
       isStoppingInterrupted = true;
     }
 
-    if (activitySendThread.isAlive())
-      log.error(activitySendThread.getName() + " thread is still running");
-
     synchronized (bufferedOutgoingActivities) {
+      for (final Entry<JID, ActivityBuffer<IActivity>> entry :
+          bufferedOutgoingActivities.entrySet())
+        logBufferStatistics(entry.getKey(), entry.getValue());
+
       bufferedOutgoingActivities.clear();
       bufferedOutgoingActivities.notifyAll();
     }
@@ -300,7 +539,11 @@ public class ActivitySequencer implements Startable {
       bufferedIncomingActivities.clear();
     }
 
-    activitySendThread = null;
+    if (log.isDebugEnabled())
+      log.debug(
+          "encoded activities were shared " + encodedActivitiesCache.getHitCount() + " time(s)");
+
+    encodedActivitiesCache.clear();
 
     if (isStoppingInterrupted) Thread.currentThread().interrupt();
   }
@@ -310,9 +553,14 @@ public class ActivitySequencer implements Startable {
   }
 
   private void executeActivities(
-      final JID sender, final List<IActivity> activities, final int sequenceNumber) {
+      final JID sender,
+      final List<IActivity> activities,
+      final int sequenceNumber,
+      final int activityCount) {
 
     boolean transmissionError = false;
+    boolean isDuplicate = false;
+    int acknowledgedSequenceNumber = -1;
 
     synchronized (bufferedIncomingActivities) {
       ActivityBuffer<IActivity> buffer = bufferedIncomingActivities.get(sender);
@@ -326,10 +574,26 @@ public class ActivitySequencer implements Startable {
         return;
       }
 
-      if (buffer.nextSequenceNumber != sequenceNumber) {
+      if (sequenceNumber < buffer.nextSequenceNumber
+          && sequenceNumber + activityCount <= buffer.nextSequenceNumber) {
+        /*
+         * already executed, the sender replayed the activities after the
+         * connection was interrupted, acknowledge them again so the sender
+         * can discard them
+         */
+        isDuplicate = true;
+        acknowledgedSequenceNumber = buffer.nextSequenceNumber;
+        buffer.acknowledgedSequenceNumber = acknowledgedSequenceNumber;
+      } else if (buffer.nextSequenceNumber != sequenceNumber) {
         transmissionError = true;
       } else {
-        buffer.nextSequenceNumber += activities.size();
+        buffer.nextSequenceNumber += activityCount;
+
+        if (buffer.nextSequenceNumber - buffer.acknowledgedSequenceNumber
+            >= ACKNOWLEDGEMENT_INTERVAL) {
+          acknowledgedSequenceNumber = buffer.nextSequenceNumber;
+          buffer.acknowledgedSequenceNumber = acknowledgedSequenceNumber;
+        }
       }
     }
 
@@ -339,10 +603,32 @@ public class ActivitySequencer implements Startable {
       return;
     }
 
+    if (acknowledgedSequenceNumber != -1) sendAcknowledgement(sender, acknowledgedSequenceNumber);
+
+    if (isDuplicate) {
+      log.debug(
+          "discarding "
+              + activityCount
+              + " activities from "
+              + sender
+              + " that were already received, sequence number: "
+              + sequenceNumber);
+      return;
+    }
+
     sarosSession.exec(activities);
   }
 
-  /** Sends an activity to the given recipients. */
+  /**
+   * Sends an activity to the given recipients.
+   *
+   * <p>The activities to every recipient are buffered until they can be sent. If the buffer of a
+   * recipient reaches its limit it is compacted first, i.e superseded selections and viewports are
+   * removed. If the buffer is still full the configured {@link SpillPolicy} applies. By default the
+   * activity is buffered beyond the limit. If the buffer does not drain in time, the recipient is
+   * disconnected and reported via {@link IActivitySequencerCallback#transmissionFailed}. The
+   * growing backlog is reflected by {@link #getQueueSize(User)} and {@link #getLag(User)}.
+   */
   public void sendActivity(List<User> recipients, final IActivity activity) {
 
     ArrayList<User> remoteRecipients = new ArrayList<User>();
@@ -366,6 +652,10 @@ public class ActivitySequencer implements Startable {
 
     if (remoteRecipients.isEmpty()) return;
 
+    final long activitySize = estimateSize(activity);
+
+    final List<JID> spilledRecipients = new ArrayList<JID>();
+
     synchronized (bufferedOutgoingActivities) {
       for (User recipient : remoteRecipients) {
         ActivityBuffer<IActivity> buffer = bufferedOutgoingActivities.get(recipient.getJID());
@@ -378,11 +668,308 @@ public class ActivitySequencer implements Startable {
                   + activity);
           continue;
         }
+
+        if (!reserveCapacity(recipient.getJID(), buffer, activitySize)) {
+          if (stopSending || bufferedOutgoingActivities.get(recipient.getJID()) != buffer) continue;
+
+          bufferedOutgoingActivities.put(recipient.getJID(), null);
+          bufferedOutgoingActivities.notifyAll();
+          spilledRecipients.add(recipient.getJID());
+          continue;
+        }
+
+        if (buffer.activities.isEmpty()) buffer.firstEnqueueTime = System.currentTimeMillis();
+
         buffer.activities.add(activity);
+        buffer.bufferedBytes += activitySize;
+
+        if (buffer.activities.size() > buffer.highWaterMark)
+          buffer.highWaterMark = buffer.activities.size();
+
+        if (buffer.bufferedBytes > buffer.highWaterMarkBytes)
+          buffer.highWaterMarkBytes = buffer.bufferedBytes;
+
+        scheduleSender(recipient.getJID(), buffer);
       }
+    }
 
-      // ActivitySender thread is flushing the buffers
-      bufferedOutgoingActivities.notifyAll();
+    for (final JID recipient : spilledRecipients) {
+      unregisterUser(recipient);
+      notifyTransmissionError(recipient);
+    }
+  }
+
+  /**
+   * Ensures that the given buffer can take an activity of the given size. Must be called while
+   * holding the lock of <code>bufferedOutgoingActivities</code>.
+   *
+   * @return <code>true</code> if the activity can be added to the buffer, <code>false</code> if the
+   *     buffer is no longer registered or the recipient must be disconnected
+   */
+  private boolean reserveCapacity(
+      final JID recipient, final ActivityBuffer<IActivity> buffer, final long activitySize) {
+
+    if (hasCapacity(buffer, activitySize)) {
+      buffer.fullSince = 0;
+      return true;
+    }
+
+    compact(buffer);
+
+    if (hasCapacity(buffer, activitySize)) {
+      buffer.fullSince = 0;
+      return true;
+    }
+
+    if (spillPolicy == SpillPolicy.OVERFLOW) return overflow(recipient, buffer, activitySize);
+
+    if (spillPolicy == SpillPolicy.DISCONNECT) {
+      log.error(
+          "outgoing buffer of "
+              + recipient
+              + " is full ("
+              + buffer.activities.size()
+              + " activities, "
+              + buffer.bufferedBytes
+              + " bytes), disconnecting user");
+      return false;
+    }
+
+    log.warn(
+        "outgoing buffer of "
+            + recipient
+            + " is full ("
+            + buffer.activities.size()
+            + " activities, "
+            + buffer.bufferedBytes
+            + " bytes), waiting for it to drain");
+
+    final long deadline = System.currentTimeMillis() + maxBackpressureWait;
+
+    while (!hasCapacity(buffer, activitySize)) {
+      if (stopSending || bufferedOutgoingActivities.get(recipient) != buffer) return false;
+
+      final long remaining = deadline - System.currentTimeMillis();
+
+      if (remaining <= 0) {
+        log.error(
+            "outgoing buffer of "
+                + recipient
+                + " did not drain within "
+                + maxBackpressureWait
+                + " ms, disconnecting user");
+        return false;
+      }
+
+      try {
+        bufferedOutgoingActivities.wait(remaining);
+      } catch (InterruptedException e) {
+        log.warn("interrupted while waiting for the outgoing buffer of " + recipient + " to drain");
+        Thread.currentThread().interrupt();
+        // exceeding the limit once is better than losing the activity
+        return bufferedOutgoingActivities.get(recipient) == buffer;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Decides whether an activity is added to the given full buffer without waiting for it to drain.
+   * Must be called while holding the lock of <code>bufferedOutgoingActivities</code>.
+   *
+   * @return <code>true</code> if the activity can be added to the buffer, <code>false</code> if the
+   *     recipient must be disconnected
+   */
+  private boolean overflow(
+      final JID recipient, final ActivityBuffer<IActivity> buffer, final long activitySize) {
+
+    final long now = System.currentTimeMillis();
+
+    if (buffer.fullSince == 0) {
+      buffer.fullSince = now;
+
+      log.warn(
+          "outgoing buffer of "
+              + recipient
+              + " is full ("
+              + buffer.activities.size()
+              + " activities, "
+              + buffer.bufferedBytes
+              + " bytes), buffering beyond the limit");
+    }
+
+    final boolean exceedsHardLimit =
+        (maxBufferedActivities > 0 && buffer.activities.size() >= 2L * maxBufferedActivities)
+            || (maxBufferedBytes > 0 && buffer.bufferedBytes + activitySize > 2 * maxBufferedBytes);
+
+    if (!exceedsHardLimit && now - buffer.fullSince <= maxBackpressureWait) return true;
+
+    log.error(
+        "outgoing buffer of "
+            + recipient
+            + " did not drain within "
+            + (now - buffer.fullSince)
+            + " ms ("
+            + buffer.activities.size()
+            + " activities, "
+            + buffer.bufferedBytes
+            + " bytes), disconnecting user");
+
+    return false;
+  }
+
+  private boolean hasCapacity(final ActivityBuffer<IActivity> buffer, final long activitySize) {
+    /*
+     * an empty buffer always accepts an activity, otherwise a single large
+     * file activity could never be sent
+     */
+    if (buffer.activities.isEmpty()) return true;
+
+    if (maxBufferedActivities > 0 && buffer.activities.size() >= maxBufferedActivities)
+      return false;
+
+    return maxBufferedBytes <= 0 || buffer.bufferedBytes + activitySize <= maxBufferedBytes;
+  }
+
+  /** Removes all activities from the given buffer that are superseded by later ones. */
+  private static void compact(final ActivityBuffer<IActivity> buffer) {
+    final List<IActivity> optimizedActivities = ActivityOptimizer.optimize(buffer.activities);
+
+    if (optimizedActivities.size() == buffer.activities.size()) return;
+
+    buffer.activities.clear();
+    buffer.activities.addAll(optimizedActivities);
+    buffer.bufferedBytes = 0;
+
+    for (final IActivity activity : optimizedActivities)
+      buffer.bufferedBytes += estimateSize(activity);
+  }
+
+  private static SpillPolicy getSpillPolicy() {
+    final String value = System.getProperty("saros.session.OUTGOING_SPILL_POLICY", "OVERFLOW");
+
+    try {
+      return SpillPolicy.valueOf(value);
+    } catch (IllegalArgumentException e) {
+      log.warn("unknown spill policy: " + value + ", using " + SpillPolicy.OVERFLOW);
+      return SpillPolicy.OVERFLOW;
+    }
+  }
+
+  /** Returns the approximated size in bytes of the given activity. */
+  private static long estimateSize(final IActivity activity) {
+    long size = MIN_ACTIVITY_SIZE;
+
+    if (activity instanceof FileActivity) {
+      final byte[] fileContent = ((FileActivity) activity).getContent();
+
+      if (fileContent != null) size += fileContent.length;
+    }
+
+    return size;
+  }
+
+  /**
+   * Returns the number of activities that are waiting to be sent or are currently sent to the given
+   * user.
+   *
+   * @param user the remote user
+   * @return the number of activities or <code>0</code> if the user is not registered
+   */
+  public int getQueueSize(User user) {
+    synchronized (bufferedOutgoingActivities) {
+      final ActivityBuffer<IActivity> buffer = bufferedOutgoingActivities.get(user.getJID());
+
+      return buffer == null ? 0 : buffer.activities.size() + buffer.transmissionSize;
+    }
+  }
+
+  /**
+   * Returns the time in milliseconds the oldest activity that was not yet sent to the given user is
+   * waiting.
+   *
+   * @param user the remote user
+   * @return the time in milliseconds or <code>0</code> if all activities were sent or the user is
+   *     not registered
+   */
+  public long getLag(User user) {
+    synchronized (bufferedOutgoingActivities) {
+      final ActivityBuffer<IActivity> buffer = bufferedOutgoingActivities.get(user.getJID());
+
+      if (buffer == null) return 0;
+
+      final long oldest =
+          buffer.transmissionEnqueueTime != 0
+              ? buffer.transmissionEnqueueTime
+              : buffer.firstEnqueueTime;
+
+      return oldest == 0 ? 0 : System.currentTimeMillis() - oldest;
+    }
+  }
+
+  /**
+   * Returns the highest time in milliseconds an activity had to wait until it was sent to the given
+   * user.
+   *
+   * @param user the remote user
+   * @return the time in milliseconds or <code>0</code> if the user is not registered
+   */
+  public long getMaxLag(User user) {
+    synchronized (bufferedOutgoingActivities) {
+      final ActivityBuffer<IActivity> buffer = bufferedOutgoingActivities.get(user.getJID());
+
+      return buffer == null ? 0 : buffer.maxLag;
+    }
+  }
+
+  /**
+   * Returns the highest number of activities that were buffered at the same time for the given
+   * user, i.e the high-water mark of the outgoing buffer of that user.
+   *
+   * @param user the remote user
+   * @return the number of activities or <code>0</code> if the user is not registered
+   */
+  public int getHighWaterMark(User user) {
+    synchronized (bufferedOutgoingActivities) {
+      final ActivityBuffer<IActivity> buffer = bufferedOutgoingActivities.get(user.getJID());
+
+      return buffer == null ? 0 : buffer.highWaterMark;
+    }
+  }
+
+  /**
+   * Returns the number of activities that were sent to the given user but not acknowledged yet and
+   * are kept for a replay.
+   *
+   * @param user the remote user
+   * @return the number of activities or <code>0</code> if the user is not registered
+   */
+  public int getRetransmitWindowSize(User user) {
+    synchronized (bufferedOutgoingActivities) {
+      final ActivityBuffer<IActivity> buffer = bufferedOutgoingActivities.get(user.getJID());
+
+      return buffer == null ? 0 : buffer.retransmitWindowSize;
+    }
+  }
+
+  /**
+   * Schedules an {@link ActivitySender} for the given buffer if it contains activities and there is
+   * no sender for it yet. Must be called while holding the lock of <code>
+   * bufferedOutgoingActivities</code>.
+   */
+  private void scheduleSender(final JID recipient, final ActivityBuffer<IActivity> buffer) {
+    if (!startSending || stopSending) return;
+
+    if (buffer == null || buffer.isScheduled || buffer.activities.isEmpty()) return;
+
+    buffer.isScheduled = true;
+
+    try {
+      activitySenders.execute(ThreadUtils.wrapSafe(log, new ActivitySender(recipient, buffer)));
+    } catch (RejectedExecutionException e) {
+      buffer.isScheduled = false;
+      log.warn("could not schedule sending of activities to " + recipient, e);
     }
   }
 
@@ -395,9 +982,17 @@ public class ActivitySequencer implements Startable {
    */
   public void registerUser(User user) {
     synchronized (bufferedOutgoingActivities) {
-      if (bufferedOutgoingActivities.get(user.getJID()) == null)
-        bufferedOutgoingActivities.put(
-            user.getJID(), new ActivityBuffer<IActivity>(FIRST_SEQUENCE_NUMBER));
+      if (bufferedOutgoingActivities.get(user.getJID()) == null) {
+        final ActivityBuffer<IActivity> buffer =
+            new ActivityBuffer<IActivity>(FIRST_SEQUENCE_NUMBER);
+
+        buffer.useBinaryCodec = ActivityCodecNegotiationHook.isBinaryCodecNegotiated(user);
+
+        transmitter.setCompressionDictionaryEnabled(
+            user.getJID(), CompressionDictionaryNegotiationHook.isDictionaryNegotiated(user));
+
+        bufferedOutgoingActivities.put(user.getJID(), buffer);
+      }
     }
 
     synchronized (bufferedIncomingActivities) {
@@ -448,8 +1043,10 @@ public class ActivitySequencer implements Startable {
      * the user is not present.
      */
 
+    transmitter.setCompressionDictionaryEnabled(jid, false);
+
     synchronized (bufferedOutgoingActivities) {
-      bufferedOutgoingActivities.put(jid, null);
+      logBufferStatistics(jid, bufferedOutgoingActivities.put(jid, null));
       bufferedOutgoingActivities.notifyAll();
     }
 
@@ -458,7 +1055,39 @@ public class ActivitySequencer implements Startable {
     }
   }
 
-  private void sendActivities(JID recipient, List<IActivity> activities, int sequenceNumber) {
+  /** Returns the number of registered users whose activities are sent in the binary format. */
+  private int getBinaryRecipientCount() {
+    int count = 0;
+
+    synchronized (bufferedOutgoingActivities) {
+      for (final ActivityBuffer<IActivity> buffer : bufferedOutgoingActivities.values())
+        if (buffer != null && buffer.useBinaryCodec) count++;
+    }
+
+    return count;
+  }
+
+  private static void logBufferStatistics(final JID recipient, final ActivityBuffer<?> buffer) {
+    if (buffer == null || !log.isDebugEnabled()) return;
+
+    log.debug(
+        "outgoing buffer of "
+            + recipient
+            + ": high-water mark "
+            + buffer.highWaterMark
+            + " activities / "
+            + buffer.highWaterMarkBytes
+            + " bytes, max lag "
+            + buffer.maxLag
+            + " ms");
+  }
+
+  private void sendActivities(
+      JID recipient,
+      ActivityBuffer<IActivity> buffer,
+      List<IActivity> activities,
+      int sequenceNumber,
+      boolean useBinaryCodec) {
 
     if (activities.size() == 0) return;
 
@@ -477,23 +1106,18 @@ public class ActivitySequencer implements Startable {
      */
 
     final int maxFileActivitySize = 256 * 1024; // 256 kB
-    final int minActivitySize = 512; // bytes
-    int currentFileActivitySize = 0;
+    long currentFileActivitySize = 0;
 
     final List<IActivity> activitiesToMarshall = new ArrayList<IActivity>();
     final Iterator<IActivity> it = activities.iterator();
 
+    final int binaryRecipientCount = useBinaryCodec ? getBinaryRecipientCount() : 0;
+
     while (it.hasNext()) {
 
       final IActivity activity = it.next();
 
-      if (activity instanceof FileActivity) {
-        final byte[] fileContent = ((FileActivity) (activity)).getContent();
-
-        if (fileContent != null) currentFileActivitySize += fileContent.length;
-      }
-
-      currentFileActivitySize += minActivitySize;
+      currentFileActivitySize += estimateSize(activity);
 
       activitiesToMarshall.add(activity);
 
@@ -503,12 +1127,22 @@ public class ActivitySequencer implements Startable {
        * If the marshalling is delayed in the ITransmitter this would cause errors.
        */
 
-      final PacketExtension activityPacketExtension =
-          ActivitiesExtension.PROVIDER.create(
-              new ActivitiesExtension(
-                  currentSessionID,
-                  new ArrayList<IActivity>(activitiesToMarshall),
-                  sequenceNumber));
+      final PacketExtension activityPacketExtension;
+
+      if (useBinaryCodec) {
+        activityPacketExtension =
+            new BinaryActivitiesExtension(
+                currentSessionID,
+                encodedActivitiesCache.get(activitiesToMarshall, binaryRecipientCount),
+                sequenceNumber);
+      } else {
+        activityPacketExtension =
+            ActivitiesExtension.PROVIDER.create(
+                new ActivitiesExtension(
+                    currentSessionID,
+                    new ArrayList<IActivity>(activitiesToMarshall),
+                    sequenceNumber));
+      }
 
       if (log.isTraceEnabled()) {
         log.trace(
@@ -522,22 +1156,231 @@ public class ActivitySequencer implements Startable {
         log.debug("send (" + String.format("%03d", activities.size()) + ") " + recipient);
       }
 
+      final TransmittedActivities transmittedActivities =
+          new TransmittedActivities(
+              activityPacketExtension,
+              sequenceNumber,
+              activitiesToMarshall.size(),
+              currentFileActivitySize);
+
+      sequenceNumber += activitiesToMarshall.size();
+      activitiesToMarshall.clear();
+      currentFileActivitySize = 0;
+
+      synchronized (buffer.transmissionLock) {
+        addToRetransmitWindow(buffer, transmittedActivities);
+
+        try {
+          transmitter.send(ISarosSession.SESSION_CONNECTION_ID, recipient, activityPacketExtension);
+          continue;
+        } catch (IOException e) {
+          log.warn("failed to send activities to " + recipient + ": " + e.getMessage());
+
+          if (resume(recipient, buffer)) continue;
+
+          log.error("failed to sent activities: " + activities, e);
+        }
+      }
+
+      unregisterUser(recipient);
+      notifyTransmissionError(recipient);
+      return;
+    }
+  }
+
+  private void addToRetransmitWindow(
+      final ActivityBuffer<IActivity> buffer, final TransmittedActivities transmittedActivities) {
+
+    if (resumeTimeout <= 0 || connectionManager == null) return;
+
+    synchronized (bufferedOutgoingActivities) {
+      buffer.retransmitWindow.add(transmittedActivities);
+      buffer.retransmitWindowSize += transmittedActivities.activityCount;
+      buffer.retransmitWindowBytes += transmittedActivities.size;
+
+      /*
+       * if the recipient does not acknowledge the activities (e.g an older
+       * version) the window must not grow forever, a later replay will then
+       * be detected as a gap by the recipient
+       */
+      while ((buffer.retransmitWindowSize > maxRetransmitWindow
+              || buffer.retransmitWindowBytes > maxRetransmitWindowBytes)
+          && buffer.retransmitWindow.size() > 1) {
+        removeFromRetransmitWindow(buffer);
+      }
+    }
+  }
+
+  /**
+   * Tries to re-establish the session connection to the given user and replays all activities
+   * that were sent to that user but not acknowledged yet. Activities that are sent concurrently are
+   * held back until the replay is finished.
+   *
+   * <p>This method blocks until the connection is re-established or the resume timeout is reached.
+   *
+   * @param jid the JID of the remote user
+   * @return <code>true</code> if the activity stream was resumed, <code>false</code> if it could
+   *     not be resumed or the user is not registered
+   */
+  public boolean resume(final JID jid) {
+    final ActivityBuffer<IActivity> buffer;
+
+    synchronized (bufferedOutgoingActivities) {
+      buffer = bufferedOutgoingActivities.get(jid);
+    }
+
+    if (buffer == null) return false;
+
+    synchronized (buffer.transmissionLock) {
+      return resume(jid, buffer);
+    }
+  }
+
+  /** Must be called while holding the transmission lock of the given buffer. */
+  private boolean resume(final JID recipient, final ActivityBuffer<IActivity> buffer) {
+    if (resumeTimeout <= 0 || connectionManager == null) return false;
+
+    final long deadline = System.currentTimeMillis() + resumeTimeout;
+
+    IOException lastError = null;
+
+    while (true) {
+      final List<TransmittedActivities> activitiesToReplay;
+
+      synchronized (bufferedOutgoingActivities) {
+        if (stopSending || bufferedOutgoingActivities.get(recipient) != buffer) return false;
+
+        activitiesToReplay = new ArrayList<TransmittedActivities>(buffer.retransmitWindow);
+      }
+
       try {
-        transmitter.send(ISarosSession.SESSION_CONNECTION_ID, recipient, activityPacketExtension);
+        connectionManager.connect(ISarosSession.SESSION_CONNECTION_ID, recipient);
+
+        for (final TransmittedActivities transmittedActivities : activitiesToReplay)
+          transmitter.send(
+              ISarosSession.SESSION_CONNECTION_ID, recipient, transmittedActivities.extension);
+
+        log.info(
+            "resumed activity stream to "
+                + recipient
+                + ", replayed "
+                + activitiesToReplay.size()
+                + " packet(s)");
+
+        return true;
       } catch (IOException e) {
-        log.error("failed to sent activities: " + activities, e);
+        lastError = e;
+      }
 
-        unregisterUser(recipient);
-        notifyTransmissionError(recipient);
-        return;
-      } finally {
-        sequenceNumber += activitiesToMarshall.size();
-        activitiesToMarshall.clear();
-        currentFileActivitySize = 0;
+      if (System.currentTimeMillis() + RESUME_RETRY_DELAY >= deadline) break;
+
+      try {
+        Thread.sleep(RESUME_RETRY_DELAY);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+
+    log.error(
+        "could not resume activity stream to " + recipient + " within " + resumeTimeout + " ms",
+        lastError);
+
+    return false;
+  }
+
+  /**
+   * Acknowledges the activities of every sender that were received since its last acknowledgement.
+   * Called periodically, so the activities of an idle stream are acknowledged as well.
+   */
+  private void acknowledgePendingActivities() {
+    final Map<JID, Integer> acknowledgements = new HashMap<JID, Integer>();
+
+    synchronized (bufferedIncomingActivities) {
+      for (final Entry<JID, ActivityBuffer<IActivity>> entry :
+          bufferedIncomingActivities.entrySet()) {
+
+        final ActivityBuffer<IActivity> buffer = entry.getValue();
+
+        if (buffer == null || buffer.acknowledgedSequenceNumber == buffer.nextSequenceNumber)
+          continue;
+
+        buffer.acknowledgedSequenceNumber = buffer.nextSequenceNumber;
+        acknowledgements.put(entry.getKey(), buffer.nextSequenceNumber);
+      }
+    }
+
+    for (final Entry<JID, Integer> acknowledgement : acknowledgements.entrySet())
+      sendAcknowledgement(acknowledgement.getKey(), acknowledgement.getValue());
+  }
+
+  private void sendAcknowledgement(final JID recipient, final int sequenceNumber) {
+    final PacketExtension acknowledgement =
+        ActivitiesAcknowledgementExtension.PROVIDER.create(
+            new ActivitiesAcknowledgementExtension(currentSessionID, sequenceNumber));
+
+    /*
+     * do not block the dispatching of incoming activities, a lost
+     * acknowledgement only results in a larger replay
+     */
+    try {
+      activitySenders.execute(
+          ThreadUtils.wrapSafe(
+              log,
+              new Runnable() {
+                @Override
+                public void run() {
+                  try {
+                    transmitter.send(
+                        ISarosSession.SESSION_CONNECTION_ID, recipient, acknowledgement);
+                  } catch (IOException e) {
+                    log.debug("failed to acknowledge activities of " + recipient, e);
+                  }
+                }
+              }));
+    } catch (RejectedExecutionException e) {
+      log.debug("could not acknowledge activities of " + recipient + ", sequencer is stopped");
+    }
+  }
+
+  private void receiveAcknowledgement(Packet acknowledgementPacket) {
+    final ActivitiesAcknowledgementExtension payload =
+        ActivitiesAcknowledgementExtension.PROVIDER.getPayload(acknowledgementPacket);
+
+    if (payload == null) {
+      log.warn("activities acknowledgement packet payload is corrupted");
+      return;
+    }
+
+    final JID from = new JID(acknowledgementPacket.getFrom());
+
+    synchronized (bufferedOutgoingActivities) {
+      final ActivityBuffer<IActivity> buffer = bufferedOutgoingActivities.get(from);
+
+      if (buffer == null) return;
+
+      while (!buffer.retransmitWindow.isEmpty()) {
+        final TransmittedActivities transmittedActivities = buffer.retransmitWindow.peek();
+
+        if (transmittedActivities.sequenceNumber + transmittedActivities.activityCount
+            > payload.getSequenceNumber()) break;
+
+        removeFromRetransmitWindow(buffer);
       }
     }
   }
 
+  /**
+   * Removes the oldest activities from the retransmit window of the given buffer. Must be called
+   * while holding the lock of <code>bufferedOutgoingActivities</code>.
+   */
+  private static void removeFromRetransmitWindow(final ActivityBuffer<IActivity> buffer) {
+    final TransmittedActivities transmittedActivities = buffer.retransmitWindow.poll();
+
+    buffer.retransmitWindowSize -= transmittedActivities.activityCount;
+    buffer.retransmitWindowBytes -= transmittedActivities.size;
+  }
+
   private void receiveActivities(Packet activityPacket) {
 
     /* *
@@ -575,7 +1418,31 @@ public class ActivitySequencer implements Startable {
       log.debug("rcvd (" + String.format("%03d", activities.size()) + ") " + from);
     }
 
-    executeActivities(from, activities, payload.getSequenceNumber());
+    executeActivities(from, activities, payload.getSequenceNumber(), activities.size());
+  }
+
+  private void receiveBinaryActivities(Packet activityPacket) {
+
+    BinaryActivitiesExtension payload =
+        BinaryActivitiesExtension.PROVIDER.getPayload(activityPacket);
+
+    if (payload == null) {
+      log.warn("binary activity packet payload is corrupted");
+      return;
+    }
+
+    JID from = new JID(activityPacket.getFrom());
+
+    List<IActivity> activities = payload.getActivities();
+
+    if (log.isTraceEnabled()) {
+      log.trace(
+          "rcvd (" + String.format("%03d", activities.size()) + ") " + from + " -> " + activities);
+    } else if (log.isDebugEnabled()) {
+      log.debug("rcvd (" + String.format("%03d", activities.size()) + ") " + from);
+    }
+
+    executeActivities(from, activities, payload.getSequenceNumber(), payload.getActivityCount());
   }
 
   /**
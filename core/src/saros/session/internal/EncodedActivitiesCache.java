@@ -0,0 +1,147 @@
+package saros.session.internal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import saros.activities.FileActivity;
+import saros.activities.IActivity;
+import saros.activities.JupiterActivity;
+import saros.communication.extensions.BinaryActivitiesExtension.EncodedActivities;
+
+/**
+ * Cache for the binary representation of activity lists that are sent to several users.
+ *
+ * <p>The host sends most non Jupiter activities (e.g selections, viewports, editor and file
+ * activities) to every other user. Every recipient has its own buffer, but as long as the
+ * recipients keep up these buffers are drained into lists of the same activity instances. Such a
+ * list is only encoded once and the result is shared by the packets for all recipients, so the
+ * encoding effort no longer grows with the number of users.
+ *
+ * <p>Lists are compared by the identity of their activities. {@link JupiterActivity Jupiter
+ * activities} are transformed for every recipient, so lists containing them are never shared.
+ * Lists containing {@link FileActivity file activities} are not shared either, so the cache does
+ * not keep whole file contents and their encodings in memory.
+ *
+ * <p>Only lists that can be sent to more than one recipient are cached. An entry is removed as soon
+ * as it was returned to every other recipient. The cache holds at most {@value #MAX_ENTRIES} lists
+ * and evicts the least recently used one first.
+ *
+ * <p>This class is thread safe.
+ */
+final class EncodedActivitiesCache {
+
+  private static final int MAX_ENTRIES = 32;
+
+  private static final class Key {
+
+    private final IActivity[] activities;
+
+    private final int hashCode;
+
+    private Key(final List<IActivity> activities) {
+      this.activities = activities.toArray(new IActivity[activities.size()]);
+
+      int hash = 1;
+
+      for (final IActivity activity : this.activities)
+        hash = 31 * hash + System.identityHashCode(activity);
+
+      hashCode = hash;
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (this == obj) return true;
+
+      if (!(obj instanceof Key)) return false;
+
+      final Key other = (Key) obj;
+
+      if (hashCode != other.hashCode || activities.length != other.activities.length) return false;
+
+      for (int i = 0; i < activities.length; i++)
+        if (activities[i] != other.activities[i]) return false;
+
+      return true;
+    }
+  }
+
+  private static final class Entry {
+
+    private final EncodedActivities encodedActivities;
+
+    /** The number of recipients that did not receive the activities yet. */
+    private int remainingRecipients;
+
+    private Entry(final EncodedActivities encodedActivities, final int remainingRecipients) {
+      this.encodedActivities = encodedActivities;
+      this.remainingRecipients = remainingRecipients;
+    }
+  }
+
+  private final Map<Key, Entry> entries =
+      new LinkedHashMap<Key, Entry>(16, 0.75F, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Key, Entry> eldest) {
+          return size() > MAX_ENTRIES;
+        }
+      };
+
+  private long hits;
+
+  /**
+   * Returns the binary representation of the given activities. If the same activities were passed
+   * to this method before, the representation created at that time is returned.
+   *
+   * @param activities the activities, the list is copied
+   * @param recipientCount the maximum number of recipients the activities are sent to
+   * @return the binary representation of the activities
+   */
+  synchronized EncodedActivities get(final List<IActivity> activities, final int recipientCount) {
+    final List<IActivity> copy = new ArrayList<IActivity>(activities);
+
+    if (recipientCount < 2 || !isShareable(copy)) return new EncodedActivities(copy);
+
+    final Key key = new Key(copy);
+
+    final Entry entry = entries.get(key);
+
+    if (entry != null) {
+      hits++;
+
+      if (--entry.remainingRecipients <= 0) entries.remove(key);
+
+      return entry.encodedActivities;
+    }
+
+    final EncodedActivities encodedActivities = new EncodedActivities(copy);
+    entries.put(key, new Entry(encodedActivities, recipientCount - 1));
+
+    return encodedActivities;
+  }
+
+  /** Returns the number of times a cached representation was returned. */
+  synchronized long getHitCount() {
+    return hits;
+  }
+
+  /** Removes all cached representations. */
+  synchronized void clear() {
+    entries.clear();
+  }
+
+  private static boolean isShareable(final List<IActivity> activities) {
+    for (final IActivity activity : activities)
+      if (activity instanceof JupiterActivity || activity instanceof FileActivity) return false;
+
+    return true;
+  }
+}
@@ -0,0 +1,120 @@
+package saros.session.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import saros.activities.IActivity;
+import saros.activities.IResourceActivity;
+import saros.activities.TextSelectionActivity;
+import saros.activities.ViewportActivity;
+
+/**
+ * Limits the rate of presence updates (selections and viewports) of the local user.
+ *
+ * <p>Caret moves and scrolling create an activity for every event, but only the latest selection
+ * and viewport of a file are of interest for the other users. Per kind of presence update, user
+ * and file at most one activity is passed through per interval. Activities that arrive earlier are
+ * held back and replaced by newer ones, so the latest value is always delivered and the superseded
+ * ones never enter the ordered activity stream.
+ *
+ * <p>The caller is responsible for {@linkplain #drain(long) draining} the held back activities
+ * before any other activity is sent, so presence updates are never reordered with the edits they
+ * refer to.
+ *
+ * <p>This class is <b>not</b> thread safe.
+ */
+final class PresenceSampler {
+
+  private final long interval;
+
+  private final Map<Object, Long> lastPassTimes = new HashMap<Object, Long>();
+
+  private final Map<Object, IActivity> heldBackActivities = new LinkedHashMap<Object, IActivity>();
+
+  private long supersededCount;
+
+  /**
+   * Creates a sampler that passes through at most one activity per interval for every kind of
+   * presence update, user and file.
+   *
+   * @param interval the interval in milliseconds
+   */
+  PresenceSampler(final long interval) {
+    this.interval = interval;
+  }
+
+  /**
+   * Offers an activity to the sampler.
+   *
+   * @param activity the activity
+   * @param now the current time in milliseconds
+   * @return <code>true</code> if the activity is a presence update that was held back, <code>false
+   *     </code> if the activity must be sent now
+   */
+  boolean offer(final IActivity activity, final long now) {
+    final Object key = getKey(activity);
+
+    if (key == null) return false;
+
+    final Long lastPassTime = lastPassTimes.get(key);
+
+    if (lastPassTime == null || now - lastPassTime >= interval) {
+      lastPassTimes.put(key, now);
+
+      if (heldBackActivities.remove(key) != null) supersededCount++;
+
+      return false;
+    }
+
+    if (heldBackActivities.put(key, activity) != null) supersededCount++;
+
+    return true;
+  }
+
+  /**
+   * Removes and returns the held back activities in the order they were first held back.
+   *
+   * @param now the current time in milliseconds
+   * @return the held back activities, may be empty
+   */
+  List<IActivity> drain(final long now) {
+    if (heldBackActivities.isEmpty()) return Collections.emptyList();
+
+    final List<IActivity> activities = new ArrayList<IActivity>(heldBackActivities.values());
+
+    for (final Object key : heldBackActivities.keySet()) lastPassTimes.put(key, now);
+
+    heldBackActivities.clear();
+
+    return activities;
+  }
+
+  /** Returns the number of held back activities that were replaced by newer ones. */
+  long getSupersededCount() {
+    return supersededCount;
+  }
+
+  /**
+   * Returns whether the given activity is a presence update that is handled by this sampler.
+   *
+   * @param activity the activity
+   * @return <code>true</code> if the activity is a selection or viewport update, <code>false
+   *     </code> otherwise
+   */
+  static boolean isPresenceUpdate(final IActivity activity) {
+    return activity instanceof TextSelectionActivity || activity instanceof ViewportActivity;
+  }
+
+  private static Object getKey(final IActivity activity) {
+    if (!isPresenceUpdate(activity)) return null;
+
+    return Arrays.asList(
+        activity.getClass(),
+        activity.getSource(),
+        ((IResourceActivity<?>) activity).getResource());
+  }
+}
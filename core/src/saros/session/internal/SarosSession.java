@@ -37,6 +37,7 @@ import saros.communication.extensions.KickUserExtension;
 import saros.communication.extensions.LeaveSessionExtension;
 import saros.concurrent.management.ConcurrentDocumentClient;
 import saros.context.IContainerContext;
+import saros.filesystem.IFile;
 import saros.filesystem.IReferencePoint;
 import saros.filesystem.IResource;
 import saros.net.IConnectionManager;
@@ -600,6 +601,16 @@ public final class SarosSession implements ISarosSession {
     }
   }
 
+  @Override
+  public int getOutgoingActivityQueueSize(User user) {
+    return activitySequencer.getQueueSize(user);
+  }
+
+  @Override
+  public long getOutgoingActivityLag(User user) {
+    return activitySequencer.getLag(user);
+  }
+
   @Override
   public User getUser(JID jid) {
 
@@ -653,8 +664,17 @@ public final class SarosSession implements ISarosSession {
       else log.error("could not handle incoming activity: " + activity);
     }
 
-    List<IActivity> processed = activityQueuer.process(valid);
-    activityHandler.handleIncomingActivities(processed);
+    /*
+     * The activities are processed by multiple dispatch threads. Activities
+     * that are flushed from the queuer must be handled before the newer
+     * activities of the same source that another thread processes
+     * afterwards, so processing and adding them to the handler is atomic.
+     */
+    synchronized (activityQueuer) {
+      activityHandler.addIncomingActivities(activityQueuer.process(valid));
+    }
+
+    activityHandler.handleAddedActivities();
   }
 
   /*
@@ -784,6 +804,18 @@ public final class SarosSession implements ISarosSession {
     sendActivity(Collections.singletonList(localUser), new NOPActivity(localUser, localUser, 0));
   }
 
+  @Override
+  public void enableQueuing(IFile file) {
+    activityQueuer.enableQueuing(file, localUser);
+  }
+
+  @Override
+  public void disableQueuing(IFile file) {
+    activityQueuer.disableQueuing(file);
+    // send us a dummy activity to ensure the queues get flushed
+    sendActivity(Collections.singletonList(localUser), new NOPActivity(localUser, localUser, 0));
+  }
+
   private SarosSession(
       final String id,
       IContainerContext context,
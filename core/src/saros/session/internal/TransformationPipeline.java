@@ -0,0 +1,217 @@
+package saros.session.internal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import org.apache.log4j.Logger;
+import saros.activities.ChecksumActivity;
+import saros.activities.IActivity;
+import saros.activities.IResourceActivity;
+import saros.activities.JupiterActivity;
+import saros.activities.QueueItem;
+import saros.concurrent.management.ConcurrentDocumentServer;
+import saros.util.NamedThreadFactory;
+
+/**
+ * Transforms the Jupiter and checksum activities received by the host with the {@link
+ * ConcurrentDocumentServer}, activities of different files in parallel.
+ *
+ * <p>The activities are partitioned by file. The activities of a partition are transformed one
+ * after another in the given order, so the order per file and thereby per source and file is
+ * preserved. The partitions are transformed in parallel by the threads of this pipeline and the
+ * calling thread. The results are returned in the order of the given activities, so they can be
+ * merged back into the ordered outgoing activity stream.
+ *
+ * <p>The transformed activities of a file must be sent in the order they were transformed. The
+ * caller is therefore responsible for sending the results of one {@linkplain #transform(List)
+ * transformation} before the next one is started.
+ *
+ * <p>If the transformation of an activity fails, the transformation of the remaining activities of
+ * its partition is aborted and the failure is rethrown to the caller after all other partitions
+ * are done, like a failure during a sequential transformation aborts the whole batch.
+ */
+final class TransformationPipeline {
+
+  private static final Logger log = Logger.getLogger(TransformationPipeline.class);
+
+  private final ConcurrentDocumentServer documentServer;
+
+  private volatile ExecutorService executor;
+
+  TransformationPipeline(final ConcurrentDocumentServer documentServer) {
+    this.documentServer = documentServer;
+  }
+
+  /**
+   * Starts the given number of threads that transform partitions in addition to the calling
+   * thread. Until the pipeline is started all activities are transformed by the calling thread.
+   *
+   * @param threads the number of threads, a value of zero or less starts no threads
+   */
+  void start(final int threads) {
+    if (threads <= 0) return;
+
+    executor =
+        Executors.newFixedThreadPool(threads, new NamedThreadFactory("ActivityTransformer-"));
+  }
+
+  /**
+   * Stops the threads of this pipeline. A transformation that is currently running is finished,
+   * later ones are performed by the calling thread.
+   */
+  void stop() {
+    final ExecutorService current = executor;
+
+    executor = null;
+
+    if (current != null) current.shutdown();
+  }
+
+  /**
+   * Returns whether the given activity is transformed by this pipeline.
+   *
+   * @param activity the activity
+   * @return <code>true</code> if the activity is a Jupiter or checksum activity, <code>false
+   *     </code> otherwise
+   */
+  static boolean isTransformed(final IActivity activity) {
+    return activity instanceof JupiterActivity || activity instanceof ChecksumActivity;
+  }
+
+  /**
+   * Transforms the given activities. Returns after all activities are transformed.
+   *
+   * @param activities Jupiter and checksum activities in the order they were received
+   * @return the transformed activities and their receivers, in the order of the given activities
+   * @throws RuntimeException if the transformation of an activity failed
+   */
+  List<QueueItem> transform(final List<IActivity> activities) {
+    @SuppressWarnings("unchecked")
+    final List<QueueItem>[] results = new List[activities.size()];
+
+    final Map<Object, List<Integer>> partitions = partition(activities);
+
+    final ExecutorService current = executor;
+
+    if (current == null || partitions.size() < 2) {
+      for (final List<Integer> partition : partitions.values())
+        transform(activities, partition, results);
+
+    } else {
+      final List<FutureTask<Void>> tasks = new ArrayList<FutureTask<Void>>();
+
+      List<Integer> ownPartition = null;
+
+      for (final List<Integer> partition : partitions.values()) {
+        if (ownPartition == null) {
+          ownPartition = partition;
+          continue;
+        }
+
+        final FutureTask<Void> task =
+            new FutureTask<Void>(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    transform(activities, partition, results);
+                  }
+                },
+                null);
+
+        tasks.add(task);
+
+        try {
+          current.execute(task);
+        } catch (RejectedExecutionException e) {
+          // the pipeline is stopped
+          task.run();
+        }
+      }
+
+      try {
+        transform(activities, ownPartition, results);
+      } finally {
+        // the tasks may still transform activities that the next transformation depends on
+        awaitUninterruptibly(tasks);
+      }
+    }
+
+    final List<QueueItem> items = new ArrayList<QueueItem>();
+
+    for (final List<QueueItem> result : results) {
+      if (result != null) items.addAll(result);
+    }
+
+    return items;
+  }
+
+  private void transform(
+      final List<IActivity> activities,
+      final List<Integer> partition,
+      final List<QueueItem>[] results) {
+
+    for (final int index : partition)
+      results[index] = documentServer.transformIncoming(activities.get(index));
+  }
+
+  /**
+   * Waits for the given tasks. Transformations cannot be aborted because they change the state of
+   * the Jupiter documents, so an interrupt is only restored after all tasks are done.
+   *
+   * @throws RuntimeException the failure of the first task that failed, after all tasks are done
+   */
+  private static void awaitUninterruptibly(final List<FutureTask<Void>> tasks) {
+    boolean interrupted = false;
+
+    Throwable failure = null;
+
+    for (final FutureTask<Void> task : tasks) {
+      while (true) {
+        try {
+          task.get();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException e) {
+          if (failure == null) failure = e.getCause();
+          else log.error("failed to transform activities", e.getCause());
+
+          break;
+        }
+      }
+    }
+
+    if (interrupted) Thread.currentThread().interrupt();
+
+    if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+
+    if (failure instanceof Error) throw (Error) failure;
+
+    if (failure != null) throw new IllegalStateException("failed to transform activities", failure);
+  }
+
+  private static Map<Object, List<Integer>> partition(final List<IActivity> activities) {
+    final Map<Object, List<Integer>> partitions = new LinkedHashMap<Object, List<Integer>>();
+
+    for (int i = 0; i < activities.size(); i++) {
+      final Object file = ((IResourceActivity<?>) activities.get(i)).getResource();
+
+      List<Integer> partition = partitions.get(file);
+
+      if (partition == null) {
+        partition = new ArrayList<Integer>();
+        partitions.put(file, partition);
+      }
+
+      partition.add(i);
+    }
+
+    return partitions;
+  }
+}
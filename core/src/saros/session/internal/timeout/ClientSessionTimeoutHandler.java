@@ -85,6 +85,8 @@ public final class ClientSessionTimeoutHandler extends SessionTimeoutHandler {
                   session.getHost().getJID(),
                   PongExtension.PROVIDER.create(new PongExtension(currentSessionID)));
             } catch (IOException e) {
+              if (tryResume(session.getHost().getJID())) continue;
+
               log.error("failed to send pong", e);
               handleNetworkError(session.getHost().getJID(), "tx");
             }
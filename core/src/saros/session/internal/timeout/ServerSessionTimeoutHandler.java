@@ -98,6 +98,8 @@ public final class ServerSessionTimeoutHandler extends SessionTimeoutHandler {
                     PingExtension.PROVIDER.create(new PingExtension(currentSessionID)));
               } catch (IOException e) {
 
+                if (user.isInSession() && tryResume(user.getJID())) continue;
+
                 removedUsers.add(user);
 
                 if (!user.isInSession()) continue;
@@ -82,6 +82,17 @@ abstract class SessionTimeoutHandler implements Startable {
     sequencer.setCallback(null);
   }
 
+  /**
+   * Tries to re-establish the session connection to the given user without removing the user from
+   * the session. This method blocks until the connection is re-established or the attempt failed.
+   *
+   * @param jid the {@linkplain JID} of the user
+   * @return <code>true</code> if the connection was re-established, <code>false</code> otherwise
+   */
+  protected final boolean tryResume(final JID jid) {
+    return sequencer.resume(jid);
+  }
+
   /**
    * Handles a network error by either stopping the session or removing the user from the session
    * depending on the state of the local user. This method returns immediately and performs its work
@@ -0,0 +1,155 @@
+package saros.util;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import org.apache.log4j.Logger;
+
+/**
+ * Executor that runs tasks with the same key in submission order, one after another, while tasks
+ * with different keys may run in parallel on the underlying executor.
+ *
+ * <p>To prevent a single key from monopolizing a thread of the underlying executor, at most {@value
+ * #MAX_TASKS_PER_RUN} tasks of a key are run in a row before the remaining tasks of that key are
+ * rescheduled.
+ *
+ * <p>This class is thread safe.
+ *
+ * @param <K> the type of the keys
+ */
+public final class KeyedSerialExecutor<K> {
+
+  private static final Logger log = Logger.getLogger(KeyedSerialExecutor.class);
+
+  private static final int MAX_TASKS_PER_RUN = 16;
+
+  private final Executor executor;
+
+  /** Lanes that contain pending or running tasks, guarded by itself. */
+  private final Map<K, Lane> lanes = new HashMap<K, Lane>();
+
+  private int pendingTasks;
+
+  private final class Lane implements Runnable {
+
+    private final K key;
+
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+
+    private Lane(final K key) {
+      this.key = key;
+    }
+
+    @Override
+    public void run() {
+      try {
+        for (int i = 0; i < MAX_TASKS_PER_RUN; i++) {
+          final Runnable task;
+
+          synchronized (lanes) {
+            task = tasks.poll();
+
+            if (task == null) return;
+
+            pendingTasks--;
+          }
+
+          try {
+            task.run();
+          } catch (RuntimeException e) {
+            log.error("task " + task + " with key " + key + " failed", e);
+          }
+        }
+      } finally {
+        // also reached if a task threw an error, otherwise the key would be stuck forever
+        rescheduleOrRemove();
+      }
+    }
+
+    private void rescheduleOrRemove() {
+      synchronized (lanes) {
+        if (tasks.isEmpty()) {
+          lanes.remove(key);
+          return;
+        }
+      }
+
+      schedule(this);
+    }
+  }
+
+  /**
+   * Creates a new executor that runs its tasks on the given executor.
+   *
+   * @param executor the executor to run the tasks on
+   */
+  public KeyedSerialExecutor(final Executor executor) {
+    if (executor == null) throw new NullPointerException("executor is null");
+
+    this.executor = executor;
+  }
+
+  /**
+   * Schedules the given task for execution. The task will be run after all previously submitted
+   * tasks with the same key have been run.
+   *
+   * <p>Runtime exceptions thrown by the task are logged and do not affect the execution of other
+   * tasks. Errors are passed on to the underlying executor after the remaining tasks with the same
+   * key have been rescheduled.
+   *
+   * @param key the key of the task
+   * @param task the task to run
+   */
+  public void execute(final K key, final Runnable task) {
+    if (task == null) throw new NullPointerException("task is null");
+
+    final Lane lane;
+
+    synchronized (lanes) {
+      final Lane existingLane = lanes.get(key);
+
+      pendingTasks++;
+
+      if (existingLane != null) {
+        existingLane.tasks.add(task);
+        return;
+      }
+
+      lane = new Lane(key);
+      lane.tasks.add(task);
+      lanes.put(key, lane);
+    }
+
+    schedule(lane);
+  }
+
+  /** Returns the number of tasks that were submitted but not yet started. */
+  public int getPendingTaskCount() {
+    synchronized (lanes) {
+      return pendingTasks;
+    }
+  }
+
+  /** Returns the number of keys that currently have pending or running tasks. */
+  public int getActiveKeyCount() {
+    synchronized (lanes) {
+      return lanes.size();
+    }
+  }
+
+  private void schedule(final Lane lane) {
+    try {
+      executor.execute(lane);
+    } catch (RejectedExecutionException e) {
+      synchronized (lanes) {
+        pendingTasks -= lane.tasks.size();
+        lane.tasks.clear();
+        lanes.remove(lane.key);
+      }
+
+      log.warn("discarded tasks with key " + lane.key + ", executor is shut down");
+    }
+  }
+}
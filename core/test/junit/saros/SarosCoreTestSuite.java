@@ -10,6 +10,8 @@ import org.junit.runners.Suite;
   saros.communication.extensions.TestSuite.class,
   saros.concurrent.TestSuite.class,
   saros.concurrent.jupiter.test.puzzles.TestSuite.class,
+  saros.concurrent.management.TestSuite.class,
+  saros.concurrent.watchdog.TestSuite.class,
   saros.editor.colorstorage.TestSuite.class,
   saros.editor.remote.TestSuite.class,
   saros.editor.text.TestSuite.class,
@@ -1,6 +1,7 @@
 package saros.activities;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 
 import java.util.ArrayList;
@@ -134,6 +135,118 @@ public class ActivityOptimizerTest {
     assertRange(23, 23, optimized, nop);
   }
 
+  @Test
+  public void testMergeTyping() {
+    TextEditActivity merged =
+        ActivityOptimizer.merge(edit(alice, 0, 3, "a", ""), edit(alice, 0, 4, "b", ""));
+
+    assertEquals(edit(alice, 0, 3, "ab", ""), merged);
+
+    merged = ActivityOptimizer.merge(merged, edit(alice, 0, 5, "\n", ""));
+    merged = ActivityOptimizer.merge(merged, edit(alice, 1, 0, "c", ""));
+
+    assertEquals(edit(alice, 0, 3, "ab\nc", ""), merged);
+  }
+
+  @Test
+  public void testMergeTypingOverSelection() {
+    TextEditActivity merged =
+        ActivityOptimizer.merge(edit(alice, 0, 3, "a", "xyz"), edit(alice, 0, 4, "b", ""));
+
+    assertEquals(edit(alice, 0, 3, "ab", "xyz"), merged);
+  }
+
+  @Test
+  public void testMergeBackspace() {
+    TextEditActivity merged =
+        ActivityOptimizer.merge(edit(alice, 1, 0, "", "c"), edit(alice, 0, 2, "", "\n"));
+
+    merged = ActivityOptimizer.merge(merged, edit(alice, 0, 1, "", "b"));
+
+    assertEquals(edit(alice, 0, 1, "", "b\nc"), merged);
+  }
+
+  @Test
+  public void testMergeDelete() {
+    TextEditActivity merged =
+        ActivityOptimizer.merge(edit(alice, 0, 1, "", "b"), edit(alice, 0, 1, "", "\n"));
+
+    merged = ActivityOptimizer.merge(merged, edit(alice, 0, 1, "", "c"));
+
+    assertEquals(edit(alice, 0, 1, "", "b\nc"), merged);
+  }
+
+  @Test
+  public void testMergeCorrection() {
+    TextEditActivity merged =
+        ActivityOptimizer.merge(edit(alice, 0, 3, "abc", "x"), edit(alice, 0, 5, "", "c"));
+
+    assertEquals(edit(alice, 0, 3, "ab", "x"), merged);
+
+    merged = ActivityOptimizer.merge(merged, edit(alice, 0, 3, "", "ab"));
+
+    assertEquals(edit(alice, 0, 3, "", "x"), merged);
+  }
+
+  @Test
+  public void testMergeCancellingEdits() {
+    assertNull(ActivityOptimizer.merge(edit(alice, 0, 3, "a", ""), edit(alice, 0, 3, "", "a")));
+  }
+
+  @Test
+  public void testMergeUnrelatedEdits() {
+    TextEditActivity edit = edit(alice, 0, 3, "a", "");
+
+    assertNull(ActivityOptimizer.merge(edit, edit(bob, 0, 4, "b", "")));
+
+    assertNull(
+        ActivityOptimizer.merge(
+            edit,
+            TextEditActivity.buildTextEditActivity(
+                alice, new TextPosition(0, 4), "b", "", fooBarFile)));
+
+    // not adjacent
+    assertNull(ActivityOptimizer.merge(edit, edit(alice, 0, 5, "b", "")));
+    assertNull(ActivityOptimizer.merge(edit, edit(alice, 0, 3, "b", "")));
+
+    // deletion in front of inserted text
+    assertNull(ActivityOptimizer.merge(edit, edit(alice, 0, 2, "", "x")));
+
+    // replacement
+    assertNull(ActivityOptimizer.merge(edit, edit(alice, 0, 3, "b", "a")));
+  }
+
+  @Test
+  public void testOptimizeMergesTextEdits() {
+    TextSelection selection = new TextSelection(new TextPosition(0, 4), new TextPosition(0, 4));
+
+    TextSelectionActivity tsChange0 = new TextSelectionActivity(alice, selection, fooFooFile);
+    TextSelectionActivity tsChange1 = new TextSelectionActivity(alice, selection, fooFooFile);
+
+    List<IActivity> activities = new ArrayList<>();
+
+    activities.add(edit(alice, 0, 3, "a", ""));
+    activities.add(tsChange0);
+    activities.add(edit(alice, 0, 4, "b", ""));
+    activities.add(tsChange1);
+    activities.add(nop);
+    activities.add(edit(alice, 0, 5, "c", ""));
+
+    List<IActivity> optimized = ActivityOptimizer.optimize(activities);
+
+    assertEquals(4, optimized.size());
+    assertEquals(edit(alice, 0, 3, "ab", ""), optimized.get(0));
+    assertSame(tsChange1, optimized.get(1));
+    assertSame(nop, optimized.get(2));
+    assertEquals(edit(alice, 0, 5, "c", ""), optimized.get(3));
+  }
+
+  private TextEditActivity edit(
+      User source, int lineNumber, int inLineOffset, String newText, String replacedText) {
+    return TextEditActivity.buildTextEditActivity(
+        source, new TextPosition(lineNumber, inLineOffset), newText, replacedText, fooFooFile);
+  }
+
   private void assertRange(int l, int h, List<IActivity> activities, IActivity activity) {
     for (int i = l; i <= h; i++)
       assertSame("optimization resulted in wrong activity order", activity, activities.get(i));
@@ -0,0 +1,196 @@
+package saros.concurrent.jupiter.test.puzzles;
+
+import static org.junit.Assert.assertEquals;
+import static saros.concurrent.jupiter.test.puzzles.InclusionTransformationFuzzingTest.calculateTextPosition;
+import static saros.test.util.OperationHelper.EOL;
+
+import java.util.Random;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Test;
+import saros.concurrent.jupiter.Operation;
+import saros.concurrent.jupiter.internal.Jupiter;
+import saros.concurrent.jupiter.internal.text.DeleteOperation;
+import saros.concurrent.jupiter.internal.text.InsertOperation;
+import saros.concurrent.jupiter.test.util.JupiterTestCase;
+import saros.concurrent.jupiter.test.util.NetworkSimulator;
+import saros.concurrent.jupiter.test.util.TwoWayJupiterClientDocument;
+import saros.concurrent.jupiter.test.util.TwoWayJupiterServerDocument;
+import saros.editor.text.TextPositionUtils;
+
+/**
+ * Checks that composing consecutive unacknowledged operations in {@link Jupiter} does not change
+ * the result of concurrent editing.
+ *
+ * <p>Client and server mostly type and delete (backspace and delete) at a cursor and sometimes edit
+ * at a random position, while the operations of the other side arrive with a random latency. This
+ * way, the operations of the other side arrive in, in front of and behind the composed operations
+ * and often acknowledge only a part of them. Every run is played with and without compaction and
+ * both must converge to the same document.
+ *
+ * <p>In contrast to {@link InclusionTransformationFuzzingTest}, the used seeds are fixed so the
+ * test is deterministic and can be part of the test suite.
+ */
+public class OperationCompactionFuzzingTest extends JupiterTestCase {
+
+  private static final String DISABLE_COMPACTION_PROPERTY =
+      "saros.concurrent.jupiter.DISABLE_OPERATION_COMPACTION";
+
+  private static final String INITIAL_TEXT = "abcdef" + EOL + "ghijkl" + EOL + "mnopqr";
+
+  private static final long[] SEEDS = {7, 42, 1337, 20200101, 987654321};
+
+  /** Number of operations per run. */
+  private static final int RUN_LENGTH = 1000;
+
+  /** Maximum time an operation needs to reach the other side. */
+  private static final int MAX_LATENCY = 40;
+
+  private Random random;
+
+  @Test
+  public void testCompactionPreservesResult() {
+    for (long seed : SEEDS) {
+      String compacted = play(seed, true);
+      String uncompacted = play(seed, false);
+
+      assertEquals("compaction changed the result, seed: " + seed, uncompacted, compacted);
+    }
+  }
+
+  /**
+   * Plays a run with the given seed and returns the document after both sides converged.
+   *
+   * @param seed the seed of the run
+   * @param isCompactionEnabled whether the Jupiter instances of the run compose operations
+   * @return the converged document
+   */
+  private String play(long seed, boolean isCompactionEnabled) {
+    network = new NetworkSimulator();
+
+    TwoWayJupiterClientDocument client;
+    TwoWayJupiterServerDocument server;
+
+    if (!isCompactionEnabled) System.setProperty(DISABLE_COMPACTION_PROPERTY, "true");
+
+    try {
+      client = new TwoWayJupiterClientDocument(INITIAL_TEXT, network);
+      server = new TwoWayJupiterServerDocument(INITIAL_TEXT, network);
+    } finally {
+      System.clearProperty(DISABLE_COMPACTION_PROPERTY);
+    }
+
+    network.addClient(client);
+    network.addClient(server);
+
+    random = new Random(seed);
+
+    int clientCursor = 0;
+    int serverCursor = 0;
+
+    int lastClientArrival = 0;
+    int lastServerArrival = 0;
+
+    for (int time = 1; time <= RUN_LENGTH; time++) {
+      network.execute(time);
+
+      /* operations must arrive in the order they were sent */
+      int arrival = time + 1 + random.nextInt(MAX_LATENCY);
+
+      if (random.nextBoolean()) {
+        Pair<Operation, Integer> edit = generateEdit(client.getDocument(), clientCursor);
+
+        lastClientArrival = Math.max(arrival, lastClientArrival + 1);
+        clientCursor = edit.getRight();
+
+        client.sendOperation(edit.getLeft(), lastClientArrival);
+
+      } else {
+        Pair<Operation, Integer> edit = generateEdit(server.getDocument(), serverCursor);
+
+        lastServerArrival = Math.max(arrival, lastServerArrival + 1);
+        serverCursor = edit.getRight();
+
+        server.sendOperation(edit.getLeft(), lastServerArrival);
+      }
+    }
+
+    network.execute();
+
+    assertEqualDocs(client.getDocument(), client, server);
+
+    return client.getDocument();
+  }
+
+  /**
+   * Generates a random edit for the given document content.
+   *
+   * <p>Most edits type a character at, delete the character in front of or delete the character
+   * behind the cursor. The cursor is placed at a random position from time to time and some edits
+   * insert or delete a few characters at a random position.
+   *
+   * @param content the document content
+   * @param cursor the cursor offset before the edit, may be behind the end of the document
+   * @return a pair containing the operation as the left element and the cursor offset after the
+   *     edit as the right element
+   */
+  private Pair<Operation, Integer> generateEdit(String content, int cursor) {
+    int length = content.length();
+
+    cursor = Math.min(cursor, length);
+
+    int kind = random.nextInt(20);
+
+    if (kind == 0) {
+      cursor = random.nextInt(length + 1);
+      kind = 1;
+    }
+
+    if (kind >= 12 && kind <= 15 && cursor > 0)
+      return Pair.of(delete(content, cursor - 1, 1), cursor - 1);
+
+    if (kind >= 16 && kind <= 17 && cursor < length)
+      return Pair.of(delete(content, cursor, 1), cursor);
+
+    if (kind >= 18) {
+      int position = random.nextInt(length + 1);
+
+      if (kind == 18 || position == length)
+        return Pair.of(insert(content, position, randomText(random.nextInt(5) + 1)), cursor);
+
+      int deleteLength = Math.min(random.nextInt(5) + 1, length - position);
+
+      return Pair.of(delete(content, position, deleteLength), cursor);
+    }
+
+    return Pair.of(insert(content, cursor, randomText(1)), cursor + 1);
+  }
+
+  private String randomText(int length) {
+    StringBuilder text = new StringBuilder();
+
+    while (text.length() < length) {
+      int type = random.nextInt(12);
+
+      if (type <= 9) text.append((char) ('a' + type));
+      else text.append(EOL);
+    }
+
+    return text.toString();
+  }
+
+  private static Operation insert(String content, int offset, String text) {
+    Pair<Integer, Integer> deltas = TextPositionUtils.calculateDeltas(text, EOL);
+
+    return new InsertOperation(
+        calculateTextPosition(content, offset), deltas.getLeft(), deltas.getRight(), text);
+  }
+
+  private static Operation delete(String content, int offset, int length) {
+    String text = content.substring(offset, offset + length);
+
+    Pair<Integer, Integer> deltas = TextPositionUtils.calculateDeltas(text, EOL);
+
+    return new DeleteOperation(
+        calculateTextPosition(content, offset), deltas.getLeft(), deltas.getRight(), text);
+  }
+}
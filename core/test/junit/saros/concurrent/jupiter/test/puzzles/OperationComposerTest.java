@@ -0,0 +1,140 @@
+package saros.concurrent.jupiter.test.puzzles;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static saros.test.util.OperationHelper.D;
+import static saros.test.util.OperationHelper.I;
+import static saros.test.util.OperationHelper.NOP;
+import static saros.test.util.OperationHelper.S;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.easymock.EasyMock;
+import org.junit.Test;
+import saros.activities.TextEditActivity;
+import saros.concurrent.jupiter.InclusionTransformation;
+import saros.concurrent.jupiter.Operation;
+import saros.concurrent.jupiter.internal.text.GOTOInclusionTransformation;
+import saros.concurrent.jupiter.internal.text.ITextOperation;
+import saros.concurrent.jupiter.internal.text.NoOperation;
+import saros.concurrent.jupiter.internal.text.OperationComposer;
+import saros.concurrent.jupiter.test.util.JupiterTestCase;
+import saros.filesystem.IFile;
+
+public class OperationComposerTest {
+
+  private final InclusionTransformation inclusion = new GOTOInclusionTransformation();
+
+  @Test
+  public void testFlattenKeepsOrder() {
+    Operation a = I(0, "a");
+    Operation b = I(1, "b");
+    Operation c = D(0, "a");
+    Operation d = NOP();
+
+    assertEquals(Arrays.asList(a, b, c, d), OperationComposer.flatten(S(S(a, b), S(c, d))));
+    assertEquals(Collections.singletonList(a), OperationComposer.flatten(a));
+  }
+
+  @Test
+  public void testCompose() {
+    Operation a = I(0, "a");
+    Operation b = I(5, "b");
+    Operation c = D(0, "a");
+
+    assertTrue(
+        OperationComposer.compose(Collections.<Operation>emptyList()) instanceof NoOperation);
+    assertSame(a, OperationComposer.compose(Collections.singletonList(a)));
+    assertEquals(S(a, S(b, c)), OperationComposer.compose(Arrays.asList(a, b, c)));
+  }
+
+  @Test
+  public void testNormalizeMergesTyping() {
+    Operation typing = S(S(I(0, "a"), I(1, "b")), S(I(2, "c"), I(3, "d")));
+
+    assertEquals(Collections.singletonList(I(0, "abcd")), OperationComposer.normalize(typing));
+  }
+
+  @Test
+  public void testNormalizeMergesDeletions() {
+    Operation backspaces = S(S(D(3, "d"), D(2, "c")), D(1, "b"));
+    Operation deletions = S(S(D(1, "b"), D(1, "c")), D(1, "d"));
+
+    assertEquals(Collections.singletonList(D(1, "bcd")), OperationComposer.normalize(backspaces));
+    assertEquals(Collections.singletonList(D(1, "bcd")), OperationComposer.normalize(deletions));
+  }
+
+  @Test
+  public void testNormalizeDropsOperationsWithoutEffect() {
+    Operation operation = S(NOP(), S(I(3, "ab"), S(D(3, "ab"), I(5, ""))));
+
+    assertEquals(
+        Collections.<ITextOperation>emptyList(), OperationComposer.normalize(operation));
+    assertTrue(OperationComposer.canonicalize(operation) instanceof NoOperation);
+  }
+
+  @Test
+  public void testNormalizeMergesRepeatedly() {
+    Operation operation = S(S(I(0, "a"), I(5, "z")), S(D(5, "z"), I(1, "b")));
+
+    assertEquals(Collections.singletonList(I(0, "ab")), OperationComposer.normalize(operation));
+  }
+
+  @Test
+  public void testNormalizeKeepsReplace() {
+    Operation replace = S(D(2, "cd"), I(2, "xy"));
+
+    assertEquals(Arrays.asList(D(2, "cd"), I(2, "xy")), OperationComposer.normalize(replace));
+    assertEquals(replace, OperationComposer.canonicalize(replace));
+  }
+
+  @Test
+  public void testCanonicalizeKeepsTextOperations() {
+    Operation insert = I(0, "a");
+
+    assertSame(insert, OperationComposer.canonicalize(insert));
+  }
+
+  @Test
+  public void testDeeplyNestedOperation() {
+    Operation operation = I(0, "a");
+
+    for (int i = 1; i < 10000; i++) operation = S(operation, I(i, "a"));
+
+    List<ITextOperation> normalized = OperationComposer.normalize(operation);
+
+    assertEquals(1, normalized.size());
+    assertEquals(10000, normalized.get(0).getText().length());
+
+    List<TextEditActivity> edits =
+        operation.toTextEdit(
+            EasyMock.createNiceMock(IFile.class), JupiterTestCase.createUser("alice"));
+
+    assertEquals(1, edits.size());
+    assertEquals(10000, operation.getTextOperations().size());
+  }
+
+  @Test
+  public void testTransformIgnoresNesting() {
+    Operation nested = S(S(D(2, "cd"), I(2, "xy")), S(I(6, "z"), D(0, "a")));
+    Operation flat = OperationComposer.compose(OperationComposer.flatten(nested));
+
+    Operation[] others = {
+      I(0, "q"), I(2, "q"), I(4, "qq"), D(1, "bcdef"), S(D(3, "de"), I(1, "r"))
+    };
+
+    for (Operation other : others) {
+      for (boolean privileged : new boolean[] {true, false}) {
+        assertEquals(
+            inclusion.transform(nested, other, privileged).getTextOperations(),
+            inclusion.transform(flat, other, privileged).getTextOperations());
+
+        assertEquals(
+            inclusion.transform(other, nested, privileged).getTextOperations(),
+            inclusion.transform(other, flat, privileged).getTextOperations());
+      }
+    }
+  }
+}
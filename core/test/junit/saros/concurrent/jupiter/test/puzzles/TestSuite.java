@@ -10,9 +10,12 @@ import org.junit.runners.Suite;
   DOptPuzzleTest.class,
   GOTOInclusionTransformationTest.class,
   InclusionTransformationTest.class,
+  OperationComposerTest.class,
+  OperationCompactionFuzzingTest.class,
   SimpleClientServerTest.class,
   SimpleJupiterDocumentTest.class,
-  SimpleServerProxyTest.class
+  SimpleServerProxyTest.class,
+  TypingCoalescingTest.class
 })
 public class TestSuite {
   // the class remains completely empty,
@@ -0,0 +1,125 @@
+package saros.concurrent.jupiter.test.puzzles;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static saros.test.util.OperationHelper.D;
+import static saros.test.util.OperationHelper.I;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import saros.activities.ActivityOptimizer;
+import saros.activities.TextEditActivity;
+import saros.concurrent.jupiter.Operation;
+import saros.concurrent.jupiter.test.util.ClientSynchronizedDocument;
+import saros.concurrent.jupiter.test.util.JupiterTestCase;
+import saros.concurrent.jupiter.test.util.NetworkSimulator;
+import saros.concurrent.jupiter.test.util.TwoWayJupiterClientDocument;
+import saros.concurrent.jupiter.test.util.TwoWayJupiterServerDocument;
+import saros.editor.text.TextPosition;
+
+/**
+ * Checks that merging consecutive text edits with {@link ActivityOptimizer#merge} does not change
+ * the result of concurrent editing. Every scenario is played with the single text edits as they
+ * are created while typing and with the merged text edit against the same server operation. The
+ * server operation arrives before, between and after the client operations.
+ */
+public class TypingCoalescingTest extends JupiterTestCase {
+
+  private static final String INITIAL_TEXT = "abcdefg";
+
+  private static final int[] SERVER_DELAYS = {50, 125, 500};
+
+  @Test
+  public void testTypingIntoConcurrentDeletion() {
+    assertCoalescingPreservesResult(
+        "axyzfg", D(1, "bcde"), edit(0, 3, "x", ""), edit(0, 4, "y", ""), edit(0, 5, "z", ""));
+  }
+
+  @Test
+  public void testTypingBeforeConcurrentInsertion() {
+    assertCoalescingPreservesResult(
+        "abxyzcdQefg", I(4, "Q"), edit(0, 2, "x", ""), edit(0, 3, "y", ""), edit(0, 4, "z", ""));
+  }
+
+  @Test
+  public void testTypingLineBreakBeforeConcurrentInsertion() {
+    assertCoalescingPreservesResult(
+        "abcx\nydeQfg", I(5, "Q"), edit(0, 3, "x", ""), edit(0, 4, "\n", ""), edit(1, 0, "y", ""));
+  }
+
+  @Test
+  public void testBackspaceAroundConcurrentInsertion() {
+    assertCoalescingPreservesResult(
+        "abQfg", I(3, "Q"), edit(0, 4, "", "e"), edit(0, 3, "", "d"), edit(0, 2, "", "c"));
+  }
+
+  @Test
+  public void testDeleteOverlappingConcurrentDeletion() {
+    assertCoalescingPreservesResult(
+        "abg", D(3, "def"), edit(0, 2, "", "c"), edit(0, 2, "", "d"), edit(0, 2, "", "e"));
+  }
+
+  @Test
+  public void testCorrectionBeforeConcurrentInsertion() {
+    assertCoalescingPreservesResult(
+        "abcxzdefQg", I(6, "Q"), edit(0, 3, "xy", ""), edit(0, 4, "", "y"), edit(0, 4, "z", ""));
+  }
+
+  private void assertCoalescingPreservesResult(
+      String expected, Operation serverOperation, TextEditActivity... edits) {
+
+    TextEditActivity merged = edits[0];
+
+    for (int i = 1; i < edits.length; i++) {
+      merged = ActivityOptimizer.merge(merged, edits[i]);
+      assertNotNull("text edit " + i + " was not merged", merged);
+    }
+
+    for (int serverDelay : SERVER_DELAYS) {
+      assertEquals(
+          "single text edits, server delay " + serverDelay,
+          expected,
+          play(Arrays.asList(edits), serverOperation, serverDelay));
+
+      assertEquals(
+          "merged text edit, server delay " + serverDelay,
+          expected,
+          play(Collections.singletonList(merged), serverOperation, serverDelay));
+    }
+  }
+
+  /**
+   * Applies the text edits at the client while the server performs the given operation
+   * concurrently and returns the document after both sides converged.
+   */
+  private String play(List<TextEditActivity> edits, Operation serverOperation, int serverDelay) {
+
+    network = new NetworkSimulator();
+
+    ClientSynchronizedDocument client = new TwoWayJupiterClientDocument(INITIAL_TEXT, network);
+    TwoWayJupiterServerDocument server = new TwoWayJupiterServerDocument(INITIAL_TEXT, network);
+
+    network.addClient(client);
+    network.addClient(server);
+
+    server.sendOperation(client.getUser(), serverOperation, serverDelay);
+
+    int delay = 100;
+
+    for (TextEditActivity edit : edits) client.sendOperation(edit.toOperation(), delay += 10);
+
+    network.execute();
+
+    assertEqualDocs(client.getDocument(), client, server);
+
+    return client.getDocument();
+  }
+
+  private TextEditActivity edit(
+      int lineNumber, int inLineOffset, String newText, String replacedText) {
+    return TextEditActivity.buildTextEditActivity(
+        alice, new TextPosition(lineNumber, inLineOffset), newText, replacedText, network.file);
+  }
+}
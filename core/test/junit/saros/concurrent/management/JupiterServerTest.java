@@ -0,0 +1,245 @@
+package saros.concurrent.management;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import saros.activities.JupiterActivity;
+import saros.concurrent.jupiter.internal.Jupiter;
+import saros.concurrent.jupiter.internal.JupiterVectorTime;
+import saros.concurrent.jupiter.internal.text.InsertOperation;
+import saros.editor.text.TextPosition;
+import saros.filesystem.IFile;
+import saros.filesystem.IReferencePoint;
+import saros.net.xmpp.JID;
+import saros.session.ISarosSession;
+import saros.session.User;
+
+/**
+ * Transforms the activities of many users for many files in parallel and checks that no activity
+ * is lost or transformed twice.
+ */
+public class JupiterServerTest {
+
+  private static final int USER_COUNT = 8;
+
+  private static final int FILE_COUNT = 16;
+
+  /** Number of activities every user sends. */
+  private static final int ACTIVITY_COUNT = 400;
+
+  private User host;
+
+  private List<User> users;
+
+  private List<IFile> files;
+
+  private JupiterServer server;
+
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    host = new User(new JID("host@test/Saros"), true, true, null);
+
+    users = new ArrayList<User>();
+
+    for (int i = 0; i < USER_COUNT; i++)
+      users.add(new User(new JID("user" + i + "@test/Saros"), false, false, null));
+
+    files = new ArrayList<IFile>();
+
+    for (int i = 0; i < FILE_COUNT; i++) files.add(EasyMock.createNiceMock(IFile.class));
+
+    EasyMock.replay(files.toArray());
+
+    final ISarosSession session = EasyMock.createNiceMock(ISarosSession.class);
+
+    EasyMock.expect(session.getHost()).andStubReturn(host);
+    EasyMock.expect(
+            session.userHasReferencePoint(
+                EasyMock.anyObject(User.class), EasyMock.anyObject(IReferencePoint.class)))
+        .andStubReturn(true);
+
+    EasyMock.replay(session);
+
+    server = new JupiterServer(session);
+
+    executor = Executors.newFixedThreadPool(USER_COUNT);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testParallelTransformation() throws Exception {
+    for (final User user : users) server.addUser(user);
+
+    final Map<User, Map<IFile, List<Integer>>> received = new ConcurrentHashMap<>();
+
+    for (final User user : users) received.put(user, new ConcurrentHashMap<>());
+
+    received.put(host, new ConcurrentHashMap<>());
+
+    final CountDownLatch start = new CountDownLatch(1);
+
+    final List<Future<Map<IFile, Integer>>> results = new ArrayList<>();
+
+    for (int i = 0; i < USER_COUNT; i++) {
+      final User user = users.get(i);
+      final Random random = new Random(i);
+
+      results.add(
+          executor.submit(
+              new Callable<Map<IFile, Integer>>() {
+                @Override
+                public Map<IFile, Integer> call() throws Exception {
+                  final Map<IFile, Jupiter> clients = new HashMap<IFile, Jupiter>();
+                  final Map<IFile, Integer> sent = new HashMap<IFile, Integer>();
+
+                  start.await();
+
+                  for (int j = 0; j < ACTIVITY_COUNT; j++) {
+                    final IFile file = files.get(random.nextInt(FILE_COUNT));
+
+                    Jupiter client = clients.get(file);
+
+                    if (client == null) {
+                      client = new Jupiter(true);
+                      clients.put(file, client);
+                    }
+
+                    final InsertOperation insert =
+                        new InsertOperation(new TextPosition(0, j % 10), 0, 1, "x");
+
+                    final JupiterActivity activity =
+                        client.generateJupiterActivity(insert, user, file);
+
+                    final Map<User, JupiterActivity> outgoing = server.transform(activity);
+
+                    for (final Map.Entry<User, JupiterActivity> entry : outgoing.entrySet())
+                      record(received, entry.getKey(), file, entry.getValue());
+
+                    sent.merge(file, 1, Integer::sum);
+                  }
+
+                  return sent;
+                }
+              }));
+    }
+
+    start.countDown();
+
+    final Map<User, Map<IFile, Integer>> sent = new HashMap<User, Map<IFile, Integer>>();
+
+    for (int i = 0; i < USER_COUNT; i++) sent.put(users.get(i), results.get(i).get());
+
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+    for (final Map.Entry<User, Map<IFile, List<Integer>>> entry : received.entrySet()) {
+      final User receiver = entry.getKey();
+
+      for (final IFile file : files) {
+        int expected = 0;
+
+        for (final User user : users) {
+          if (user.equals(receiver)) continue;
+
+          final Integer count = sent.get(user).get(file);
+
+          if (count != null) expected += count;
+        }
+
+        final List<Integer> counts = new ArrayList<Integer>();
+
+        if (entry.getValue().containsKey(file)) counts.addAll(entry.getValue().get(file));
+
+        Collections.sort(counts);
+
+        /*
+         * every activity sent to a user for a file must carry the next
+         * local operation count of the proxy, a lost update or a race on
+         * the proxy results in a gap or a duplicate
+         */
+        assertEquals("wrong number of activities for " + receiver, expected, counts.size());
+
+        for (int i = 0; i < counts.size(); i++)
+          assertEquals("lost or duplicated activity for " + receiver, i, (int) counts.get(i));
+      }
+    }
+  }
+
+  @Test
+  public void testUsersAddedDuringDocumentCreationAreRegistered() throws Exception {
+    final CountDownLatch start = new CountDownLatch(1);
+
+    final List<Future<?>> results = new ArrayList<>();
+
+    for (final User user : users) {
+      results.add(
+          executor.submit(
+              new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                  start.await();
+
+                  server.addUser(user);
+
+                  for (final IFile file : files) server.reset(file, host);
+
+                  return null;
+                }
+              }));
+    }
+
+    start.countDown();
+
+    for (final Future<?> result : results) result.get();
+
+    /* would fail with an exception if a proxy was not registered */
+    for (final User user : users) {
+      for (final IFile file : files) {
+        final Jupiter client = new Jupiter(true);
+
+        final JupiterActivity activity =
+            client.generateJupiterActivity(
+                new InsertOperation(new TextPosition(0, 0), 0, 1, "x"), user, file);
+
+        assertEquals(USER_COUNT, server.transform(activity).size());
+      }
+    }
+  }
+
+  private static void record(
+      final Map<User, Map<IFile, List<Integer>>> received,
+      final User receiver,
+      final IFile file,
+      final JupiterActivity activity) {
+
+    final List<Integer> counts =
+        received
+            .get(receiver)
+            .computeIfAbsent(file, f -> Collections.synchronizedList(new ArrayList<Integer>()));
+
+    counts.add(((JupiterVectorTime) activity.getTimestamp()).getLocalOperationCount());
+  }
+}
@@ -0,0 +1,224 @@
+package saros.concurrent.watchdog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.easymock.EasyMock;
+import org.junit.Test;
+import saros.activities.BlockChecksumActivity;
+import saros.activities.TextEditActivity;
+import saros.activities.TextRecoveryActivity;
+import saros.editor.text.TextPositionUtils;
+import saros.filesystem.IFile;
+import saros.net.xmpp.JID;
+import saros.session.User;
+
+public class BlockDeltaTest {
+
+  private static final User ALICE = new User(new JID("alice@test/Saros"), true, true, null);
+  private static final User BOB = new User(new JID("bob@test/Saros"), false, false, null);
+
+  private final IFile file = EasyMock.createNiceMock(IFile.class);
+
+  /** The size of the block hashes of the last {@link #recover} call in bytes. */
+  private int hashBytes;
+
+  @Test
+  public void testEqualText() {
+    final String text = randomLines(new Random(1), 1000);
+
+    final int blockLines = BlockDelta.getBlockLines(1000);
+    final List<BlockDelta.Replacement> replacements =
+        BlockDelta.diff(text, blockLines, 1000, BlockDelta.getBlockHashes(text, blockLines));
+
+    assertTrue(replacements.isEmpty());
+  }
+
+  @Test
+  public void testInsertedLineInLargeDocument() {
+    final List<String> lines =
+        new ArrayList<String>(Arrays.asList(randomLines(new Random(2), 125000).split("\n", -1)));
+
+    final String client = String.join("\n", lines);
+
+    assertTrue(client.length() > 5 * 1000 * 1000);
+
+    lines.add(100, "an inserted line");
+    final String host = String.join("\n", lines);
+
+    final TextRecoveryActivity recovery = recover(host, client);
+
+    int textLength = 0;
+
+    for (int i = 0; i < recovery.getRangeCount(); i++) textLength += recovery.getText(i).length();
+
+    assertTrue("hashes are too large: " + hashBytes, hashBytes < 8 * 1024);
+    assertTrue("recovery is too large: " + textLength, textLength < 64 * 1024);
+
+    final List<TextEditActivity> edits = recovery.toTextEdits(client);
+
+    assertEquals(1, edits.size());
+    assertEquals("an inserted line\n", edits.get(0).getNewText());
+    assertEquals("", edits.get(0).getReplacedText());
+
+    assertEquals(host, apply(client, recovery));
+  }
+
+  @Test
+  public void testShiftedRangeAfterChecksumTree() {
+    final Random random = new Random(3);
+
+    final List<String> lines =
+        new ArrayList<String>(Arrays.asList(randomLines(random, 10000).split("\n", -1)));
+
+    final String host = String.join("\n", lines);
+
+    lines.remove(500);
+    lines.remove(500);
+    lines.set(9000, "a modified line");
+    final String client = String.join("\n", lines);
+
+    final ChecksumTree hostTree = new ChecksumTree(host);
+    final ChecksumTree clientTree = new ChecksumTree(client, hostTree.getChunkCount());
+
+    final int depth = hostTree.getDepth();
+    final int[] chunks = hostTree.getNodes(depth);
+    final int[] differing =
+        clientTree.getDifferingNodes(depth, chunks, hostTree.getHashes(depth, chunks));
+
+    assertTrue(differing.length > 100);
+
+    final int firstChunk = differing[0];
+    final int lastChunk = differing[differing.length - 1];
+
+    final int startLine = firstChunk * ChecksumTree.LINES_PER_CHUNK;
+    final int endLine =
+        lastChunk == hostTree.getChunkCount() - 1
+            ? TextRecoveryActivity.END_OF_DOCUMENT
+            : (lastChunk + 1) * ChecksumTree.LINES_PER_CHUNK;
+
+    final int blockLines =
+        BlockDelta.getBlockLines(BlockDelta.countLines(hostTree.getText(firstChunk, lastChunk)));
+
+    final String clientLines = BlockDelta.getLines(client, startLine, endLine);
+
+    final TextRecoveryActivity recovery =
+        ConsistencyWatchdogHandler.createDeltaRecovery(
+            ALICE,
+            BOB,
+            file,
+            hostTree,
+            firstChunk,
+            lastChunk,
+            blocks(startLine, endLine, blockLines, clientLines));
+
+    assertEquals(host, apply(client, recovery));
+    assertEquals(2, recovery.toTextEdits(client).size());
+  }
+
+  @Test
+  public void testEmptyDocuments() {
+    final String content = randomLines(new Random(4), 100);
+
+    assertEquals("", apply(content, recover("", content)));
+    assertEquals(content, apply("", recover(content, "")));
+    assertEquals(0, recover("", "").getRangeCount());
+  }
+
+  @Test
+  public void testRandomEdits() {
+    final Random random = new Random(5);
+
+    for (int i = 0; i < 200; i++) {
+      final String host = randomLines(random, random.nextInt(3000));
+      final List<String> lines = new ArrayList<String>(Arrays.asList(host.split("\n", -1)));
+
+      for (int j = random.nextInt(10); j >= 0; j--) {
+        final int line = random.nextInt(lines.size());
+
+        switch (random.nextInt(3)) {
+          case 0:
+            lines.add(line, "x" + random.nextInt());
+            break;
+          case 1:
+            if (lines.size() > 1) lines.remove(line);
+            break;
+          default:
+            lines.set(line, lines.get(line) + random.nextInt());
+        }
+      }
+
+      final String client = String.join("\n", lines);
+
+      assertEquals(host, apply(client, recover(host, client)));
+      assertEquals(host + "\n", apply(client + "\n", recover(host + "\n", client + "\n")));
+    }
+  }
+
+  /** Recovers the whole document with a block delta like the host and the client. */
+  private TextRecoveryActivity recover(final String host, final String client) {
+    final ChecksumTree hostTree = new ChecksumTree(host);
+
+    final int blockLines = BlockDelta.getBlockLines(BlockDelta.countLines(host));
+
+    final BlockChecksumActivity blocks =
+        blocks(0, TextRecoveryActivity.END_OF_DOCUMENT, blockLines, client);
+
+    hashBytes = blocks.getHashes().length * 8;
+
+    return ConsistencyWatchdogHandler.createDeltaRecovery(
+        ALICE, BOB, file, hostTree, 0, hostTree.getChunkCount() - 1, blocks);
+  }
+
+  /** Creates the reply of the client for the given range of lines. */
+  private BlockChecksumActivity blocks(
+      final int startLine, final int endLine, final int blockLines, final String lines) {
+
+    return new BlockChecksumActivity(
+        BOB,
+        ALICE,
+        file,
+        "recovery",
+        startLine,
+        endLine,
+        blockLines,
+        BlockDelta.countLines(lines),
+        BlockDelta.getBlockHashes(lines, blockLines));
+  }
+
+  /** Applies the text edits of the given recovery like an editor. */
+  private static String apply(final String content, final TextRecoveryActivity recovery) {
+    final StringBuilder result = new StringBuilder(content);
+
+    for (final TextEditActivity edit : recovery.toTextEdits(content)) {
+      final int offset =
+          TextPositionUtils.calculateOffset(result.toString(), edit.getStartPosition(), "\n");
+
+      final int end = offset + edit.getReplacedText().length();
+
+      assertEquals(edit.getReplacedText(), result.substring(offset, end));
+
+      result.replace(offset, end, edit.getNewText());
+    }
+
+    return result.toString();
+  }
+
+  private static String randomLines(final Random random, final int count) {
+    final StringBuilder text = new StringBuilder();
+
+    for (int i = 0; i < count; i++) {
+      if (i > 0) text.append('\n');
+
+      final int length = random.nextInt(80);
+
+      for (int j = 0; j < length; j++) text.append((char) ('a' + random.nextInt(26)));
+    }
+
+    return text.toString();
+  }
+}
@@ -0,0 +1,187 @@
+package saros.concurrent.watchdog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.easymock.EasyMock;
+import org.junit.Test;
+import saros.activities.TextEditActivity;
+import saros.activities.TextRecoveryActivity;
+import saros.editor.text.TextPositionUtils;
+import saros.filesystem.IFile;
+import saros.net.xmpp.JID;
+import saros.session.User;
+
+public class ChecksumTreeTest {
+
+  private static final User ALICE = new User(new JID("alice@test/Saros"), true, true, null);
+  private static final User BOB = new User(new JID("bob@test/Saros"), false, false, null);
+
+  private final IFile file = EasyMock.createNiceMock(IFile.class);
+
+  /** The number of checksum tree round trips of the last {@link #narrowDown} call. */
+  private int roundTrips;
+
+  @Test
+  public void testEqualContent() {
+    final String content = randomLines(new Random(1), 10000);
+
+    assertNull(narrowDown(content, content));
+    assertEquals(1, roundTrips);
+  }
+
+  @Test
+  public void testOneLineDivergenceInLargeDocument() {
+    final Random random = new Random(2);
+
+    final String[] lines = randomLines(random, 125000).split("\n", -1);
+    final String host = join(lines);
+
+    assertTrue(host.length() > 5 * 1000 * 1000);
+
+    lines[77777] = "a diverged line";
+    final String client = join(lines);
+
+    final TextRecoveryActivity recovery = narrowDown(host, client);
+
+    assertNotNull(recovery);
+    assertEquals(1, recovery.getRangeCount());
+    assertTrue(
+        "recovery is too large: " + recovery.getText(0).length(),
+        recovery.getText(0).length() < 4096);
+
+    final ChecksumTree tree = new ChecksumTree(host);
+    assertEquals(tree.getDepth(), roundTrips);
+
+    final List<TextEditActivity> edits = recovery.toTextEdits(client);
+
+    assertEquals(1, edits.size());
+    assertEquals("a diverged line", edits.get(0).getReplacedText());
+    assertEquals(77777, edits.get(0).getStartPosition().getLineNumber());
+
+    assertEquals(host, apply(client, recovery));
+  }
+
+  @Test
+  public void testDifferentNumberOfLines() {
+    final String content = randomLines(new Random(3), 1000);
+
+    final String longer = content + "\nadditional\nlines";
+    final String shorter = content.substring(0, content.length() / 2);
+
+    assertEquals(content, apply(longer, narrowDown(content, longer)));
+    assertEquals(content, apply(shorter, narrowDown(content, shorter)));
+    assertEquals(longer, apply(content, narrowDown(longer, content)));
+    assertEquals(shorter, apply(content, narrowDown(shorter, content)));
+  }
+
+  @Test
+  public void testEmptyDocuments() {
+    final String content = randomLines(new Random(4), 100);
+
+    assertEquals("", apply(content, narrowDown("", content)));
+    assertEquals(content, apply("", narrowDown(content, "")));
+    assertNull(narrowDown("", ""));
+  }
+
+  @Test
+  public void testRandomDivergences() {
+    final Random random = new Random(5);
+
+    for (int i = 0; i < 200; i++) {
+      final String host = randomLines(random, random.nextInt(3000));
+      final String[] lines = host.split("\n", -1);
+
+      for (int j = random.nextInt(5); j >= 0; j--) {
+        final int line = random.nextInt(lines.length);
+        lines[line] = random.nextBoolean() ? "" : lines[line] + "\nx" + random.nextInt();
+      }
+
+      final String client = join(lines);
+      final TextRecoveryActivity recovery = narrowDown(host, client);
+
+      if (host.equals(client)) assertNull(recovery);
+      else assertEquals(host, apply(client, recovery));
+    }
+  }
+
+  @Test
+  public void testChildren() {
+    final ChecksumTree tree = new ChecksumTree(randomLines(new Random(6), 20 * 32));
+
+    assertEquals(20, tree.getChunkCount());
+    assertEquals(2, tree.getDepth());
+    assertEquals(2, tree.getNodes(1).length);
+    assertTrue(Arrays.equals(new int[] {16, 17, 18, 19}, tree.getChildren(1, new int[] {1})));
+  }
+
+  /** Narrows down the differences like the host and the client during a recovery. */
+  private TextRecoveryActivity narrowDown(final String host, final String client) {
+    final ChecksumTree hostTree = new ChecksumTree(host);
+    final ChecksumTree clientTree = new ChecksumTree(client, hostTree.getChunkCount());
+
+    roundTrips = 0;
+
+    int level = Math.min(1, hostTree.getDepth());
+    int[] nodes = hostTree.getNodes(level);
+
+    while (true) {
+      roundTrips++;
+
+      final int[] differing =
+          clientTree.getDifferingNodes(level, nodes, hostTree.getHashes(level, nodes));
+
+      if (differing.length == 0) return null;
+
+      Arrays.sort(differing);
+
+      if (level == hostTree.getDepth())
+        return ConsistencyWatchdogHandler.createTextRecovery(
+            ALICE, BOB, file, hostTree, differing);
+
+      nodes = hostTree.getChildren(level, differing);
+      level++;
+    }
+  }
+
+  /** Applies the text edits of the given recovery like an editor. */
+  private static String apply(final String content, final TextRecoveryActivity recovery) {
+    final StringBuilder result = new StringBuilder(content);
+
+    for (final TextEditActivity edit : recovery.toTextEdits(content)) {
+      final int offset =
+          TextPositionUtils.calculateOffset(result.toString(), edit.getStartPosition(), "\n");
+
+      final int end = offset + edit.getReplacedText().length();
+
+      assertEquals(edit.getReplacedText(), result.substring(offset, end));
+
+      result.replace(offset, end, edit.getNewText());
+    }
+
+    return result.toString();
+  }
+
+  private static String randomLines(final Random random, final int count) {
+    final StringBuilder text = new StringBuilder();
+
+    for (int i = 0; i < count; i++) {
+      if (i > 0) text.append('\n');
+
+      final int length = random.nextInt(80);
+
+      for (int j = 0; j < length; j++) text.append((char) ('a' + random.nextInt(26)));
+    }
+
+    return text.toString();
+  }
+
+  private static String join(final String[] lines) {
+    return String.join("\n", lines);
+  }
+}
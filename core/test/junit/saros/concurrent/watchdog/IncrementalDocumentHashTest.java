@@ -0,0 +1,201 @@
+package saros.concurrent.watchdog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.easymock.EasyMock;
+import org.junit.Test;
+import saros.activities.TextEditActivity;
+import saros.editor.text.TextPosition;
+import saros.filesystem.IFile;
+import saros.net.xmpp.JID;
+import saros.session.User;
+
+public class IncrementalDocumentHashTest {
+
+  private static final User ALICE = new User(new JID("alice@test/Saros"), true, true, null);
+
+  @Test
+  public void testRandomEdits() {
+    final Random random = new Random(42);
+
+    String content = randomText(random, 5 * IncrementalDocumentHash.CHUNK_SIZE);
+
+    final IncrementalDocumentHash hash = new IncrementalDocumentHash(content);
+
+    assertEquals(content.hashCode(), hash.getHash());
+
+    for (int i = 0; i < 2000; i++) {
+      final int offset = random.nextInt(content.length() + 1);
+
+      final int replacedLength =
+          random.nextInt(10) == 0
+              ? random.nextInt(2 * IncrementalDocumentHash.CHUNK_SIZE)
+              : random.nextInt(3);
+
+      final int end = Math.min(content.length(), offset + replacedLength);
+
+      final String replacedText = content.substring(offset, end);
+      final String newText = randomText(random, random.nextInt(4) == 0 ? 200 : 2);
+
+      assertTrue(hash.apply(getPosition(content, offset), replacedText, newText));
+
+      content = content.substring(0, offset) + newText + content.substring(end);
+
+      assertEquals(content.length(), hash.getLength());
+      assertEquals(content.hashCode(), hash.getHash());
+    }
+  }
+
+  @Test
+  public void testEditsOfEmptyDocument() {
+    final IncrementalDocumentHash hash = new IncrementalDocumentHash("");
+
+    assertEquals("".hashCode(), hash.getHash());
+
+    assertTrue(hash.apply(new TextPosition(0, 0), "", "a\nb"));
+    assertEquals("a\nb".hashCode(), hash.getHash());
+
+    assertTrue(hash.apply(new TextPosition(1, 0), "b", "c"));
+    assertEquals("a\nc".hashCode(), hash.getHash());
+
+    assertTrue(hash.apply(new TextPosition(0, 0), "a\nc", ""));
+    assertEquals("".hashCode(), hash.getHash());
+    assertEquals(0, hash.getLength());
+  }
+
+  @Test
+  public void testMismatchingEditsAreRejected() {
+    final IncrementalDocumentHash hash = new IncrementalDocumentHash("abc\ndef");
+
+    assertFalse(hash.apply(new TextPosition(1, 0), "xyz", ""));
+    assertFalse(hash.apply(new TextPosition(2, 0), "", "a"));
+    assertFalse(hash.apply(new TextPosition(1, 3), "g", ""));
+
+    assertEquals("abc\ndef".hashCode(), hash.getHash());
+  }
+
+  @Test
+  public void testIncrementalChecksum() {
+    final IFile file = EasyMock.createNiceMock(IFile.class);
+
+    final DocumentChecksum checksum = new DocumentChecksum(file, true);
+
+    checksum.update("abc\ndef");
+    checksum.apply(edit(file, new TextPosition(1, 1), "e", "xy"));
+
+    assertFalse(checksum.isDirty());
+    assertEquals(1, checksum.getAppliedEdits());
+    assertEquals("abc\ndxyf".hashCode(), checksum.getHash());
+    assertEquals("abc\ndxyf".length(), checksum.getLength());
+
+    checksum.apply(edit(file, new TextPosition(0, 0), "b", ""));
+
+    assertTrue("mismatching edit was applied", checksum.isDirty());
+
+    checksum.update("bc\ndxyf");
+
+    assertEquals(0, checksum.getAppliedEdits());
+    assertEquals("bc\ndxyf".hashCode(), checksum.getHash());
+  }
+
+  @Test
+  public void testNonIncrementalChecksumIsMarkedDirty() {
+    final IFile file = EasyMock.createNiceMock(IFile.class);
+
+    final DocumentChecksum checksum = new DocumentChecksum(file);
+
+    checksum.update("abc");
+    checksum.apply(edit(file, new TextPosition(0, 0), "a", ""));
+
+    assertTrue(checksum.isDirty());
+  }
+
+  @Test
+  public void testPublishedSnapshot() {
+    final IFile file = EasyMock.createNiceMock(IFile.class);
+
+    final DocumentChecksum checksum = new DocumentChecksum(file, true);
+
+    final DocumentSnapshot snapshot = new DocumentSnapshot(checksum, "abc\ndef");
+    snapshot.calculate();
+
+    assertTrue(snapshot.isCurrent());
+
+    checksum.publish(snapshot);
+
+    assertFalse(checksum.isDirty());
+    assertEquals("abc\ndef".hashCode(), checksum.getHash());
+    assertEquals("abc\ndef".length(), checksum.getLength());
+
+    checksum.apply(edit(file, new TextPosition(1, 1), "e", "xy"));
+
+    assertFalse(checksum.isDirty());
+    assertEquals("abc\ndxyf".hashCode(), checksum.getHash());
+  }
+
+  @Test
+  public void testSnapshotIsNormalized() {
+    final IFile file = EasyMock.createNiceMock(IFile.class);
+
+    final DocumentChecksum checksum = new DocumentChecksum(file, true);
+
+    final DocumentSnapshot snapshot = new DocumentSnapshot(checksum, "abc\r\ndef\r\n", "\r\n");
+    snapshot.calculate();
+
+    checksum.publish(snapshot);
+
+    assertEquals("abc\ndef\n".hashCode(), checksum.getHash());
+    assertEquals("abc\ndef\n".length(), checksum.getLength());
+
+    checksum.apply(edit(file, new TextPosition(1, 0), "def", "x"));
+
+    assertFalse(checksum.isDirty());
+    assertEquals("abc\nx\n".hashCode(), checksum.getHash());
+  }
+
+  @Test
+  public void testOutdatedSnapshot() {
+    final IFile file = EasyMock.createNiceMock(IFile.class);
+
+    final DocumentChecksum checksum = new DocumentChecksum(file, true);
+
+    DocumentSnapshot snapshot = new DocumentSnapshot(checksum, "abc");
+    checksum.apply(edit(file, new TextPosition(0, 0), "a", ""));
+
+    assertFalse("snapshot of a changed document is current", snapshot.isCurrent());
+
+    snapshot = new DocumentSnapshot(checksum, "bc");
+    checksum.markDirty();
+
+    assertFalse("snapshot of a dirty document is current", snapshot.isCurrent());
+  }
+
+  private static TextEditActivity edit(
+      final IFile file, final TextPosition position, final String replaced, final String text) {
+    return TextEditActivity.buildTextEditActivity(ALICE, position, text, replaced, file);
+  }
+
+  private static TextPosition getPosition(final String content, final int offset) {
+    final int lineStart = content.lastIndexOf('\n', offset - 1) + 1;
+
+    int line = 0;
+
+    for (int i = 0; i < lineStart; i++) {
+      if (content.charAt(i) == '\n') line++;
+    }
+
+    return new TextPosition(line, offset - lineStart);
+  }
+
+  private static String randomText(final Random random, final int length) {
+    final StringBuilder text = new StringBuilder(length);
+
+    for (int i = 0; i < length; i++)
+      text.append(random.nextInt(20) == 0 ? '\n' : (char) ('a' + random.nextInt(26)));
+
+    return text.toString();
+  }
+}
@@ -9,10 +9,15 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
+import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -302,20 +307,282 @@ public class BinaryChannelConnectionTest {
     assertArrayEquals("fragmentation error", bytesToSend, receivedBytes);
   }
 
+  @Test
+  public void testInteractivePayloadOvertakesBulkPayload() throws Exception {
+
+    final List<Integer> receivedSizes = Collections.synchronizedList(new ArrayList<Integer>());
+
+    final CountDownLatch received = new CountDownLatch(2);
+
+    final BinaryChannelConnection alice =
+        new BinaryChannelConnection(
+            aliceJID,
+            bobJID,
+            "junit",
+            aliceStream,
+            StreamMode.SOCKS5_DIRECT,
+            new StreamConnectionListener());
+
+    BinaryChannelConnection bob =
+        new BinaryChannelConnection(
+            bobJID,
+            aliceJID,
+            "junit",
+            bobStream,
+            StreamMode.SOCKS5_DIRECT,
+            new StreamConnectionListener());
+
+    bob.setBinaryXMPPExtensionReceiver(
+        (e) -> {
+          receivedSizes.add(e.getPayloadLength());
+          received.countDown();
+        });
+
+    alice.initialize();
+    bob.initialize();
+
+    final TransferDescription description = TransferDescription.newDescription();
+
+    description.setNamespace("foo-namespace");
+    description.setElementName("bar");
+
+    final byte[] bulkBytes = new byte[32 * 1024 * 1024];
+    final byte[] interactiveBytes = new byte[64];
+
+    final CountDownLatch bulkSent = new CountDownLatch(1);
+
+    Thread bulkSender =
+        new Thread(
+            () -> {
+              try {
+                alice.send(description, bulkBytes);
+              } catch (IOException e) {
+                // test will fail
+              } finally {
+                bulkSent.countDown();
+              }
+            });
+
+    try {
+      bulkSender.start();
+
+      while (alice.getQueueDepth(BinaryChannelConnection.Priority.BULK) == 0
+          && bulkSent.getCount() > 0) Thread.sleep(1);
+
+      alice.send(description, interactiveBytes);
+
+      assertEquals(0, alice.getQueueDepth(BinaryChannelConnection.Priority.INTERACTIVE));
+      assertEquals(1, alice.getMaxQueueDepth(BinaryChannelConnection.Priority.INTERACTIVE));
+
+      received.await(30000, TimeUnit.MILLISECONDS);
+      bulkSent.await(30000, TimeUnit.MILLISECONDS);
+    } finally {
+      alice.close();
+      bob.close();
+    }
+
+    assertEquals(0, received.getCount());
+    assertEquals(Arrays.asList(interactiveBytes.length, bulkBytes.length), receivedSizes);
+
+    assertEquals(0, alice.getQueueDepth(BinaryChannelConnection.Priority.BULK));
+    assertEquals(0, alice.getQueuedBytes(BinaryChannelConnection.Priority.BULK));
+    assertEquals(1, alice.getMaxQueueDepth(BinaryChannelConnection.Priority.BULK));
+  }
+
+  @Test
+  public void testSmallPayloadsAreCoalesced() throws Exception {
+
+    final int payloads = 200;
+
+    final CountDownLatch received = new CountDownLatch(payloads);
+
+    BinaryChannelConnection alice =
+        new BinaryChannelConnection(
+            aliceJID,
+            bobJID,
+            "junit",
+            aliceStream,
+            StreamMode.SOCKS5_DIRECT,
+            new StreamConnectionListener());
+
+    BinaryChannelConnection bob =
+        new BinaryChannelConnection(
+            bobJID,
+            aliceJID,
+            "junit",
+            bobStream,
+            StreamMode.SOCKS5_DIRECT,
+            new StreamConnectionListener());
+
+    bob.setBinaryXMPPExtensionReceiver((e) -> received.countDown());
+
+    alice.initialize();
+    bob.initialize();
+
+    TransferDescription description = TransferDescription.newDescription();
+
+    description.setNamespace("foo-namespace");
+    description.setElementName("bar");
+
+    byte[] bytesToSend = new byte[64];
+
+    try {
+      for (int i = 0; i < payloads; i++) alice.send(description, bytesToSend);
+
+      // the last frames are only flushed after the cork timeout
+      received.await(10000, TimeUnit.MILLISECONDS);
+    } finally {
+      alice.close();
+      bob.close();
+    }
+
+    assertEquals("not all payloads were received", 0, received.getCount());
+
+    assertTrue(
+        "frames were not coalesced, flushes: " + alice.getFlushCount(),
+        alice.getAverageFramesPerFlush() > 2);
+
+    assertTrue(alice.getMaxFramesPerFlush() > 2);
+  }
+
   @Test
   public void testIDPool() {
 
-    IDPool pool = new IDPool();
+    IDPool pool = new IDPool(128);
 
-    for (int i = 0; i < 32; i++) assertEquals(i, pool.nextID());
+    for (int i = 0; i < 128; i++) assertEquals(i, pool.nextID());
 
     assertEquals(-1, pool.nextID());
 
-    pool.freeID(31);
+    pool.freeID(127);
     pool.freeID(0);
 
     assertEquals(0, pool.nextID());
-    assertEquals(31, pool.nextID());
+    assertEquals(127, pool.nextID());
     assertEquals(-1, pool.nextID());
   }
+
+  @Test
+  public void testIDPoolConcurrentAccess() throws Exception {
+
+    final int threadCount = 16;
+    final int idsPerThread = 256;
+    final int rounds = 100;
+
+    final IDPool pool = new IDPool(threadCount * idsPerThread);
+    final AtomicIntegerArray usage = new AtomicIntegerArray(threadCount * idsPerThread);
+    final AtomicInteger errors = new AtomicInteger();
+
+    final CountDownLatch start = new CountDownLatch(1);
+    final List<Thread> threads = new ArrayList<Thread>();
+
+    for (int t = 0; t < threadCount; t++) {
+      Thread thread =
+          new Thread(
+              () -> {
+                final int[] ids = new int[idsPerThread];
+
+                try {
+                  start.await();
+                } catch (InterruptedException e) {
+                  return;
+                }
+
+                for (int r = 0; r < rounds; r++) {
+                  for (int i = 0; i < idsPerThread; i++) {
+                    ids[i] = pool.nextID();
+
+                    if (ids[i] < 0 || usage.incrementAndGet(ids[i]) != 1) errors.incrementAndGet();
+                  }
+
+                  for (int i = 0; i < idsPerThread; i++) {
+                    if (ids[i] < 0) continue;
+
+                    usage.decrementAndGet(ids[i]);
+                    pool.freeID(ids[i]);
+                  }
+                }
+              });
+
+      threads.add(thread);
+      thread.start();
+    }
+
+    start.countDown();
+
+    for (Thread thread : threads) thread.join(30000);
+
+    assertEquals("ids were handed out twice or the pool was exhausted", 0, errors.get());
+
+    for (int i = 0; i < threadCount * idsPerThread; i++) assertEquals(i, pool.nextID());
+
+    assertEquals(-1, pool.nextID());
+  }
+
+  @Test
+  public void testLargeFragmentIds() throws Exception {
+
+    final int fragments = Short.MAX_VALUE + 2;
+
+    final CountDownLatch received = new CountDownLatch(1);
+
+    BinaryChannelConnection alice =
+        new BinaryChannelConnection(
+            aliceJID,
+            bobJID,
+            "junit",
+            aliceStream,
+            StreamMode.SOCKS5_DIRECT,
+            new StreamConnectionListener());
+
+    BinaryChannelConnection bob =
+        new BinaryChannelConnection(
+            bobJID,
+            aliceJID,
+            "junit",
+            bobStream,
+            StreamMode.SOCKS5_DIRECT,
+            new StreamConnectionListener());
+
+    bob.setBinaryXMPPExtensionReceiver(
+        (e) -> {
+          receivedBytes = e.getPayload();
+          received.countDown();
+        });
+
+    alice.initialize();
+    bob.initialize();
+
+    // occupy all ids that fit into the legacy 16 bit opcodes
+    IDPool pool = getIDPool(alice);
+
+    for (int i = 0; i < fragments - 1; i++) pool.nextID();
+
+    TransferDescription description = TransferDescription.newDescription();
+
+    description.setNamespace("foo-namespace");
+    description.setElementName("bar");
+
+    byte[] bytesToSend = new byte[64 * 1024];
+
+    for (int i = 0; i < bytesToSend.length; i++) bytesToSend[i] = (byte) i;
+
+    try {
+      alice.send(description, bytesToSend);
+      received.await(10000, TimeUnit.MILLISECONDS);
+    } finally {
+      alice.close();
+      bob.close();
+    }
+
+    assertTrue("no bytes were received", received.getCount() == 0);
+
+    assertArrayEquals("fragmentation error", bytesToSend, receivedBytes);
+  }
+
+  private static IDPool getIDPool(BinaryChannelConnection connection) throws Exception {
+    Field field = BinaryChannelConnection.class.getDeclaredField("idPool");
+    field.setAccessible(true);
+    return (IDPool) field.get(connection);
+  }
 }
@@ -0,0 +1,138 @@
+package saros.net.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+  @Test
+  public void testAcquireRoundsUpToSizeClass() {
+    BufferPool pool = new BufferPool(64 * 1024, 4);
+
+    assertEquals(256, pool.acquire(0).length);
+    assertEquals(256, pool.acquire(1).length);
+    assertEquals(256, pool.acquire(256).length);
+    assertEquals(512, pool.acquire(257).length);
+    assertEquals(32 * 1024, pool.acquire(32 * 1024 - 1).length);
+    assertEquals(64 * 1024, pool.acquire(64 * 1024).length);
+  }
+
+  @Test
+  public void testReleasedBufferIsReused() {
+    BufferPool pool = new BufferPool(64 * 1024, 4);
+
+    byte[] buffer = pool.acquire(1000);
+    pool.release(buffer);
+
+    assertEquals(1, pool.getPooledBufferCount());
+    assertSame(buffer, pool.acquire(1024));
+    assertEquals(0, pool.getPooledBufferCount());
+  }
+
+  @Test
+  public void testOversizedBuffersAreNotPooled() {
+    BufferPool pool = new BufferPool(64 * 1024, 4);
+
+    byte[] buffer = pool.acquire(64 * 1024 + 1);
+
+    assertEquals(64 * 1024 + 1, buffer.length);
+
+    pool.release(buffer);
+    pool.release(new byte[128 * 1024]);
+
+    assertEquals(0, pool.getPooledBufferCount());
+  }
+
+  @Test
+  public void testForeignBuffersAreIgnored() {
+    BufferPool pool = new BufferPool(64 * 1024, 4);
+
+    pool.release(null);
+    pool.release(new byte[1000]);
+    pool.release(new byte[128]);
+
+    assertEquals(0, pool.getPooledBufferCount());
+  }
+
+  @Test
+  public void testPoolIsBounded() {
+    BufferPool pool = new BufferPool(64 * 1024, 2);
+
+    byte[] first = pool.acquire(512);
+    byte[] second = pool.acquire(512);
+    byte[] third = pool.acquire(512);
+
+    assertNotSame(first, second);
+
+    pool.release(first);
+    pool.release(second);
+    pool.release(third);
+
+    assertEquals(2, pool.getPooledBufferCount());
+  }
+
+  @Test
+  public void testChunksAreReadIntoSingleBuffer() throws Exception {
+    BufferPool pool = new BufferPool(64 * 1024, 4);
+
+    BinaryXMPPExtension extension =
+        new BinaryXMPPExtension(null, TransferDescription.newDescription(), 3);
+
+    byte[] data = new byte[250];
+
+    for (int i = 0; i < data.length; i++) data[i] = (byte) i;
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+
+    extension.readChunk(in, 100, 100, pool);
+    extension.isLastChunk();
+    extension.readChunk(in, 100, 100, pool);
+    extension.isLastChunk();
+    extension.readChunk(in, 50, 100, pool);
+    extension.isLastChunk();
+
+    extension.completePayload();
+
+    assertEquals(250, extension.getPayloadLength());
+    assertEquals(250, extension.getPayloadBuffer().remaining());
+    assertArrayEquals(data, extension.getPayload());
+
+    extension.release();
+
+    assertEquals(1, pool.getPooledBufferCount());
+  }
+
+  @Test
+  public void testPayloadBufferGrowsWithChunks() throws Exception {
+    BufferPool pool = new BufferPool(256, 4);
+
+    // announces almost 2 GB, which must not be allocated up front
+    BinaryXMPPExtension extension =
+        new BinaryXMPPExtension(null, TransferDescription.newDescription(), 20000);
+
+    byte[] data = new byte[300];
+
+    for (int i = 0; i < data.length; i++) data[i] = (byte) i;
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+
+    for (int i = 0; i < 3; i++) {
+      extension.readChunk(in, 100, 100 * 1000, pool);
+      extension.isLastChunk();
+    }
+
+    assertEquals(300, extension.getPayloadLength());
+    assertArrayEquals(data, extension.getPayload());
+
+    // the initial buffer was returned to the pool when the payload outgrew it
+    assertEquals(1, pool.getPooledBufferCount());
+
+    extension.release();
+  }
+}
@@ -0,0 +1,102 @@
+package saros.net.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.zip.Deflater;
+import org.junit.Test;
+
+public class CompressionPolicyTest {
+
+  @Test
+  public void testCompressibleDataIsCompressed() {
+    CompressionPolicy policy = new CompressionPolicy();
+    CompressionPolicy.Entry entry = policy.getEntry("saros", "foo");
+
+    for (int i = 0; i < 32; i++) {
+      assertEquals(Deflater.DEFAULT_COMPRESSION, policy.nextLevel(entry));
+      assertFalse(policy.update(entry, 1000, 300, 1000));
+    }
+  }
+
+  @Test
+  public void testIncompressibleDataIsNotCompressed() {
+    CompressionPolicy policy = new CompressionPolicy();
+    CompressionPolicy.Entry entry = policy.getEntry("saros", "foo");
+
+    boolean changed = false;
+
+    for (int i = 0; i < 8; i++) changed |= policy.update(entry, 1000, 990, 1000);
+
+    assertTrue(changed);
+    assertEquals(Deflater.NO_COMPRESSION, entry.getLevel());
+
+    int probes = 0;
+
+    for (int i = 0; i < 128; i++) {
+      if (policy.nextLevel(entry) != Deflater.NO_COMPRESSION) probes++;
+    }
+
+    assertEquals(2, probes);
+  }
+
+  @Test
+  public void testSmallSavingsAreNotCompressed() {
+    CompressionPolicy policy = new CompressionPolicy();
+    CompressionPolicy.Entry entry = policy.getEntry("saros", "foo");
+
+    for (int i = 0; i < 8; i++) policy.update(entry, 40, 30, 1000);
+
+    assertEquals(Deflater.NO_COMPRESSION, entry.getLevel());
+  }
+
+  @Test
+  public void testProbesReenableCompression() {
+    CompressionPolicy policy = new CompressionPolicy();
+    CompressionPolicy.Entry entry = policy.getEntry("saros", "foo");
+
+    for (int i = 0; i < 8; i++) policy.update(entry, 1000, 1000, 1000);
+
+    assertEquals(Deflater.NO_COMPRESSION, entry.getLevel());
+
+    boolean changed = false;
+
+    for (int i = 0; i < 32 && !changed; i++) changed = policy.update(entry, 1000, 100, 1000);
+
+    assertTrue(changed);
+    assertEquals(Deflater.DEFAULT_COMPRESSION, entry.getLevel());
+  }
+
+  @Test
+  public void testExpensiveCompressionUsesFastestLevel() {
+    CompressionPolicy policy = new CompressionPolicy();
+    CompressionPolicy.Entry entry = policy.getEntry("saros", "foo");
+
+    for (int i = 0; i < 8; i++) policy.update(entry, 1000, 300, 1000 * 1000);
+
+    assertEquals(Deflater.BEST_SPEED, policy.nextLevel(entry));
+
+    // slightly cheaper but still above the hysteresis limit
+    for (int i = 0; i < 32; i++) policy.update(entry, 1000, 300, 1000 * 40);
+
+    assertEquals(Deflater.BEST_SPEED, policy.nextLevel(entry));
+
+    for (int i = 0; i < 32; i++) policy.update(entry, 1000, 300, 1000);
+
+    assertEquals(Deflater.DEFAULT_COMPRESSION, policy.nextLevel(entry));
+  }
+
+  @Test
+  public void testEntriesArePerType() {
+    CompressionPolicy policy = new CompressionPolicy();
+
+    CompressionPolicy.Entry foo = policy.getEntry("saros", "foo");
+
+    for (int i = 0; i < 8; i++) policy.update(foo, 1000, 1000, 1000);
+
+    assertEquals(foo, policy.getEntry("saros", "foo"));
+    assertEquals(Deflater.NO_COMPRESSION, foo.getLevel());
+    assertEquals(Deflater.DEFAULT_COMPRESSION, policy.getEntry("saros", "bar").getLevel());
+  }
+}
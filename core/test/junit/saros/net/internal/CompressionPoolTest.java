@@ -0,0 +1,193 @@
+package saros.net.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.junit.Test;
+
+public class CompressionPoolTest {
+
+  private static final byte[] PAYLOAD =
+      ("<ADOS xmlns=\"saros\"><sid>4711</sid><jupiterActivity source=\"alice@test/Saros\">"
+              + "<t><vectorTime local=\"3\" remote=\"4\"/></t><o><insertOp sl=\"1\" so=\"2\" "
+              + "text=\"a\"/></o></jupiterActivity><seq>5</seq></ADOS>")
+          .getBytes(StandardCharsets.UTF_8);
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    for (int i = 0; i < 3; i++) assertArrayEquals(PAYLOAD, inflate(deflate(PAYLOAD)));
+  }
+
+  @Test
+  public void testRoundTripWithCompressionLevels() throws Exception {
+    for (int level : new int[] {Deflater.BEST_SPEED, Deflater.DEFAULT_COMPRESSION, 9}) {
+      assertArrayEquals(PAYLOAD, inflate(deflate(PAYLOAD, level, false)));
+      assertArrayEquals(PAYLOAD, inflate(deflate(PAYLOAD, level, true)));
+    }
+  }
+
+  @Test
+  public void testNoDictionaryByDefault() throws Exception {
+    // a peer that does not know the dictionary must be able to decompress the payload
+    Inflater inflater = new Inflater();
+
+    inflater.setInput(deflate(PAYLOAD));
+
+    byte[] buffer = new byte[PAYLOAD.length];
+    int length = inflater.inflate(buffer);
+
+    assertFalse(inflater.needsDictionary());
+    assertTrue(inflater.finished());
+    assertEquals(PAYLOAD.length, length);
+
+    inflater.end();
+  }
+
+  @Test
+  public void testDictionaryImprovesCompressionOfSmallPayloads() {
+    Deflater plain = new Deflater(Deflater.DEFLATED);
+
+    plain.setInput(PAYLOAD);
+    plain.finish();
+
+    byte[] buffer = new byte[PAYLOAD.length * 2];
+    int plainLength = plain.deflate(buffer);
+    plain.end();
+
+    assertTrue(deflate(PAYLOAD, Deflater.DEFAULT_COMPRESSION, true).length < plainLength);
+  }
+
+  @Test
+  public void testDictionaryImprovesCompressionOfBinaryActivities() throws Exception {
+    byte[] payload = createBinaryActivities();
+
+    assertTrue(
+        deflate(payload, Deflater.DEFAULT_COMPRESSION, true).length
+            < deflate(payload, Deflater.DEFAULT_COMPRESSION, false).length);
+  }
+
+  @Test(expected = DataFormatException.class)
+  public void testUnknownDictionary() throws Exception {
+    Deflater deflater = new Deflater(Deflater.DEFLATED);
+
+    deflater.setDictionary("foobar".getBytes(StandardCharsets.UTF_8));
+    deflater.setInput(PAYLOAD);
+    deflater.finish();
+
+    byte[] buffer = new byte[PAYLOAD.length * 2];
+    int length = deflater.deflate(buffer);
+    deflater.end();
+
+    byte[] compressed = new byte[length];
+    System.arraycopy(buffer, 0, compressed, 0, length);
+
+    inflate(compressed);
+  }
+
+  @Test
+  public void testInstancesAreReused() {
+    Deflater deflater = CompressionPool.acquireDeflater();
+    CompressionPool.release(deflater);
+
+    Inflater inflater = CompressionPool.acquireInflater();
+    CompressionPool.release(inflater);
+
+    Deflater first = CompressionPool.acquireDeflater();
+    Deflater second = CompressionPool.acquireDeflater();
+
+    assertSame(deflater, first);
+    assertNotSame(first, second);
+    assertSame(inflater, CompressionPool.acquireInflater());
+
+    CompressionPool.release(first);
+    CompressionPool.release(second);
+  }
+
+  /**
+   * Creates a payload that is laid out like a batch of the binary activity codec containing a text
+   * edit of a new user on a new file, i.e the reference tables contain the JID and the path.
+   */
+  private static byte[] createBinaryActivities() throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bos);
+
+    out.writeByte(4);
+    out.writeUTF("4711");
+    out.writeInt(5);
+    out.write(new byte[] {2, 9, 2});
+    writeString(out, "alice@saros-con.imp.fu-berlin.de/Saros");
+    out.write(new byte[] {2, 2});
+    writeString(out, "0");
+    writeString(out, "src/main/java/saros/Main.java");
+    out.write(new byte[] {0, 6, 6, 8, 3, 20, 10, 0, 2});
+    writeString(out, "a");
+    out.write(new byte[] {20, 10});
+    out.flush();
+
+    return bos.toByteArray();
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] data = value.getBytes(StandardCharsets.UTF_8);
+
+    out.writeByte((data.length + 1) * 2);
+    out.write(data);
+  }
+
+  private static byte[] deflate(byte[] input) {
+    return deflate(input, Deflater.DEFAULT_COMPRESSION, false);
+  }
+
+  private static byte[] deflate(byte[] input, int level, boolean useDictionary) {
+    Deflater deflater = CompressionPool.acquireDeflater(level, useDictionary);
+
+    try {
+      deflater.setInput(input);
+      deflater.finish();
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[64];
+
+      while (!deflater.finished()) out.write(buffer, 0, deflater.deflate(buffer));
+
+      return out.toByteArray();
+    } finally {
+      CompressionPool.release(deflater);
+    }
+  }
+
+  private static byte[] inflate(byte[] input) throws DataFormatException {
+    Inflater inflater = CompressionPool.acquireInflater();
+
+    try {
+      inflater.setInput(input);
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[64];
+
+      while (!inflater.finished()) {
+        int count = inflater.inflate(buffer);
+
+        if (count == 0 && inflater.needsDictionary()) CompressionPool.setDictionary(inflater);
+        else if (count == 0 && inflater.needsInput()) throw new DataFormatException("truncated");
+
+        out.write(buffer, 0, count);
+      }
+
+      return out.toByteArray();
+    } finally {
+      CompressionPool.release(inflater);
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package saros.net.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.jivesoftware.smack.PacketListener;
+import org.jivesoftware.smack.filter.PacketFilter;
+import org.jivesoftware.smack.packet.DefaultPacketExtension;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Packet;
+import org.junit.Test;
+import saros.net.ExtensionPacketFilter;
+
+public class PacketRoutingTableTest {
+
+  private static class CountingListener implements PacketListener {
+    private int count;
+
+    @Override
+    public void processPacket(Packet packet) {
+      count++;
+    }
+  }
+
+  private static Packet createPacket(String... elementNames) {
+    Message message = new Message();
+
+    for (String elementName : elementNames)
+      message.addExtension(new DefaultPacketExtension(elementName, "saros"));
+
+    return message;
+  }
+
+  @Test
+  public void testIndexedListenersOnlyReceiveMatchingPackets() {
+    CountingListener foo = new CountingListener();
+    CountingListener bar = new CountingListener();
+
+    Map<PacketListener, PacketFilter> listeners = new HashMap<PacketListener, PacketFilter>();
+    listeners.put(foo, new ExtensionPacketFilter("foo", "saros"));
+    listeners.put(bar, new ExtensionPacketFilter("bar", "saros"));
+
+    PacketRoutingTable table = PacketRoutingTable.create(listeners);
+
+    table.route(createPacket("foo"));
+    table.route(createPacket("foo"));
+    table.route(createPacket("bar"));
+    table.route(createPacket("foobar"));
+
+    assertEquals(2, foo.count);
+    assertEquals(1, bar.count);
+    assertEquals(2, table.size());
+  }
+
+  @Test
+  public void testAdditionalFiltersAreEvaluated() {
+    CountingListener foo = new CountingListener();
+
+    PacketFilter rejectAll =
+        new PacketFilter() {
+          @Override
+          public boolean accept(Packet packet) {
+            return false;
+          }
+        };
+
+    Map<PacketListener, PacketFilter> listeners = new HashMap<PacketListener, PacketFilter>();
+    listeners.put(
+        foo, ExtensionPacketFilter.and(new ExtensionPacketFilter("foo", "saros"), rejectAll));
+
+    PacketRoutingTable.create(listeners).route(createPacket("foo"));
+
+    assertEquals(0, foo.count);
+  }
+
+  @Test
+  public void testUnindexedListenersReceiveAllPackets() {
+    CountingListener all = new CountingListener();
+    CountingListener foo = new CountingListener();
+
+    Map<PacketListener, PacketFilter> listeners = new HashMap<PacketListener, PacketFilter>();
+    listeners.put(all, null);
+    listeners.put(
+        foo,
+        new PacketFilter() {
+          @Override
+          public boolean accept(Packet packet) {
+            return packet.getExtension("foo", "saros") != null;
+          }
+        });
+
+    PacketRoutingTable table = PacketRoutingTable.create(listeners);
+
+    table.route(createPacket("foo"));
+    table.route(createPacket("bar"));
+
+    assertEquals(2, all.count);
+    assertEquals(1, foo.count);
+  }
+
+  @Test
+  public void testListenerIsInvokedOncePerPacket() {
+    CountingListener foo = new CountingListener();
+
+    Map<PacketListener, PacketFilter> listeners = new HashMap<PacketListener, PacketFilter>();
+    listeners.put(foo, new ExtensionPacketFilter("foo", "saros"));
+
+    PacketRoutingTable.create(listeners).route(createPacket("foo", "bar", "foo"));
+
+    assertEquals(1, foo.count);
+  }
+
+  @Test
+  public void testEmptyTable() {
+    PacketRoutingTable.EMPTY.route(createPacket("foo"));
+
+    assertEquals(0, PacketRoutingTable.EMPTY.size());
+  }
+}
@@ -6,6 +6,10 @@ import org.junit.runners.Suite;
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
   BinaryChannelConnectionTest.class,
+  BufferPoolTest.class,
+  CompressionPoolTest.class,
+  CompressionPolicyTest.class,
+  PacketRoutingTableTest.class,
   ConnectionPoolTest.class,
   DataTransferManagerTest.class
 })
@@ -15,6 +15,7 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 import saros.communication.connection.ConnectionHandler;
 import saros.context.IContainerContext;
+import saros.net.DispatchThreadContext;
 import saros.net.IReceiver;
 import saros.net.ITransmitter;
 import saros.net.xmpp.JID;
@@ -105,7 +106,12 @@ public class SarosSessionManagerTest {
 
     PowerMock.replayAll();
 
-    manager = new SarosSessionManager(context, null, null, network, transmitter, receiver);
+    DispatchThreadContext dispatchThreadContext =
+        PowerMock.createNiceMock(DispatchThreadContext.class);
+
+    manager =
+        new SarosSessionManager(
+            context, null, null, network, transmitter, receiver, dispatchThreadContext);
   }
 
   @Test
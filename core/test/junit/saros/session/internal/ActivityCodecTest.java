@@ -0,0 +1,480 @@
+package saros.session.internal;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apache.log4j.Logger;
+import org.easymock.EasyMock;
+import org.jivesoftware.smack.packet.PacketExtension;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import saros.activities.BlockChecksumActivity;
+import saros.activities.ChangeColorActivity;
+import saros.activities.ChecksumActivity;
+import saros.activities.ChecksumErrorActivity;
+import saros.activities.ChecksumTreeActivity;
+import saros.activities.DeletionAcknowledgmentActivity;
+import saros.activities.EditorActivity;
+import saros.activities.FileActivity;
+import saros.activities.FolderCreatedActivity;
+import saros.activities.FolderDeletedActivity;
+import saros.activities.IActivity;
+import saros.activities.JupiterActivity;
+import saros.activities.NOPActivity;
+import saros.activities.PermissionActivity;
+import saros.activities.ProgressActivity;
+import saros.activities.StartFollowingActivity;
+import saros.activities.StopActivity;
+import saros.activities.StopFollowingActivity;
+import saros.activities.TargetedFileActivity;
+import saros.activities.TextRecoveryActivity;
+import saros.activities.TextSelectionActivity;
+import saros.activities.ViewportActivity;
+import saros.communication.extensions.ActivitiesExtension;
+import saros.communication.extensions.BinaryActivitiesExtension;
+import saros.concurrent.jupiter.Operation;
+import saros.concurrent.jupiter.internal.JupiterVectorTime;
+import saros.concurrent.jupiter.internal.text.DeleteOperation;
+import saros.concurrent.jupiter.internal.text.InsertOperation;
+import saros.concurrent.jupiter.internal.text.NoOperation;
+import saros.concurrent.jupiter.internal.text.OperationComposer;
+import saros.concurrent.jupiter.internal.text.SplitOperation;
+import saros.editor.text.TextPosition;
+import saros.editor.text.TextSelection;
+import saros.filesystem.IFile;
+import saros.filesystem.IFolder;
+import saros.filesystem.IPath;
+import saros.filesystem.IPathFactory;
+import saros.filesystem.IReferencePoint;
+import saros.filesystem.IResource.Type;
+import saros.misc.xstream.ResourceTransportWrapperConverter;
+import saros.misc.xstream.UserConverter;
+import saros.net.xmpp.JID;
+import saros.session.ISarosSession;
+import saros.session.User;
+import saros.session.User.Permission;
+
+public class ActivityCodecTest {
+
+  private static final Logger log = Logger.getLogger(ActivityCodecTest.class);
+
+  private static final String SESSION_ID = "0815";
+
+  private User alice;
+  private User bob;
+
+  private IFile file;
+  private IFolder folder;
+
+  private ISarosSession session;
+  private IPathFactory pathFactory;
+
+  private ActivityCodec codec;
+
+  @Before
+  public void setUp() {
+    alice = new User(new JID("alice@test/Saros"), true, true, null);
+    bob = new User(new JID("bob@test/Saros"), false, false, null);
+
+    IPath filePath = EasyMock.createMock(IPath.class);
+    IPath folderPath = EasyMock.createMock(IPath.class);
+    IReferencePoint referencePoint = EasyMock.createNiceMock(IReferencePoint.class);
+
+    pathFactory = EasyMock.createMock(IPathFactory.class);
+    file = EasyMock.createNiceMock(IFile.class);
+    folder = EasyMock.createNiceMock(IFolder.class);
+
+    expect(filePath.isAbsolute()).andStubReturn(false);
+    expect(folderPath.isAbsolute()).andStubReturn(false);
+
+    expect(pathFactory.fromPath(filePath)).andStubReturn("src/Main.java");
+    expect(pathFactory.fromString("src/Main.java")).andStubReturn(filePath);
+    expect(pathFactory.fromPath(folderPath)).andStubReturn("src/foo");
+    expect(pathFactory.fromString("src/foo")).andStubReturn(folderPath);
+
+    expect(referencePoint.getFile(filePath)).andStubReturn(file);
+    expect(referencePoint.getFolder(folderPath)).andStubReturn(folder);
+
+    expect(file.getReferencePoint()).andStubReturn(referencePoint);
+    expect(file.getReferencePointRelativePath()).andStubReturn(filePath);
+    expect(file.getType()).andStubReturn(Type.FILE);
+
+    expect(folder.getReferencePoint()).andStubReturn(referencePoint);
+    expect(folder.getReferencePointRelativePath()).andStubReturn(folderPath);
+    expect(folder.getType()).andStubReturn(Type.FOLDER);
+
+    session = EasyMock.createNiceMock(ISarosSession.class);
+
+    expect(session.getID()).andStubReturn(SESSION_ID);
+    expect(session.getReferencePointId(referencePoint)).andStubReturn("RP");
+    expect(session.getReferencePoint("RP")).andStubReturn(referencePoint);
+    expect(session.getUser(alice.getJID())).andStubReturn(alice);
+    expect(session.getUser(bob.getJID())).andStubReturn(bob);
+
+    EasyMock.replay(filePath, folderPath, referencePoint, pathFactory, file, folder, session);
+
+    codec = new ActivityCodec(session, pathFactory);
+    codec.start();
+  }
+
+  @After
+  public void tearDown() {
+    codec.stop();
+  }
+
+  @Test
+  public void testRoundTripAllActivities() throws Exception {
+    final List<IActivity> activities = createActivities();
+
+    final List<IActivity> decoded = roundTrip(activities);
+
+    assertEquals(activities.size(), decoded.size());
+
+    for (int i = 0; i < activities.size(); i++) {
+      final IActivity expected = activities.get(i);
+      final IActivity actual = decoded.get(i);
+
+      assertEquals(expected.getClass(), actual.getClass());
+      assertEquals(expected.getSource(), actual.getSource());
+      assertEquals(expected.toString(), actual.toString());
+    }
+  }
+
+  @Test
+  public void testRoundTripJupiterActivities() throws Exception {
+    final List<IActivity> activities = createJupiterActivities(64);
+
+    assertEquals(activities, roundTrip(activities));
+  }
+
+  @Test
+  public void testNestedSplitOperationsAreFlattened() throws Exception {
+    Operation operation = new InsertOperation(new TextPosition(0, 0), 0, 1, "a");
+
+    for (int i = 1; i < 1000; i++)
+      operation =
+          new SplitOperation(operation, new InsertOperation(new TextPosition(0, i), 0, 1, "a"));
+
+    final List<IActivity> decoded =
+        roundTrip(
+            Collections.<IActivity>singletonList(
+                new JupiterActivity(new JupiterVectorTime(1, 2), operation, alice, file)));
+
+    final Operation decodedOperation = ((JupiterActivity) decoded.get(0)).getOperation();
+
+    assertEquals(
+        OperationComposer.compose(OperationComposer.flatten(operation)), decodedOperation);
+    assertEquals(operation.getTextOperations(), decodedOperation.getTextOperations());
+  }
+
+  @Test
+  public void testRoundTripOverExtension() throws Exception {
+    final List<IActivity> activities = createActivities();
+
+    final BinaryActivitiesExtension extension =
+        new BinaryActivitiesExtension(SESSION_ID, activities, 42);
+
+    final BinaryActivitiesExtension copy =
+        (BinaryActivitiesExtension)
+            BinaryActivitiesExtension.PROVIDER.parseExtension(
+                ByteBuffer.wrap(extension.toByteArray()));
+
+    assertEquals(SESSION_ID, copy.getSessionID());
+    assertEquals(42, copy.getSequenceNumber());
+    assertEquals(activities.size(), copy.getActivityCount());
+    assertEquals(activities.size(), copy.getActivities().size());
+  }
+
+  @Test
+  public void testSharedEncodingKeepsSequenceNumbers() throws Exception {
+    final List<IActivity> activities = createActivities();
+
+    final BinaryActivitiesExtension.EncodedActivities encodedActivities =
+        new BinaryActivitiesExtension.EncodedActivities(activities);
+
+    final BinaryActivitiesExtension first =
+        new BinaryActivitiesExtension(SESSION_ID, encodedActivities, 7);
+
+    final BinaryActivitiesExtension second =
+        new BinaryActivitiesExtension(SESSION_ID, encodedActivities, 42);
+
+    final BinaryActivitiesExtension firstCopy =
+        (BinaryActivitiesExtension)
+            BinaryActivitiesExtension.PROVIDER.parseExtension(
+                ByteBuffer.wrap(first.toByteArray()));
+
+    final BinaryActivitiesExtension secondCopy =
+        (BinaryActivitiesExtension)
+            BinaryActivitiesExtension.PROVIDER.parseExtension(
+                ByteBuffer.wrap(second.toByteArray()));
+
+    assertEquals(7, firstCopy.getSequenceNumber());
+    assertEquals(42, secondCopy.getSequenceNumber());
+    assertEquals(activities.size(), firstCopy.getActivities().size());
+    assertEquals(activities.size(), secondCopy.getActivities().size());
+
+    assertArrayEquals(
+        new BinaryActivitiesExtension(SESSION_ID, activities, 42).toByteArray(),
+        second.toByteArray());
+  }
+
+  @Test
+  public void testUnknownUserIsDroppedButCounted() throws Exception {
+    final User carl = new User(new JID("carl@test/Saros"), false, false, null);
+
+    final List<IActivity> activities =
+        Arrays.<IActivity>asList(
+            new NOPActivity(alice, bob, 1),
+            new NOPActivity(carl, bob, 2),
+            new NOPActivity(alice, bob, 3));
+
+    final BinaryActivitiesExtension copy =
+        (BinaryActivitiesExtension)
+            BinaryActivitiesExtension.PROVIDER.parseExtension(
+                ByteBuffer.wrap(
+                    new BinaryActivitiesExtension(SESSION_ID, activities, 0).toByteArray()));
+
+    assertEquals(3, copy.getActivityCount());
+    assertEquals(2, copy.getActivities().size());
+  }
+
+  @Test
+  public void testInvalidActivityCountIsRejected() throws Exception {
+    for (final int count : new int[] {-1, Integer.MAX_VALUE}) {
+      final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      final DataOutputStream out = new DataOutputStream(bos);
+
+      ActivityCodec.writeVarInt(out, count);
+      out.writeByte(0);
+
+      try {
+        codec.decode(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+        fail("activity count " + count + " was accepted");
+      } catch (ProtocolException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testVarInt() throws Exception {
+    final int[] values = {
+      0, 1, -1, 63, 64, -64, -65, 8191, 8192, Integer.MAX_VALUE, Integer.MIN_VALUE
+    };
+
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bos);
+
+    for (final int value : values) ActivityCodec.writeVarInt(out, value);
+
+    ActivityCodec.writeString(out, null);
+    ActivityCodec.writeString(out, "");
+    ActivityCodec.writeString(out, "äöü");
+
+    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bos.toByteArray()));
+
+    for (final int value : values) assertEquals(value, ActivityCodec.readVarInt(in));
+
+    assertNull(ActivityCodec.readString(in));
+    assertEquals("", ActivityCodec.readString(in));
+    assertEquals("äöü", ActivityCodec.readString(in));
+  }
+
+  /**
+   * Compares the binary format against the XML format. The sizes are asserted, the throughput is
+   * only logged as it depends too much on the machine that executes the test.
+   */
+  @Test
+  public void testBinaryFormatIsSmallerThanXML() throws Exception {
+    final UserConverter userConverter = new UserConverter(session);
+    final ResourceTransportWrapperConverter resourceConverter =
+        new ResourceTransportWrapperConverter(session, pathFactory);
+
+    userConverter.start();
+    resourceConverter.start();
+
+    try {
+      compareFormats("typing", createJupiterActivities(256));
+      compareFormats("mixed", createActivities());
+    } finally {
+      resourceConverter.stop();
+      userConverter.stop();
+    }
+  }
+
+  private void compareFormats(final String name, final List<IActivity> activities)
+      throws Exception {
+    final int rounds = 50;
+
+    PacketExtension xmlExtension = null;
+    byte[] xml = null;
+
+    long start = System.nanoTime();
+
+    for (int i = 0; i < rounds; i++) {
+      xmlExtension =
+          ActivitiesExtension.PROVIDER.create(new ActivitiesExtension(SESSION_ID, activities, 0));
+      xml = xmlExtension.toXML().getBytes("UTF-8");
+    }
+
+    final long xmlTime = System.nanoTime() - start;
+
+    byte[] binary = null;
+
+    start = System.nanoTime();
+
+    for (int i = 0; i < rounds; i++) {
+      binary = new BinaryActivitiesExtension(SESSION_ID, activities, 0).toByteArray();
+      BinaryActivitiesExtension.PROVIDER.parseExtension(ByteBuffer.wrap(binary));
+    }
+
+    final long binaryTime = System.nanoTime() - start;
+
+    log.info(
+        String.format(
+            "%s (%d activities): XML %d bytes (%.2f ms encode), binary %d bytes (%.2f ms encode +"
+                + " decode)",
+            name,
+            activities.size(),
+            xml.length,
+            xmlTime / (rounds * 1E6),
+            binary.length,
+            binaryTime / (rounds * 1E6)));
+
+    assertTrue(
+        "binary format is not smaller than XML: " + binary.length + " >= " + xml.length,
+        binary.length < xml.length);
+  }
+
+  private List<IActivity> roundTrip(final List<IActivity> activities) throws IOException {
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bos);
+
+    codec.encode(activities, out);
+    out.flush();
+
+    final ActivityCodec.DecodeResult result =
+        codec.decode(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+
+    assertEquals(activities.size(), result.getActivityCount());
+
+    return result.getActivities();
+  }
+
+  private List<IActivity> createJupiterActivities(final int count) {
+    final List<IActivity> activities = new ArrayList<IActivity>(count);
+
+    for (int i = 0; i < count; i++) {
+      activities.add(
+          new JupiterActivity(
+              new JupiterVectorTime(i, 3),
+              new InsertOperation(new TextPosition(10, i), 0, 1, "a"),
+              alice,
+              file));
+    }
+
+    return activities;
+  }
+
+  private List<IActivity> createActivities() {
+    final TextPosition start = new TextPosition(1, 2);
+    final TextPosition end = new TextPosition(3, 4);
+
+    final List<IActivity> activities = new ArrayList<IActivity>();
+
+    activities.add(
+        new BlockChecksumActivity(
+            alice, bob, file, "R1", 64, TextRecoveryActivity.END_OF_DOCUMENT, 4, 0, null));
+    activities.add(
+        new BlockChecksumActivity(
+            bob, alice, file, "R1", 64, 96, 4, 6, new long[] {0x1234CAFEL, -1L}));
+    activities.add(new ChangeColorActivity(alice, bob, alice, 3));
+    activities.add(new ChecksumActivity(alice, file, 0xCAFEBABEL, 1024, null));
+    activities.add(new ChecksumActivity(alice, file, -1, -1, new JupiterVectorTime(3, 4)));
+    activities.add(new ChecksumErrorActivity(bob, alice, Collections.singletonList(file), "R1"));
+    activities.add(
+        new ChecksumTreeActivity(
+            alice, bob, file, "R1", 300, 1, new int[] {0, 7}, new long[] {-1L, 0x1234CAFEL}));
+    activities.add(new ChecksumTreeActivity(bob, alice, file, "R1", 300, 1, null, null));
+    activities.add(new DeletionAcknowledgmentActivity(bob, file));
+    activities.add(new EditorActivity(alice, EditorActivity.Type.ACTIVATED, null));
+    activities.add(new EditorActivity(alice, EditorActivity.Type.SAVED, file));
+    activities.add(
+        new FileActivity(
+            alice,
+            FileActivity.Type.CREATED,
+            FileActivity.Purpose.ACTIVITY,
+            file,
+            null,
+            new byte[] {1, 2, 3},
+            "UTF-8"));
+    activities.add(
+        new FileActivity(
+            alice,
+            FileActivity.Type.REMOVED,
+            FileActivity.Purpose.ACTIVITY,
+            file,
+            null,
+            null,
+            null));
+    activities.add(new FolderCreatedActivity(alice, folder));
+    activities.add(new FolderDeletedActivity(alice, folder));
+    activities.add(
+        new JupiterActivity(
+            new JupiterVectorTime(1, 2),
+            new SplitOperation(
+                new DeleteOperation(start, 0, 3, "abc"), new InsertOperation(start, 0, 2, "xy")),
+            alice,
+            file));
+    activities.add(new JupiterActivity(new JupiterVectorTime(2, 2), new NoOperation(), bob, file));
+    activities.add(new NOPActivity(alice, bob, 7));
+    activities.add(new PermissionActivity(alice, bob, Permission.READONLY_ACCESS));
+    activities.add(
+        new ProgressActivity(
+            alice, bob, "P1", 5, 10, "syncing", ProgressActivity.ProgressAction.UPDATE));
+    activities.add(new StartFollowingActivity(bob, alice));
+    activities.add(new StopFollowingActivity(bob));
+    activities.add(
+        new TextRecoveryActivity(
+            alice,
+            bob,
+            file,
+            new int[] {0, 64},
+            new int[] {32, TextRecoveryActivity.END_OF_DOCUMENT},
+            new String[] {"abc\n", ""}));
+    activities.add(
+        new StopActivity(
+            alice, alice, bob, StopActivity.Type.LOCKREQUEST, StopActivity.State.INITIATED, "S1"));
+    activities.add(
+        new TargetedFileActivity(
+            alice,
+            bob,
+            FileActivity.Type.CREATED,
+            file,
+            null,
+            new byte[0],
+            "UTF-8",
+            FileActivity.Purpose.RECOVERY));
+    activities.add(new TextSelectionActivity(alice, new TextSelection(start, end, true), file));
+    activities.add(new TextSelectionActivity(alice, TextSelection.EMPTY_SELECTION, file));
+    activities.add(new ViewportActivity(bob, 10, 40, file));
+
+    return activities;
+  }
+}
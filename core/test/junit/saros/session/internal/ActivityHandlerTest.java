@@ -8,6 +8,7 @@ import static org.junit.Assert.fail;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import org.easymock.EasyMock;
@@ -37,6 +38,7 @@ import saros.activities.TextSelectionActivity;
 import saros.activities.ViewportActivity;
 import saros.concurrent.management.ConcurrentDocumentClient;
 import saros.concurrent.management.ConcurrentDocumentServer;
+import saros.editor.text.TextPosition;
 import saros.filesystem.IFile;
 import saros.filesystem.IFolder;
 import saros.filesystem.IReferencePoint;
@@ -268,6 +270,113 @@ public class ActivityHandlerTest {
     }
   }
 
+  /** This tests that consecutive text edits are merged until a different activity is sent. */
+  @Test
+  public void ClientSendCoalescesTextEditsTest() {
+
+    final List<IActivity> sent = new CopyOnWriteArrayList<IActivity>();
+
+    final ActivityHandler coalescingHandler = createCoalescingHandler(sent, 60000);
+
+    final IFile file = EasyMock.createNiceMock(IFile.class);
+
+    final ViewportActivity viewport = new ViewportActivity(alice, 0, 1, file);
+
+    coalescingHandler.start();
+
+    try {
+      coalescingHandler.handleOutgoingActivities(Collections.singletonList(edit(0, "a", file)));
+
+      assertEquals("first text edit was not sent immediately", 1, sent.size());
+
+      coalescingHandler.handleOutgoingActivities(Collections.singletonList(edit(1, "b", file)));
+      coalescingHandler.handleOutgoingActivities(Collections.singletonList(edit(2, "c", file)));
+
+      assertEquals("text edits were not held back", 1, sent.size());
+
+      coalescingHandler.handleOutgoingActivities(Collections.<IActivity>singletonList(viewport));
+
+      assertEquals(3, sent.size());
+      assertEquals(edit(0, "a", file), sent.get(0));
+      assertEquals(edit(1, "bc", file), sent.get(1));
+      assertEquals(viewport, sent.get(2));
+    } finally {
+      coalescingHandler.stop();
+    }
+  }
+
+  /** This tests that text edits which are held back are sent after the coalescing delay. */
+  @Test
+  public void ClientSendFlushesTextEditsTest() throws InterruptedException {
+
+    final List<IActivity> sent = new CopyOnWriteArrayList<IActivity>();
+
+    final ActivityHandler coalescingHandler = createCoalescingHandler(sent, 10);
+
+    final IFile file = EasyMock.createNiceMock(IFile.class);
+
+    coalescingHandler.start();
+
+    try {
+      coalescingHandler.handleOutgoingActivities(Collections.singletonList(edit(0, "a", file)));
+      coalescingHandler.handleOutgoingActivities(Collections.singletonList(edit(1, "b", file)));
+
+      final long timeout = System.currentTimeMillis() + 10000;
+
+      while (sent.size() < 2 && System.currentTimeMillis() < timeout) Thread.sleep(10);
+
+      assertEquals("held back text edit was not sent", 2, sent.size());
+      assertEquals(edit(1, "b", file), sent.get(1));
+    } finally {
+      coalescingHandler.stop();
+    }
+  }
+
+  private IActivity edit(int offset, String text, IFile file) {
+    return TextEditActivity.buildTextEditActivity(
+        alice, new TextPosition(0, offset), text, "", file);
+  }
+
+  /**
+   * Creates a handler whose document client does not change any activity and that records the sent
+   * activities.
+   */
+  private ActivityHandler createCoalescingHandler(final List<IActivity> sent, long delay) {
+
+    ISarosSession sessionMock = EasyMock.createNiceMock(ISarosSession.class);
+    EasyMock.expect(sessionMock.getHost()).andStubReturn(alice);
+    EasyMock.replay(sessionMock);
+
+    ConcurrentDocumentClient client = EasyMock.createNiceMock(ConcurrentDocumentClient.class);
+    EasyMock.expect(client.transformToJupiter(EasyMock.anyObject(IActivity.class)))
+        .andAnswer(
+            new IAnswer<IActivity>() {
+              @Override
+              public IActivity answer() throws Throwable {
+                return (IActivity) EasyMock.getCurrentArguments()[0];
+              }
+            })
+        .anyTimes();
+    EasyMock.replay(client);
+
+    IActivityHandlerCallback recordingCallback =
+        new IActivityHandlerCallback() {
+
+          @Override
+          public void send(List<User> recipients, IActivity activity) {
+            sent.add(activity);
+          }
+
+          @Override
+          public void execute(IActivity activity) {
+            // NOP
+          }
+        };
+
+    return new ActivityHandler(
+        sessionMock, recordingCallback, null, client, synchronizer, delay, 0, 0);
+  }
+
   /**
    * Specifies the roles of participants in the session. Should be called at the start of every test
    * case
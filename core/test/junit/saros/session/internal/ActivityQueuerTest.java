@@ -13,6 +13,8 @@ import org.easymock.EasyMock;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import saros.activities.BlockChecksumActivity;
+import saros.activities.ChecksumTreeActivity;
 import saros.activities.EditorActivity;
 import saros.activities.FolderCreatedActivity;
 import saros.activities.FolderDeletedActivity;
@@ -199,6 +201,81 @@ public class ActivityQueuerTest {
   }
 
   // http://sourceforge.net/p/dpp/bugs/808/
+  @Test
+  public void testDocumentQueuing() {
+    activityQueuer.enableQueuing(FOO_FILE_SHARED_REFERENCE_POINT, ALICE);
+
+    final IActivity activityToBeQueued = createJupiterActivity(FOO_FILE_SHARED_REFERENCE_POINT);
+    final IActivity otherFileActivity = createJupiterActivity(BAR_FILE_SHARED_REFERENCE_POINT);
+    final IActivity editorActivity =
+        new EditorActivity(BOB, EditorActivity.Type.SAVED, FOO_FILE_SHARED_REFERENCE_POINT);
+    final IActivity otherFileEditorActivity =
+        new EditorActivity(BOB, EditorActivity.Type.SAVED, BAR_FILE_SHARED_REFERENCE_POINT);
+
+    // the save must not be executed before the edit that precedes it
+    List<IActivity> result =
+        activityQueuer.process(
+            Arrays.asList(
+                activityToBeQueued, otherFileActivity, editorActivity, otherFileEditorActivity));
+
+    assertListsAreEqual(Arrays.asList(otherFileActivity, otherFileEditorActivity), result);
+
+    activityQueuer.disableQueuing(FOO_FILE_SHARED_REFERENCE_POINT);
+
+    final IActivity activityNotToBeQueued =
+        createJupiterActivity(FOO_FILE_SHARED_REFERENCE_POINT);
+
+    result = activityQueuer.process(Collections.singletonList(activityNotToBeQueued));
+
+    assertListsAreEqual(
+        Arrays.asList(activityToBeQueued, editorActivity, activityNotToBeQueued), result);
+
+    result = activityQueuer.process(Collections.singletonList(activityToBeQueued));
+
+    assertListsAreEqual(Collections.singletonList(activityToBeQueued), result);
+  }
+
+  @Test
+  public void testHostEditsDuringDocumentQueuing() {
+    activityQueuer.enableQueuing(FOO_FILE_SHARED_REFERENCE_POINT, ALICE);
+
+    final IActivity remoteEdit = createJupiterActivity(FOO_FILE_SHARED_REFERENCE_POINT);
+    final IActivity hostEdit =
+        new JupiterActivity(
+            new JupiterVectorTime(1, 0), new NoOperation(), ALICE, FOO_FILE_SHARED_REFERENCE_POINT);
+
+    // the host's edit is already contained in its document and must not be applied after recovery
+    List<IActivity> result = activityQueuer.process(Arrays.asList(remoteEdit, hostEdit));
+
+    assertListsAreEqual(Collections.singletonList(hostEdit), result);
+
+    activityQueuer.disableQueuing(FOO_FILE_SHARED_REFERENCE_POINT);
+
+    result = activityQueuer.process(Collections.<IActivity>emptyList());
+
+    assertListsAreEqual(Collections.singletonList(remoteEdit), result);
+  }
+
+  @Test
+  public void testRecoveryRepliesAreNotQueued() {
+    activityQueuer.enableQueuing(FOO_FILE_SHARED_REFERENCE_POINT, ALICE);
+
+    final IActivity blockChecksum =
+        new BlockChecksumActivity(
+            BOB, ALICE, FOO_FILE_SHARED_REFERENCE_POINT, "recovery", 0, 0, 4, 0, null);
+
+    final IActivity checksumTree =
+        new ChecksumTreeActivity(
+            BOB, ALICE, FOO_FILE_SHARED_REFERENCE_POINT, "recovery", 1, 0, null, null);
+
+    final List<IActivity> result =
+        activityQueuer.process(Arrays.asList(blockChecksum, checksumTree));
+
+    assertListsAreEqual(Arrays.asList(blockChecksum, checksumTree), result);
+
+    activityQueuer.disableQueuing(FOO_FILE_SHARED_REFERENCE_POINT);
+  }
+
   @Test
   public void testHackForBug808() {
     final IActivity fooExpectedEditorADO =
@@ -10,15 +10,20 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import org.easymock.Capture;
 import org.easymock.EasyMock;
+import org.jivesoftware.smack.packet.Packet;
 import org.jivesoftware.smack.packet.PacketExtension;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import saros.activities.IActivity;
 import saros.activities.NOPActivity;
+import saros.net.IConnectionManager;
 import saros.net.IReceiver;
 import saros.net.ITransmitter;
 import saros.net.xmpp.JID;
@@ -96,7 +101,7 @@ public class ActivitySequencerTest {
   @Test(timeout = 30000)
   public void testStartAndStop() {
     ActivitySequencer sequencer =
-        new ActivitySequencer(sessionStubAlice, aliceTransmitter, aliceReceiver, null);
+        new ActivitySequencer(sessionStubAlice, aliceTransmitter, aliceReceiver, null, null);
 
     sequencer.start();
     sequencer.stop();
@@ -105,7 +110,7 @@ public class ActivitySequencerTest {
   @Test(timeout = 30000, expected = IllegalStateException.class)
   public void testMultipleStarts() {
     ActivitySequencer sequencer =
-        new ActivitySequencer(sessionStubAlice, aliceTransmitter, aliceReceiver, null);
+        new ActivitySequencer(sessionStubAlice, aliceTransmitter, aliceReceiver, null, null);
 
     for (int i = 0; i < Integer.MAX_VALUE; i++) sequencer.start();
   }
@@ -113,7 +118,7 @@ public class ActivitySequencerTest {
   @Test(timeout = 30000, expected = IllegalStateException.class)
   public void testStopWithoutStart() {
     ActivitySequencer sequencer =
-        new ActivitySequencer(sessionStubAlice, aliceTransmitter, aliceReceiver, null);
+        new ActivitySequencer(sessionStubAlice, aliceTransmitter, aliceReceiver, null, null);
 
     sequencer.stop();
   }
@@ -121,7 +126,7 @@ public class ActivitySequencerTest {
   @Test(timeout = 30000)
   public void testMultipleStops() {
     ActivitySequencer sequencer =
-        new ActivitySequencer(sessionStubAlice, aliceTransmitter, aliceReceiver, null);
+        new ActivitySequencer(sessionStubAlice, aliceTransmitter, aliceReceiver, null, null);
 
     sequencer.start();
     try {
@@ -152,7 +157,7 @@ public class ActivitySequencerTest {
     EasyMock.replay(brokenTransmitter);
 
     aliceSequencer =
-        new ActivitySequencer(sessionStubAlice, brokenTransmitter, aliceReceiver, null);
+        new ActivitySequencer(sessionStubAlice, brokenTransmitter, aliceReceiver, null, null);
 
     aliceSequencer.start();
 
@@ -174,9 +179,10 @@ public class ActivitySequencerTest {
 
     int activityCount = 1000;
 
-    aliceSequencer = new ActivitySequencer(sessionStubAlice, aliceTransmitter, aliceReceiver, null);
+    aliceSequencer =
+        new ActivitySequencer(sessionStubAlice, aliceTransmitter, aliceReceiver, null, null);
 
-    bobSequencer = new ActivitySequencer(sessionStubBob, bobTransmitter, bobReceiver, null);
+    bobSequencer = new ActivitySequencer(sessionStubBob, bobTransmitter, bobReceiver, null, null);
 
     aliceSequencer.start();
     bobSequencer.start();
@@ -202,9 +208,10 @@ public class ActivitySequencerTest {
   @Test(timeout = 30000)
   public void testSendWithoutRegisteredUser() {
 
-    aliceSequencer = new ActivitySequencer(sessionStubAlice, aliceTransmitter, aliceReceiver, null);
+    aliceSequencer =
+        new ActivitySequencer(sessionStubAlice, aliceTransmitter, aliceReceiver, null, null);
 
-    bobSequencer = new ActivitySequencer(sessionStubBob, bobTransmitter, bobReceiver, null);
+    bobSequencer = new ActivitySequencer(sessionStubBob, bobTransmitter, bobReceiver, null, null);
 
     aliceSequencer.start();
     bobSequencer.start();
@@ -226,9 +233,10 @@ public class ActivitySequencerTest {
   @Test(timeout = 30000)
   public void testReceiveWithoutRegisteredUser() {
 
-    aliceSequencer = new ActivitySequencer(sessionStubAlice, aliceTransmitter, aliceReceiver, null);
+    aliceSequencer =
+        new ActivitySequencer(sessionStubAlice, aliceTransmitter, aliceReceiver, null, null);
 
-    bobSequencer = new ActivitySequencer(sessionStubBob, bobTransmitter, bobReceiver, null);
+    bobSequencer = new ActivitySequencer(sessionStubBob, bobTransmitter, bobReceiver, null, null);
 
     aliceSequencer.start();
     bobSequencer.start();
@@ -250,10 +258,11 @@ public class ActivitySequencerTest {
   @Test(timeout = 30000)
   public void testSendAndReceiveWithDifferendSessionIDs() {
 
-    aliceSequencer = new ActivitySequencer(sessionStubAlice, aliceTransmitter, aliceReceiver, null);
+    aliceSequencer =
+        new ActivitySequencer(sessionStubAlice, aliceTransmitter, aliceReceiver, null, null);
 
     bobSessionId.set("4711");
-    bobSequencer = new ActivitySequencer(sessionStubBob, bobTransmitter, bobReceiver, null);
+    bobSequencer = new ActivitySequencer(sessionStubBob, bobTransmitter, bobReceiver, null, null);
 
     aliceSequencer.start();
     bobSequencer.start();
@@ -273,6 +282,427 @@ public class ActivitySequencerTest {
         bobReceivedActivitiesBuffer.size());
   }
 
+  @Test(timeout = 30000)
+  public void testSlowRecipientDoesNotDelayOtherRecipients() throws Exception {
+
+    final JID carlJID = new JID("carl@test/Saros");
+    final User carlUserInAliceSession = new User(carlJID, false, false, null);
+
+    final CountDownLatch carlBlocked = new CountDownLatch(1);
+    final CountDownLatch releaseCarl = new CountDownLatch(1);
+    final CountDownLatch bobReceived = new CountDownLatch(1);
+
+    ITransmitter transmitter =
+        createBlockingTransmitter(carlJID, carlBlocked, releaseCarl, bobReceived);
+
+    aliceSequencer =
+        new ActivitySequencer(sessionStubAlice, transmitter, aliceReceiver, null, null);
+
+    aliceSequencer.start();
+
+    aliceSequencer.registerUser(bobUserInAliceSession);
+    aliceSequencer.registerUser(carlUserInAliceSession);
+
+    aliceSequencer.sendActivity(
+        Collections.singletonList(carlUserInAliceSession),
+        new NOPActivity(aliceUser, carlUserInAliceSession, 0));
+
+    assertTrue("carl was not contacted", carlBlocked.await(10, TimeUnit.SECONDS));
+
+    aliceSequencer.sendActivity(
+        Collections.singletonList(carlUserInAliceSession),
+        new NOPActivity(aliceUser, carlUserInAliceSession, 1));
+
+    aliceSequencer.sendActivity(
+        Collections.singletonList(bobUserInAliceSession),
+        new NOPActivity(aliceUser, bobUserInAliceSession, 0));
+
+    assertTrue("bob was delayed by carl", bobReceived.await(10, TimeUnit.SECONDS));
+
+    assertEquals(2, aliceSequencer.getQueueSize(carlUserInAliceSession));
+
+    releaseCarl.countDown();
+
+    aliceSequencer.flush(carlUserInAliceSession);
+    aliceSequencer.flush(bobUserInAliceSession);
+
+    assertEquals(0, aliceSequencer.getQueueSize(carlUserInAliceSession));
+    assertEquals(0, aliceSequencer.getQueueSize(bobUserInAliceSession));
+    assertEquals(0, aliceSequencer.getLag(carlUserInAliceSession));
+  }
+
+  @Test(timeout = 30000)
+  public void testFullBufferDisconnectsRecipient() throws Exception {
+
+    final JID carlJID = new JID("carl@test/Saros");
+    final User carlUserInAliceSession = new User(carlJID, false, false, null);
+
+    final CountDownLatch carlBlocked = new CountDownLatch(1);
+    final CountDownLatch releaseCarl = new CountDownLatch(1);
+
+    final List<JID> failedRecipients = Collections.synchronizedList(new ArrayList<>());
+
+    ITransmitter transmitter =
+        createBlockingTransmitter(carlJID, carlBlocked, releaseCarl, new CountDownLatch(1));
+
+    System.setProperty("saros.session.MAX_OUTGOING_BUFFERED_ACTIVITIES", "2");
+    System.setProperty("saros.session.OUTGOING_SPILL_POLICY", "DISCONNECT");
+
+    try {
+      aliceSequencer =
+          new ActivitySequencer(sessionStubAlice, transmitter, aliceReceiver, null, null);
+    } finally {
+      System.clearProperty("saros.session.MAX_OUTGOING_BUFFERED_ACTIVITIES");
+      System.clearProperty("saros.session.OUTGOING_SPILL_POLICY");
+    }
+
+    aliceSequencer.setCallback(failedRecipients::add);
+
+    aliceSequencer.start();
+
+    aliceSequencer.registerUser(carlUserInAliceSession);
+
+    aliceSequencer.sendActivity(
+        Collections.singletonList(carlUserInAliceSession),
+        new NOPActivity(aliceUser, carlUserInAliceSession, 0));
+
+    assertTrue("carl was not contacted", carlBlocked.await(10, TimeUnit.SECONDS));
+
+    for (int i = 1; i <= 2; i++)
+      aliceSequencer.sendActivity(
+          Collections.singletonList(carlUserInAliceSession),
+          new NOPActivity(aliceUser, carlUserInAliceSession, i));
+
+    assertTrue("carl is not registered", aliceSequencer.isUserRegistered(carlUserInAliceSession));
+
+    assertEquals(2, aliceSequencer.getHighWaterMark(carlUserInAliceSession));
+
+    aliceSequencer.sendActivity(
+        Collections.singletonList(carlUserInAliceSession),
+        new NOPActivity(aliceUser, carlUserInAliceSession, 3));
+
+    assertFalse(
+        "carl is still registered", aliceSequencer.isUserRegistered(carlUserInAliceSession));
+
+    assertEquals(Collections.singletonList(carlJID), failedRecipients);
+
+    releaseCarl.countDown();
+  }
+
+  @Test(timeout = 30000)
+  public void testFullBufferDoesNotBlockProducerByDefault() throws Exception {
+
+    final JID carlJID = new JID("carl@test/Saros");
+    final User carlUserInAliceSession = new User(carlJID, false, false, null);
+
+    final CountDownLatch carlBlocked = new CountDownLatch(1);
+    final CountDownLatch releaseCarl = new CountDownLatch(1);
+
+    final List<JID> failedRecipients = Collections.synchronizedList(new ArrayList<>());
+
+    ITransmitter transmitter =
+        createBlockingTransmitter(carlJID, carlBlocked, releaseCarl, new CountDownLatch(1));
+
+    System.setProperty("saros.session.MAX_OUTGOING_BUFFERED_ACTIVITIES", "2");
+
+    try {
+      aliceSequencer =
+          new ActivitySequencer(sessionStubAlice, transmitter, aliceReceiver, null, null);
+    } finally {
+      System.clearProperty("saros.session.MAX_OUTGOING_BUFFERED_ACTIVITIES");
+    }
+
+    aliceSequencer.setCallback(failedRecipients::add);
+
+    aliceSequencer.start();
+
+    aliceSequencer.registerUser(carlUserInAliceSession);
+
+    aliceSequencer.sendActivity(
+        Collections.singletonList(carlUserInAliceSession),
+        new NOPActivity(aliceUser, carlUserInAliceSession, 0));
+
+    assertTrue("carl was not contacted", carlBlocked.await(10, TimeUnit.SECONDS));
+
+    // the buffer is full after two activities, the next two are buffered beyond the limit
+    for (int i = 1; i <= 4; i++)
+      aliceSequencer.sendActivity(
+          Collections.singletonList(carlUserInAliceSession),
+          new NOPActivity(aliceUser, carlUserInAliceSession, i));
+
+    assertTrue("carl is not registered", aliceSequencer.isUserRegistered(carlUserInAliceSession));
+
+    assertEquals(4, aliceSequencer.getHighWaterMark(carlUserInAliceSession));
+    assertTrue(failedRecipients.isEmpty());
+
+    aliceSequencer.sendActivity(
+        Collections.singletonList(carlUserInAliceSession),
+        new NOPActivity(aliceUser, carlUserInAliceSession, 5));
+
+    assertFalse(
+        "carl is still registered", aliceSequencer.isUserRegistered(carlUserInAliceSession));
+
+    assertEquals(Collections.singletonList(carlJID), failedRecipients);
+
+    releaseCarl.countDown();
+  }
+
+  @Test(timeout = 30000)
+  public void testFullBufferBlocksProducerUntilDrained() throws Exception {
+
+    final JID carlJID = new JID("carl@test/Saros");
+    final User carlUserInAliceSession = new User(carlJID, false, false, null);
+
+    final CountDownLatch carlBlocked = new CountDownLatch(1);
+    final CountDownLatch releaseCarl = new CountDownLatch(1);
+    final CountDownLatch producerDone = new CountDownLatch(1);
+
+    ITransmitter transmitter =
+        createBlockingTransmitter(carlJID, carlBlocked, releaseCarl, new CountDownLatch(1));
+
+    System.setProperty("saros.session.MAX_OUTGOING_BUFFERED_ACTIVITIES", "1");
+    System.setProperty("saros.session.OUTGOING_SPILL_POLICY", "BLOCK");
+
+    try {
+      aliceSequencer =
+          new ActivitySequencer(sessionStubAlice, transmitter, aliceReceiver, null, null);
+    } finally {
+      System.clearProperty("saros.session.MAX_OUTGOING_BUFFERED_ACTIVITIES");
+      System.clearProperty("saros.session.OUTGOING_SPILL_POLICY");
+    }
+
+    aliceSequencer.start();
+
+    aliceSequencer.registerUser(carlUserInAliceSession);
+
+    for (int i = 0; i < 2; i++)
+      aliceSequencer.sendActivity(
+          Collections.singletonList(carlUserInAliceSession),
+          new NOPActivity(aliceUser, carlUserInAliceSession, i));
+
+    assertTrue("carl was not contacted", carlBlocked.await(10, TimeUnit.SECONDS));
+
+    Thread producer =
+        new Thread(
+            () -> {
+              aliceSequencer.sendActivity(
+                  Collections.singletonList(carlUserInAliceSession),
+                  new NOPActivity(aliceUser, carlUserInAliceSession, 2));
+
+              producerDone.countDown();
+            });
+
+    producer.start();
+
+    assertFalse(
+        "producer was not blocked by the full buffer",
+        producerDone.await(500, TimeUnit.MILLISECONDS));
+
+    releaseCarl.countDown();
+
+    assertTrue("producer is still blocked", producerDone.await(10, TimeUnit.SECONDS));
+
+    aliceSequencer.flush(carlUserInAliceSession);
+
+    assertTrue("carl is not registered", aliceSequencer.isUserRegistered(carlUserInAliceSession));
+    assertEquals(1, aliceSequencer.getHighWaterMark(carlUserInAliceSession));
+  }
+
+  @Test(timeout = 30000)
+  public void testIdleStreamIsAcknowledged() throws Exception {
+
+    IConnectionManager connectionManager = EasyMock.createNiceMock(IConnectionManager.class);
+    EasyMock.replay(connectionManager);
+
+    aliceSequencer =
+        new ActivitySequencer(
+            sessionStubAlice, aliceTransmitter, aliceReceiver, null, connectionManager);
+
+    bobSequencer = new ActivitySequencer(sessionStubBob, bobTransmitter, bobReceiver, null, null);
+
+    aliceSequencer.start();
+    bobSequencer.start();
+
+    aliceSequencer.registerUser(bobUserInAliceSession);
+    bobSequencer.registerUser(aliceUserInBobSession);
+
+    // less activities than needed for an immediate acknowledgement
+    for (int i = 0; i < 3; i++)
+      aliceSequencer.sendActivity(
+          Collections.singletonList(bobUserInAliceSession),
+          new NOPActivity(aliceUser, bobUserInAliceSession, i));
+
+    aliceSequencer.flush(bobUserInAliceSession);
+
+    while (aliceSequencer.getRetransmitWindowSize(bobUserInAliceSession) > 0) Thread.sleep(50);
+
+    assertEquals(3, bobReceivedActivitiesBuffer.size());
+  }
+
+  @Test(timeout = 30000)
+  public void testResumeAfterTransmissionFailure() {
+
+    final AtomicInteger sendCount = new AtomicInteger();
+
+    ITransmitter interruptedTransmitter =
+        new DelegatingTransmitter(aliceTransmitter) {
+          @Override
+          public void send(String connectionID, JID recipient, PacketExtension extension)
+              throws IOException {
+
+            if (sendCount.incrementAndGet() == 2) throw new IOException("connection lost");
+
+            super.send(connectionID, recipient, extension);
+          }
+        };
+
+    IConnectionManager connectionManager = EasyMock.createNiceMock(IConnectionManager.class);
+    EasyMock.replay(connectionManager);
+
+    aliceSequencer =
+        new ActivitySequencer(
+            sessionStubAlice, interruptedTransmitter, aliceReceiver, null, connectionManager);
+
+    bobSequencer = new ActivitySequencer(sessionStubBob, bobTransmitter, bobReceiver, null, null);
+
+    aliceSequencer.start();
+    bobSequencer.start();
+
+    aliceSequencer.registerUser(bobUserInAliceSession);
+    bobSequencer.registerUser(aliceUserInBobSession);
+
+    for (int i = 0; i < 3; i++) {
+      aliceSequencer.sendActivity(
+          Collections.singletonList(bobUserInAliceSession),
+          new NOPActivity(aliceUser, bobUserInAliceSession, i));
+
+      aliceSequencer.flush(bobUserInAliceSession);
+    }
+
+    assertTrue("Bob is not registered", aliceSequencer.isUserRegistered(bobUserInAliceSession));
+    assertTrue("Alice is not registered", bobSequencer.isUserRegistered(aliceUserInBobSession));
+
+    assertEquals("activities were lost or duplicated", 3, bobReceivedActivitiesBuffer.size());
+
+    for (int i = 0; i < 3; i++) {
+      NOPActivity activity = (NOPActivity) bobReceivedActivitiesBuffer.get(i);
+      assertEquals("activity is out of order", i, activity.getID());
+    }
+  }
+
+  @Test(timeout = 30000)
+  public void testDuplicateActivitiesAreDiscarded() {
+
+    ITransmitter duplicatingTransmitter =
+        new DelegatingTransmitter(aliceTransmitter) {
+          @Override
+          public void send(String connectionID, JID recipient, PacketExtension extension)
+              throws IOException {
+            super.send(connectionID, recipient, extension);
+            super.send(connectionID, recipient, extension);
+          }
+        };
+
+    aliceSequencer =
+        new ActivitySequencer(sessionStubAlice, duplicatingTransmitter, aliceReceiver, null, null);
+
+    bobSequencer = new ActivitySequencer(sessionStubBob, bobTransmitter, bobReceiver, null, null);
+
+    aliceSequencer.start();
+    bobSequencer.start();
+
+    aliceSequencer.registerUser(bobUserInAliceSession);
+    bobSequencer.registerUser(aliceUserInBobSession);
+
+    for (int i = 0; i < 3; i++) {
+      aliceSequencer.sendActivity(
+          Collections.singletonList(bobUserInAliceSession),
+          new NOPActivity(aliceUser, bobUserInAliceSession, i));
+
+      aliceSequencer.flush(bobUserInAliceSession);
+    }
+
+    assertTrue("Alice is not registered", bobSequencer.isUserRegistered(aliceUserInBobSession));
+
+    assertEquals("duplicated activities were executed", 3, bobReceivedActivitiesBuffer.size());
+  }
+
+  private static class DelegatingTransmitter implements ITransmitter {
+
+    private final ITransmitter delegate;
+
+    private DelegatingTransmitter(final ITransmitter delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void send(String connectionID, JID recipient, PacketExtension extension)
+        throws IOException {
+      delegate.send(connectionID, recipient, extension);
+    }
+
+    @Override
+    public void send(JID recipient, PacketExtension extension) throws IOException {
+      send(null, recipient, extension);
+    }
+
+    @Override
+    public void sendPacketExtension(JID jid, PacketExtension extension) {
+      delegate.sendPacketExtension(jid, extension);
+    }
+
+    @Override
+    public void sendPacket(Packet packet) throws IOException {
+      delegate.sendPacket(packet);
+    }
+  }
+
+  /**
+   * Creates a transmitter that blocks when sending to the given recipient until it is released and
+   * counts down the other latch when sending to any other recipient.
+   */
+  private static ITransmitter createBlockingTransmitter(
+      final JID blockedRecipient,
+      final CountDownLatch blocked,
+      final CountDownLatch release,
+      final CountDownLatch othersSent) {
+
+    return new ITransmitter() {
+
+      @Override
+      public void send(String connectionID, JID recipient, PacketExtension extension)
+          throws IOException {
+
+        if (recipient.equals(blockedRecipient)) {
+          blocked.countDown();
+
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            throw new IOException(e);
+          }
+        } else {
+          othersSent.countDown();
+        }
+      }
+
+      @Override
+      public void send(JID recipient, PacketExtension extension) throws IOException {
+        send(null, recipient, extension);
+      }
+
+      @Override
+      public void sendPacketExtension(JID jid, PacketExtension extension) {
+        // NOP
+      }
+
+      @Override
+      public void sendPacket(Packet packet) {
+        // NOP
+      }
+    };
+  }
+
   private static ISarosSession createSessionMock(
       final User host,
       final User client,
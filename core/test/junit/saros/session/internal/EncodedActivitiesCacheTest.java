@@ -0,0 +1,151 @@
+package saros.session.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+import saros.activities.FileActivity;
+import saros.activities.IActivity;
+import saros.activities.JupiterActivity;
+import saros.activities.NOPActivity;
+import saros.communication.extensions.BinaryActivitiesExtension.EncodedActivities;
+import saros.concurrent.jupiter.internal.JupiterVectorTime;
+import saros.concurrent.jupiter.internal.text.NoOperation;
+import saros.filesystem.IFile;
+import saros.net.xmpp.JID;
+import saros.session.User;
+
+public class EncodedActivitiesCacheTest {
+
+  private static final User ALICE = new User(new JID("alice@test/Saros"), true, true, null);
+  private static final User BOB = new User(new JID("bob@test/Saros"), false, false, null);
+
+  private static final int RECIPIENTS = 3;
+
+  private EncodedActivitiesCache cache;
+
+  @Before
+  public void setUp() {
+    cache = new EncodedActivitiesCache();
+  }
+
+  @Test
+  public void testSameActivitiesAreShared() {
+    final IActivity first = new NOPActivity(ALICE, BOB, 0);
+    final IActivity second = new NOPActivity(ALICE, BOB, 1);
+
+    final EncodedActivities encodedActivities =
+        cache.get(Arrays.asList(first, second), RECIPIENTS);
+
+    assertSame(
+        encodedActivities,
+        cache.get(new ArrayList<IActivity>(Arrays.asList(first, second)), RECIPIENTS));
+    assertEquals(1, cache.getHitCount());
+  }
+
+  @Test
+  public void testEqualActivitiesAreNotShared() {
+    final EncodedActivities encodedActivities =
+        cache.get(Arrays.<IActivity>asList(new NOPActivity(ALICE, BOB, 0)), RECIPIENTS);
+
+    assertNotSame(
+        encodedActivities,
+        cache.get(Arrays.<IActivity>asList(new NOPActivity(ALICE, BOB, 0)), RECIPIENTS));
+
+    assertEquals(0, cache.getHitCount());
+  }
+
+  @Test
+  public void testDifferentOrderIsNotShared() {
+    final IActivity first = new NOPActivity(ALICE, BOB, 0);
+    final IActivity second = new NOPActivity(ALICE, BOB, 1);
+
+    final EncodedActivities encodedActivities =
+        cache.get(Arrays.asList(first, second), RECIPIENTS);
+
+    assertNotSame(encodedActivities, cache.get(Arrays.asList(second, first), RECIPIENTS));
+    assertNotSame(encodedActivities, cache.get(Arrays.asList(first), RECIPIENTS));
+  }
+
+  @Test
+  public void testJupiterActivitiesAreNotShared() {
+    final List<IActivity> activities =
+        Arrays.<IActivity>asList(
+            new NOPActivity(ALICE, BOB, 0),
+            new JupiterActivity(
+                new JupiterVectorTime(0, 0),
+                new NoOperation(),
+                ALICE,
+                EasyMock.createNiceMock(IFile.class)));
+
+    assertNotSame(cache.get(activities, RECIPIENTS), cache.get(activities, RECIPIENTS));
+    assertEquals(0, cache.getHitCount());
+  }
+
+  @Test
+  public void testListIsCopied() {
+    final IActivity activity = new NOPActivity(ALICE, BOB, 0);
+
+    final List<IActivity> activities = new ArrayList<IActivity>(Arrays.asList(activity));
+
+    final EncodedActivities encodedActivities = cache.get(activities, RECIPIENTS);
+
+    activities.clear();
+
+    assertEquals(Arrays.asList(activity), encodedActivities.getActivities());
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEntryIsEvicted() {
+    final IActivity first = new NOPActivity(ALICE, BOB, 0);
+
+    final EncodedActivities encodedActivities = cache.get(Arrays.asList(first), RECIPIENTS);
+
+    for (int i = 1; i <= 64; i++)
+      cache.get(Arrays.<IActivity>asList(new NOPActivity(ALICE, BOB, i)), RECIPIENTS);
+
+    assertNotSame(encodedActivities, cache.get(Arrays.asList(first), RECIPIENTS));
+  }
+
+  @Test
+  public void testSingleRecipientIsNotShared() {
+    final List<IActivity> activities = Arrays.<IActivity>asList(new NOPActivity(ALICE, BOB, 0));
+
+    assertNotSame(cache.get(activities, 1), cache.get(activities, 1));
+    assertEquals(0, cache.getHitCount());
+  }
+
+  @Test
+  public void testFileActivitiesAreNotShared() {
+    final List<IActivity> activities =
+        Arrays.<IActivity>asList(
+            new FileActivity(
+                ALICE,
+                FileActivity.Type.CREATED,
+                FileActivity.Purpose.ACTIVITY,
+                EasyMock.createNiceMock(IFile.class),
+                null,
+                new byte[1024],
+                "UTF-8"));
+
+    assertNotSame(cache.get(activities, RECIPIENTS), cache.get(activities, RECIPIENTS));
+    assertEquals(0, cache.getHitCount());
+  }
+
+  @Test
+  public void testEntryIsRemovedAfterAllRecipients() {
+    final List<IActivity> activities = Arrays.<IActivity>asList(new NOPActivity(ALICE, BOB, 0));
+
+    final EncodedActivities encodedActivities = cache.get(activities, 2);
+
+    assertSame(encodedActivities, cache.get(activities, 2));
+    assertNotSame(encodedActivities, cache.get(activities, 2));
+    assertEquals(1, cache.getHitCount());
+  }
+}
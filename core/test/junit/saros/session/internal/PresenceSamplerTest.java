@@ -0,0 +1,120 @@
+package saros.session.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+import saros.activities.IActivity;
+import saros.activities.NOPActivity;
+import saros.activities.TextSelectionActivity;
+import saros.activities.ViewportActivity;
+import saros.editor.text.TextPosition;
+import saros.editor.text.TextSelection;
+import saros.filesystem.IFile;
+import saros.net.xmpp.JID;
+import saros.session.User;
+
+public class PresenceSamplerTest {
+
+  private static final User ALICE = new User(new JID("alice@test/Saros"), true, true, null);
+  private static final User BOB = new User(new JID("bob@test/Saros"), false, false, null);
+
+  private static final long INTERVAL = 50;
+
+  private PresenceSampler sampler;
+
+  private IFile fooFile;
+  private IFile barFile;
+
+  @Before
+  public void setUp() {
+    sampler = new PresenceSampler(INTERVAL);
+
+    fooFile = EasyMock.createNiceMock(IFile.class);
+    barFile = EasyMock.createNiceMock(IFile.class);
+  }
+
+  @Test
+  public void testUpdatesWithinIntervalAreHeldBack() {
+    final IActivity first = viewport(ALICE, 0, fooFile);
+    final IActivity second = viewport(ALICE, 1, fooFile);
+    final IActivity third = viewport(ALICE, 2, fooFile);
+
+    assertFalse(sampler.offer(first, 0));
+    assertTrue(sampler.offer(second, 10));
+    assertTrue(sampler.offer(third, 20));
+
+    assertEquals(Collections.singletonList(third), sampler.drain(30));
+    assertEquals(Collections.emptyList(), sampler.drain(40));
+    assertEquals(1, sampler.getSupersededCount());
+  }
+
+  @Test
+  public void testUpdateAfterIntervalPasses() {
+    final IActivity held = viewport(ALICE, 1, fooFile);
+
+    assertFalse(sampler.offer(viewport(ALICE, 0, fooFile), 0));
+    assertTrue(sampler.offer(held, 10));
+    assertFalse(sampler.offer(viewport(ALICE, 2, fooFile), INTERVAL));
+
+    assertEquals("superseded update was not dropped", 0, sampler.drain(INTERVAL).size());
+    assertEquals(1, sampler.getSupersededCount());
+  }
+
+  @Test
+  public void testDrainRestartsInterval() {
+    assertFalse(sampler.offer(viewport(ALICE, 0, fooFile), 0));
+    assertTrue(sampler.offer(viewport(ALICE, 1, fooFile), 10));
+
+    assertEquals(1, sampler.drain(20).size());
+
+    assertTrue(sampler.offer(viewport(ALICE, 2, fooFile), 30));
+    assertFalse(sampler.offer(viewport(ALICE, 3, fooFile), 20 + INTERVAL));
+  }
+
+  @Test
+  public void testIndependentUpdatesAreNotHeldBack() {
+    assertFalse(sampler.offer(viewport(ALICE, 0, fooFile), 0));
+    assertFalse(sampler.offer(viewport(ALICE, 0, barFile), 0));
+    assertFalse(sampler.offer(viewport(BOB, 0, fooFile), 0));
+    assertFalse(sampler.offer(selection(ALICE, 0, fooFile), 0));
+  }
+
+  @Test
+  public void testDrainKeepsOrder() {
+    final IActivity viewport = viewport(ALICE, 1, fooFile);
+    final IActivity selection = selection(ALICE, 1, fooFile);
+
+    assertFalse(sampler.offer(viewport(ALICE, 0, fooFile), 0));
+    assertFalse(sampler.offer(selection(ALICE, 0, fooFile), 0));
+
+    assertTrue(sampler.offer(viewport, 10));
+    assertTrue(sampler.offer(selection, 10));
+
+    assertEquals(Arrays.asList(viewport, selection), sampler.drain(20));
+  }
+
+  @Test
+  public void testOtherActivitiesAreNotSampled() {
+    final IActivity nop = new NOPActivity(ALICE, BOB, 0);
+
+    assertFalse(PresenceSampler.isPresenceUpdate(nop));
+    assertFalse(sampler.offer(nop, 0));
+    assertFalse(sampler.offer(nop, 0));
+  }
+
+  private static IActivity viewport(User source, int startLine, IFile file) {
+    return new ViewportActivity(source, startLine, 1, file);
+  }
+
+  private static IActivity selection(User source, int line, IFile file) {
+    final TextPosition position = new TextPosition(line, 0);
+
+    return new TextSelectionActivity(source, new TextSelection(position, position), file);
+  }
+}
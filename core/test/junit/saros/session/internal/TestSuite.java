@@ -5,10 +5,14 @@ import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
+  ActivityCodecTest.class,
   ActivityHandlerTest.class,
   ActivityQueuerTest.class,
   ActivitySequencerTest.class,
+  EncodedActivitiesCacheTest.class,
+  PresenceSamplerTest.class,
   SharedReferencePointMapperTest.class,
+  TransformationPipelineTest.class,
   UserInformationHandlerTest.class
 })
 public class TestSuite {
@@ -0,0 +1,221 @@
+package saros.session.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import saros.activities.ChecksumActivity;
+import saros.activities.IActivity;
+import saros.activities.JupiterActivity;
+import saros.activities.QueueItem;
+import saros.concurrent.jupiter.internal.JupiterVectorTime;
+import saros.concurrent.jupiter.internal.text.NoOperation;
+import saros.concurrent.management.ConcurrentDocumentServer;
+import saros.filesystem.IFile;
+import saros.net.xmpp.JID;
+import saros.session.ISarosSession;
+import saros.session.User;
+
+public class TransformationPipelineTest {
+
+  private static final User ALICE = new User(new JID("alice@test/Saros"), true, true, null);
+  private static final User BOB = new User(new JID("bob@test/Saros"), false, false, null);
+
+  private static final int FILE_COUNT = 4;
+
+  private List<IFile> files;
+
+  private RecordingDocumentServer documentServer;
+
+  private TransformationPipeline pipeline;
+
+  /** Records the transformed activities per file and the threads that transformed them. */
+  private static class RecordingDocumentServer extends ConcurrentDocumentServer {
+
+    private final Map<IFile, List<IActivity>> transformed = new HashMap<IFile, List<IActivity>>();
+
+    private final Set<Thread> threads = new HashSet<Thread>();
+
+    private volatile CyclicBarrier barrier;
+
+    private volatile IFile failingFile;
+
+    private volatile long delayMillis;
+
+    private RecordingDocumentServer() {
+      super(EasyMock.createNiceMock(ISarosSession.class));
+    }
+
+    @Override
+    public List<QueueItem> transformIncoming(final IActivity activity) {
+      final IFile file = ((JupiterActivity) activity).getResource();
+
+      if (file == failingFile) throw new IllegalStateException("transformation failed");
+
+      if (delayMillis > 0) {
+        try {
+          Thread.sleep(delayMillis);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+
+      synchronized (this) {
+        List<IActivity> activities = transformed.get(file);
+
+        if (activities == null) {
+          activities = new ArrayList<IActivity>();
+          transformed.put(file, activities);
+        }
+
+        activities.add(activity);
+        threads.add(Thread.currentThread());
+      }
+
+      final CyclicBarrier current = barrier;
+
+      if (current != null) {
+        try {
+          current.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException | BrokenBarrierException | TimeoutException e) {
+          throw new AssertionError("partitions were not transformed in parallel", e);
+        }
+      }
+
+      return Collections.singletonList(new QueueItem(BOB, activity));
+    }
+  }
+
+  @Before
+  public void setUp() {
+    files = new ArrayList<IFile>();
+
+    for (int i = 0; i < FILE_COUNT; i++) files.add(EasyMock.createNiceMock(IFile.class));
+
+    documentServer = new RecordingDocumentServer();
+    pipeline = new TransformationPipeline(documentServer);
+  }
+
+  @After
+  public void tearDown() {
+    pipeline.stop();
+  }
+
+  @Test
+  public void testResultsKeepOrder() {
+    pipeline.start(FILE_COUNT - 1);
+
+    final List<IActivity> activities = createActivities(100);
+
+    final List<QueueItem> items = pipeline.transform(activities);
+
+    assertEquals(activities.size(), items.size());
+
+    for (int i = 0; i < activities.size(); i++)
+      assertEquals("results were reordered", activities.get(i), items.get(i).activity);
+
+    for (final IFile file : files) {
+      final List<IActivity> expected = new ArrayList<IActivity>();
+
+      for (final IActivity activity : activities) {
+        if (((JupiterActivity) activity).getResource() == file) expected.add(activity);
+      }
+
+      assertEquals(
+          "activities of a file were reordered", expected, documentServer.transformed.get(file));
+    }
+  }
+
+  @Test
+  public void testPartitionsAreTransformedInParallel() {
+    pipeline.start(FILE_COUNT - 1);
+
+    documentServer.barrier = new CyclicBarrier(FILE_COUNT);
+
+    final List<QueueItem> items = pipeline.transform(createActivities(FILE_COUNT));
+
+    assertEquals(FILE_COUNT, items.size());
+    assertEquals(FILE_COUNT, documentServer.threads.size());
+  }
+
+  @Test
+  public void testCallingThreadTransformsUntilStarted() {
+    final List<QueueItem> items = pipeline.transform(createActivities(20));
+
+    assertEquals(20, items.size());
+    assertEquals(Collections.singleton(Thread.currentThread()), documentServer.threads);
+  }
+
+  @Test
+  public void testFailureOfTaskIsRethrown() {
+    pipeline.start(FILE_COUNT - 1);
+
+    // the first partition is transformed by the calling thread
+    documentServer.failingFile = files.get(1);
+
+    try {
+      pipeline.transform(createActivities(100));
+      fail("failure of a task was not rethrown");
+    } catch (IllegalStateException e) {
+      assertEquals("transformation failed", e.getMessage());
+    }
+
+    assertNull(documentServer.transformed.get(files.get(1)));
+  }
+
+  @Test
+  public void testFailureWaitsForTasks() {
+    pipeline.start(FILE_COUNT - 1);
+
+    documentServer.failingFile = files.get(0);
+    documentServer.delayMillis = 1;
+
+    try {
+      pipeline.transform(createActivities(100));
+      fail("failure of the calling thread was not rethrown");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+
+    // all other partitions must be done before the next transformation can start
+    for (int i = 1; i < FILE_COUNT; i++)
+      assertEquals(100 / FILE_COUNT, documentServer.transformed.get(files.get(i)).size());
+  }
+
+  @Test
+  public void testIsTransformed() {
+    assertTrue(TransformationPipeline.isTransformed(createActivities(1).get(0)));
+    assertTrue(
+        TransformationPipeline.isTransformed(
+            new ChecksumActivity(ALICE, files.get(0), 0, 0, null)));
+  }
+
+  /** Creates the given number of Jupiter activities, assigned to the files in turns. */
+  private List<IActivity> createActivities(final int count) {
+    final List<IActivity> activities = new ArrayList<IActivity>();
+
+    for (int i = 0; i < count; i++) {
+      activities.add(
+          new JupiterActivity(
+              new JupiterVectorTime(i, 0), new NoOperation(), ALICE, files.get(i % FILE_COUNT)));
+    }
+
+    return activities;
+  }
+}
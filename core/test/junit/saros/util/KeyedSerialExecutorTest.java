@@ -0,0 +1,186 @@
+package saros.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KeyedSerialExecutorTest {
+
+  private ExecutorService pool;
+
+  @Before
+  public void setUp() {
+    pool = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  @Test
+  public void testTasksWithSameKeyRunInOrder() throws Exception {
+    final KeyedSerialExecutor<Integer> executor = new KeyedSerialExecutor<Integer>(pool);
+
+    final int keys = 8;
+    final int tasksPerKey = 500;
+
+    final List<List<Integer>> results = new ArrayList<List<Integer>>();
+
+    for (int i = 0; i < keys; i++) results.add(new ArrayList<Integer>());
+
+    final CountDownLatch done = new CountDownLatch(keys * tasksPerKey);
+    final AtomicInteger violations = new AtomicInteger();
+
+    final AtomicInteger[] running = new AtomicInteger[keys];
+
+    for (int i = 0; i < keys; i++) running[i] = new AtomicInteger();
+
+    for (int n = 0; n < tasksPerKey; n++) {
+      for (int k = 0; k < keys; k++) {
+        final int key = k;
+        final int value = n;
+
+        executor.execute(
+            key,
+            new Runnable() {
+              @Override
+              public void run() {
+                if (running[key].incrementAndGet() != 1) violations.incrementAndGet();
+
+                results.get(key).add(value);
+                running[key].decrementAndGet();
+                done.countDown();
+              }
+            });
+      }
+    }
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(0, violations.get());
+
+    for (List<Integer> result : results) {
+      assertEquals(tasksPerKey, result.size());
+
+      for (int i = 0; i < tasksPerKey; i++) assertEquals(i, result.get(i).intValue());
+    }
+
+    assertEquals(0, executor.getPendingTaskCount());
+  }
+
+  @Test
+  public void testTasksWithDifferentKeysRunInParallel() throws Exception {
+    final KeyedSerialExecutor<String> executor = new KeyedSerialExecutor<String>(pool);
+
+    final CountDownLatch bothRunning = new CountDownLatch(2);
+    final CountDownLatch done = new CountDownLatch(2);
+
+    for (String key : new String[] {"alice", "bob"}) {
+      executor.execute(
+          key,
+          new Runnable() {
+            @Override
+            public void run() {
+              bothRunning.countDown();
+
+              try {
+                if (bothRunning.await(10, TimeUnit.SECONDS)) done.countDown();
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            }
+          });
+    }
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testFailingTaskDoesNotBlockKey() throws Exception {
+    final KeyedSerialExecutor<String> executor = new KeyedSerialExecutor<String>(pool);
+
+    final CountDownLatch done = new CountDownLatch(1);
+
+    executor.execute(
+        "alice",
+        new Runnable() {
+          @Override
+          public void run() {
+            throw new IllegalStateException("test");
+          }
+        });
+
+    executor.execute(
+        "alice",
+        new Runnable() {
+          @Override
+          public void run() {
+            done.countDown();
+          }
+        });
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testTaskThrowingErrorDoesNotBlockKey() throws Exception {
+    final KeyedSerialExecutor<String> executor = new KeyedSerialExecutor<String>(pool);
+
+    final CountDownLatch done = new CountDownLatch(1);
+
+    executor.execute(
+        "alice",
+        new Runnable() {
+          @Override
+          public void run() {
+            throw new AssertionError("test");
+          }
+        });
+
+    executor.execute(
+        "alice",
+        new Runnable() {
+          @Override
+          public void run() {
+            done.countDown();
+          }
+        });
+
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(0, executor.getPendingTaskCount());
+
+    // the lane is removed after the last task returned
+    for (int i = 0; i < 100 && executor.getActiveKeyCount() > 0; i++) Thread.sleep(10);
+
+    assertEquals(0, executor.getActiveKeyCount());
+  }
+
+  @Test
+  public void testTasksAreDiscardedAfterShutdown() {
+    final KeyedSerialExecutor<String> executor = new KeyedSerialExecutor<String>(pool);
+
+    pool.shutdown();
+
+    executor.execute(
+        "alice",
+        new Runnable() {
+          @Override
+          public void run() {
+            // NOP
+          }
+        });
+
+    assertEquals(0, executor.getPendingTaskCount());
+    assertEquals(0, executor.getActiveKeyCount());
+  }
+}
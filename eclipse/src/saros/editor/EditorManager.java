@@ -473,6 +473,11 @@ public class EditorManager implements IEditorManager {
     return LineSeparatorNormalizationUtil.normalize(content, lineSeparator);
   }
 
+  @Override
+  public String getLineSeparator(saros.filesystem.IFile wrappedFile) {
+    return FileUtil.getLineSeparator(ResourceConverter.getDelegate(wrappedFile));
+  }
+
   @Override
   public Set<saros.filesystem.IFile> getOpenEditors() {
     return openEditorFiles;
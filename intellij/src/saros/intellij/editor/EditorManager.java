@@ -52,6 +52,7 @@ import saros.session.ISessionListener;
 import saros.session.SessionEndReason;
 import saros.session.User;
 import saros.synchronize.Blockable;
+import saros.util.LineSeparatorNormalizationUtil;
 
 /** Intellij implementation of the {@link IEditorManager} interface. */
 public class EditorManager extends AbstractActivityProducer implements IEditorManager {
@@ -774,6 +775,11 @@ public class EditorManager extends AbstractActivityProducer implements IEditorMa
     return getContent(file);
   }
 
+  @Override
+  public String getLineSeparator(IFile file) {
+    return LineSeparatorNormalizationUtil.NORMALIZED_LINE_SEPARATOR;
+  }
+
   @Override
   public void addSharedEditorListener(ISharedEditorListener listener) {
     editorListenerDispatch.add(listener);